@@ -46,6 +46,12 @@
         <p>No results found.</p>
       </c:otherwise>
     </c:choose>
+    <c:if test="${not empty previousResults or not empty nextResults}">
+      <p class="results-pages">
+        <c:if test="${not empty previousResults}"><a name="previous" href="<c:out value="${previousResults}"/>">Previous results</a></c:if>
+        <c:if test="${not empty nextResults}"><a name="next" href="<c:out value="${nextResults}"/>">More results</a></c:if>
+      </p>
+    </c:if>
     <c:if test="${not empty suggestCreate}">
       <a name="create" href="<sw:wikiUrl page="${suggestCreate}"/>">Create new page <c:out value="${suggestCreate}"/></a>
     </c:if>
@@ -4,10 +4,10 @@ import java.net.*;
 import java.io.*;
 
 import net.hillsdon.reviki.vc.PageInfo;
-import net.hillsdon.reviki.wiki.renderer.macro.Macro;
 import net.hillsdon.reviki.wiki.renderer.macro.ResultFormat;
+import net.hillsdon.reviki.wiki.renderer.macro.UncacheableMacro;
 
-public class IncludeHtmlMacro implements Macro {
+public class IncludeHtmlMacro implements UncacheableMacro {
 
   public String getName() {
     return "include-html";
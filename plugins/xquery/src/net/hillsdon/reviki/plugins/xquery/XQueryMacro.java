@@ -21,15 +21,15 @@ import java.io.UnsupportedEncodingException;
 
 import net.hillsdon.fij.text.Escape;
 import net.hillsdon.reviki.vc.PageReference;
-import net.hillsdon.reviki.wiki.renderer.macro.Macro;
 import net.hillsdon.reviki.wiki.renderer.macro.ResultFormat;
+import net.hillsdon.reviki.wiki.renderer.macro.UncacheableMacro;
 import net.sf.saxon.s9api.Processor;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.Serializer;
 import net.sf.saxon.s9api.XQueryEvaluator;
 import net.sf.saxon.s9api.XQueryExecutable;
 
-public class XQueryMacro implements Macro {
+public class XQueryMacro implements UncacheableMacro {
 
   private static Serializer createSerializer(final OutputStream out) {
     Serializer serializer = new Serializer();
@@ -114,6 +114,24 @@ public abstract class MarkupRenderer<T> {
    */
   public abstract T render(final PageInfo page, final ASTNode ast, final URLOutputFilter urlOutputFilter) throws IOException, PageStoreException;
 
+  /**
+   * Like {@link #renderTo(PageInfo, ASTNode, URLOutputFilter, Appendable)},
+   * but parses the page first.
+   */
+  public final void renderTo(final PageInfo page, final URLOutputFilter urlOutputFilter, final Appendable out) throws IOException, PageStoreException {
+    renderTo(page, parse(page), urlOutputFilter, out);
+  }
+
+  /**
+   * Render a page as text, writing it out as we go rather than building it up
+   * in memory.  The default implementation appends the result of
+   * {@link #render(PageInfo, ASTNode, URLOutputFilter)}, renderers of text
+   * should override it.
+   */
+  public void renderTo(final PageInfo page, final ASTNode ast, final URLOutputFilter urlOutputFilter, final Appendable out) throws IOException, PageStoreException {
+    out.append(String.valueOf(render(page, ast, urlOutputFilter)));
+  }
+
   /**
    * Return the MIME type of the generated output.
    */
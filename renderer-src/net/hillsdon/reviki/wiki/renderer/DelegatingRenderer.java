@@ -47,6 +47,11 @@ public class DelegatingRenderer extends HtmlRenderer {
     return getRenderer(page).render(page, ast, urlOutputFilter);
   }
 
+  @Override
+  public void renderTo(final PageInfo page, final ASTNode ast, final URLOutputFilter urlOutputFilter, final Appendable out) throws IOException, PageStoreException {
+    getRenderer(page).renderTo(page, ast, urlOutputFilter, out);
+  }
+
   @Override
   public LinkPartsHandler getLinkPartsHandler() {
     return getRenderer(null).getLinkPartsHandler();
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.wiki.renderer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.util.Collections;
+
+import net.hillsdon.reviki.vc.impl.DummyPageStore;
+import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.web.urls.Configuration;
+import net.hillsdon.reviki.web.urls.InternalLinker;
+import net.hillsdon.reviki.web.urls.SimpleWikiUrls;
+import net.hillsdon.reviki.web.urls.URLOutputFilter;
+import net.hillsdon.reviki.wiki.renderer.creole.LinkResolutionContext;
+import net.hillsdon.reviki.wiki.renderer.creole.ast.ASTNode;
+
+/**
+ * Times rendering a large page to HTML, separately from parsing it, both to a
+ * String and written out as we go.
+ *
+ * Usage: RenderBenchmark [page size in characters] [iterations]
+ */
+public class RenderBenchmark {
+
+  private static final String SECTION = "== Section %d\n\n"
+      + "Some **bold** and //italic// text with a [[http://www.example.com|link]] and a WikiWord, "
+      + "then {{{inline code}}} and more words to make up a paragraph of reasonable length.\n\n"
+      + "* First item\n* Second item with **bold**\n** Nested item\n\n"
+      + "|=Heading|=Other heading|\n|Cell|//Italic cell//|\n|Another|cell|\n\n";
+
+  public static void main(final String[] args) throws Exception {
+    final int pageSize = args.length > 0 ? Integer.parseInt(args[0]) : 500 * 1024;
+    final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    final SimpleWikiUrls wikiUrls = new SimpleWikiUrls() {
+      public String pagesRoot() {
+        return "http://www.example.com/reviki/pages/test-wiki/";
+      }
+
+      public URI page(final String pageName) {
+        return URI.create(pagesRoot() + pageName);
+      }
+    };
+    final Configuration config = new SimpleFakeConfiguration("foo", "http://www.example.com/foo/Wiki?");
+    final RevikiRenderer renderer = new RevikiRenderer(new LinkResolutionContext(new InternalLinker(wikiUrls), config.getInterWikiLinker(), config, new DummyPageStore()));
+
+    final StringBuilder content = new StringBuilder(pageSize);
+    for (int i = 0; content.length() < pageSize; ++i) {
+      content.append(String.format(SECTION, i));
+    }
+    final PageInfoImpl page = new PageInfoImpl("", "BigPage", content.toString(), Collections.<String, String>emptyMap());
+    final Writer discard = new Writer() {
+      @Override
+      public void write(final char[] cbuf, final int off, final int len) throws IOException {
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+
+    for (int i = 0; i < iterations; ++i) {
+      long start = System.currentTimeMillis();
+      final ASTNode ast = renderer.parse(page);
+      final long parse = System.currentTimeMillis() - start;
+
+      start = System.currentTimeMillis();
+      final int length = renderer.render(page, ast, URLOutputFilter.NULL).length();
+      final long toString = System.currentTimeMillis() - start;
+
+      start = System.currentTimeMillis();
+      renderer.renderTo(page, ast, URLOutputFilter.NULL, discard);
+      final long toWriter = System.currentTimeMillis() - start;
+
+      System.out.println(String.format("%d characters to %d: parse %dms, render to String %dms, render to Writer %dms", content.length(), length, parse, toString, toWriter));
+    }
+  }
+
+}
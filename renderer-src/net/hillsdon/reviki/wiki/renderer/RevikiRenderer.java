@@ -1,5 +1,6 @@
 package net.hillsdon.reviki.wiki.renderer;
 
+import java.io.IOException;
 import java.util.List;
 
 import com.google.common.base.Optional;
@@ -65,8 +66,25 @@ public class RevikiRenderer extends CreoleBasedRenderer {
 
   @Override
   public String render(final PageInfo page, final ASTNode ast, final URLOutputFilter urlOutputFilter) {
-    HtmlVisitor visitor = new HtmlVisitor(urlOutputFilter);
-    return visitor.visit(ast);
+    final StringBuilder out = new StringBuilder();
+    try {
+      renderTo(page, ast, urlOutputFilter, out);
+    }
+    catch (IOException e) {
+      // StringBuilder doesn't throw.
+      throw new RuntimeException(e);
+    }
+    return out.toString();
+  }
+
+  @Override
+  public void renderTo(final PageInfo page, final ASTNode ast, final URLOutputFilter urlOutputFilter, final Appendable out) throws IOException {
+    try {
+      new HtmlVisitor(urlOutputFilter, out).visit(ast);
+    }
+    catch (AppendFailedException e) {
+      throw e.getCause();
+    }
   }
 
   @Override
@@ -74,104 +92,135 @@ public class RevikiRenderer extends CreoleBasedRenderer {
     return "text/html; charset=utf-8";
   }
 
-  private static final class HtmlVisitor extends ASTRenderer<String> {
-    public HtmlVisitor(final URLOutputFilter urlOutputFilter) {
-      super("", urlOutputFilter);
+  /**
+   * Carries an IOException from the Appendable out through the visitor.
+   */
+  private static final class AppendFailedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public AppendFailedException(final IOException cause) {
+      super(cause);
     }
 
     @Override
-    protected String combine(final String x1, final String x2) {
-      return x1 + x2;
+    public IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+
+  /**
+   * Writes HTML to an Appendable as it goes, so output isn't copied as it's
+   * built up node by node.  Every visit method returns null.
+   */
+  private static final class HtmlVisitor extends ASTRenderer<Void> {
+    private final Appendable _out;
+
+    public HtmlVisitor(final URLOutputFilter urlOutputFilter, final Appendable out) {
+      super(urlOutputFilter);
+      _out = out;
+    }
+
+    private Void append(final CharSequence... parts) {
+      try {
+        for (CharSequence part : parts) {
+          _out.append(part);
+        }
+      }
+      catch (IOException e) {
+        throw new AppendFailedException(e);
+      }
+      return null;
     }
 
     /**
      * Render a node with a tag.
      */
-    public String renderTagged(final String tag, final Optional<? extends ASTNode> node) {
+    public Void renderTagged(final String tag, final Optional<? extends ASTNode> node) {
       // Render the tag
       if (!node.isPresent()) {
-        return "<" + tag + " " + CSS_CLASS_ATTR + " />";
+        return append("<", tag, " ", CSS_CLASS_ATTR, " />");
       }
       else {
-        return "<" + tag + " " + CSS_CLASS_ATTR + ">" + visitASTNode(node.get()) + "</" + tag + ">";
+        append("<", tag, " ", CSS_CLASS_ATTR, ">");
+        visitASTNode(node.get());
+        return append("</", tag, ">");
       }
     }
 
-
     /**
     * Render some syntax-highlighted code.
     */
-    public String highlight(final String code, final String language) {
-      String codetag;
+    public Void highlight(final String code, final String language) {
       if (language.isEmpty()) {
-        codetag = "<code>";
+        append("<code>");
       }
       else {
-        codetag = String.format("<code class='%s'>", Escape.html(language));
+        append("<code class='", Escape.html(language), "'>");
       }
-      return String.format("%s%s</code>", codetag, code);
+      return append(code, "</code>");
     }
 
     @Override
-    public String visitAnchor(final Anchor node) {
-      return String.format("<a %s id=\"%s\"></a>", CSS_CLASS_ATTR, node.getAnchor());
+    public Void visitAnchor(final Anchor node) {
+      return append("<a ", CSS_CLASS_ATTR, " id=\"", node.getAnchor(), "\"></a>");
     }
 
     @Override
-    public String visitBlockquote(final Blockquote node) {
+    public Void visitBlockquote(final Blockquote node) {
       return renderTagged("blockquote", Optional.of(node));
     }
 
     @Override
-    public String visitBold(final Bold node) {
+    public Void visitBold(final Bold node) {
       return renderTagged("strong", Optional.of(node));
     }
 
     @Override
-    public String visitCode(final Code node) {
+    public Void visitCode(final Code node) {
       Optional<String> lang = node.getLanguage();
       String code = Escape.html(node.getText());
-      String out = "<pre " + CSS_CLASS_ATTR + ">";
+      append("<pre ", CSS_CLASS_ATTR, ">");
       if (lang.isPresent()) {
-        out += highlight(code, lang.get());
+        highlight(code, lang.get());
       } else {
-        out += code;
+        append(code);
       }
-      out += "</pre>";
-      return out;
+      return append("</pre>");
     }
 
     @Override
-    public String visitNowiki(final Nowiki node) {
-      return String.format("<pre %s>%s</pre>", CSS_CLASS_ATTR, Escape.html(node.getText()));
+    public Void visitNowiki(final Nowiki node) {
+      return append("<pre ", CSS_CLASS_ATTR, ">", Escape.html(node.getText()), "</pre>");
     }
 
     @Override
-    public String visitHeading(final Heading node) {
+    public Void visitHeading(final Heading node) {
       return renderTagged("h" + node.getLevel(), Optional.of(node));
     }
 
     @Override
-    public String visitHorizontalRule(final HorizontalRule node) {
+    public Void visitHorizontalRule(final HorizontalRule node) {
       return renderTagged("hr", Optional.<ASTNode> absent());
     }
 
     @Override
-    public String visitImage(final Image node) {
+    public Void visitImage(final Image node) {
       LinkPartsHandler handler = node.getHandler();
       PageInfo page = node.getPage();
       LinkParts parts = node.getParts();
 
+      String html;
       try {
-        return handler.handle(page, Escape.html(parts.getText()), parts, urlOutputFilter());
+        html = handler.handle(page, Escape.html(parts.getText()), parts, urlOutputFilter());
       }
       catch (Exception e) {
-        return Escape.html(parts.getText());
+        html = Escape.html(parts.getText());
       }
+      return append(html);
     }
 
     @Override
-    public String visitInlineCode(final InlineCode node) {
+    public Void visitInlineCode(final InlineCode node) {
       String codeClass;
       if (node.getLanguage().isPresent() && !node.getLanguage().get().isEmpty()) {
         codeClass = " " + Escape.html(node.getLanguage().get());
@@ -179,120 +228,121 @@ public class RevikiRenderer extends CreoleBasedRenderer {
       else {
         codeClass = "";
       }
-      return String.format("<code class='wiki-content inline%s'>%s</code>", codeClass, Escape.html(node.getText()));
+      return append("<code class='wiki-content inline", codeClass, "'>", Escape.html(node.getText()), "</code>");
     }
 
     @Override
-    public String visitInlineNowiki(final InlineNowiki node) {
-      return String.format("<code>%s</code>", Escape.html(node.getText()));
+    public Void visitInlineNowiki(final InlineNowiki node) {
+      return append("<code>", Escape.html(node.getText()), "</code>");
     }
 
     @Override
-    public String visitItalic(final Italic node) {
+    public Void visitItalic(final Italic node) {
       return renderTagged("em", Optional.of(node));
     }
 
     @Override
-    public String visitLinebreak(final Linebreak node) {
+    public Void visitLinebreak(final Linebreak node) {
       return renderTagged("br", Optional.<ASTNode> absent());
     }
 
     @Override
-    public String visitLink(final Link node) {
+    public Void visitLink(final Link node) {
       LinkPartsHandler handler = node.getHandler();
       PageInfo page = node.getPage();
       LinkParts parts = node.getParts();
 
+      String html;
       try {
-        return handler.handle(page, Escape.html(parts.getText()), parts, urlOutputFilter());
+        html = handler.handle(page, Escape.html(parts.getText()), parts, urlOutputFilter());
       }
       catch (Exception e) {
         // Special case: render mailto: as a link if it didn't get interwiki'd
         String target = node.getTarget();
         String title = node.getTitle();
         if (target.startsWith("mailto:")) {
-          return String.format("<a href='%s'>%s</a>", target, Escape.html(title));
+          html = String.format("<a href='%s'>%s</a>", target, Escape.html(title));
         }
         else {
-          return Escape.html(parts.getText());
+          html = Escape.html(parts.getText());
         }
       }
+      return append(html);
     }
 
     @Override
-    public String visitListItem(final ListItem node) {
+    public Void visitListItem(final ListItem node) {
       return renderTagged("li", Optional.of(node));
     }
 
     @Override
-    public String visitMacroNode(final MacroNode node) {
+    public Void visitMacroNode(final MacroNode node) {
       String tag = node.isBlock() ? "pre" : "code";
-      String inner = Escape.html(node.getText());
-      return "<" + tag + " " + CSS_CLASS_ATTR + ">" + inner + "</" + tag + ">";
+      return append("<", tag, " ", CSS_CLASS_ATTR, ">", Escape.html(node.getText()), "</", tag, ">");
     }
 
     @Override
-    public String visitOrderedList(final OrderedList node) {
+    public Void visitOrderedList(final OrderedList node) {
       return renderTagged("ol", Optional.of(node));
     }
 
     @Override
-    public String visitParagraph(final Paragraph node) {
+    public Void visitParagraph(final Paragraph node) {
       return renderTagged("p", Optional.of(node));
     }
 
     @Override
-    public String visitStrikethrough(final Strikethrough node) {
+    public Void visitStrikethrough(final Strikethrough node) {
       return renderTagged("strike", Optional.of(node));
     }
 
     @Override
-    public String visitTable(final Table node) {
+    public Void visitTable(final Table node) {
       return renderTagged("table", Optional.of(node));
     }
 
     /** Render a table cell with vertical alignment. */
-    protected String valign(final String tag, final ASTNode node) {
+    protected Void valign(final String tag, final ASTNode node) {
       if (!isEnabled(TABLE_ALIGNMENT_DIRECTIVE)) {
         return renderTagged(tag, Optional.of(node));
       }
 
+      String alignment;
       try {
-        String out = "<" + tag + " " + CSS_CLASS_ATTR;
-        out += " style='vertical-align:" + unsafeGetArgs(TABLE_ALIGNMENT_DIRECTIVE).get(0) + "'>";
-        out += visitASTNode(node);
-        out += "</" + tag + ">";
-        return out;
+        alignment = unsafeGetArgs(TABLE_ALIGNMENT_DIRECTIVE).get(0);
       }
       catch (Exception e) {
         System.err.println("Error when handling directive " + TABLE_ALIGNMENT_DIRECTIVE);
         return renderTagged(tag, Optional.of(node));
       }
+      append("<", tag, " ", CSS_CLASS_ATTR, " style='vertical-align:", alignment, "'>");
+      visitASTNode(node);
+      return append("</", tag, ">");
     }
 
     @Override
-    public String visitTableCell(final TableCell node) {
+    public Void visitTableCell(final TableCell node) {
       return valign("td", node);
     }
 
     @Override
-    public String visitTableHeaderCell(final TableHeaderCell node) {
+    public Void visitTableHeaderCell(final TableHeaderCell node) {
       return valign("th", node);
     }
 
     @Override
-    public String visitTableRow(final TableRow node) {
+    public Void visitTableRow(final TableRow node) {
       return renderTagged("tr", Optional.of(node));
     }
 
     @Override
-    public String visitTextNode(final TextNode node) {
+    public Void visitTextNode(final TextNode node) {
       String text = node.getText();
-      return node.isEscaped() ? Escape.html(text) : text;
+      return append(node.isEscaped() ? Escape.html(text) : text);
     }
 
     @Override
-    public String visitUnorderedList(final UnorderedList node) {
+    public Void visitUnorderedList(final UnorderedList node) {
       return renderTagged("ul", Optional.of(node));
     }
   }
@@ -2,8 +2,12 @@ package net.hillsdon.reviki.wiki.renderer;
 
 import com.google.common.base.Function;
 import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.web.urls.URLOutputFilter;
 import net.hillsdon.reviki.wiki.renderer.creole.RenderingTest;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Collections;
 import java.util.Map;
 
@@ -43,6 +47,32 @@ public class TestDelegatingRenderer extends RenderingTest {
     assertEquals("<h1>Default Reviki</h1>", render("file", "= Default Reviki", null));
   }
 
+  public void testRenderToAppendableMatchesRender() throws Exception {
+    final PageInfoImpl page = new PageInfoImpl("", "file.reviki", "= Heading\n\n|**Bold**|//Italic//|\n\n* [[http://example.com|Link]]", Collections.<String, String>emptyMap());
+    final StringWriter out = new StringWriter();
+    _renderer.renderTo(page, URLOutputFilter.NULL, out);
+    assertEquals(_renderer.render(page).get(), out.toString());
+  }
+
+  public void testRenderToPassesOnWriteFailures() throws Exception {
+    final IOException failure = new IOException();
+    try {
+      _renderer.renderTo(new PageInfoImpl("", "file.reviki", "= Heading", Collections.<String, String>emptyMap()), URLOutputFilter.NULL, new Writer() {
+        public void write(final char[] cbuf, final int off, final int len) throws IOException {
+          throw failure;
+        }
+        public void flush() {
+        }
+        public void close() {
+        }
+      });
+      fail();
+    }
+    catch (IOException ex) {
+      assertSame(failure, ex);
+    }
+  }
+
   private String render(final String path, final String content, final String syntax) {
     final Map<String, String> attributes = syntax == null ? Collections.<String, String>emptyMap() : Collections.singletonMap("syntax", syntax);
     String output = _renderer.render(new PageInfoImpl("", path, content, attributes)).get();
@@ -44,6 +44,14 @@ public abstract class ContextSensitiveLexer extends Lexer {
    */
   private final List<Formatting> _inlineFormatting;
 
+  /**
+   * Where things are in the input, for {@link #findBefore(String, String)}.
+   */
+  private LookaheadIndex _lookahead;
+
+  /** The input {@link #_lookahead} was built for. */
+  private CharStream _lookaheadInput;
+
   public ContextSensitiveLexer(final CharStream input) {
     super(input);
     _inlineFormatting = setupFormatting();
@@ -58,6 +66,19 @@ public abstract class ContextSensitiveLexer extends Lexer {
     super.emit(token);
   }
 
+  /**
+   * Also forgets any formatting we were in, so the lexer can be reused for
+   * another input.
+   */
+  @Override
+  public void reset() {
+    super.reset();
+    resetFormatting();
+    priorTokId = -2;
+    _lookahead = null;
+    _lookaheadInput = null;
+  }
+
   /**
    * Get a subsection of the input stream. This does NOT do bounds checking, and
    * so may throw an exception.
@@ -157,6 +178,18 @@ public abstract class ContextSensitiveLexer extends Lexer {
    *         string in the rest of the input stream.
    */
   public boolean findBeforeVerbatim(final String target, final String limit, final boolean targetAtStart, final boolean ignoreWhitespaceAtStart, final boolean skipLinks, final boolean eofIsFail) {
+    if (skipLinks && !targetAtStart && !ignoreWhitespaceAtStart && eofIsFail && LookaheadIndex.canFind(target, limit)) {
+      return lookahead().findBefore(_input.index(), target, limit);
+    }
+    return scanBefore(target, limit, targetAtStart, ignoreWhitespaceAtStart, skipLinks, eofIsFail);
+  }
+
+  /**
+   * As {@link #findBeforeVerbatim(String, String, boolean, boolean, boolean, boolean)}
+   * but reads the input rather than using the index, so takes time proportional
+   * to the distance to the answer.
+   */
+  boolean scanBefore(final String target, final String limit, final boolean targetAtStart, final boolean ignoreWhitespaceAtStart, final boolean skipLinks, final boolean eofIsFail) {
     int ilen = _input.size() - _input.index();
     int tlen = target.length();
     int llen = limit.length();
@@ -220,6 +253,17 @@ public abstract class ContextSensitiveLexer extends Lexer {
     return !eofIsFail;
   }
 
+  /**
+   * The index for the current input, built the first time it's needed.
+   */
+  private LookaheadIndex lookahead() {
+    if (_lookahead == null || _lookaheadInput != _input) {
+      _lookahead = new LookaheadIndex(_input.getText(new Interval(0, _input.size() - 1)));
+      _lookaheadInput = _input;
+    }
+    return _lookahead;
+  }
+
   /**
    * Check whether a string is the start token of some inline formatting, or if
    * it's just some plain text.
@@ -17,6 +17,15 @@ public abstract class ContextSensitiveParser extends Parser {
     super(input);
   }
 
+  @Override
+  public void reset() {
+    super.reset();
+    // Our superclass's constructor resets us before we're initialised.
+    if (_breaks != null) {
+      _breaks.clear();
+    }
+  }
+
   /** Check if we can break. The default is yes. */
   public boolean canBreak() {
     return _breaks.isEmpty() || _breaks.peek().booleanValue();
@@ -2,11 +2,16 @@ package net.hillsdon.reviki.wiki.renderer.creole;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.antlr.v4.runtime.ANTLRInputStream;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.atn.PredictionMode;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
@@ -23,16 +28,124 @@ import net.hillsdon.reviki.wiki.renderer.macro.Macro;
  * @author msw
  */
 public class CreoleRenderer {
+  private static final Log LOG = LogFactory.getLog(CreoleRenderer.class);
+
   /**
    * How deep macros will be expanded.
    */
   public static final int MACRO_DEPTH_LIMIT = 100;
 
   /**
-   * Macro expansion depth limit. This gets reset when rendering a page, but not
-   * when rendering a partial page. If it hits zero, no macros are expanded.
+   * A lexer and parser that can be used for one page after another.  The
+   * token stream between them can't be reset, but it's cheap to make.
+   *
+   * The generated lexer and parser share what they learn about the grammar
+   * (the DFA cache) between all instances, but they're not cheap to make and
+   * can only be used by one thread at a time.  So we keep a few idle ones to
+   * reuse.  Macros render their output while the page is rendered, so a
+   * thread may need more than one at once.
+   */
+  private static final class Parsing {
+    private final CreoleTokens _lexer;
+    private final Creole _parser;
+
+    public Parsing(final CreoleTokens lexer) {
+      _lexer = lexer;
+      _lexer.setInputStream(new ANTLRInputStream(""));
+      _parser = new Creole(new CommonTokenStream(_lexer));
+    }
+
+    public ParseTree parse(final ANTLRInputStream in, final PageInfo page) {
+      _lexer.setInputStream(in);
+      final CommonTokenStream tokens = new CommonTokenStream(_lexer);
+      _parser.setInputStream(tokens);
+      _parses.incrementAndGet();
+
+      // First try parsing in SLL mode. This is really fast for pages with no
+      // parse errors.
+      Optional<ParseTree> tree = tryParse(tokens, _parser, PredictionMode.SLL);
+
+      if (!tree.isPresent()) {
+        _llFallbacks.incrementAndGet();
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Parsing " + (page == null ? "content" : page.getPath()) + " again with full LL prediction");
+        }
+        tree = tryParse(tokens, _parser, PredictionMode.LL);
+      }
+
+      return tree.get();
+    }
+
+    /**
+     * Drop the input so we don't keep the page alive while we're idle.
+     */
+    public void release() {
+      _lexer.setInputStream(new ANTLRInputStream(""));
+      _parser.setInputStream(new CommonTokenStream(_lexer));
+    }
+  }
+
+  /**
+   * The most idle {@link Parsing} instances we keep.
+   */
+  private static final int MAX_IDLE = 4 * Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Shared between threads rather than kept per thread, as the servlet
+   * container's pooled threads would otherwise keep our classes loaded after
+   * the webapp is stopped.
    */
-  private static int _expansionLimit;
+  private static final BlockingQueue<Parsing> _idle = new ArrayBlockingQueue<Parsing>(MAX_IDLE);
+
+  private static final AtomicLong _parses = new AtomicLong();
+
+  private static final AtomicLong _llFallbacks = new AtomicLong();
+
+  /**
+   * Enough of most of the grammar to fill the shared DFA cache before the
+   * first real page is rendered.
+   */
+  private static final String WARM_UP_PAGE = "= Heading\n== Sub-heading ==\n\n"
+      + "Some **bold**, //italic//, --struck--, ^^super^^, ,,sub,, and ##mono## text.\\\\Line break.\n"
+      + "A [[Link]], a [[http://www.example.com|titled link]], an {{image.png}}, a WikiWord and http://www.example.com/.\n\n"
+      + "* Item\n** Nested **bold**\n# Ordered\n## Nested\n\n"
+      + "|=Heading|=Other|\n|Cell|[[Link]]|\n\n"
+      + "{{{\nPreformatted\n}}}\n\n[<java>]int x;[</java>]\n\n```\ncode\n```\n\n"
+      + "> Quoted\n\n----\n\n<<macro:argument>>\n";
+
+  /**
+   * Fill the DFA cache shared by all lexers and parsers, so the first pages
+   * rendered don't pay for it.
+   */
+  public static void warmUp() {
+    new Parsing(new CreoleTokens(null)).parse(new ANTLRInputStream(WARM_UP_PAGE), null);
+  }
+
+  /**
+   * @return How many times we've parsed a page or part of one.
+   */
+  public static long getParseCount() {
+    return _parses.get();
+  }
+
+  /**
+   * @return How many parses failed with fast SLL prediction and so were done
+   *         again with full LL prediction.
+   */
+  public static long getLLFallbackCount() {
+    return _llFallbacks.get();
+  }
+
+  private static Parsing borrow() {
+    final Parsing idle = _idle.poll();
+    return idle == null ? new Parsing(new CreoleTokens(null)) : idle;
+  }
+
+  private static void giveBack(final Parsing parsing) {
+    parsing.release();
+    // Dropped if we've enough already.
+    _idle.offer(parsing);
+  }
 
   /**
    * Try to run a parser, resetting the input on failure.
@@ -62,39 +175,25 @@ public class CreoleRenderer {
    *
    * @param in The input stream to render.
    * @param visitor The visitor to do the rendering.
-   * @param macros List of macros to apply.
-   * @param reset Whether to reset the expansion limit or not.
+   * @param context The render this is part of.
+   * @param parsing The lexer and parser to use.
    * @return The AST of the page, after macro expansion.
    */
-  private static ASTNode renderInternal(final ANTLRInputStream in, final CreoleASTBuilder visitor, final Supplier<List<Macro>> macros, final CreoleTokens lexer, final boolean reset) {
-    lexer.setInputStream(in);
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
-    Creole parser = new Creole(tokens);
+  private static ASTNode renderInternal(final ANTLRInputStream in, final CreoleASTBuilder visitor, final RenderContext context, final Parsing parsing) {
+    final ParseTree tree = parsing.parse(in, visitor.page());
 
-    // First try parsing in SLL mode. This is really fast for pages with no
-    // parse errors.
-    Optional<ParseTree> tree = tryParse(tokens, parser, PredictionMode.SLL);
+    ASTNode rendered = visitor.visit(tree);
 
-    if (!tree.isPresent()) {
-      tree = tryParse(tokens, parser, PredictionMode.LL);
+    // Expand macros, unless we're already too deep in macro output.
+    if (!context.enterExpansion()) {
+      return rendered;
     }
-
-    ASTNode rendered = visitor.visit(tree.get());
-
-    // Expand macros
-    if (reset) {
-      _expansionLimit = MACRO_DEPTH_LIMIT;
+    try {
+      return rendered.expandMacros(context);
     }
-
-    ASTNode expanded = rendered;
-
-    if (_expansionLimit > 0) {
-      _expansionLimit--;
-      expanded = rendered.expandMacros(macros);
-      _expansionLimit++;
+    finally {
+      context.leaveExpansion();
     }
-
-    return expanded;
   }
 
   /**
@@ -138,7 +237,24 @@ public class CreoleRenderer {
    * @return The AST of the page, after macro application.
    */
   public static ASTNode renderWithVisitor(final CreoleASTBuilder visitor, final Supplier<List<Macro>> macros) {
-    return renderWithLexer(visitor, new CreoleTokens(null), macros);
+    return renderWithVisitor(visitor, new RenderContext(macros));
+  }
+
+  /**
+   * Render a wiki page.
+   *
+   * @param visitor The AST builder.
+   * @param context A new context for the render.
+   * @return The AST of the page, after macro application.
+   */
+  public static ASTNode renderWithVisitor(final CreoleASTBuilder visitor, final RenderContext context) {
+    final Parsing parsing = borrow();
+    try {
+      return renderInternal(pageInput(visitor), visitor, context, parsing);
+    }
+    finally {
+      giveBack(parsing);
+    }
   }
 
   /**
@@ -150,6 +266,10 @@ public class CreoleRenderer {
    * @return The AST of the page, after macro application.
    */
   public static ASTNode renderWithLexer(final CreoleASTBuilder visitor, final CreoleTokens lexer, final Supplier<List<Macro>> macros) {
+    return renderInternal(pageInput(visitor), visitor, new RenderContext(macros), new Parsing(lexer));
+  }
+
+  private static ANTLRInputStream pageInput(final CreoleASTBuilder visitor) {
     String contents = visitor.page().getContent();
 
     // The grammar and lexer assume they'll not hit an EOF after various things,
@@ -158,7 +278,7 @@ public class CreoleRenderer {
       contents += "\n";
     }
 
-    return renderInternal(new ANTLRInputStream(contents), visitor, macros, lexer, true);
+    return new ANTLRInputStream(contents);
   }
 
   /**
@@ -186,6 +306,24 @@ public class CreoleRenderer {
    * @return The AST of the page, after macro expansion.
    */
   public static ASTNode renderPartWithVisitor(final String content, final CreoleASTBuilder visitor, final Supplier<List<Macro>> macros) {
-    return renderInternal(new ANTLRInputStream(content), visitor, macros, new CreoleTokens(null), false);
+    return renderPartWithVisitor(content, visitor, new RenderContext(macros));
+  }
+
+  /**
+   * Render only a part of a page, e.g. the output of a macro.
+   *
+   * @param content The content to render.
+   * @param visitor The AST builder.
+   * @param context The render this is part of, if any.
+   * @return The AST of the page, after macro expansion.
+   */
+  public static ASTNode renderPartWithVisitor(final String content, final CreoleASTBuilder visitor, final RenderContext context) {
+    final Parsing parsing = borrow();
+    try {
+      return renderInternal(new ANTLRInputStream(content), visitor, context, parsing);
+    }
+    finally {
+      giveBack(parsing);
+    }
   }
 }
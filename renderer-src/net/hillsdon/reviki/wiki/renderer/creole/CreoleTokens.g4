@@ -83,6 +83,16 @@ options { superClass=ContextSensitiveLexer; }
     intr = false;
   }
 
+  // Forget everything about the last input, so we can lex another.
+  @Override
+  public void reset() {
+    super.reset();
+    breakOut();
+    inTerseBlockquote = false;
+    codeType = null;
+    start = false;
+  }
+
   public void doCodeTagStart(int toMode) {
     String tag = getText();
     String start = "[<";
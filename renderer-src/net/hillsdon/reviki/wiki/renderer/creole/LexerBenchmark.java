@@ -0,0 +1,61 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.wiki.renderer.creole;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+
+/**
+ * Times lexing pages where each formatting mark has to look a long way ahead
+ * to see whether it's closed.  Lexing time should grow in proportion to the
+ * page size.
+ *
+ * Usage: LexerBenchmark [largest page size in characters] [iterations]
+ */
+public class LexerBenchmark {
+
+  private static final String[][] PAGES = {
+    {"unclosed bold", "**word "},
+    {"unclosed mixed formatting", "**one //two --three "},
+    {"formatting between links", "**[[Link|text]] {{image.png}} "},
+    {"italics and URLs", "//see http://www.example.com/ "},
+    {"list items", "* item **bold\n"},
+    {"table cells", "|cell **bold|//italic "},
+  };
+
+  public static void main(final String[] args) throws Exception {
+    final int largest = args.length > 0 ? Integer.parseInt(args[0]) : 200 * 1024;
+    final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+    for (String[] page : PAGES) {
+      for (int size = largest / 8; size <= largest; size *= 2) {
+        final StringBuilder content = new StringBuilder(size + page[1].length());
+        while (content.length() < size) {
+          content.append(page[1]);
+        }
+        final String text = content.toString();
+        long best = Long.MAX_VALUE;
+        int tokens = 0;
+        for (int i = 0; i < iterations; ++i) {
+          final long start = System.currentTimeMillis();
+          tokens = new CreoleTokens(new ANTLRInputStream(text)).getAllTokens().size();
+          best = Math.min(best, System.currentTimeMillis() - start);
+        }
+        System.out.println(String.format("%s: %d characters to %d tokens in %dms", page[0], text.length(), tokens, best));
+      }
+    }
+  }
+
+}
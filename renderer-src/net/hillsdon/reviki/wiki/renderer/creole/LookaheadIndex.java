@@ -0,0 +1,268 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.wiki.renderer.creole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the strings the lexer looks ahead for occur in its input, found once so
+ * that {@link ContextSensitiveLexer#findBefore(String, String)} needn't scan
+ * the rest of the input each time it's asked.
+ *
+ * A search skips links, so its answer depends on where it starts.  However
+ * once past the end of a link a search is in the same state wherever it
+ * started, so we remember the answer from the end of each link.
+ */
+final class LookaheadIndex {
+
+  private static final int NONE = Integer.MAX_VALUE;
+
+  private static final String LINE_START = "\\L";
+
+  private final String _text;
+  private final Map<String, int[]> _positions = new HashMap<String, int[]>();
+  private final Map<String, int[]> _targets = new HashMap<String, int[]>();
+  private final Map<String, int[][]> _lineStarts = new HashMap<String, int[][]>();
+  private final Map<String, byte[]> _answersAfterLinks = new HashMap<String, byte[]>();
+  private int[] _linkStarts;
+  private int[] _linkEnds;
+
+  LookaheadIndex(final String text) {
+    _text = text;
+  }
+
+  /**
+   * @return true if we can answer {@link #findBefore(int, String, String)} for these.
+   */
+  static boolean canFind(final String target, final String limit) {
+    if (target.length() == 0 || limit.length() == 0 || limit.equals("\\Z")) {
+      return false;
+    }
+    if (target.equals("//") && limit.startsWith("/")) {
+      // The lexer doesn't check the limit where it skips the "//" in a URL.
+      return false;
+    }
+    if (limit.startsWith(LINE_START)) {
+      // We only track the first non-whitespace character on each line.
+      return limit.length() > LINE_START.length() && limit.charAt(LINE_START.length()) > ' ';
+    }
+    return true;
+  }
+
+  /**
+   * Answers {@link ContextSensitiveLexer#findBeforeVerbatim(String, String, boolean, boolean, boolean, boolean)}
+   * skipping links, with the target anywhere on a line and EOF counting as failure.
+   *
+   * @param from Where to start looking.
+   */
+  boolean findBefore(final int from, final String target, final String limit) {
+    final int end = _text.length() - target.length();
+    final int[] linkStarts = linkStarts();
+    final int[] linkEnds = linkEnds();
+    final byte[] answers = answersAfterLinks(target, limit);
+    final List<Integer> passed = new ArrayList<Integer>();
+    int start = from;
+    boolean found;
+    while (true) {
+      final int linkStart = next(linkStarts, start);
+      final int segmentEnd = Math.min(linkStart, end);
+      final int targetAt = next(targets(target), start);
+      final int limitAt = nextLimit(limit, start);
+      if (targetAt < segmentEnd || limitAt < segmentEnd) {
+        found = targetAt <= limitAt;
+        break;
+      }
+      if (linkStart >= end) {
+        found = false;
+        break;
+      }
+      final int linkEnd = ceiling(linkEnds, linkStart + 1);
+      if (linkEnd == linkEnds.length || linkEnds[linkEnd] >= end) {
+        found = false;
+        break;
+      }
+      if (answers[linkEnd] != 0) {
+        found = answers[linkEnd] == 1;
+        break;
+      }
+      passed.add(linkEnd);
+      start = linkEnds[linkEnd];
+    }
+    for (int linkEnd : passed) {
+      answers[linkEnd] = (byte) (found ? 1 : 2);
+    }
+    return found;
+  }
+
+  /**
+   * The "//" in "http://" doesn't start italics.
+   */
+  static boolean isAfterScheme(final String text, final int position) {
+    return position >= 2 && text.charAt(position - 1) == ':' && Character.isLetter(text.charAt(position - 2));
+  }
+
+  private int nextLimit(final String limit, final int from) {
+    if (!limit.startsWith(LINE_START)) {
+      return next(positions(limit), from);
+    }
+    // Found at the whitespace before the line's first character, but only if
+    // we saw the line break.
+    final int[][] lineStarts = lineStarts(limit.substring(LINE_START.length()));
+    final int[] before = lineStarts[0];
+    final int[] lineBreaks = lineStarts[1];
+    int index = ceiling(before, from);
+    if (index < before.length && lineBreaks[index] < from) {
+      index++;
+    }
+    final int lineStart = index < before.length ? before[index] : NONE;
+    // The lexer also stops at the limit written out literally.
+    return Math.min(lineStart, next(positions(limit), from));
+  }
+
+  private int[] targets(final String target) {
+    int[] targets = _targets.get(target);
+    if (targets == null) {
+      targets = positions(target);
+      if (target.equals("//")) {
+        final IntList italics = new IntList();
+        for (int position : targets) {
+          if (!isAfterScheme(_text, position)) {
+            italics.add(position);
+          }
+        }
+        targets = italics.toArray();
+      }
+      _targets.put(target, targets);
+    }
+    return targets;
+  }
+
+  /**
+   * @return Everywhere the string starts, including overlapping occurrences.
+   */
+  private int[] positions(final String string) {
+    int[] positions = _positions.get(string);
+    if (positions == null) {
+      final IntList found = new IntList();
+      for (int i = _text.indexOf(string); i != -1; i = _text.indexOf(string, i + 1)) {
+        found.add(i);
+      }
+      positions = found.toArray();
+      _positions.put(string, positions);
+    }
+    return positions;
+  }
+
+  /**
+   * For each line whose first non-whitespace characters are those given: the
+   * position just before them, and that of the last line break before them.
+   */
+  private int[][] lineStarts(final String first) {
+    int[][] lineStarts = _lineStarts.get(first);
+    if (lineStarts == null) {
+      final IntList before = new IntList();
+      final IntList lineBreaks = new IntList();
+      int i = _text.indexOf('\n');
+      while (i != -1) {
+        int lineBreak = i;
+        int nonWhitespace = i + 1;
+        while (nonWhitespace < _text.length() && _text.charAt(nonWhitespace) <= ' ') {
+          if (_text.charAt(nonWhitespace) == '\n') {
+            lineBreak = nonWhitespace;
+          }
+          nonWhitespace++;
+        }
+        if (_text.startsWith(first, nonWhitespace)) {
+          before.add(nonWhitespace - 1);
+          lineBreaks.add(lineBreak);
+        }
+        i = _text.indexOf('\n', nonWhitespace);
+      }
+      lineStarts = new int[][] {before.toArray(), lineBreaks.toArray()};
+      _lineStarts.put(first, lineStarts);
+    }
+    return lineStarts;
+  }
+
+  private int[] linkStarts() {
+    if (_linkStarts == null) {
+      _linkStarts = merge(positions("[["), positions("{{"));
+    }
+    return _linkStarts;
+  }
+
+  private int[] linkEnds() {
+    if (_linkEnds == null) {
+      _linkEnds = merge(positions("]]"), positions("}}"));
+    }
+    return _linkEnds;
+  }
+
+  private byte[] answersAfterLinks(final String target, final String limit) {
+    final String key = target + '\0' + limit;
+    byte[] answers = _answersAfterLinks.get(key);
+    if (answers == null) {
+      answers = new byte[linkEnds().length];
+      _answersAfterLinks.put(key, answers);
+    }
+    return answers;
+  }
+
+  private static int[] merge(final int[] a, final int[] b) {
+    final int[] merged = new int[a.length + b.length];
+    System.arraycopy(a, 0, merged, 0, a.length);
+    System.arraycopy(b, 0, merged, a.length, b.length);
+    Arrays.sort(merged);
+    return merged;
+  }
+
+  /**
+   * @return The first position at or after from, or {@link #NONE}.
+   */
+  private static int next(final int[] positions, final int from) {
+    final int index = ceiling(positions, from);
+    return index < positions.length ? positions[index] : NONE;
+  }
+
+  /**
+   * @return The index of the first position at or after from.
+   */
+  private static int ceiling(final int[] positions, final int from) {
+    final int index = Arrays.binarySearch(positions, from);
+    return index >= 0 ? index : -index - 1;
+  }
+
+  private static final class IntList {
+    private int[] _values = new int[16];
+    private int _size = 0;
+
+    void add(final int value) {
+      if (_size == _values.length) {
+        _values = Arrays.copyOf(_values, _size * 2);
+      }
+      _values[_size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(_values, _size);
+    }
+  }
+
+}
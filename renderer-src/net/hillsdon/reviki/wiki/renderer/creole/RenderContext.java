@@ -0,0 +1,82 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.wiki.renderer.creole;
+
+import java.util.List;
+
+import net.hillsdon.reviki.wiki.renderer.macro.Macro;
+
+import com.google.common.base.Supplier;
+
+/**
+ * State for rendering one page, including any wiki text its macros produce.
+ *
+ * Each render has its own, so pages can be rendered concurrently.  A render
+ * happens on one thread, so this isn't thread safe.
+ */
+public final class RenderContext {
+
+  private final Supplier<List<Macro>> _macros;
+
+  private int _expansionDepthLeft;
+
+  /**
+   * @param macros The macros to expand.
+   * @param maxExpansionDepth How deeply macros in the output of macros will be
+   *          expanded.
+   */
+  public RenderContext(final Supplier<List<Macro>> macros, final int maxExpansionDepth) {
+    _macros = macros;
+    _expansionDepthLeft = maxExpansionDepth;
+  }
+
+  /**
+   * A context expanding macros up to {@link CreoleRenderer#MACRO_DEPTH_LIMIT} deep.
+   */
+  public RenderContext(final Supplier<List<Macro>> macros) {
+    this(macros, CreoleRenderer.MACRO_DEPTH_LIMIT);
+  }
+
+  public Supplier<List<Macro>> macros() {
+    return _macros;
+  }
+
+  /**
+   * @return How many more levels of macros will be expanded.
+   */
+  public int getExpansionDepthLeft() {
+    return _expansionDepthLeft;
+  }
+
+  /**
+   * Go a level deeper into macro expansion, if we're allowed to.  Must be
+   * followed by {@link #leaveExpansion()} if it returns true.
+   *
+   * @return false if we're already as deep as we can go.
+   */
+  boolean enterExpansion() {
+    if (_expansionDepthLeft <= 0) {
+      return false;
+    }
+    _expansionDepthLeft--;
+    return true;
+  }
+
+  void leaveExpansion() {
+    _expansionDepthLeft++;
+  }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.wiki.renderer.creole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.hillsdon.reviki.vc.PageInfo;
+import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.wiki.renderer.creole.ast.ASTNode;
+import net.hillsdon.reviki.wiki.renderer.creole.ast.Bold;
+import net.hillsdon.reviki.wiki.renderer.macro.Macro;
+import net.hillsdon.reviki.wiki.renderer.macro.ResultFormat;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+
+public class TestCreoleRenderer extends RenderingTest {
+
+  private static final String PAGE = "**Bold** at the start, then //italic//\n\n* Item\n\n|Cell|Cell|\n";
+
+  private PageInfo page(final String content) {
+    return new PageInfoImpl("", "Page", content, Collections.<String, String>emptyMap());
+  }
+
+  private ASTNode renderReused(final String content) {
+    return CreoleRenderer.renderWithVisitor(new Visitor(page(content), linkHandler, imageHandler), macros);
+  }
+
+  private ASTNode renderFresh(final String content) {
+    return CreoleRenderer.renderWithLexer(new Visitor(page(content), linkHandler, imageHandler), new CreoleTokens(null), macros);
+  }
+
+  public void testReusedLexerAndParserForgetThePreviousPage() {
+    final String[] leftovers = {"= Heading **bold", "* Item //italic", "|Cell --struck", "```\nunclosed code", "[<java>]unclosed", "> quote **bold", "{{{\nunclosed"};
+    for (String leftover : leftovers) {
+      renderReused(leftover);
+      assertEquals("After " + leftover, renderFresh(PAGE), renderReused(PAGE));
+    }
+  }
+
+  public void testMacroOutputIsParsedWhileThePageIsRendered() {
+    final Supplier<List<Macro>> wikiMacros = Suppliers.ofInstance((List<Macro>) ImmutableList.of(macro("outer", "//outer// <<inner:x>>"), macro("inner", "**inner** text")));
+    final long parses = CreoleRenderer.getParseCount();
+    final ASTNode rendered = CreoleRenderer.renderWithVisitor(new Visitor(page("Before <<outer:x>> after\n"), linkHandler, imageHandler), wikiMacros);
+    assertEquals(3, CreoleRenderer.getParseCount() - parses);
+    assertTrue(rendered.toStringTree().contains("Italic"));
+    assertTrue(rendered.toStringTree().contains("Bold"));
+    assertFalse(rendered.toStringTree().contains("MacroNode"));
+    assertEquals(renderFresh(PAGE), renderReused(PAGE));
+  }
+
+  public void testMacroOutputIsOnlyExpandedToTheContextsDepth() {
+    for (int depth = 0; depth < 5; depth++) {
+      assertEquals(depth, countBold(renderNested(depth)));
+    }
+  }
+
+  public void testConcurrentRendersKeepTheirOwnMacroDepth() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+      for (int i = 0; i < 200; i++) {
+        final int depth = 1 + i % 10;
+        results.add(executor.submit(new Callable<Integer>() {
+          public Integer call() {
+            return countBold(renderNested(depth));
+          }
+        }));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(1 + i % 10, results.get(i).get().intValue());
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Renders a macro whose output uses the macro again, forever.
+   */
+  private ASTNode renderNested(final int depth) {
+    final Supplier<List<Macro>> recursive = Suppliers.ofInstance((List<Macro>) ImmutableList.of(macro("again", "**again** <<again:x>> text")));
+    return CreoleRenderer.renderWithVisitor(new Visitor(page("<<again:x>>\n"), linkHandler, imageHandler), new RenderContext(recursive, depth));
+  }
+
+  private static int countBold(final ASTNode node) {
+    int bold = node instanceof Bold ? 1 : 0;
+    for (ASTNode child : node.getChildren()) {
+      bold += countBold(child);
+    }
+    return bold;
+  }
+
+  public void testWarmUp() {
+    final long parses = CreoleRenderer.getParseCount();
+    final long fallbacks = CreoleRenderer.getLLFallbackCount();
+    CreoleRenderer.warmUp();
+    assertEquals(parses + 1, CreoleRenderer.getParseCount());
+    assertEquals(fallbacks, CreoleRenderer.getLLFallbackCount());
+  }
+
+  private static Macro macro(final String name, final String output) {
+    return new Macro() {
+      public String getName() {
+        return name;
+      }
+
+      public ResultFormat getResultFormat() {
+        return ResultFormat.WIKI;
+      }
+
+      public String handle(final PageInfo page, final String remainder) {
+        return output;
+      }
+    };
+  }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.wiki.renderer.creole;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+
+/**
+ * The index must give the same answers as reading the input.
+ */
+public class TestLookaheadIndex extends TestCase {
+
+  private static final String[] TARGETS = {"**", "//", "--"};
+
+  private static final String[] LIMITS = {"**", "//", "--", "\n", "\r\n", "\n\n", "\r\n\r\n", "|", "\\L*", "\\L#"};
+
+  private static final String[] PIECES = {"**", "//", "--", "*", "/", "-", "#", "|", "\n", "\r\n", " ", "\t", "a", "bc", "[[", "]]", "{{", "}}", "http://", "x:", "\\L*"};
+
+  private static void assertSameAnswers(final String text) {
+    final CreoleTokens lexer = new CreoleTokens(new ANTLRInputStream(text));
+    for (int from = 2; from < text.length(); from++) {
+      lexer.getInputStream().seek(from);
+      for (String target : TARGETS) {
+        for (String limit : LIMITS) {
+          final boolean expected = lexer.scanBefore(target, limit, false, false, true, true);
+          assertEquals(target + " before " + limit + " from " + from + " in " + text, expected, lexer.findBefore(target, limit));
+        }
+      }
+    }
+  }
+
+  public void testSimpleCases() {
+    assertSameAnswers("xx**bold** and //italic// then **unclosed\n\n**next**");
+    assertSameAnswers("xx**a [[link**]] b** {{image//}} c//");
+    assertSameAnswers("xx**a\n * item**\n  # other**\n\\L* here**");
+    assertSameAnswers("xx see http://example.com/ and //this// too");
+    assertSameAnswers("xx**a [[never closed**");
+  }
+
+  public void testRandomInputs() {
+    final Random random = new Random(42);
+    for (int i = 0; i < 300; i++) {
+      final StringBuilder text = new StringBuilder("xx");
+      final int pieces = random.nextInt(40);
+      for (int j = 0; j < pieces; j++) {
+        text.append(PIECES[random.nextInt(PIECES.length)]);
+      }
+      assertSameAnswers(text.toString());
+    }
+  }
+
+  public void testIndexFollowsNewInput() {
+    final CreoleTokens lexer = new CreoleTokens(new ANTLRInputStream("xx**a** b"));
+    lexer.getInputStream().seek(4);
+    assertTrue(lexer.findBefore("**", "\n"));
+    lexer.setInputStream(new ANTLRInputStream("xx**a\n** b"));
+    lexer.getInputStream().seek(4);
+    assertFalse(lexer.findBefore("**", "\n"));
+  }
+
+}
@@ -4,10 +4,9 @@ import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 
-import net.hillsdon.reviki.wiki.renderer.macro.Macro;
+import net.hillsdon.reviki.wiki.renderer.creole.RenderContext;
 
 /**
  * A node in the abstract syntax tree produced by the Creole parser.
@@ -76,24 +75,24 @@ public abstract class ASTNode {
    * Expand macros contained within this node and its children, returning the
    * modified node. If no macros were expanded, `this` is returned.
    *
-   * @param macros The list of macros
+   * @param context The render, which has the macros.
    * @return A node, with macros expanded.
    */
-  public final ASTNode expandMacros(final Supplier<List<Macro>> macros) {
-    return expandMacrosInt(macros).get(0);
+  public final ASTNode expandMacros(final RenderContext context) {
+    return expandMacrosInt(context).get(0);
   }
 
   /**
    * Expand macros, where a macro may cause new nodes to come into existence.
    */
-  protected List<ASTNode> expandMacrosInt(final Supplier<List<Macro>> macros) {
+  protected List<ASTNode> expandMacrosInt(final RenderContext context) {
     // Expand all children
     boolean mutated = false;
     List<ASTNode> adoptees = new ArrayList<ASTNode>();
     List<ASTNode> expandedBits = new ArrayList<ASTNode>();
 
     for (ASTNode child : _children) {
-      List<ASTNode> expanded = child.expandMacrosInt(macros);
+      List<ASTNode> expanded = child.expandMacrosInt(context);
 
       if (expanded.size() == 1 && expanded.get(0) == child) {
         // No mutation occurred
@@ -2,10 +2,9 @@ package net.hillsdon.reviki.wiki.renderer.creole.ast;
 
 import java.util.List;
 
-import net.hillsdon.reviki.wiki.renderer.macro.Macro;
+import net.hillsdon.reviki.wiki.renderer.creole.RenderContext;
 
 import com.google.common.base.Optional;
-import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 
 public class Code extends TextNode {
@@ -28,7 +27,7 @@ public class Code extends TextNode {
   }
 
   @Override
-  public List<ASTNode> expandMacrosInt(final Supplier<List<Macro>> macros) {
+  public List<ASTNode> expandMacrosInt(final RenderContext context) {
     return ImmutableList.of((ASTNode) this);
   }
 
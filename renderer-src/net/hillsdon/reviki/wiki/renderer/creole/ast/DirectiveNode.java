@@ -2,9 +2,8 @@ package net.hillsdon.reviki.wiki.renderer.creole.ast;
 
 import java.util.List;
 
-import net.hillsdon.reviki.wiki.renderer.macro.Macro;
+import net.hillsdon.reviki.wiki.renderer.creole.RenderContext;
 
-import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 
 public class DirectiveNode extends ASTNode {
@@ -49,7 +48,7 @@ public class DirectiveNode extends ASTNode {
   }
   
   @Override
-  protected List<ASTNode> expandMacrosInt(Supplier<List<Macro>> macros) {
+  protected List<ASTNode> expandMacrosInt(RenderContext context) {
     return ImmutableList.of((ASTNode) this);
   }
 
@@ -2,7 +2,6 @@ package net.hillsdon.reviki.wiki.renderer.creole.ast;
 
 import java.util.List;
 
-import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 
 import net.hillsdon.reviki.vc.PageInfo;
@@ -10,7 +9,7 @@ import net.hillsdon.reviki.wiki.renderer.creole.CreoleLinkContentsSplitter;
 import net.hillsdon.reviki.wiki.renderer.creole.LinkParts;
 import net.hillsdon.reviki.wiki.renderer.creole.LinkPartsHandler;
 import net.hillsdon.reviki.wiki.renderer.creole.LinkResolutionContext;
-import net.hillsdon.reviki.wiki.renderer.macro.Macro;
+import net.hillsdon.reviki.wiki.renderer.creole.RenderContext;
 
 /**
  * Abstract node type for things rendered using link handlers.
@@ -79,7 +78,7 @@ public abstract class LinkNode extends ASTNode {
   }
 
   @Override
-  public List<ASTNode> expandMacrosInt(Supplier<List<Macro>> macros) {
+  public List<ASTNode> expandMacrosInt(RenderContext context) {
     return ImmutableList.of((ASTNode) this);
   }
 }
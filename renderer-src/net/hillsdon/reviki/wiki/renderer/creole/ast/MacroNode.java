@@ -5,11 +5,11 @@ import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 
 import net.hillsdon.reviki.wiki.renderer.creole.CreoleASTBuilder;
 import net.hillsdon.reviki.wiki.renderer.creole.CreoleRenderer;
+import net.hillsdon.reviki.wiki.renderer.creole.RenderContext;
 import net.hillsdon.reviki.wiki.renderer.macro.Macro;
 
 public class MacroNode extends TextNode implements BlockableNode<MacroNode> {
@@ -36,9 +36,9 @@ public class MacroNode extends TextNode implements BlockableNode<MacroNode> {
   }
 
   @Override
-  public List<ASTNode> expandMacrosInt(final Supplier<List<Macro>> macros) {
+  public List<ASTNode> expandMacrosInt(final RenderContext context) {
     // This is basically lifted from the old MacroNode.
-    List<Macro> theMacros = macros.get();
+    List<Macro> theMacros = context.macros().get();
     try {
       for (Macro macro : theMacros) {
         ASTNode out = null;
@@ -50,7 +50,7 @@ public class MacroNode extends TextNode implements BlockableNode<MacroNode> {
               out = new Raw(content);
               break;
             case WIKI:
-              out = CreoleRenderer.renderPartWithVisitor(content, _visitor, macros);
+              out = CreoleRenderer.renderPartWithVisitor(content, _visitor, context);
               break;
             default:
               out = new Plaintext(content);
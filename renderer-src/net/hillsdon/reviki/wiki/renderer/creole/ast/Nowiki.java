@@ -2,9 +2,8 @@ package net.hillsdon.reviki.wiki.renderer.creole.ast;
 
 import java.util.List;
 
-import net.hillsdon.reviki.wiki.renderer.macro.Macro;
+import net.hillsdon.reviki.wiki.renderer.creole.RenderContext;
 
-import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 
 public class Nowiki extends TextNode {
@@ -17,7 +16,7 @@ public class Nowiki extends TextNode {
   }
 
   @Override
-  public List<ASTNode> expandMacrosInt(final Supplier<List<Macro>> macros) {
+  public List<ASTNode> expandMacrosInt(final RenderContext context) {
     return ImmutableList.of((ASTNode) this);
   }
 
@@ -3,9 +3,8 @@ package net.hillsdon.reviki.wiki.renderer.creole.ast;
 import java.lang.reflect.Constructor;
 import java.util.List;
 
-import net.hillsdon.reviki.wiki.renderer.macro.Macro;
+import net.hillsdon.reviki.wiki.renderer.creole.RenderContext;
 
-import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 
 /**
@@ -82,7 +81,7 @@ public abstract class TextNode extends ASTNode {
   }
 
   @Override
-  public List<ASTNode> expandMacrosInt(final Supplier<List<Macro>> macros) {
+  public List<ASTNode> expandMacrosInt(final RenderContext context) {
     return ImmutableList.of((ASTNode) this);
   }
 }
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.fij.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes on only part of what's written, e.g. to serve a byte range from a
+ * source that can only be read from the start.
+ */
+public class RangeOutputStream extends OutputStream {
+
+  private final OutputStream _delegate;
+  private long _skip;
+  private long _remaining;
+
+  /**
+   * @param delegate Where the range is written.
+   * @param offset Bytes to discard first.
+   * @param length Bytes to pass on after that, -1 for all of them.
+   */
+  public RangeOutputStream(final OutputStream delegate, final long offset, final long length) {
+    _delegate = delegate;
+    _skip = offset;
+    _remaining = length < 0 ? Long.MAX_VALUE : length;
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) throws IOException {
+    final int skipped = (int) Math.min(_skip, len);
+    _skip -= skipped;
+    final int wanted = (int) Math.min(_remaining, len - skipped);
+    if (wanted > 0) {
+      _delegate.write(b, off + skipped, wanted);
+      _remaining -= wanted;
+    }
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    _delegate.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    _delegate.close();
+  }
+
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.fij.io;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for {@link RangeOutputStream}.
+ */
+public class TestRangeOutputStream extends TestCase {
+
+  private static String range(final long offset, final long length) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final RangeOutputStream range = new RangeOutputStream(out, offset, length);
+    range.write("abc".getBytes("UTF-8"));
+    range.write('d');
+    range.write("efghij".getBytes("UTF-8"), 1, 4);
+    return out.toString("UTF-8");
+  }
+
+  public void testPassesOnOnlyTheRangeAcrossWrites() throws Exception {
+    assertEquals("abcdfghi", range(0, -1));
+    assertEquals("cdfg", range(2, 4));
+    assertEquals("d", range(3, 1));
+    assertEquals("hi", range(6, 10));
+    assertEquals("", range(8, 2));
+    assertEquals("", range(1, 0));
+  }
+
+}
@@ -4,6 +4,9 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
+import net.hillsdon.reviki.search.impl.SearcherManager;
+import net.hillsdon.reviki.search.impl.SharedIndexWriter;
+
 
 public class ConfigureSearchIndex implements ServletContextListener {
 
@@ -13,6 +16,8 @@ public class ConfigureSearchIndex implements ServletContextListener {
 
   public void contextDestroyed(ServletContextEvent event) {
     _indexBuilder.stop();
+    SharedIndexWriter.closeAll();
+    SearcherManager.closeAll();
 
   }
 
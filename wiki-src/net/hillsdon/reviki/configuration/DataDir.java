@@ -29,6 +29,12 @@ public interface DataDir {
    * @return A search index directory specific to that identifier.
    */
   File getSearchIndexDirectory(String identifier);
+
+  /**
+   * @param identifier An identifier.
+   * @return A directory for caches of repository data specific to that identifier.
+   */
+  File getCacheDirectory(String identifier);
   
   /**
    * @return A map, may not always be persistent though.
@@ -46,6 +46,9 @@ public class PropertiesDeploymentConfiguration implements DeploymentConfiguratio
   public static final String KEY_BASE_URL = "base-url";
   public static final String KEY_PREFIX_SVN_USER = "svn-user-";
   public static final String KEY_PREFIX_SVN_PASSWORD = "svn-pass-";
+  public static final String KEY_PREFIX_SYNC_INTERVAL = "sync-interval-";
+  public static final String KEY_SYNC_INTERVAL = "sync-interval";
+  public static final long DEFAULT_SYNC_INTERVAL_SECONDS = 10;
 
   private final PersistentStringMap _properties;
   private final DataDir _dataDir;
@@ -95,6 +98,23 @@ public class PropertiesDeploymentConfiguration implements DeploymentConfiguratio
     return baseUrl;
   }
 
+  long getSyncIntervalSeconds(final String wikiName) {
+    // First wiki specific, then generic, otherwise the default.
+    String interval = getTrimToNullProperty(KEY_PREFIX_SYNC_INTERVAL + wikiName);
+    if (interval == null) {
+      interval = getTrimToNullProperty(KEY_SYNC_INTERVAL);
+    }
+    if (interval != null) {
+      try {
+        return Math.max(0, Long.parseLong(interval));
+      }
+      catch (NumberFormatException ex) {
+        LOG.error("Invalid sync interval in properties: " + interval);
+      }
+    }
+    return DEFAULT_SYNC_INTERVAL_SECONDS;
+  }
+
   private String getTrimToNullProperty(final String key) {
     return StringUtils.trimToNull(_properties.get(key));
   }
@@ -103,6 +123,10 @@ public class PropertiesDeploymentConfiguration implements DeploymentConfiguratio
     return _dataDir.getSearchIndexDirectory(wikiName);
   }
 
+  File getCacheDirectory(final String wikiName) {
+    return _dataDir.getCacheDirectory(wikiName);
+  }
+
   void setUrl(final String wikiName, final String url) throws IllegalArgumentException {
     try {
       SVNURL svnUrl = SVNURL.parseURIDecoded(url);
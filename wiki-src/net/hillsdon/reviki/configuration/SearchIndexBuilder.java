@@ -5,19 +5,29 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
 import javax.servlet.ServletContext;
 
 import net.hillsdon.reviki.search.impl.ExternalCommitAwareSearchEngine;
 import net.hillsdon.reviki.search.impl.LuceneSearcher;
 import net.hillsdon.reviki.vc.PageInfo;
-import net.hillsdon.reviki.vc.VersionedPageInfo;
-import net.hillsdon.reviki.vc.PageReference;
+import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
 import net.hillsdon.reviki.vc.PageStoreException;
 import net.hillsdon.reviki.vc.impl.AutoPropertiesApplierImpl;
+import net.hillsdon.reviki.vc.impl.BasicSVNOperations;
 import net.hillsdon.reviki.vc.impl.ConfigPageCachingPageStore;
 import net.hillsdon.reviki.vc.impl.InMemoryDeletedRevisionTracker;
+import net.hillsdon.reviki.vc.impl.LogChunkHandler;
+import net.hillsdon.reviki.vc.impl.LogEntryFilter;
 import net.hillsdon.reviki.vc.impl.RepositoryBasicSVNOperations;
 import net.hillsdon.reviki.vc.impl.SVNPageStore;
 import net.hillsdon.reviki.web.urls.InternalLinker;
@@ -41,7 +51,9 @@ import net.hillsdon.reviki.wiki.renderer.macro.Macro;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.tmatesoft.svn.core.SVNDirEntry;
 import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
 import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
 import org.tmatesoft.svn.core.io.SVNRepository;
@@ -52,11 +64,29 @@ import com.google.common.base.Supplier;
 public class SearchIndexBuilder implements Runnable {
   private static final Log LOG = LogFactory.getLog(SearchIndexBuilder.class);
 
-  private SvnWikiRenderer _renderer;
-  private ExternalCommitAwareSearchEngine _searchEngine;
-  private Plugins _plugins;
+  /**
+   * Wikis indexed at once.  Most of the time is spent waiting for SVN so this
+   * overlaps fetching for one wiki with parsing for another.
+   */
+  private static final int MAX_CONCURRENT_WIKIS = 4;
+
+  /**
+   * Threads parsing pages for each wiki.
+   */
+  private static final int PARSE_THREADS = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Remember how far a build has got every this many pages, so it can resume after a restart.
+   */
+  private static final int CHECKPOINT_INTERVAL = 1000;
+
   private Thread _thread;
-  private boolean _shuttingDown;
+  private volatile boolean _shuttingDown;
+  private final Supplier<Boolean> _cancelled = new Supplier<Boolean>() {
+    public Boolean get() {
+      return _shuttingDown;
+    }
+  };
   private final DeploymentConfiguration _configuration;
 
   public SearchIndexBuilder(ServletContext servletContext) {
@@ -81,37 +111,51 @@ public class SearchIndexBuilder implements Runnable {
 
   public void run() {
     _configuration.load();
-    for (WikiConfiguration wikiConf: _configuration.getWikis()) {
-      if(_shuttingDown) return;
-      try {
-        indexWiki(wikiConf);
-      }
-      catch(PageStoreAuthenticationException e) {
-        // writeUnsuccessful was already done
-        e.printStackTrace();
-      }
+    final Collection<WikiConfiguration> wikis = _configuration.getWikis();
+    if (wikis.isEmpty()) {
+      return;
     }
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(wikis.size(), MAX_CONCURRENT_WIKIS));
+    for (final WikiConfiguration wikiConf: wikis) {
+      executor.execute(new Runnable() {
+        public void run() {
+          if(_shuttingDown) return;
+          try {
+            indexWiki(wikiConf);
+          }
+          catch(PageStoreAuthenticationException e) {
+            // writeUnsuccessful was already done
+            e.printStackTrace();
+          }
+        }
+      });
+    }
+    executor.shutdown();
   }
 
   public void indexWiki(WikiConfiguration wikiConf) throws PageStoreAuthenticationException {
     String wikiName = wikiConf.getWikiName();
     File primarySearchDir = wikiConf.getSearchIndexDirectory();
     List<File> otherSearchDirs = wikiConf.getOtherSearchIndexDirectories();
-    // The wrapping MarkupRenderer contortion is necessary because we haven't initialised _renderer yet.
+    // The wrapping MarkupRenderer contortion is necessary because we haven't initialised the renderer yet.
+    final AtomicReference<SvnWikiRenderer> svnRenderer = new AtomicReference<SvnWikiRenderer>();
     MarkupRenderer<String> renderer = new MarkupRenderer<String>() {
       @Override
       public ASTNode parse(PageInfo page) throws IOException, PageStoreException {
-        return _renderer.parse(page);
+        return svnRenderer.get().parse(page);
       }
 
       @Override
       public String render(PageInfo page, ASTNode ast, URLOutputFilter urlOutputFilter) throws IOException, PageStoreException {
-        return _renderer.render(page, ast, urlOutputFilter);
+        return svnRenderer.get().render(page, ast, urlOutputFilter);
       }
     };
     LuceneSearcher searcher = new LuceneSearcher(wikiConf.getWikiName(), primarySearchDir, otherSearchDirs, renderer);
-    _searchEngine = new ExternalCommitAwareSearchEngine(searcher);
+    final ExternalCommitAwareSearchEngine searchEngine = new ExternalCommitAwareSearchEngine(searcher);
     long latestRevision = -1;
+    // Only set once we've finished, otherwise we resume from the last checkpoint next time.
+    Long indexedRevision = null;
+    boolean unsuccessful = false;
     try {
       DAVRepositoryFactory.setup();
       SVNRepository repository = SVNRepositoryFactory.create(wikiConf.getUrl());
@@ -120,8 +164,8 @@ public class SearchIndexBuilder implements Runnable {
       repository.setAuthenticationManager(new BasicAuthenticationManager(user, password));
       RepositoryBasicSVNOperations operations = new RepositoryBasicSVNOperations(repository, null);
       final SVNPageStore store = new SVNPageStore(wikiName, new InMemoryDeletedRevisionTracker(), operations, null, null);
-      _plugins = new PluginsImpl(store);
-      _searchEngine.setPageStore(store);
+      final Plugins plugins = new PluginsImpl(store);
+      searchEngine.setPageStore(store);
       ConfigPageCachingPageStore cachingPageStore = new ConfigPageCachingPageStore(store);
       AutoProperiesFromConfigPage autoProperties = new AutoProperiesFromConfigPage();
       autoProperties.setPageStore(cachingPageStore);
@@ -129,15 +173,15 @@ public class SearchIndexBuilder implements Runnable {
       ApplicationUrlsImpl urls = new ApplicationUrlsImpl(base, _configuration);
       WikiUrls wikiUrls = urls.get(wikiName);
       InternalLinker internalLinker = new InternalLinker(wikiUrls);
-      final WikiGraph wikiGraph = new WikiGraphImpl(cachingPageStore, _searchEngine);
-      _renderer = new SvnWikiRenderer(new PageStoreConfiguration(cachingPageStore, urls), store, internalLinker, new Supplier<List<Macro>>() {
+      final WikiGraph wikiGraph = new WikiGraphImpl(cachingPageStore, searchEngine);
+      svnRenderer.set(new SvnWikiRenderer(new PageStoreConfiguration(cachingPageStore, urls), store, internalLinker, new Supplier<List<Macro>>() {
         public List<Macro> get() {
-          List<Macro> macros = new ArrayList<Macro>(Arrays.<Macro>asList(new IncomingLinksMacro(wikiGraph), new OutgoingLinksMacro(wikiGraph), new SearchMacro(_searchEngine), new AttrMacro(store)));
-          macros.addAll(_plugins.getImplementations(Macro.class));
+          List<Macro> macros = new ArrayList<Macro>(Arrays.<Macro>asList(new IncomingLinksMacro(wikiGraph), new OutgoingLinksMacro(wikiGraph), new SearchMacro(searchEngine), new AttrMacro(store)));
+          macros.addAll(plugins.getImplementations(Macro.class));
           return macros;
         }
       },
-      new AutoPropertiesApplierImpl(autoProperties));
+      new AutoPropertiesApplierImpl(autoProperties)));
 
       latestRevision = operations.getLatestRevision();
       long latestIndexed = searcher.getHighestIndexedRevision();
@@ -149,29 +193,33 @@ public class SearchIndexBuilder implements Runnable {
       if (latestIndexed < latestRevision) {
         long start = System.currentTimeMillis();
         searcher.setIndexBeingBuilt(true);
-        final Collection<PageReference> minimized = store.getChangedBetween(latestIndexed + 1, latestRevision);
-
-        for (PageReference page : minimized) {
-          try {
-            if(_shuttingDown) return;
-            VersionedPageInfo info = store.get(page, -1);
-            if (info.isNewPage()) {
-              searcher.delete(info.getWiki(), info.getPath(), true);
-            }
-            else {
-              searcher.index(info, true);
-            }
+        // Live changes after this revision can be indexed while we build.
+        searcher.rememberIndexBuildTargetRevision(latestRevision);
+        final Map<String, Long> lastChanged = new LinkedHashMap<String, Long>();
+        operations.log("", LogEntryFilter.DESCENDANTS, latestIndexed + 1, latestRevision, BasicSVNOperations.DEFAULT_LOG_CHUNK_REVISIONS, new LogChunkHandler() {
+          public void handleChanges(final long upto, final List<ChangeInfo> chronological) {
+            SearchIndexPipeline.recordLastChanges(lastChanged, chronological);
           }
-          catch (Exception e) {
-            e.printStackTrace();
+        });
+        final Set<String> existing = new HashSet<String>();
+        for (SVNDirEntry entry : operations.ls("")) {
+          if (entry.getKind() == SVNNodeKind.FILE) {
+            existing.add(entry.getName());
           }
         }
+        new SearchIndexPipeline(wikiName, store, searcher, PARSE_THREADS, _cancelled, CHECKPOINT_INTERVAL).index(lastChanged, existing, latestRevision);
+        if(_shuttingDown) {
+          // Not finished so resume from the last checkpoint next time.
+          return;
+        }
         LOG.debug("indexed in " + (System.currentTimeMillis() - start) + "ms");
       }
+      indexedRevision = latestRevision;
     }
 
     catch (PageStoreAuthenticationException e) {
       writeUnsuccessful(searcher);
+      unsuccessful = true;
       // throw the exception, so we know it's because of authentication
       throw e;
     }
@@ -184,8 +232,33 @@ public class SearchIndexBuilder implements Runnable {
     catch (IOException e) {
       e.printStackTrace();
     }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
     finally {
-      writeIndexedRevision(searcher, latestRevision);
+      if (indexedRevision != null) {
+        writeIndexedRevision(searcher, indexedRevision);
+      }
+      else if (!unsuccessful) {
+        keepLastCheckpoint(searcher);
+      }
+      closeSearcher(searcher);
+    }
+  }
+
+  private void keepLastCheckpoint(LuceneSearcher searcher) {
+    try {
+      searcher.setIndexBeingBuilt(false);
+    } catch(IOException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  private void closeSearcher(LuceneSearcher searcher) {
+    try {
+      searcher.close();
+    } catch(IOException ex) {
+      ex.printStackTrace();
     }
   }
 
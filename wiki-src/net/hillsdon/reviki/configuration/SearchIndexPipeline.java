@@ -0,0 +1,349 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.configuration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import net.hillsdon.reviki.search.impl.LuceneSearcher;
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.PageInfo;
+import net.hillsdon.reviki.vc.PageReference;
+import net.hillsdon.reviki.vc.PageStore;
+import net.hillsdon.reviki.vc.PageStoreException;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+import net.hillsdon.reviki.vc.impl.PageReferenceImpl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+
+/**
+ * Bulk indexes pages in three stages:
+ * <ol>
+ * <li>the calling thread fetches page content in batches with {@link PageStore#getPages(Collection, long)},</li>
+ * <li>a pool of threads parses the pages into documents,</li>
+ * <li>a single thread writes the documents to the index in fetch order.</li>
+ * </ol>
+ * At most {@link #QUEUE_SIZE} pages are between fetching and writing, so
+ * fetching waits for a slow writer rather than holding the whole wiki in memory.
+ *
+ * Pages are parsed concurrently, so the searcher's renderer must keep any
+ * per-page state, such as the Creole renderer's macro expansion depth, in the
+ * render rather than in shared fields.  Pass one thread to parse in order.
+ */
+public class SearchIndexPipeline {
+
+  private static final Log LOG = LogFactory.getLog(SearchIndexPipeline.class);
+
+  /**
+   * Pages fetched per SVN request.
+   */
+  static final int FETCH_BATCH_SIZE = 50;
+
+  /**
+   * Pages fetched or being parsed that haven't yet been written.
+   */
+  static final int QUEUE_SIZE = 200;
+
+  /**
+   * Log progress every this many pages.
+   */
+  static final int PROGRESS_INTERVAL = 500;
+
+  /**
+   * A change to write to the index.
+   */
+  private interface IndexWrite {
+    void write() throws IOException;
+  }
+
+  private static final Future<IndexWrite> END = done(null);
+
+  private static Future<IndexWrite> done(final IndexWrite write) {
+    FutureTask<IndexWrite> task = new FutureTask<IndexWrite>(new Callable<IndexWrite>() {
+      public IndexWrite call() {
+        return write;
+      }
+    });
+    task.run();
+    return task;
+  }
+
+  private final String _wikiName;
+  private final PageStore _store;
+  private final LuceneSearcher _searcher;
+  private final int _threads;
+  private final Supplier<Boolean> _cancelled;
+  private final int _checkpointInterval;
+
+  /**
+   * @param wikiName For progress reporting.
+   * @param store Store to fetch pages from.
+   * @param searcher Searcher to index with.
+   * @param threads Number of threads to parse pages with, see above.
+   * @param cancelled If this becomes true we stop early.
+   * @param checkpointInterval Remember how far we've got at most every this many pages.
+   */
+  public SearchIndexPipeline(final String wikiName, final PageStore store, final LuceneSearcher searcher, final int threads, final Supplier<Boolean> cancelled, final int checkpointInterval) {
+    _wikiName = wikiName;
+    _store = store;
+    _searcher = searcher;
+    _threads = threads;
+    _cancelled = cancelled;
+    _checkpointInterval = checkpointInterval;
+  }
+
+  /**
+   * Indexes the changed pages as they are at the given revision, removing any that don't exist.
+   *
+   * Pages are indexed in order of their last change.  Every so often, once all the
+   * pages changed up to some revision have been written, that revision is
+   * remembered as the highest indexed revision, committing it together with the
+   * documents.  An interrupted build then resumes from there.
+   *
+   * @param changes The changes to index.
+   * @param existing Pages believed to exist at the revision.  These are fetched in
+   *                 batches, others (and any batch that fails) one at a time.
+   * @param revision The revision to index.
+   * @return The number of pages written.
+   * @throws InterruptedException If interrupted waiting for the other stages.
+   */
+  public int index(final Collection<ChangeInfo> changes, final Set<String> existing, final long revision) throws InterruptedException {
+    final Map<String, Long> lastChanged = new LinkedHashMap<String, Long>();
+    recordLastChanges(lastChanged, changes);
+    return index(lastChanged, existing, revision);
+  }
+
+  /**
+   * As {@link #index(Collection, Set, long)} for changes already reduced to
+   * the revision each page was last changed in by {@link #recordLastChanges(Map, Collection)}.
+   */
+  public int index(final Map<String, Long> lastChanged, final Set<String> existing, final long revision) throws InterruptedException {
+    final List<Map.Entry<String, Long>> pages = byLastChange(lastChanged);
+    final BlockingQueue<Future<IndexWrite>> queue = new ArrayBlockingQueue<Future<IndexWrite>>(QUEUE_SIZE);
+    final Writer writer = new Writer(queue, pages.size());
+    final Thread writerThread = new Thread(writer, "Search index writer for " + _wikiName);
+    final ExecutorService parsers = Executors.newFixedThreadPool(_threads);
+    writerThread.start();
+    try {
+      fetch(pages, existing, revision, queue, parsers);
+    }
+    finally {
+      queue.put(END);
+      writerThread.join();
+      parsers.shutdown();
+    }
+    LOG.info(_wikiName + ": indexed " + writer._written + " of " + pages.size() + " pages");
+    return writer._written;
+  }
+
+  /**
+   * @return Each changed page with the revision it was last changed in, oldest first.
+   */
+  static List<Map.Entry<String, Long>> byLastChange(final Collection<ChangeInfo> changes) {
+    final Map<String, Long> lastChanged = new LinkedHashMap<String, Long>();
+    recordLastChanges(lastChanged, changes);
+    return byLastChange(lastChanged);
+  }
+
+  /**
+   * Records the revision each changed page was last changed in, so the log
+   * can be reduced a chunk at a time.
+   *
+   * @param lastChanged Page name to revision, updated.
+   * @param changes Some changes, in any order.
+   */
+  public static void recordLastChanges(final Map<String, Long> lastChanged, final Collection<ChangeInfo> changes) {
+    for (ChangeInfo change : changes) {
+      if (change.getKind() == StoreKind.PAGE) {
+        final Long previous = lastChanged.get(change.getPage());
+        if (previous == null || previous < change.getRevision()) {
+          lastChanged.put(change.getPage(), change.getRevision());
+        }
+      }
+    }
+  }
+
+  private static List<Map.Entry<String, Long>> byLastChange(final Map<String, Long> lastChanged) {
+    final List<Map.Entry<String, Long>> pages = new ArrayList<Map.Entry<String, Long>>(lastChanged.entrySet());
+    Collections.sort(pages, new Comparator<Map.Entry<String, Long>>() {
+      public int compare(final Map.Entry<String, Long> o1, final Map.Entry<String, Long> o2) {
+        return o1.getValue().compareTo(o2.getValue());
+      }
+    });
+    return pages;
+  }
+
+  private void fetch(final List<Map.Entry<String, Long>> pages, final Set<String> existing, final long revision, final BlockingQueue<Future<IndexWrite>> queue, final ExecutorService parsers) throws InterruptedException {
+    final List<List<Map.Entry<String, Long>>> batches = Lists.partition(pages, FETCH_BATCH_SIZE);
+    for (int i = 0; i < batches.size(); ++i) {
+      final List<PageReference> batched = new ArrayList<PageReference>();
+      final List<PageReference> single = new ArrayList<PageReference>();
+      for (Map.Entry<String, Long> page : batches.get(i)) {
+        final PageReference ref = new PageReferenceImpl(page.getKey());
+        if (existing.contains(ref.getPath())) {
+          batched.add(ref);
+        }
+        else {
+          single.add(ref);
+        }
+      }
+      if (_cancelled.get()) {
+        return;
+      }
+      if (!batched.isEmpty()) {
+        try {
+          for (PageInfo page : _store.getPages(batched, revision)) {
+            // Blocks while the writer is behind.
+            queue.put(parsers.submit(parse(page)));
+          }
+        }
+        catch (PageStoreException ex) {
+          LOG.debug("Batch fetch failed, fetching " + batched.size() + " pages individually", ex);
+          single.addAll(batched);
+        }
+      }
+      for (PageReference page : single) {
+        if (_cancelled.get()) {
+          return;
+        }
+        try {
+          final VersionedPageInfo info = _store.get(page, -1);
+          queue.put(info.isNewPage() ? done(delete(info)) : parsers.submit(parse(info)));
+        }
+        catch (PageStoreException ex) {
+          LOG.error("Failed to fetch " + page.getPath() + " for indexing", ex);
+        }
+      }
+      // Everything changed before the next batch's oldest change has now been queued.
+      if (i + 1 < batches.size()) {
+        queue.put(done(checkpoint(batches.get(i + 1).get(0).getValue() - 1)));
+      }
+    }
+  }
+
+  private Callable<IndexWrite> parse(final PageInfo page) {
+    return new Callable<IndexWrite>() {
+      public IndexWrite call() throws IOException, PageStoreException {
+        final LuceneSearcher.IndexablePage indexable = _searcher.prepare(page);
+        return new IndexWrite() {
+          public void write() throws IOException {
+            _searcher.index(indexable, true);
+          }
+        };
+      }
+    };
+  }
+
+  private IndexWrite checkpoint(final long revision) {
+    return new Checkpoint(revision);
+  }
+
+  private IndexWrite delete(final PageInfo page) {
+    return new IndexWrite() {
+      public void write() throws IOException {
+        _searcher.delete(page.getWiki(), page.getPath(), true);
+      }
+    };
+  }
+
+  private final class Checkpoint implements IndexWrite {
+    private final long _revision;
+
+    public Checkpoint(final long revision) {
+      _revision = revision;
+    }
+
+    public void write() throws IOException {
+      // Commits the pending documents too.
+      _searcher.rememberHighestIndexedRevision(_revision);
+      LOG.debug(_wikiName + ": indexed up to revision " + _revision);
+    }
+  }
+
+  private final class Writer implements Runnable {
+    private final BlockingQueue<Future<IndexWrite>> _queue;
+    private final int _total;
+    private final long _start = System.currentTimeMillis();
+    private volatile int _written = 0;
+    private int _checkpointed = 0;
+
+    public Writer(final BlockingQueue<Future<IndexWrite>> queue, final int total) {
+      _queue = queue;
+      _total = total;
+    }
+
+    public void run() {
+      try {
+        Future<IndexWrite> next;
+        while ((next = _queue.take()) != END) {
+          if (_cancelled.get()) {
+            next.cancel(false);
+            continue;
+          }
+          try {
+            final IndexWrite write = next.get();
+            if (write instanceof Checkpoint) {
+              if (_written - _checkpointed >= _checkpointInterval) {
+                write.write();
+                _checkpointed = _written;
+              }
+              continue;
+            }
+            write.write();
+            if (++_written % PROGRESS_INTERVAL == 0) {
+              final long elapsed = Math.max(1, System.currentTimeMillis() - _start);
+              LOG.info(String.format("%s: indexed %d of %d pages (%d pages/s)", _wikiName, _written, _total, _written * 1000L / elapsed));
+            }
+          }
+          catch (ExecutionException ex) {
+            LOG.error("Failed to parse page for indexing", ex.getCause());
+          }
+          catch (IOException ex) {
+            LOG.error("Failed to write page to the index", ex);
+          }
+          catch (RuntimeException ex) {
+            // Keep going, otherwise fetching would wait for us forever.
+            LOG.error("Failed to index page", ex);
+          }
+        }
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+}
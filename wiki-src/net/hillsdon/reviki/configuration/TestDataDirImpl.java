@@ -65,6 +65,7 @@ public class TestDataDirImpl extends TestCase {
     String actual = noInitParam.getFile().getCanonicalPath();
     assertEquals(join(expectedPathPrefix, "reviki.properties"), actual);
     assertEquals(join(expectedPathPrefix, "search-index", "foo"), _dataDir.getSearchIndexDirectory("foo").getCanonicalPath());
+    assertEquals(join(expectedPathPrefix, "cache", "foo"), _dataDir.getCacheDirectory("foo").getCanonicalPath());
   }
   
 }
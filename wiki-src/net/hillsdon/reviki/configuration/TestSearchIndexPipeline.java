@@ -0,0 +1,125 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.configuration;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.search.impl.LuceneSearcher;
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.vc.impl.SimplePageStore;
+import net.hillsdon.reviki.wiki.MarkupRenderer;
+
+import com.google.common.base.Suppliers;
+
+public class TestSearchIndexPipeline extends TestCase {
+
+  private static final String WIKI = "wiki";
+
+  private File _dir;
+  private LuceneSearcher _searcher;
+  private SimplePageStore _store;
+
+  @Override
+  protected void setUp() throws Exception {
+    _dir = File.createTempFile("testDir", "");
+    assertTrue(_dir.delete());
+    assertTrue(_dir.mkdir());
+    _searcher = new LuceneSearcher(WIKI, _dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+    _store = new SimplePageStore(WIKI);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _searcher.close();
+    for (File file : _dir.listFiles()) {
+      assertTrue(file.delete());
+    }
+    assertTrue(_dir.delete());
+  }
+
+  private static ChangeInfo change(final String page, final long revision) {
+    return new ChangeInfo(page, page, "user", new Date(), revision, "", StoreKind.PAGE, ChangeType.MODIFIED, null, -1);
+  }
+
+  public void testIndexesExistingPagesAndRemovesDeletedOnes() throws Exception {
+    final List<ChangeInfo> changes = new ArrayList<ChangeInfo>();
+    final Set<String> existing = new HashSet<String>();
+    final int count = SearchIndexPipeline.FETCH_BATCH_SIZE * 3 + 1;
+    for (int i = 0; i < count; ++i) {
+      final String path = "Page" + i;
+      _store.set(new PageInfoImpl(WIKI, path, "cabbage " + i, Collections.<String, String>emptyMap()), null, 0, "");
+      changes.add(change(path, i + 1));
+      // Leave one out so it's fetched on its own.
+      if (i > 0) {
+        existing.add(path);
+      }
+    }
+    // Believed to exist but doesn't, so its batch is fetched page by page.
+    existing.add("GonePage");
+    changes.add(change("GonePage", 10));
+    _searcher.index(new PageInfoImpl(WIKI, "GonePage", "turnip", Collections.<String, String>emptyMap()), false);
+
+    final SearchIndexPipeline pipeline = new SearchIndexPipeline(WIKI, _store, _searcher, 3, Suppliers.ofInstance(false), Integer.MAX_VALUE);
+    assertEquals(count + 1, pipeline.index(changes, existing, count));
+    assertEquals(count, _searcher.search("cabbage", false, true).size());
+    assertTrue(_searcher.search("turnip", false, true).isEmpty());
+  }
+
+  public void testByLastChangeOrdersPagesOldestFirst() {
+    final List<Map.Entry<String, Long>> pages = SearchIndexPipeline.byLastChange(Arrays.asList(change("A", 1), change("B", 2), change("A", 3), change("C", 2)));
+    assertEquals(3, pages.size());
+    assertEquals("B", pages.get(0).getKey());
+    assertEquals("C", pages.get(1).getKey());
+    assertEquals("A", pages.get(2).getKey());
+    assertEquals(Long.valueOf(3), pages.get(2).getValue());
+  }
+
+  public void testCheckpointsRevisionsFullyIndexed() throws Exception {
+    final List<ChangeInfo> changes = new ArrayList<ChangeInfo>();
+    final int count = SearchIndexPipeline.FETCH_BATCH_SIZE * 3 + 1;
+    for (int i = 0; i < count; ++i) {
+      _store.set(new PageInfoImpl(WIKI, "Page" + i, "cabbage", Collections.<String, String>emptyMap()), null, 0, "");
+      changes.add(change("Page" + i, i + 1));
+    }
+    // Changed last so only indexed in the final batch.
+    changes.add(change("Page0", count + 1));
+    final SearchIndexPipeline pipeline = new SearchIndexPipeline(WIKI, _store, _searcher, 3, Suppliers.ofInstance(false), SearchIndexPipeline.FETCH_BATCH_SIZE * 2);
+    pipeline.index(changes, Collections.<String>emptySet(), count + 1);
+    // Page0 is now last.  We only checkpoint after every other batch, so once
+    // revisions up to the end of the second batch have been indexed.
+    assertEquals(SearchIndexPipeline.FETCH_BATCH_SIZE * 2 + 1, _searcher.getHighestIndexedRevision());
+  }
+
+  public void testStopsWhenCancelled() throws Exception {
+    _store.set(new PageInfoImpl(WIKI, "Page", "cabbage", Collections.<String, String>emptyMap()), null, 0, "");
+    final SearchIndexPipeline pipeline = new SearchIndexPipeline(WIKI, _store, _searcher, 3, Suppliers.ofInstance(true), 1);
+    assertEquals(0, pipeline.index(Collections.singleton(change("Page", 1)), Collections.singleton("Page"), 1));
+    assertTrue(_searcher.search("cabbage", false, true).isEmpty());
+  }
+
+}
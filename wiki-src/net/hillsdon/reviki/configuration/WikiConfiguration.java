@@ -93,6 +93,17 @@ public interface WikiConfiguration {
    */
   File getSearchIndexDirectory();
 
+  /**
+   * @return The directory to store caches of repository data in or null if not possible.
+   */
+  File getCacheDirectory();
+
+  /**
+   * @return How often to check the repository for changes in the background,
+   *         or 0 to check when handling each request instead.
+   */
+  long getSyncIntervalSeconds();
+
   /**
    * @return An array of directories to the other wikis use to store the search engine indices in.
    */
@@ -29,6 +29,12 @@ public interface Session {
    */
   void start();
 
+  /**
+   * This will call {@link org.picocontainer.Startable#stop()} on objects in the session.
+   * The session can't be used after this.
+   */
+  void stop();
+
   void configure(MutablePicoContainer container);
 
 }
@@ -39,6 +39,11 @@ public abstract class AbstractSession implements Session {
   public void start() {
     _container.start();
   }
+
+  public void stop() {
+    _container.stop();
+    _container.dispose();
+  }
   
   protected PicoContainer getParentContainer() {
     return _parentContainer;
@@ -33,11 +33,15 @@ import net.hillsdon.reviki.vc.PageStoreException;
 import net.hillsdon.reviki.vc.impl.AutoPropertiesApplier;
 import net.hillsdon.reviki.vc.impl.AutoPropertiesApplierImpl;
 import net.hillsdon.reviki.vc.impl.CachingPageStore;
+import net.hillsdon.reviki.vc.impl.ChangeLogCache;
 import net.hillsdon.reviki.vc.impl.ChangeNotificationDispatcherImpl;
 import net.hillsdon.reviki.vc.impl.ConfigPageCachingPageStore;
 import net.hillsdon.reviki.vc.impl.DeletedRevisionTracker;
+import net.hillsdon.reviki.vc.impl.DiskContentCache;
 import net.hillsdon.reviki.vc.impl.FixedMimeIdentifier;
-import net.hillsdon.reviki.vc.impl.InMemoryDeletedRevisionTracker;
+import net.hillsdon.reviki.vc.impl.LockTable;
+import net.hillsdon.reviki.vc.impl.PageContentCache;
+import net.hillsdon.reviki.vc.impl.PersistentDeletedRevisionTracker;
 import net.hillsdon.reviki.web.dispatching.ResourceHandler;
 import net.hillsdon.reviki.web.dispatching.WikiHandler;
 import net.hillsdon.reviki.web.dispatching.impl.ResourceHandlerImpl;
@@ -63,6 +67,7 @@ import net.hillsdon.reviki.web.urls.URLOutputFilter;
 import net.hillsdon.reviki.web.urls.impl.PageStoreConfiguration;
 import net.hillsdon.reviki.web.urls.impl.WikiUrlsImpl;
 import net.hillsdon.reviki.web.vcintegration.AutoProperiesFromConfigPage;
+import net.hillsdon.reviki.web.vcintegration.BackgroundChangeSync;
 import net.hillsdon.reviki.web.vcintegration.BasicAuthPassThroughBasicSVNOperationsFactory;
 import net.hillsdon.reviki.web.vcintegration.PerRequestPageStoreFactory;
 import net.hillsdon.reviki.web.vcintegration.RequestLifecycleAwareManager;
@@ -79,23 +84,42 @@ import net.hillsdon.reviki.wiki.macros.IncomingLinksMacro;
 import net.hillsdon.reviki.wiki.macros.OutgoingLinksMacro;
 import net.hillsdon.reviki.wiki.macros.SearchMacro;
 import net.hillsdon.reviki.wiki.plugin.PluginsImpl;
+import net.hillsdon.reviki.wiki.renderer.RenderedPageCache;
 import net.hillsdon.reviki.wiki.renderer.SvnWikiRenderer;
 import net.hillsdon.reviki.wiki.renderer.creole.ast.ASTNode;
 import net.hillsdon.reviki.wiki.renderer.macro.Macro;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.picocontainer.MutablePicoContainer;
 
 import com.google.common.base.Supplier;
 
 public class WikiSessionImpl extends AbstractSession implements WikiSession {
 
+  private static final Log LOG = LogFactory.getLog(WikiSessionImpl.class);
+
   private SvnWikiRenderer _renderer;
   private PluginsImpl _plugins;
+  private ChangeLogCache _changeLog;
 
   public WikiSessionImpl(final ApplicationSessionImpl parent, final WikiConfiguration configuration) {
     super(parent, configuration);
   }
 
+  @Override
+  public void stop() {
+    super.stop();
+    if (_changeLog != null) {
+      try {
+        _changeLog.close();
+      }
+      catch (IOException ex) {
+        LOG.warn("Failed to close the change log cache", ex);
+      }
+    }
+  }
+
   public WikiHandler getWikiHandler() {
     return getContainer().getComponent(WikiHandlerImpl.class);
   }
@@ -130,19 +154,26 @@ public class WikiSessionImpl extends AbstractSession implements WikiSession {
     RequestScopedThreadLocalBasicSVNOperations operations = new RequestScopedThreadLocalBasicSVNOperations(new BasicAuthPassThroughBasicSVNOperationsFactory(configuration.getUrl(), autoPropertiesApplier));
     BasicAuthAwareSearchEngine authSearch = new BasicAuthAwareSearchEngine(new LuceneSearcher(configuration.getWikiName(), primarySearchDir, otherSearchDirs, renderer), getParentContainer().getComponent(DeploymentConfiguration.class));
     final ExternalCommitAwareSearchEngine searchEngine = new ExternalCommitAwareSearchEngine(authSearch);
-    DeletedRevisionTracker tracker = new InMemoryDeletedRevisionTracker();
-    Supplier<PageStore> pageStoreFactory = new PerRequestPageStoreFactory(configuration.getWikiName(), searchEngine, tracker, operations, autoPropertiesApplier, new FixedMimeIdentifier());
+    DeletedRevisionTracker tracker = new PersistentDeletedRevisionTracker(configuration.getCacheDirectory(), configuration.getUrl().toString());
+    ChangeLogCache changeLog = createChangeLog(configuration);
+    _changeLog = changeLog;
+    PageContentCache contentCache = new PageContentCache();
+    LockTable locks = new LockTable();
+    DiskContentCache diskCache = createDiskCache(configuration);
+    Supplier<PageStore> pageStoreFactory = new PerRequestPageStoreFactory(configuration.getWikiName(), searchEngine, tracker, changeLog, contentCache, locks, diskCache, operations, autoPropertiesApplier, new FixedMimeIdentifier());
     final RequestScopedPageStore pageStore = new RequestScopedPageStore(pageStoreFactory);
     ConfigPageCachingPageStore cachingPageStore = new ConfigPageCachingPageStore(pageStore);
     PageStoreConfiguration pageStoreConfiguration = new PageStoreConfiguration(cachingPageStore, applicationUrls);
     final WikiGraph wikiGraph = new WikiGraphImpl(cachingPageStore, searchEngine);
-    _renderer = new SvnWikiRenderer(pageStoreConfiguration, pageStore, internalLinker, new Supplier<List<Macro>>() {
+    // Records what each page's HTML depends on, so it can be cached until that changes.
+    RenderedPageCache renderedPages = new RenderedPageCache();
+    _renderer = new SvnWikiRenderer(pageStoreConfiguration, renderedPages.recordingStore(pageStore), internalLinker, renderedPages.recordingMacros(new Supplier<List<Macro>>() {
       public List<Macro> get() {
         List<Macro> macros = new ArrayList<Macro>(Arrays.<Macro>asList(new IncomingLinksMacro(wikiGraph), new OutgoingLinksMacro(wikiGraph), new SearchMacro(searchEngine), new AttrMacro(pageStore)));
         macros.addAll(_plugins.getImplementations(Macro.class));
         return macros;
       }
-    }, autoPropertiesApplier);
+    }), autoPropertiesApplier);
 
     _plugins = new PluginsImpl(pageStore);
     searchEngine.setPageStore(pageStore);
@@ -152,6 +183,14 @@ public class WikiSessionImpl extends AbstractSession implements WikiSession {
 
     container.addComponent(authSearch.getRequestLifecycleAware()); // This needs adding so that RequestLifecycleAwareness works, but it shouldn't show up as the search engine
     container.addComponent(tracker);
+    if (changeLog != null) {
+      container.addComponent(changeLog);
+    }
+    container.addComponent(contentCache);
+    container.addComponent(renderedPages);
+    if (diskCache != null) {
+      container.addComponent(diskCache);
+    }
     container.addComponent(operations);
     container.addComponent(PageStore.class, pageStore);
     container.addComponent(CachingPageStore.class, cachingPageStore);
@@ -185,10 +224,39 @@ public class WikiSessionImpl extends AbstractSession implements WikiSession {
     _plugins.addPluginAccessibleComponent(searchEngine);
 
     container.addComponent(ChangeNotificationDispatcherImpl.class);
+    container.addComponent(BackgroundChangeSync.class);
 
     container.addComponent(WikiSession.class, this);
     container.addComponent(WikiHandlerImpl.class, WikiHandlerImpl.class);
     container.addComponent(ResourceHandler.class, ResourceHandlerImpl.class);
   }
 
+  private static ChangeLogCache createChangeLog(final WikiConfiguration configuration) {
+    File dir = configuration.getCacheDirectory();
+    if (dir == null) {
+      return null;
+    }
+    try {
+      return new ChangeLogCache(dir, configuration.getUrl().toString());
+    }
+    catch (IOException ex) {
+      LOG.error("Failed to open the change log cache in " + dir + ", using the repository log instead", ex);
+      return null;
+    }
+  }
+
+  private static DiskContentCache createDiskCache(final WikiConfiguration configuration) {
+    File dir = configuration.getCacheDirectory();
+    if (dir == null) {
+      return null;
+    }
+    try {
+      return new DiskContentCache(dir, configuration.getUrl().toString());
+    }
+    catch (IOException ex) {
+      LOG.error("Failed to open the content cache in " + dir + ", reading content from the repository instead", ex);
+      return null;
+    }
+  }
+
 }
@@ -41,6 +41,22 @@ public interface SearchEngine {
    */
   Set<SearchMatch> search(String query, boolean provideExtracts, boolean singleWiki) throws IOException, QuerySyntaxException, PageStoreException;
 
+  /**
+   * Search for a page of results.  Only the top matches up to the end of the page
+   * are collected and extracts are only provided for the matches returned.
+   *
+   * @param query Query.
+   * @param provideExtracts true if extracts from the matching text should be provided in the returned matches (slower).
+   * @param singleWiki true if the search should be restricted to the current wiki.
+   * @param offset The number of matches to skip.
+   * @param limit The maximum number of matches to return.
+   * @return Matches for the query, in rank order.
+   * @throws IOException On error reading the search index.
+   * @throws QuerySyntaxException If the query is too broken to use.
+   * @throws PageStoreException If an error occurs reading wiki-data.
+   */
+  Set<SearchMatch> search(String query, boolean provideExtracts, boolean singleWiki, int offset, int limit) throws IOException, QuerySyntaxException, PageStoreException;
+
   /**
    * @param page A page.
    * @return Outgoing links from that page, excluding that page.
@@ -79,6 +95,18 @@ public interface SearchEngine {
    */
   void rememberHighestIndexedRevision(long revision) throws IOException;
 
+  /**
+   * @return The revision the index build in progress is bringing the index up to, -1 if unknown.
+   * @throws IOException On error reading from the search index.
+   */
+  long getIndexBuildTargetRevision() throws IOException;
+
+  /**
+   * @param revision The revision the index build in progress is bringing the index up to.
+   * @throws IOException On error writing to the search index.
+   */
+  void rememberIndexBuildTargetRevision(long revision) throws IOException;
+
   /**
    * @return True if the index is currently being built, false otherwise.
    * @throws IOException On error reading from the search index.
@@ -22,6 +22,8 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -40,8 +42,6 @@ import net.hillsdon.reviki.web.vcintegration.BasicAuthPassThroughBasicSVNOperati
 import net.hillsdon.reviki.web.vcintegration.RequestLifecycleAware;
 import net.hillsdon.reviki.web.vcintegration.RequestScopedThreadLocalBasicSVNOperations;
 
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.collections.Predicate;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -57,6 +57,7 @@ public class BasicAuthAwareSearchEngine implements SearchEngine {
   private final SearchEngine _delegate;
   private final DeploymentConfiguration _config;
   private final ThreadLocal<HttpServletRequest> _request = new ThreadLocal<HttpServletRequest>();
+  private final ConcurrentMap<String, BasicAuthPassThroughBasicSVNOperationsFactory> _operationsFactories = new ConcurrentHashMap<String, BasicAuthPassThroughBasicSVNOperationsFactory>();
 
   public BasicAuthAwareSearchEngine(final SearchEngine delegate, final DeploymentConfiguration config) {
     _delegate = delegate;
@@ -80,11 +81,35 @@ public class BasicAuthAwareSearchEngine implements SearchEngine {
     _delegate.index(page, buildingIndex);
   }
 
+  /**
+   * One per repository URL so repository sessions are pooled across searches.
+   */
+  private BasicAuthPassThroughBasicSVNOperationsFactory getOperationsFactory(final WikiConfiguration configuration) {
+    final String url = configuration.getUrl().toString();
+    BasicAuthPassThroughBasicSVNOperationsFactory factory = _operationsFactories.get(url);
+    if (factory == null) {
+      factory = new BasicAuthPassThroughBasicSVNOperationsFactory(configuration.getUrl(), new AutoPropertiesApplierImpl(new AutoProperties() {
+        public Map<String, String> read() {
+          return new LinkedHashMap<String, String>();
+        }
+      }));
+      final BasicAuthPassThroughBasicSVNOperationsFactory existing = _operationsFactories.putIfAbsent(url, factory);
+      if (existing != null) {
+        factory = existing;
+      }
+    }
+    return factory;
+  }
+
   public boolean isRestrictedWiki(final WikiConfiguration wiki) {
     return !(null == wiki.getSVNUser() || "".equals(wiki.getSVNUser()));
   }
 
   public Set<SearchMatch> search(final String query, final boolean provideExtracts, boolean singleWiki) throws IOException, QuerySyntaxException, PageStoreException {
+    return search(query, provideExtracts, singleWiki, 0, Integer.MAX_VALUE);
+  }
+
+  public Set<SearchMatch> search(final String query, final boolean provideExtracts, final boolean singleWiki, final int offset, final int limit) throws IOException, QuerySyntaxException, PageStoreException {
     // Assuming that there are any restricted wikis configured then to avoid leaking any information we must either:
     // 1) Silently drop restricted results, or
     // 2) Ask the user to log in whether or not their query results in hits to a restricted wiki.
@@ -92,59 +117,88 @@ public class BasicAuthAwareSearchEngine implements SearchEngine {
     // None of this applies if the search is restricted to a single wiki (i.e. the current wiki, which occurs when using the SearchMacro, https://jira.int.corefiling.com/browse/REVIKI-654)
     if ((_request.get().getHeader("Authorization") == null)
         && !singleWiki
-        && !ViewTypeConstants.is(_request.get(), CTYPE_TEXT)) {
-      for (WikiConfiguration wiki: _config.getWikis()) {
-        if (isRestrictedWiki(wiki)) {
-          throw new PageStoreAuthenticationException("Log in to obtain search results");
-        }
-      }
+        && !ViewTypeConstants.is(_request.get(), CTYPE_TEXT)
+        && anyRestrictedWiki()) {
+      throw new PageStoreAuthenticationException("Log in to obtain search results");
     }
+    if (!anyRestrictedWiki()) {
+      return _delegate.search(query, provideExtracts, singleWiki, offset, limit);
+    }
+    // Filter before paging, otherwise a page comes back short and the offsets
+    // of later pages count matches the user never saw.  So we page through the
+    // delegate's matches until we've skipped and filled the requested page.
     final Map<String, Boolean> wikiAccessOkCache = new LinkedHashMap<String, Boolean>();
-	  Set<SearchMatch> results = new LinkedHashSet<SearchMatch>();
-    results.addAll(_delegate.search(query, provideExtracts, singleWiki));
-    CollectionUtils.filter(results, new Predicate() {
-      @Override
-      public boolean evaluate(final Object o) {
-        final SearchMatch match = (SearchMatch) o;
-        Boolean accessOk = wikiAccessOkCache.get(match.getWiki());
-        if (accessOk == null) {
-          // Determine if the user is allowed access to the matched wiki, based on:
-          // * Whether or not a username and password are required to index the wiki, if not then assume everyone is allowed access 
-          // * If a username is required then determine if the current user has access.  This is slower, hence the short circuit described in the first point.
-          try {
-            WikiConfiguration configuration = _config.getConfiguration(match.getWiki());
-            if (isRestrictedWiki(configuration)) {
-              RequestScopedThreadLocalBasicSVNOperations operations = new RequestScopedThreadLocalBasicSVNOperations(new BasicAuthPassThroughBasicSVNOperationsFactory(configuration.getUrl(), new AutoPropertiesApplierImpl(new AutoProperties() {
-                public Map<String, String> read() {
-                  return new LinkedHashMap<String, String>();
-                }
-              })));
-              operations.create(_request.get());
-              try {
-                operations.checkPath(match.getPage(), -1);
-              }
-              finally {
-                operations.destroy();
-              }
-            }
-            accessOk = true;
+    final Set<SearchMatch> results = new LinkedHashSet<SearchMatch>();
+    final int chunk = limit > Integer.MAX_VALUE - offset ? Integer.MAX_VALUE : offset + limit;
+    int toSkip = offset;
+    for (int from = 0; results.size() < limit; from += chunk) {
+      final Set<SearchMatch> matches = _delegate.search(query, provideExtracts, singleWiki, from, chunk);
+      for (SearchMatch match : matches) {
+        if (results.size() < limit && isAccessible(match, wikiAccessOkCache)) {
+          if (toSkip > 0) {
+            toSkip--;
           }
-          catch (PageStoreAuthenticationException ex) {
-            accessOk = false;
+          else {
+            results.add(match);
           }
-          catch (PageStoreException ex) { 
-            LOG.error("Exception determining access to wiki: " + match.getWiki(), ex);
-            return false;
-          }
-          wikiAccessOkCache.put(match.getWiki(), accessOk);
-          LOG.debug("access to results in " + match.getWiki() + ": " + accessOk);
         }
-        return accessOk;
       }
-    });
+      if (matches.size() < chunk) {
+        break;
+      }
+    }
     return results;
   }
 
+  private boolean anyRestrictedWiki() {
+    for (WikiConfiguration wiki : _config.getWikis()) {
+      if (isRestrictedWiki(wiki)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isAccessible(final SearchMatch match, final Map<String, Boolean> wikiAccessOkCache) {
+    Boolean accessOk = wikiAccessOkCache.get(match.getWiki());
+    if (accessOk == null) {
+      // Determine if the user is allowed access to the matched wiki, based on:
+      // * Whether or not a username and password are required to index the wiki, if not then assume everyone is allowed access 
+      // * If a username is required then determine if the current user has access.  This is slower, hence the short circuit described in the first point.
+      try {
+        WikiConfiguration configuration = _config.getConfiguration(match.getWiki());
+        if (isRestrictedWiki(configuration)) {
+          checkAccess(configuration, match.getPage());
+        }
+        accessOk = true;
+      }
+      catch (PageStoreAuthenticationException ex) {
+        accessOk = false;
+      }
+      catch (PageStoreException ex) { 
+        LOG.error("Exception determining access to wiki: " + match.getWiki(), ex);
+        return false;
+      }
+      wikiAccessOkCache.put(match.getWiki(), accessOk);
+      LOG.debug("access to results in " + match.getWiki() + ": " + accessOk);
+    }
+    return accessOk;
+  }
+
+  /**
+   * @throws PageStoreAuthenticationException If the current user can't read the page.
+   */
+  void checkAccess(final WikiConfiguration configuration, final String page) throws PageStoreAuthenticationException, PageStoreException {
+    RequestScopedThreadLocalBasicSVNOperations operations = new RequestScopedThreadLocalBasicSVNOperations(getOperationsFactory(configuration));
+    operations.create(_request.get());
+    try {
+      operations.checkPath(page, -1);
+    }
+    finally {
+      operations.destroy();
+    }
+  }
+
   public long getHighestSyncedRevision() throws IOException {
     return _delegate.getHighestIndexedRevision();
   }
@@ -157,6 +211,14 @@ public class BasicAuthAwareSearchEngine implements SearchEngine {
     _delegate.rememberHighestIndexedRevision(revision);
   }
 
+  public long getIndexBuildTargetRevision() throws IOException {
+    return _delegate.getIndexBuildTargetRevision();
+  }
+
+  public void rememberIndexBuildTargetRevision(final long revision) throws IOException {
+    _delegate.rememberIndexBuildTargetRevision(revision);
+  }
+
   public boolean isIndexBeingBuilt() throws IOException {
     return _delegate.isIndexBeingBuilt();
   }
@@ -16,6 +16,7 @@
 package net.hillsdon.reviki.search.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -50,6 +51,7 @@ public class ExternalCommitAwareSearchEngine implements SearchEngine, ChangeSubs
 
   private PageStore _store;
   private final SearchEngine _delegate;
+  private long _indexedDuringBuildUpto = -1;
 
   public ExternalCommitAwareSearchEngine(final SearchEngine delegate) {
     _delegate = delegate;
@@ -70,41 +72,74 @@ public class ExternalCommitAwareSearchEngine implements SearchEngine, ChangeSubs
     return _delegate.search(query, provideExtracts, singleWiki);
   }
 
+  public Set<SearchMatch> search(final String query, final boolean provideExtracts, final boolean singleWiki, final int offset, final int limit) throws IOException, QuerySyntaxException, PageStoreException {
+    return _delegate.search(query, provideExtracts, singleWiki, offset, limit);
+  }
+
   public long getHighestSyncedRevision() throws IOException {
     return _delegate.getHighestIndexedRevision();
   }
 
   public synchronized void handleChanges(final long upto, final List<ChangeInfo> chronological) throws PageStoreException, IOException {
     if(_delegate.getHighestIndexedRevision() == -1 && !_delegate.isIndexBeingBuilt()) throw new PageStoreException(new Exception("Search index couldn't be built, please provide valid SVN authentication details in ConfigSvnLocation page."));
-    final boolean newDataToIndex = _delegate.getHighestIndexedRevision() >= 0 && !_delegate.isIndexBeingBuilt();
+    if (_delegate.isIndexBeingBuilt()) {
+      indexChangesDuringBuild(upto, chronological);
+      return;
+    }
+    final boolean newDataToIndex = _delegate.getHighestIndexedRevision() >= 0;
     if (newDataToIndex) {
       _delegate.setIndexBeingBuilt(true);
-      // We're going to work from head for the indexing so collapse edits down to page names.
-      final Set<PageReference> minimized = new LinkedHashSet<PageReference>();
-      for (ChangeInfo change : chronological) {
-        if (change.getKind() == StoreKind.PAGE) {
-          minimized.add(new PageReferenceImpl(change.getPage()));
-        }
+      indexChanges(chronological);
+      _delegate.rememberHighestIndexedRevision(upto);
+      _delegate.setIndexBeingBuilt(false);
+    }
+  }
+
+  /**
+   * The build only covers changes up to its target revision so we index later
+   * changes as they happen.  The build may then overwrite a page with its content
+   * at the target revision but we don't remember having indexed these changes so
+   * they're indexed again once the build has finished.
+   */
+  private void indexChangesDuringBuild(final long upto, final List<ChangeInfo> chronological) throws IOException {
+    final long after = Math.max(_delegate.getIndexBuildTargetRevision(), _indexedDuringBuildUpto);
+    if (after < 0) {
+      return;
+    }
+    final List<ChangeInfo> later = new ArrayList<ChangeInfo>();
+    for (ChangeInfo change : chronological) {
+      if (change.getRevision() > after) {
+        later.add(change);
       }
-      for (PageReference page : minimized) {
-        try {
-          VersionedPageInfo info = _store.get(page, -1);
-          // Note we pass 'upto' as the revision here.  At the moment we get
-          // back the revision of deleted pages as -2 which isn't such a good
-          // thing to set our 'highest indexed revision' to...
-          if (info.isNewPage()) {
-            _delegate.delete(info.getWiki(), info.getPath(), true);
-          }
-          else {
-            _delegate.index(info, true);
-          }
+    }
+    indexChanges(later);
+    _indexedDuringBuildUpto = upto;
+  }
+
+  private void indexChanges(final List<ChangeInfo> chronological) {
+    // We're going to work from head for the indexing so collapse edits down to page names.
+    final Set<PageReference> minimized = new LinkedHashSet<PageReference>();
+    for (ChangeInfo change : chronological) {
+      if (change.getKind() == StoreKind.PAGE) {
+        minimized.add(new PageReferenceImpl(change.getPage()));
+      }
+    }
+    for (PageReference page : minimized) {
+      try {
+        VersionedPageInfo info = _store.get(page, -1);
+        // Note we pass 'upto' as the revision here.  At the moment we get
+        // back the revision of deleted pages as -2 which isn't such a good
+        // thing to set our 'highest indexed revision' to...
+        if (info.isNewPage()) {
+          _delegate.delete(info.getWiki(), info.getPath(), true);
         }
-        catch (Exception ex) {
-          LOG.error(ex);
+        else {
+          _delegate.index(info, true);
         }
       }
-      _delegate.rememberHighestIndexedRevision(upto);
-      _delegate.setIndexBeingBuilt(false);
+      catch (Exception ex) {
+        LOG.error(ex);
+      }
     }
   }
 
@@ -116,6 +151,14 @@ public class ExternalCommitAwareSearchEngine implements SearchEngine, ChangeSubs
     _delegate.rememberHighestIndexedRevision(revision);
   }
 
+  public long getIndexBuildTargetRevision() throws IOException {
+    return _delegate.getIndexBuildTargetRevision();
+  }
+
+  public void rememberIndexBuildTargetRevision(final long revision) throws IOException {
+    _delegate.rememberIndexBuildTargetRevision(revision);
+  }
+
   public boolean isIndexBeingBuilt() throws IOException {
     return _delegate.isIndexBeingBuilt();
   }
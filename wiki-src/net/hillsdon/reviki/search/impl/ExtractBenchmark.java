@@ -0,0 +1,116 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Random;
+
+import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.wiki.MarkupRenderer;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
+import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+
+/**
+ * Compares the cost of building search extracts for large pages by analyzing
+ * the stored content again with that of using the indexed term vector.
+ *
+ * Usage: ExtractBenchmark [pages] [page size in characters] [iterations]
+ */
+public class ExtractBenchmark {
+
+  private static final String[] WORDS = {"cabbage", "patch", "kings", "sealing", "wax", "ships", "shoes", "walrus", "carpenter", "oysters", "running", "wiki", "pages", "revision", "search"};
+
+  public static void main(final String[] args) throws Exception {
+    final int pages = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    final int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : 100 * 1024;
+    final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    final File dir = File.createTempFile("extractBenchmark", "");
+    if (!dir.delete() || !dir.mkdir()) {
+      throw new IOException("Failed to create " + dir);
+    }
+    final LuceneSearcher searcher = new LuceneSearcher("wiki", dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+    try {
+      final Random random = new Random(42);
+      for (int i = 0; i < pages; ++i) {
+        searcher.index(new PageInfoImpl("wiki", "Page" + i, createContent(random, pageSize), Collections.<String, String>emptyMap()), true);
+      }
+      // Batched as when building the index, so commit before we read it.
+      SharedIndexWriter.commitIfOpen(dir);
+      final Analyzer analyzer = searcher.createAnalyzer();
+      final IndexReader reader = IndexReader.open(dir);
+      final IndexSearcher indexSearcher = new IndexSearcher(reader);
+      try {
+        final Query query = new TermQuery(new Term("content", "walru"));
+        final Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<strong>", "</strong>"), new SimpleHTMLEncoder(), new QueryScorer(query, "content"));
+        highlighter.setMaxDocBytesToAnalyze(pageSize);
+        for (int i = 0; i < iterations; ++i) {
+          final long analyzed = time(reader, indexSearcher, analyzer, highlighter, false);
+          final long termVector = time(reader, indexSearcher, analyzer, highlighter, true);
+          System.out.println(String.format("%d pages of %d characters: re-analysis %dms, term vectors %dms", pages, pageSize, analyzed, termVector));
+        }
+        final long start = System.currentTimeMillis();
+        final int matches = searcher.search("walrus", true, true).size();
+        System.out.println(String.format("Search with extracts: %d matches in %dms", matches, System.currentTimeMillis() - start));
+      }
+      finally {
+        indexSearcher.close();
+        reader.close();
+      }
+    }
+    finally {
+      searcher.close();
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  private static long time(final IndexReader reader, final IndexSearcher searcher, final Analyzer analyzer, final Highlighter highlighter, final boolean termVector) throws IOException {
+    final long start = System.currentTimeMillis();
+    for (int doc = 0; doc < reader.maxDoc(); ++doc) {
+      final String text = reader.document(doc).get("content");
+      if (text != null) {
+        final TokenStream tokens = termVector ? LuceneSearcher.tokenStream(analyzer, searcher, doc, "content", text) : analyzer.tokenStream("content", new StringReader(text));
+        highlighter.getBestFragments(tokens, text, 3, "...");
+      }
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  private static String createContent(final Random random, final int size) {
+    final StringBuilder content = new StringBuilder(size);
+    while (content.length() < size) {
+      content.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(20) == 0 ? ".\n" : " ");
+    }
+    return content.toString();
+  }
+
+}
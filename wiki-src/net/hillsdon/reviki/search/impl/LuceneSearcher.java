@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -50,29 +51,38 @@ import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermFreqVector;
+import org.apache.lucene.index.TermPositionVector;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.queryParser.QueryParser.Operator;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.Hit;
 import org.apache.lucene.search.Hits;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MultiSearcher;
 import org.apache.lucene.search.WildcardQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Searchable;
 import org.apache.lucene.search.Searcher;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.highlight.Highlighter;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.highlight.TokenSources;
 import org.apache.lucene.store.LockObtainFailedException;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
@@ -102,18 +112,54 @@ public class LuceneSearcher implements SearchEngine {
    */
   private static final String FIELD_TITLE_TOKENIZED = "title";
   private static final String FIELD_OUTGOING_LINKS = "outgoing-links";
+  /**
+   * The start of the content, shown when no extract matches the query.
+   */
+  private static final String FIELD_SUMMARY = "summary";
 
   private static final String FIELD_PROPERTY_KEY = "property";
   private static final String FIELD_PROPERTY_VALUE = "property-value";
   private static final String PROPERTY_LAST_INDEXED_REVISION = "last-indexed-revision";
   private static final String PROPERTY_BUILT = "index-was-built";
+  private static final String PROPERTY_BUILD_TARGET_REVISION = "index-build-target-revision";
+
+  /**
+   * Fields searched by default, with their boosts.
+   * Matching the path is worth most, then the title, then content and attributes.
+   */
+  private static final Map<String, Float> SEARCH_FIELD_BOOSTS = ImmutableMap.of(FIELD_PATH, 8f, FIELD_PATH_LOWER, 4f, FIELD_TITLE_TOKENIZED, 4f, FIELD_CONTENT, 1f, FIELD_ATTRIBUTES, 1f);
 
-  private static final String[] ALL_SEARCH_FIELDS = new String[] {FIELD_PATH, FIELD_PATH_LOWER, FIELD_TITLE_TOKENIZED, FIELD_CONTENT, FIELD_ATTRIBUTES};
+  /**
+   * Fields we take extracts from, in order of preference.  The result already
+   * shows the page name so if only that matches we show the summary instead.
+   */
+  private static final Set<String> EXTRACT_FIELDS = ImmutableSet.of(FIELD_CONTENT, FIELD_ATTRIBUTES);
+
+  /**
+   * The fields needed to build a match without an extract.
+   */
+  private static final FieldSelector MATCH_FIELDS = new MapFieldSelector(new String[] {FIELD_WIKI, FIELD_PATH});
+
+  static final int SUMMARY_LENGTH = 200;
 
   private final String _wikiName;
   private final File _dir;
   private final List<File> _otherDirs;
   private final MarkupRenderer _renderer;
+  private SharedIndexWriter _writer;
+  private final Map<File, SearcherManager> _searcherManagers = new LinkedHashMap<File, SearcherManager>();
+
+  /**
+   * A page parsed and turned into a document, ready to be written by
+   * {@link LuceneSearcher#index(IndexablePage, boolean)}.
+   */
+  public static final class IndexablePage {
+    private final Document _document;
+
+    private IndexablePage(final Document document) {
+      _document = document;
+    }
+  }
 
   public static String uidFor(final String wiki, final String path) {
     return (wiki==null ? "" : wiki) + "::" + (path==null ? "" : path);
@@ -131,12 +177,43 @@ public class LuceneSearcher implements SearchEngine {
   }
 
   private void createIndexIfNecessary() throws IOException {
-    if (_dir != null && !IndexReader.indexExists(_dir)) {
-      new IndexWriter(_dir, createAnalyzer(), true).close();
+    if (_dir != null) {
+      writer();
     }
   }
 
-  private Analyzer createAnalyzer() {
+  /**
+   * The writer is shared with any other searcher on the same directory and is
+   * held until {@link #close()}.  Opening it creates the index if necessary.
+   */
+  private synchronized SharedIndexWriter writer() throws IOException {
+    if (_writer == null) {
+      _writer = SharedIndexWriter.acquire(_dir, createAnalyzer());
+    }
+    return _writer;
+  }
+
+  /**
+   * Commits any batched changes and releases the index writer and readers.
+   *
+   * @throws IOException On error writing the index.
+   */
+  public synchronized void close() throws IOException {
+    for (SearcherManager manager : _searcherManagers.values()) {
+      manager.release();
+    }
+    _searcherManagers.clear();
+    if (_writer != null) {
+      try {
+        _writer.release();
+      }
+      finally {
+        _writer = null;
+      }
+    }
+  }
+
+  Analyzer createAnalyzer() {
     final Analyzer text = new StandardAnalyzer() {
       @Override
       public TokenStream tokenStream(final String fieldName, final Reader reader) {
@@ -178,8 +255,10 @@ public class LuceneSearcher implements SearchEngine {
     document.add(new Field(FIELD_PATH_LOWER, pathLower, Field.Store.YES, Field.Index.UN_TOKENIZED));
     document.add(new Field(FIELD_TITLE_TOKENIZED, title, Field.Store.YES, Field.Index.TOKENIZED));
     document.add(new Field(FIELD_OUTGOING_LINKS, Joiner.on(" ").join(findOutgoingWikiLinks(pageAST)), Field.Store.YES, Field.Index.TOKENIZED));
-    // We store the content in order to show matching extracts.
-    document.add(new Field(FIELD_CONTENT, content, Field.Store.YES, Field.Index.TOKENIZED));
+    // We store the content in order to show matching extracts.  The term vector
+    // lets us highlight them without analyzing the content again.
+    document.add(new Field(FIELD_CONTENT, content, Field.Store.YES, Field.Index.TOKENIZED, Field.TermVector.WITH_POSITIONS_OFFSETS));
+    document.add(new Field(FIELD_SUMMARY, summarise(content), Field.Store.YES, Field.Index.NO));
     // Store the attributes like this, so that we only get matches which are exact
     for(String attribute : attributes) {
       document.add(new Field(FIELD_ATTRIBUTES, attribute, Field.Store.YES, Field.Index.UN_TOKENIZED));
@@ -187,6 +266,35 @@ public class LuceneSearcher implements SearchEngine {
     return document;
   }
 
+  /**
+   * @return The start of the text, with runs of whitespace collapsed, cut at a word
+   *         boundary and marked with "..." if longer than {@link #SUMMARY_LENGTH}.
+   */
+  static String summarise(final String text) {
+    final StringBuilder summary = new StringBuilder(SUMMARY_LENGTH);
+    boolean space = false;
+    for (int i = 0; i < text.length(); ++i) {
+      final char c = text.charAt(i);
+      if (Character.isWhitespace(c)) {
+        space = summary.length() > 0;
+        continue;
+      }
+      if (summary.length() + (space ? 1 : 0) >= SUMMARY_LENGTH) {
+        final int lastSpace = summary.lastIndexOf(" ");
+        if (lastSpace > SUMMARY_LENGTH / 2) {
+          summary.setLength(lastSpace);
+        }
+        return summary.append("...").toString();
+      }
+      if (space) {
+        summary.append(' ');
+        space = false;
+      }
+      summary.append(c);
+    }
+    return summary.toString();
+  }
+
   private List<String> findOutgoingWikiLinks(ASTNode ast) {
     return (new Visitor()).visit(ast);
   }
@@ -231,49 +339,57 @@ public class LuceneSearcher implements SearchEngine {
     return document;
   }
 
-  private void deleteWikiDocument(final String wiki, final String path) throws IOException {
-    deleteDocument(FIELD_UID, uidFor(wiki, path));
+  private void deleteWikiDocument(final String wiki, final String path, final boolean commit) throws IOException {
+    deleteDocument(FIELD_UID, uidFor(wiki, path), commit);
   }
 
-  private void deleteDocument(final String keyField, final String value) throws IOException {
-    IndexWriter writer = new IndexWriter(_dir, createAnalyzer());
-    try {
-      writer.deleteDocuments(new Term(keyField, value));
-    }
-    finally {
-      writer.close();
-    }
+  private void deleteDocument(final String keyField, final String value, final boolean commit) throws IOException {
+    writer().delete(new Term(keyField, value), commit);
   }
 
+  /**
+   * Properties record the state of the index so they're always committed immediately,
+   * along with any batched documents.
+   */
   private void replaceProperty(final Document propertyDocument) throws CorruptIndexException, LockObtainFailedException, IOException {
-    replaceDocument(FIELD_PROPERTY_KEY, propertyDocument);
+    replaceDocument(FIELD_PROPERTY_KEY, propertyDocument, true);
   }
 
-  private void replaceWikiDocument(final Document wikiDocument) throws CorruptIndexException, LockObtainFailedException, IOException {
-    replaceDocument(FIELD_UID, wikiDocument);
+  private void replaceWikiDocument(final Document wikiDocument, final boolean commit) throws CorruptIndexException, LockObtainFailedException, IOException {
+    replaceDocument(FIELD_UID, wikiDocument, commit);
   }
 
-  private void replaceDocument(final String keyField, final Document document) throws CorruptIndexException, LockObtainFailedException, IOException {
-    IndexWriter writer = new IndexWriter(_dir, createAnalyzer());
-    try {
-      writer.deleteDocuments(new Term(keyField, document.get(keyField)));
-      writer.addDocument(document);
-      writer.optimize();
-    }
-    finally {
-      writer.close();
+  private void replaceDocument(final String keyField, final Document document, final boolean commit) throws CorruptIndexException, LockObtainFailedException, IOException {
+    writer().update(new Term(keyField, document.get(keyField)), document, commit);
+  }
+
+  public void index(final PageInfo page, final boolean buildingIndex) throws IOException, PageStoreException {
+    if (_dir == null) {
+      return;
     }
+    index(prepare(page), buildingIndex);
+  }
+
+  /**
+   * Parses the page and creates its document.  This is the expensive part of
+   * indexing and, unlike writing, may be done by several threads at once.
+   *
+   * @param page The page to index.
+   * @return The page ready to write.
+   */
+  public IndexablePage prepare(final PageInfo page) throws IOException, PageStoreException {
+    return new IndexablePage(createWikiPageDocument(page));
   }
 
   // Lucene allows multiple non-deleting readers and at most one writer at a time.
-  // It maintains a lock file but we never want it to fail to take the lock, so serialize writes.
-  public synchronized void index(final PageInfo page, final boolean buildingIndex) throws IOException, PageStoreException {
+  // The writer is shared and long-lived but we serialize writes so a document is analysed once.
+  // Changes made while building the index are batched, others are committed immediately.
+  public synchronized void index(final IndexablePage page, final boolean buildingIndex) throws IOException {
     if (_dir == null) {
       return;
     }
-    if (!isIndexBeingBuilt() || buildingIndex) {
-      createIndexIfNecessary();
-      replaceWikiDocument(createWikiPageDocument(page));
+    if (buildingIndex || !isIndexBeingBuilt()) {
+      replaceWikiDocument(page._document, !buildingIndex);
     }
   }
 
@@ -287,9 +403,11 @@ public class LuceneSearcher implements SearchEngine {
 
   // See comment on index.
   public synchronized void delete(final String wiki, final String path, boolean buildingIndex) throws IOException {
-    if (!isIndexBeingBuilt() || buildingIndex) {
-      createIndexIfNecessary();
-      deleteWikiDocument(wiki, path);
+    if (_dir == null) {
+      return;
+    }
+    if (buildingIndex || !isIndexBeingBuilt()) {
+      deleteWikiDocument(wiki, path, !buildingIndex);
     }
   }
 
@@ -301,7 +419,7 @@ public class LuceneSearcher implements SearchEngine {
       return doReadOperation(new ReadOperation<Set<String>>() {
         public Set<String> execute(final IndexReader reader, final Searcher searcher, final Analyzer analyzer) throws IOException, ParseException {
           final String pageEscaped = escape(URIUtil.encodeWithinPath(page));
-          Set<String> results = Sets.newLinkedHashSet(Iterables.transform(query(reader, createAnalyzer(), searcher, FIELD_OUTGOING_LINKS, pageEscaped, false), SearchMatch.TO_PAGE_NAME));
+          Set<String> results = Sets.newLinkedHashSet(Iterables.transform(query(createAnalyzer(), searcher, FIELD_OUTGOING_LINKS, pageEscaped), SearchMatch.TO_PAGE_NAME));
           results.remove(page);
           return results;
         }
@@ -337,8 +455,21 @@ public class LuceneSearcher implements SearchEngine {
     }
   }
 
+  /**
+   * @return The shared searcher manager for the directory, held until {@link #close()}.
+   */
+  private synchronized SearcherManager searcherManager(final File dir) throws IOException {
+    SearcherManager manager = _searcherManagers.get(dir);
+    if (manager == null) {
+      manager = SearcherManager.acquire(dir);
+      _searcherManagers.put(dir, manager);
+    }
+    return manager;
+  }
+
   /**
    * Reusable template that cleans up properly.
+   * Readers are shared between operations and only reopened when the index changes.
    * @param <T> Result type.
    * @param operation Operation to perform.
    * @param allIndices If true, search all indices (other wikis) not just our own.
@@ -348,102 +479,116 @@ public class LuceneSearcher implements SearchEngine {
    */
   private <T> T doReadOperation(final ReadOperation<T> operation, final boolean allIndices) throws IOException, QuerySyntaxException {
     createIndexIfNecessary();
+    // Readers only see committed changes so don't leave our own batch out.
+    SharedIndexWriter.commitIfOpen(_dir);
 
-    List<Searcher> searchers = new ArrayList<Searcher>();
-    List<IndexReader> readers = new ArrayList<IndexReader>();
+    Map<SearcherManager, SearcherManager.Reference> references = new LinkedHashMap<SearcherManager, SearcherManager.Reference>();
 
-    /* First add our reader/searcher. If this fails, it's an error but clean up. */
-    IndexReader reader = IndexReader.open(_dir);
-    Searcher searcher = null;
-    try {
-      searcher = new IndexSearcher(reader);
-      searchers.add(searcher);
-      readers.add(reader);
-    }
-    finally {
-      if (searcher==null) {
-        reader.close();
-      }
-    }
+    /* First add our reader/searcher. If this fails, it's an error. */
+    SearcherManager manager = searcherManager(_dir);
+    references.put(manager, manager.get());
 
-    if (allIndices) {
-      for (File dir: _otherDirs) {
-        searcher = null;
-        reader = null;
-        try {
-          reader = IndexReader.open(dir);
-          searcher = new IndexSearcher(reader);
-          searchers.add(searcher);
-          readers.add(reader);
-        }
-        catch (Exception e) {
-          // The index may not exist, but other wikis' indices aren't that important anyway, so
-          // just don't search them.
-          if (searcher!=null) {
-            searcher.close();
+    try {
+      if (allIndices) {
+        for (File dir: _otherDirs) {
+          try {
+            SharedIndexWriter.commitIfOpen(dir);
+            manager = searcherManager(dir);
+            if (!references.containsKey(manager)) {
+              references.put(manager, manager.get());
+            }
           }
-          if (reader!=null) {
-            reader.close();
+          catch (Exception e) {
+            // The index may not exist, but other wikis' indices aren't that important anyway, so
+            // just don't search them.
           }
         }
       }
-    }
 
-    try {
-      /* Don't bother using a multi searcher if we only have one */
-      if (searchers.size()>1) {
-        searcher = new MultiSearcher(searchers.toArray(new Searcher[]{}));
-        /* Add to list of searchers so it gets closed */
-        searchers.add(searcher);
-      }
-      else {
-        searcher = searchers.get(0);
+      List<Searcher> searchers = new ArrayList<Searcher>();
+      for (SearcherManager.Reference reference : references.values()) {
+        searchers.add(reference.getSearcher());
       }
+      /* Don't bother using a multi searcher if we only have one.
+       * We never close the searchers, they belong to the managers. */
+      Searcher searcher = searchers.size() > 1 ? new MultiSearcher(searchers.toArray(new Searcher[]{})) : searchers.get(0);
 
       try {
         Analyzer analyzer = createAnalyzer();
-        return operation.execute(readers.get(0), searcher, analyzer);
+        return operation.execute(references.values().iterator().next().getReader(), searcher, analyzer);
       }
       catch (ParseException ex) {
         throw new QuerySyntaxException(ex.getMessage(), ex);
       }
     }
     finally {
-      for (Searcher s: searchers) {
-        try {
-          s.close();
-        } catch (Exception e) {}
-      }
-      for (IndexReader r: readers) {
-        try {
-          r.close();
-        } catch (Exception e) {}
+      for (Map.Entry<SearcherManager, SearcherManager.Reference> entry : references.entrySet()) {
+        entry.getKey().put(entry.getValue());
       }
     }
   }
 
   public Set<SearchMatch> search(final String queryString, final boolean provideExtracts, final boolean singleWiki) throws IOException, QuerySyntaxException {
-    if (_dir == null || queryString == null || queryString.trim().length() == 0) {
+    return search(queryString, provideExtracts, singleWiki, 0, Integer.MAX_VALUE);
+  }
+
+  public Set<SearchMatch> search(final String queryString, final boolean provideExtracts, final boolean singleWiki, final int offset, final int limit) throws IOException, QuerySyntaxException {
+    if (_dir == null || queryString == null || queryString.trim().length() == 0 || limit <= 0) {
       return Collections.emptySet();
     }
     return doReadOperation(new ReadOperation<Set<SearchMatch>>() {
       public Set<SearchMatch> execute(final IndexReader reader, final Searcher searcher, final Analyzer analyzer) throws IOException, ParseException {
-        LinkedHashSet<SearchMatch> results = new LinkedHashSet<SearchMatch>();
-        // Prefer path, then title then content matches (match equality is on page name)
-        for (String field : ALL_SEARCH_FIELDS) {
-          if (field.equals(FIELD_PATH_LOWER)) {
-            final Query query = new WildcardQuery(new Term(FIELD_PATH_LOWER, "*" + queryString.toLowerCase() + "*"));
-            results.addAll(doQuery(reader, analyzer, searcher, field, provideExtracts, query));
-          }
-          else {
-            results.addAll(query(reader, analyzer, searcher, field, queryString, provideExtracts));
+        final Query query = createSearchQuery(analyzer, queryString);
+        // Matches from this wiki come first so collect those before any others.
+        // We only need the top hits up to the end of the requested page.
+        final int end = (int) Math.min((long) Math.max(offset, 0) + limit, searcher.maxDoc());
+        final List<ScoreDoc> top = new ArrayList<ScoreDoc>();
+        if (end > 0) {
+          top.addAll(Arrays.asList(searcher.search(restrictToThisWiki(query, true), null, end).scoreDocs));
+          if (!singleWiki && top.size() < end) {
+            top.addAll(Arrays.asList(searcher.search(restrictToThisWiki(query, false), null, end - top.size()).scoreDocs));
           }
         }
+
+        // Only the page we return needs extracts.
+        final Map<String, Highlighter> highlighters = createHighlighters(searcher, query, provideExtracts ? EXTRACT_FIELDS : Collections.<String>emptySet());
+        final LinkedHashSet<SearchMatch> results = new LinkedHashSet<SearchMatch>();
+        for (ScoreDoc scoreDoc : top.subList(Math.min(Math.max(offset, 0), top.size()), top.size())) {
+          results.add(createMatch(analyzer, searcher, highlighters, scoreDoc.doc, provideExtracts));
+        }
         return orderResults(results);
       }
     }, !singleWiki);
   }
 
+  private Query restrictToThisWiki(final Query query, final boolean thisWiki) {
+    final BooleanQuery restricted = new BooleanQuery();
+    restricted.add(query, Occur.MUST);
+    restricted.add(new TermQuery(new Term(FIELD_WIKI, _wikiName)), thisWiki ? Occur.MUST : Occur.MUST_NOT);
+    return restricted;
+  }
+
+  /**
+   * A single query across all the search fields so each page is scored once and
+   * ranked by relevance.
+   */
+  private Query createSearchQuery(final Analyzer analyzer, final String queryString) throws ParseException {
+    final BooleanQuery query = new BooleanQuery();
+    for (Map.Entry<String, Float> fieldBoost : SEARCH_FIELD_BOOSTS.entrySet()) {
+      final String field = fieldBoost.getKey();
+      final Query fieldQuery;
+      if (field.equals(FIELD_PATH_LOWER)) {
+        fieldQuery = new WildcardQuery(new Term(FIELD_PATH_LOWER, "*" + queryString.toLowerCase() + "*"));
+      }
+      else {
+        fieldQuery = parse(analyzer, field, queryString);
+      }
+      fieldQuery.setBoost(fieldQuery.getBoost() * fieldBoost.getValue());
+      query.add(fieldQuery, Occur.SHOULD);
+    }
+    return query;
+  }
+
   private Set<SearchMatch> orderResults(final Set<SearchMatch> results) {
     /* Split single set of results into per-wiki sets, maintaining order (within each set) */
     Map<String, Set<SearchMatch>> byWiki = new LinkedHashMap<String, Set<SearchMatch>>();
@@ -471,35 +616,105 @@ public class LuceneSearcher implements SearchEngine {
     return sortedSet;
   }
 
-  private LinkedHashSet<SearchMatch> query(final IndexReader reader, final Analyzer analyzer, final Searcher searcher, final String field, final String queryString, final boolean provideExtracts) throws IOException, ParseException {
+  private Query parse(final Analyzer analyzer, final String field, final String queryString) throws ParseException {
     QueryParser parser = new QueryParser(field, analyzer);
     parser.setLowercaseExpandedTerms(!FIELD_PATH.equals(field));
     parser.setDefaultOperator(Operator.AND);
-    Query query = parser.parse(queryString);
-    return doQuery(reader, analyzer, searcher, field, provideExtracts, query);
+    return parser.parse(queryString);
   }
 
-  private LinkedHashSet<SearchMatch> doQuery(final IndexReader reader, final Analyzer analyzer, final Searcher searcher, final String field, final boolean provideExtracts, final Query query) throws IOException, CorruptIndexException {
-    Highlighter highlighter = null;
-    if (provideExtracts) {
-      highlighter = new Highlighter(new SimpleHTMLFormatter("<strong>", "</strong>"), new SimpleHTMLEncoder(), new QueryScorer(query));
-    }
+  private LinkedHashSet<SearchMatch> query(final Analyzer analyzer, final Searcher searcher, final String field, final String queryString) throws IOException, ParseException {
+    return doQuery(analyzer, searcher, parse(analyzer, field, queryString), Collections.<String>emptySet());
+  }
+
+  /**
+   * @param extractFields Fields to take an extract from, the first that has one is used.
+   * @return Matches in rank order.
+   */
+  private LinkedHashSet<SearchMatch> doQuery(final Analyzer analyzer, final Searcher searcher, final Query query, final Set<String> extractFields) throws IOException, CorruptIndexException {
+    final Map<String, Highlighter> highlighters = createHighlighters(searcher, query, extractFields);
     Hits hits = searcher.search(query);
     LinkedHashSet<SearchMatch> results = new LinkedHashSet<SearchMatch>();
     @SuppressWarnings("unchecked") Iterator<Hit> iter = hits.iterator();
     while (iter.hasNext()) {
-      Hit hit = iter.next();
-      String text = hit.get(field);
-      String extract = null;
-      // The text is not stored for all fields, just provide a null extract.
-      if (highlighter != null && text != null) {
-        TokenStream tokenStream = analyzer.tokenStream(field, new StringReader(text));
+      results.add(createMatch(analyzer, searcher, highlighters, iter.next().getId(), !extractFields.isEmpty()));
+    }
+    return results;
+  }
+
+  private Map<String, Highlighter> createHighlighters(final Searcher searcher, final Query query, final Set<String> extractFields) throws IOException {
+    final Map<String, Highlighter> highlighters = new LinkedHashMap<String, Highlighter>();
+    if (!extractFields.isEmpty()) {
+      // Rewrite so that e.g. wildcard terms can be highlighted.
+      final Query rewritten = searcher.rewrite(query);
+      for (String field : extractFields) {
+        highlighters.put(field, new Highlighter(new SimpleHTMLFormatter("<strong>", "</strong>"), new SimpleHTMLEncoder(), new QueryScorer(rewritten, field)));
+      }
+    }
+    return highlighters;
+  }
+
+  /**
+   * @param provideExtracts If true, and no field has an extract, use the summary.
+   */
+  private SearchMatch createMatch(final Analyzer analyzer, final Searcher searcher, final Map<String, Highlighter> highlighters, final int doc, final boolean provideExtracts) throws IOException {
+    // We only need the stored text if we're taking extracts.
+    final Document document = provideExtracts ? searcher.doc(doc) : searcher.doc(doc, MATCH_FIELDS);
+    String extract = null;
+    for (Map.Entry<String, Highlighter> highlighter : highlighters.entrySet()) {
+      final String field = highlighter.getKey();
+      // The text is not stored for all fields.
+      final String text = document.get(field);
+      if (text != null) {
+        TokenStream tokenStream = tokenStream(analyzer, searcher, doc, field, text);
         // Get 3 best fragments and separate with a "..."
-        extract = highlighter.getBestFragments(tokenStream, text, 3, "...");
+        extract = highlighter.getValue().getBestFragments(tokenStream, text, 3, "...");
+        if (extract.length() > 0) {
+          break;
+        }
       }
-      results.add(new SearchMatch(_wikiName.equals(hit.get(FIELD_WIKI)), hit.get(FIELD_WIKI), hit.get(FIELD_PATH), extract));
     }
-    return results;
+    if (provideExtracts && (extract == null || extract.length() == 0)) {
+      final String summary = document.get(FIELD_SUMMARY);
+      if (summary != null) {
+        extract = new SimpleHTMLEncoder().encodeText(summary);
+      }
+    }
+    final String wiki = document.get(FIELD_WIKI);
+    return new SearchMatch(_wikiName.equals(wiki), wiki, document.get(FIELD_PATH), extract);
+  }
+
+  /**
+   * @return The tokens of the field from its term vector if it has one with offsets, otherwise by analyzing the text.
+   */
+  static TokenStream tokenStream(final Analyzer analyzer, final Searcher searcher, final int doc, final String field, final String text) throws IOException {
+    final TermPositionVector vector = termPositionVector(searcher, doc, field);
+    if (vector != null && vector.size() > 0 && vector.getOffsets(0) != null) {
+      // Stop words leave gaps in the positions.
+      return TokenSources.getTokenStream(vector, false);
+    }
+    return analyzer.tokenStream(field, new StringReader(text));
+  }
+
+  private static TermPositionVector termPositionVector(final Searcher searcher, final int doc, final String field) throws IOException {
+    Searcher target = searcher;
+    int targetDoc = doc;
+    if (searcher instanceof MultiSearcher) {
+      final MultiSearcher multi = (MultiSearcher) searcher;
+      final Searchable searchable = multi.getSearchables()[multi.subSearcher(doc)];
+      if (!(searchable instanceof Searcher)) {
+        return null;
+      }
+      target = (Searcher) searchable;
+      targetDoc = multi.subDoc(doc);
+    }
+    if (target instanceof IndexSearcher) {
+      final TermFreqVector vector = ((IndexSearcher) target).getIndexReader().getTermFreqVector(targetDoc, field);
+      if (vector instanceof TermPositionVector) {
+        return (TermPositionVector) vector;
+      }
+    }
+    return null;
   }
 
   public long getHighestIndexedRevision() throws IOException {
@@ -537,10 +752,38 @@ public class LuceneSearcher implements SearchEngine {
     }
   }
 
+  /**
+   * Changes batched while building the index are committed in the same flush
+   * so this can be used to checkpoint a build.
+   */
   public void rememberHighestIndexedRevision(final long revision) throws CorruptIndexException, LockObtainFailedException, IOException {
+    if (_dir == null) {
+      return;
+    }
     replaceProperty(createPropertyDocument(PROPERTY_LAST_INDEXED_REVISION, String.valueOf(revision)));
   }
 
+  public long getIndexBuildTargetRevision() throws IOException {
+    createIndexIfNecessary();
+    String property = getProperty(PROPERTY_BUILD_TARGET_REVISION);
+    try {
+      if (property != null) {
+        return Long.valueOf(property);
+      }
+    }
+    catch (NumberFormatException ex) {
+      // Fallthrough to default.
+    }
+    return -1;
+  }
+
+  public void rememberIndexBuildTargetRevision(final long revision) throws IOException {
+    if (_dir == null) {
+      return;
+    }
+    replaceProperty(createPropertyDocument(PROPERTY_BUILD_TARGET_REVISION, String.valueOf(revision)));
+  }
+
   public boolean isIndexBeingBuilt() throws IOException {
     createIndexIfNecessary();
     String property = getProperty(PROPERTY_BUILT);
@@ -551,7 +794,9 @@ public class LuceneSearcher implements SearchEngine {
   }
 
   public void setIndexBeingBuilt(boolean buildingIndex) throws IOException {
-    createIndexIfNecessary();
+    if (_dir == null) {
+      return;
+    }
     replaceProperty(createPropertyDocument(PROPERTY_BUILT, String.valueOf(buildingIndex)));
   }
 
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+
+/**
+ * Shares an {@link IndexReader} and {@link IndexSearcher} for an index directory
+ * between concurrent read operations.
+ *
+ * The reader is only reopened after {@link SharedIndexWriter} commits a change to
+ * the directory.  Readers are reference counted so a superseded reader is closed
+ * once the last operation using it has finished.
+ */
+public class SearcherManager {
+
+  private static final Log LOG = LogFactory.getLog(SearcherManager.class);
+
+  private static final Map<File, SearcherManager> MANAGERS = new HashMap<File, SearcherManager>();
+
+  /**
+   * A reader and searcher in use by a read operation.
+   */
+  public static final class Reference {
+    private final IndexReader _reader;
+    private final IndexSearcher _searcher;
+    private int _references = 1;
+
+    private Reference(final IndexReader reader) {
+      _reader = reader;
+      _searcher = new IndexSearcher(reader);
+    }
+
+    public IndexReader getReader() {
+      return _reader;
+    }
+
+    public IndexSearcher getSearcher() {
+      return _searcher;
+    }
+
+    private void close() {
+      try {
+        _searcher.close();
+        _reader.close();
+      }
+      catch (IOException ex) {
+        LOG.error("Error closing search index reader", ex);
+      }
+    }
+  }
+
+  /**
+   * Gets the manager for a directory.  Each call must be balanced by a call to {@link #release()}.
+   *
+   * @param dir The index directory.
+   * @return The shared manager.
+   * @throws IOException If we can't resolve the directory.
+   */
+  public static synchronized SearcherManager acquire(final File dir) throws IOException {
+    final File key = dir.getCanonicalFile();
+    SearcherManager manager = MANAGERS.get(key);
+    if (manager == null) {
+      manager = new SearcherManager(key);
+      MANAGERS.put(key, manager);
+    }
+    manager._users++;
+    return manager;
+  }
+
+  /**
+   * Called when a change to the index in the directory has been committed.
+   *
+   * @param dir The index directory.
+   */
+  static void indexChanged(final File dir) {
+    SearcherManager manager;
+    synchronized (SearcherManager.class) {
+      manager = MANAGERS.get(dir);
+    }
+    if (manager != null) {
+      manager.invalidate();
+    }
+  }
+
+  /**
+   * Closes every reader not currently in use, e.g. on shutdown.
+   */
+  public static void closeAll() {
+    List<SearcherManager> managers;
+    synchronized (SearcherManager.class) {
+      managers = new ArrayList<SearcherManager>(MANAGERS.values());
+      MANAGERS.clear();
+    }
+    for (SearcherManager manager : managers) {
+      manager.invalidate();
+    }
+  }
+
+  private final File _dir;
+  private Reference _current;
+  private int _users = 0;
+
+  private SearcherManager(final File dir) {
+    _dir = dir;
+  }
+
+  /**
+   * @return The current reader and searcher, which must be passed back to {@link #put(Reference)}.
+   * @throws IOException If we fail to open the index.
+   */
+  public synchronized Reference get() throws IOException {
+    if (_current == null) {
+      _current = new Reference(IndexReader.open(_dir));
+    }
+    _current._references++;
+    return _current;
+  }
+
+  /**
+   * @param reference As returned by {@link #get()}.
+   */
+  public synchronized void put(final Reference reference) {
+    decRef(reference);
+  }
+
+  /**
+   * Releases a reference obtained by {@link #acquire(File)}, closing the reader when unused.
+   */
+  public void release() {
+    synchronized (SearcherManager.class) {
+      if (--_users > 0) {
+        return;
+      }
+      if (MANAGERS.get(_dir) == this) {
+        MANAGERS.remove(_dir);
+      }
+    }
+    invalidate();
+  }
+
+  private synchronized void invalidate() {
+    if (_current != null) {
+      decRef(_current);
+      _current = null;
+    }
+  }
+
+  private void decRef(final Reference reference) {
+    if (--reference._references == 0) {
+      reference.close();
+    }
+  }
+
+}
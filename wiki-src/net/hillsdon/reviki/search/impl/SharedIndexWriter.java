@@ -0,0 +1,210 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+
+/**
+ * A long-lived {@link IndexWriter} for a single index directory.
+ *
+ * Lucene allows at most one writer per directory so every {@link LuceneSearcher}
+ * on the same directory shares one of these.  Changes are buffered and committed
+ * in batches, either when the batch is large or old enough or when explicitly
+ * asked to.  Segment merging is left to the writer's merge factor rather than
+ * optimizing after every document.
+ */
+public class SharedIndexWriter {
+
+  private static final Log LOG = LogFactory.getLog(SharedIndexWriter.class);
+
+  /**
+   * Commit once this many changes are pending.
+   */
+  static final int MAX_BATCH_SIZE = 1000;
+
+  /**
+   * Commit once the oldest pending change is this old.
+   */
+  static final long MAX_BATCH_AGE_MILLIS = 10 * 1000;
+
+  private static final Map<File, SharedIndexWriter> WRITERS = new HashMap<File, SharedIndexWriter>();
+
+  /**
+   * Gets the writer for a directory, opening it (and creating the index) if necessary.
+   * Each call must be balanced by a call to {@link #release()}.
+   *
+   * @param dir The index directory.
+   * @param analyzer Analyzer used if we need to open the writer.
+   * @return The shared writer.
+   * @throws IOException On error opening the index.
+   */
+  public static synchronized SharedIndexWriter acquire(final File dir, final Analyzer analyzer) throws IOException {
+    final File key = dir.getCanonicalFile();
+    SharedIndexWriter writer = WRITERS.get(key);
+    if (writer == null) {
+      writer = new SharedIndexWriter(key, analyzer);
+      WRITERS.put(key, writer);
+    }
+    writer._references++;
+    return writer;
+  }
+
+  /**
+   * Commits any pending changes for the directory if a writer is open on it.
+   *
+   * @param dir The index directory.
+   * @throws IOException On error writing the index.
+   */
+  public static void commitIfOpen(final File dir) throws IOException {
+    SharedIndexWriter writer;
+    synchronized (SharedIndexWriter.class) {
+      writer = WRITERS.get(dir.getCanonicalFile());
+    }
+    if (writer != null) {
+      writer.commit();
+    }
+  }
+
+  /**
+   * Commits and closes every open writer, e.g. on shutdown.
+   */
+  public static void closeAll() {
+    List<SharedIndexWriter> writers;
+    synchronized (SharedIndexWriter.class) {
+      writers = new ArrayList<SharedIndexWriter>(WRITERS.values());
+      WRITERS.clear();
+    }
+    for (SharedIndexWriter writer : writers) {
+      try {
+        writer.close();
+      }
+      catch (IOException ex) {
+        LOG.error("Error closing search index writer for " + writer._dir, ex);
+      }
+    }
+  }
+
+  private final File _dir;
+  private IndexWriter _writer;
+  private int _references = 0;
+  private int _pending = 0;
+  private long _oldestPending = 0;
+
+  private SharedIndexWriter(final File dir, final Analyzer analyzer) throws IOException {
+    _dir = dir;
+    _writer = new IndexWriter(dir, analyzer, !IndexReader.indexExists(dir));
+    // We decide when to flush, and with auto-commit each flush is a commit.
+    _writer.setMaxBufferedDocs(MAX_BATCH_SIZE);
+    _writer.setMaxBufferedDeleteTerms(MAX_BATCH_SIZE);
+  }
+
+  /**
+   * Replaces any document with the same key.
+   *
+   * @param key Identifies the document to replace.
+   * @param document The new document.
+   * @param commit If true commit immediately, otherwise leave it to the batch.
+   * @throws IOException On error writing the index.
+   */
+  public synchronized void update(final Term key, final Document document, final boolean commit) throws IOException {
+    writer().updateDocument(key, document);
+    changed(commit);
+  }
+
+  /**
+   * @param key Identifies the documents to delete.
+   * @param commit If true commit immediately, otherwise leave it to the batch.
+   * @throws IOException On error writing the index.
+   */
+  public synchronized void delete(final Term key, final boolean commit) throws IOException {
+    writer().deleteDocuments(key);
+    changed(commit);
+  }
+
+  /**
+   * Makes pending changes visible to readers.
+   *
+   * @throws IOException On error writing the index.
+   */
+  public synchronized void commit() throws IOException {
+    if (_pending > 0 && _writer != null) {
+      _writer.flush();
+      _pending = 0;
+      SearcherManager.indexChanged(_dir);
+    }
+  }
+
+  /**
+   * Releases a reference obtained by {@link #acquire(File, Analyzer)}, closing the writer when unused.
+   *
+   * @throws IOException On error writing the index.
+   */
+  public void release() throws IOException {
+    synchronized (SharedIndexWriter.class) {
+      if (--_references > 0) {
+        return;
+      }
+      if (WRITERS.get(_dir) == this) {
+        WRITERS.remove(_dir);
+      }
+    }
+    close();
+  }
+
+  private synchronized void close() throws IOException {
+    if (_writer != null) {
+      try {
+        _writer.close();
+      }
+      finally {
+        _writer = null;
+        _pending = 0;
+        SearcherManager.indexChanged(_dir);
+      }
+    }
+  }
+
+  private IndexWriter writer() {
+    if (_writer == null) {
+      throw new IllegalStateException("Search index writer for " + _dir + " has been closed.");
+    }
+    return _writer;
+  }
+
+  private void changed(final boolean commit) throws IOException {
+    final long now = System.currentTimeMillis();
+    if (_pending++ == 0) {
+      _oldestPending = now;
+    }
+    if (commit || _pending >= MAX_BATCH_SIZE || now - _oldestPending >= MAX_BATCH_AGE_MILLIS) {
+      commit();
+    }
+  }
+
+}
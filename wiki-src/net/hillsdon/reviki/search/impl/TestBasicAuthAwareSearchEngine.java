@@ -0,0 +1,114 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import static java.util.Arrays.asList;
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.configuration.DeploymentConfiguration;
+import net.hillsdon.reviki.configuration.WikiConfiguration;
+import net.hillsdon.reviki.search.SearchEngine;
+import net.hillsdon.reviki.search.SearchMatch;
+import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
+import net.hillsdon.reviki.vc.PageStoreException;
+import net.hillsdon.reviki.web.common.MockHttpServletRequest;
+
+import org.easymock.IAnswer;
+
+public class TestBasicAuthAwareSearchEngine extends TestCase {
+
+  private final List<SearchMatch> _matches = new ArrayList<SearchMatch>();
+  private int _delegateSearches = 0;
+  private BasicAuthAwareSearchEngine _search;
+
+  @Override
+  protected void setUp() throws Exception {
+    // Alternately in a wiki anyone can read and one we can't.
+    for (int i = 0; i < 5; ++i) {
+      _matches.add(new SearchMatch(true, "open", "Open" + i, null));
+      _matches.add(new SearchMatch(false, "secret", "Secret" + i, null));
+    }
+    final SearchEngine delegate = createMock(SearchEngine.class);
+    expect(delegate.search(eq("query"), eq(false), eq(false), anyInt(), anyInt())).andAnswer(new IAnswer<Set<SearchMatch>>() {
+      public Set<SearchMatch> answer() throws Throwable {
+        _delegateSearches++;
+        final int offset = (Integer) getCurrentArguments()[3];
+        final int limit = (Integer) getCurrentArguments()[4];
+        return new LinkedHashSet<SearchMatch>(_matches.subList(Math.min(offset, _matches.size()), (int) Math.min((long) offset + limit, _matches.size())));
+      }
+    }).anyTimes();
+
+    final WikiConfiguration open = createMock(WikiConfiguration.class);
+    expect(open.getSVNUser()).andReturn(null).anyTimes();
+    final WikiConfiguration secret = createMock(WikiConfiguration.class);
+    expect(secret.getSVNUser()).andReturn("reviki").anyTimes();
+    expect(secret.getWikiName()).andReturn("secret").anyTimes();
+    final DeploymentConfiguration configuration = createMock(DeploymentConfiguration.class);
+    expect(configuration.getWikis()).andReturn(asList(open, secret)).anyTimes();
+    expect(configuration.getConfiguration("open")).andReturn(open).anyTimes();
+    expect(configuration.getConfiguration("secret")).andReturn(secret).anyTimes();
+    replay(delegate, open, secret, configuration);
+
+    _search = new BasicAuthAwareSearchEngine(delegate, configuration) {
+      @Override
+      void checkAccess(final WikiConfiguration wiki, final String page) throws PageStoreException {
+        if ("secret".equals(wiki.getWikiName())) {
+          throw new PageStoreAuthenticationException("Denied");
+        }
+      }
+    };
+    final MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setHeader("Authorization", "Basic dXNlcjpwYXNz");
+    _search.getRequestLifecycleAware().create(request);
+  }
+
+  private List<String> pages(final int offset, final int limit) throws Exception {
+    final List<String> pages = new ArrayList<String>();
+    for (SearchMatch match : _search.search("query", false, false, offset, limit)) {
+      pages.add(match.getPage());
+    }
+    return pages;
+  }
+
+  public void testPagesAreFullOfMatchesWeCanRead() throws Exception {
+    assertEquals(asList("Open0", "Open1", "Open2"), pages(0, 3));
+    assertEquals(asList("Open3", "Open4"), pages(3, 3));
+    assertEquals(asList("Open2", "Open3"), pages(2, 2));
+    assertEquals(asList(), pages(5, 3));
+  }
+
+  public void testMoreResultsFoundByAskingForOneMore() throws Exception {
+    assertEquals(4, pages(0, 4).size());
+    assertEquals(1, pages(4, 4).size());
+  }
+
+  public void testAllMatchesInOneSearch() throws Exception {
+    assertEquals(asList("Open0", "Open1", "Open2", "Open3", "Open4"), pages(0, Integer.MAX_VALUE));
+    assertEquals(1, _delegateSearches);
+  }
+
+}
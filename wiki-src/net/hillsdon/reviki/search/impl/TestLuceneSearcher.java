@@ -21,8 +21,11 @@ import static java.util.Collections.unmodifiableSet;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 
@@ -88,6 +91,8 @@ public class TestLuceneSearcher extends TestCase {
 
   @Override
   protected void tearDown() throws Exception {
+    _searcher.close();
+    _searcher2.close();
     cleanupTempDir(_dir);
     cleanupTempDir(_dir2);
   }
@@ -242,6 +247,83 @@ public class TestLuceneSearcher extends TestCase {
     assertEquals(expected, _searcher2.search("some or content", false, false));
   }
   
+  public void testPathMatchesRankAboveContentMatches() throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, "ContentPage", "all about cabbage", Collections.<String, String>emptyMap()), true);
+    _searcher.index(new PageInfoImpl(WIKI_NAME, "CabbagePage", "nothing to see", Collections.<String, String>emptyMap()), true);
+    Iterator<SearchMatch> results = _searcher.search("cabbage", false, false).iterator();
+    assertEquals("CabbagePage", results.next().getPage());
+    assertEquals("ContentPage", results.next().getPage());
+    assertFalse(results.hasNext());
+  }
+
+  public void testExtractHighlightsContentMatch() throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, PAGE_THE_NAME, "a cabbage patch", Collections.<String, String>emptyMap()), true);
+    SearchMatch match = _searcher.search("cabbage", true, false).iterator().next();
+    assertEquals("a <strong>cabbage</strong> patch", match.getHtmlExtract());
+  }
+
+  public void testExtractFromOtherWikiUsesTermVector() throws Exception {
+    _searcher2.index(new PageInfoImpl(WIKI_NAME2, PAGE_THE_NAME, "the cabbages and the kings", Collections.<String, String>emptyMap()), true);
+    SearchMatch match = _searcher.search("cabbage", true, false).iterator().next();
+    assertEquals("the <strong>cabbages</strong> and the kings", match.getHtmlExtract());
+  }
+
+  public void testSummaryUsedWhenOnlyThePathMatches() throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, "CabbagePage", "nothing <to>\n\n  see", Collections.<String, String>emptyMap()), true);
+    SearchMatch match = _searcher.search("CabbagePage", true, false).iterator().next();
+    assertEquals("nothing &lt;to&gt; see", match.getHtmlExtract());
+  }
+
+  public void testSummarise() {
+    assertEquals("", LuceneSearcher.summarise(" \n "));
+    assertEquals("a b c", LuceneSearcher.summarise(" a\n\nb \t c "));
+    StringBuilder words = new StringBuilder();
+    while (words.length() < LuceneSearcher.SUMMARY_LENGTH * 2) {
+      words.append("word ");
+    }
+    String summary = LuceneSearcher.summarise(words.toString());
+    assertTrue(summary.endsWith(" word..."));
+    assertTrue(summary.length() <= LuceneSearcher.SUMMARY_LENGTH + 3);
+  }
+
+  public void testPagedSearch() throws Exception {
+    for (int i = 0; i < 5; ++i) {
+      _searcher.index(new PageInfoImpl(WIKI_NAME, PAGE_THE_NAME + i, "cabbage " + i, Collections.<String, String>emptyMap()), true);
+    }
+    _searcher2.index(new PageInfoImpl(WIKI_NAME2, PAGE_THE_NAME, "cabbage", Collections.<String, String>emptyMap()), true);
+    List<SearchMatch> all = new ArrayList<SearchMatch>(_searcher.search("cabbage", false, false));
+    assertEquals(6, all.size());
+    assertEquals(WIKI_NAME2, all.get(5).getWiki());
+    assertEquals(all.subList(0, 2), new ArrayList<SearchMatch>(_searcher.search("cabbage", false, false, 0, 2)));
+    assertEquals(all.subList(4, 6), new ArrayList<SearchMatch>(_searcher.search("cabbage", true, false, 4, 2)));
+    assertEquals(all.subList(5, 6), new ArrayList<SearchMatch>(_searcher.search("cabbage", false, false, 5, 10)));
+    assertEquals(emptySet(), _searcher.search("cabbage", false, false, 6, 10));
+    assertEquals(emptySet(), _searcher.search("cabbage", false, false, 0, 0));
+  }
+
+  public void testSearchersOnSameDirectoryShareWriter() throws Exception {
+    LuceneSearcher other = new LuceneSearcher(WIKI_NAME, _dir, Arrays.asList(_dir2), MarkupRenderer.AS_IS);
+    try {
+      _searcher.index(new PageInfoImpl(WIKI_NAME, PAGE_THE_NAME, "cabbage", Collections.<String, String>emptyMap()), true);
+      other.index(new PageInfoImpl(WIKI_NAME, PAGE_THE_NAME4, "patch", Collections.<String, String>emptyMap()), true);
+      assertEquals(JUST_THE_PAGE4, _searcher.search("patch", false, false));
+      assertEquals(JUST_THE_PAGE, other.search("cabbage", false, false));
+    }
+    finally {
+      other.close();
+    }
+    _searcher.delete(WIKI_NAME, PAGE_THE_NAME4, false);
+    assertEquals(emptySet(), _searcher.search("patch", false, false));
+  }
+
+  public void testIndexStateSurvivesClose() throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, PAGE_THE_NAME, "the content", Collections.<String, String>emptyMap()), true);
+    _searcher.rememberHighestIndexedRevision(42);
+    _searcher.close();
+    assertEquals(42, _searcher.getHighestIndexedRevision());
+    assertEquals(JUST_THE_PAGE, _searcher.search("content", false, false));
+  }
+
   public void testMultiWikiOrder() throws Exception {
     _searcher.index(new PageInfoImpl(WIKI_NAME, PAGE_THE_NAME, "some content", Collections.<String, String>emptyMap()), true);
     _searcher2.index(new PageInfoImpl(WIKI_NAME2, PAGE_THE_NAME2, "some other content", Collections.<String, String>emptyMap()), true);
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.Term;
+
+/**
+ * Tests for {@link SearcherManager}.
+ */
+public class TestSearcherManager extends TestCase {
+
+  private File _dir;
+  private SharedIndexWriter _writer;
+  private SearcherManager _manager;
+
+  @Override
+  protected void setUp() throws Exception {
+    _dir = File.createTempFile("testDir", "");
+    assertTrue(_dir.delete());
+    assertTrue(_dir.mkdir());
+    _writer = SharedIndexWriter.acquire(_dir, new KeywordAnalyzer());
+    _manager = SearcherManager.acquire(_dir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _manager.release();
+    _writer.release();
+    for (File file : _dir.listFiles()) {
+      assertTrue(file.delete());
+    }
+    assertTrue(_dir.delete());
+  }
+
+  private void add(final String id) throws IOException {
+    Document document = new Document();
+    document.add(new Field("id", id, Field.Store.YES, Field.Index.UN_TOKENIZED));
+    _writer.update(new Term("id", id), document, true);
+  }
+
+  public void testReaderSharedUntilCommit() throws Exception {
+    add("one");
+    SearcherManager.Reference first = _manager.get();
+    SearcherManager.Reference second = _manager.get();
+    assertSame(first, second);
+    assertEquals(1, first.getReader().numDocs());
+    _manager.put(second);
+
+    add("two");
+    SearcherManager.Reference third = _manager.get();
+    assertNotSame(first, third);
+    assertEquals(2, third.getReader().numDocs());
+    // Still usable until it is put back.
+    assertEquals(1, first.getReader().numDocs());
+    _manager.put(first);
+    _manager.put(third);
+  }
+
+  public void testManagerSharedByDirectory() throws Exception {
+    SearcherManager other = SearcherManager.acquire(new File(_dir, "."));
+    try {
+      assertSame(_manager, other);
+    }
+    finally {
+      other.release();
+    }
+  }
+
+}
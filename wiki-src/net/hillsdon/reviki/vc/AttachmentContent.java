@@ -0,0 +1,55 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+/**
+ * An attachment at a revision.  What we know about it comes first so a caller
+ * can decide how much of the content it needs, if any.
+ */
+public interface AttachmentContent {
+
+  /**
+   * @return The MIME type set on the attachment, or application/octet-stream.
+   */
+  String getContentType();
+
+  /**
+   * @return The revision the attachment was last changed in.
+   */
+  long getLastChangedRevision();
+
+  /**
+   * @return When the attachment was last changed, may be null.
+   */
+  Date getLastChangedDate();
+
+  /**
+   * @return The length in bytes, or -1 if we can't tell.
+   */
+  long getLength() throws PageStoreException;
+
+  /**
+   * @param out Content is written here.
+   * @param offset Bytes to skip.
+   * @param length Bytes to write, -1 for the rest.
+   */
+  void writeTo(OutputStream out, long offset, long length) throws PageStoreException, IOException;
+
+}
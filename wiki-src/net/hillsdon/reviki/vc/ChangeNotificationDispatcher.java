@@ -16,9 +16,37 @@
 package net.hillsdon.reviki.vc;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 public interface ChangeNotificationDispatcher {
 
+  /**
+   * Dispatch any changes made since we last synced.
+   */
   void sync() throws PageStoreAuthenticationException, PageStoreException, IOException;
 
+  /**
+   * @return The revision we've dispatched changes up to, -1 if we've not yet synced.
+   *         Doesn't wait for a sync in progress.
+   */
+  long getSyncedRevision();
+
+  /**
+   * Wait for another thread to sync up to the given revision.
+   *
+   * @param revision The revision.
+   * @param timeoutMillis The longest we'll wait.
+   * @return true if we've synced up to the revision, false if we timed out.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  boolean waitUntilSynced(long revision, long timeoutMillis) throws InterruptedException;
+
+  /**
+   * Notify each subscriber from its own task on the given executor rather than
+   * from the thread calling {@link #sync()}, so subscribers progress independently.
+   *
+   * @param executor The executor, or null to notify from the syncing thread.
+   */
+  void dispatchUsing(Executor executor);
+
 }
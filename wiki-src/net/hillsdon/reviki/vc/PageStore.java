@@ -182,6 +182,17 @@ public interface PageStore extends SimplePageStore {
    */
   void attachment(PageReference ref, String attachment, long revision, ContentTypedSink sink) throws PageStoreException, NotFoundException;
 
+  /**
+   * Looks up an attachment without necessarily fetching its content.
+   *
+   * @param ref Page.
+   * @param attachment Attachment on that page.
+   * @param revision The revision to fetch, -1 for head.
+   * @return The attachment.
+   * @throws NotFoundException If the attachment is not present in the given revision.
+   */
+  AttachmentContent attachmentContent(PageReference ref, String attachment, long revision) throws PageStoreException, NotFoundException;
+
   /**
    * @throws PageStoreInvalidException If the underlying data repository is invalid/not present etc.
    * @throws PageStoreAuthenticationException If we couldn't authenticate (probably a good sign but can't be sure).
@@ -20,6 +20,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
+import net.hillsdon.reviki.vc.AttachmentContent;
 import net.hillsdon.reviki.vc.AttachmentHistory;
 import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.ContentTypedSink;
@@ -108,6 +109,10 @@ public abstract class AbstractDelegatingPageStore extends AbstractPageStore {
     getDelegateInternal().attachment(ref, attachment, revision, sink);
   }
 
+  public AttachmentContent attachmentContent(final PageReference ref, final String attachment, final long revision) throws PageStoreException {
+    return getDelegateInternal().attachmentContent(ref, attachment, revision);
+  }
+
   public byte[] attachmentBytes(final PageReference ref, final String attachment, final long revision) throws PageStoreException {
     return getDelegateInternal().attachmentBytes(ref, attachment, revision);
   }
@@ -53,6 +53,25 @@ public interface BasicSVNOperations {
    */
   List<ChangeInfo> log(String path, long limit, LogEntryFilter logEntryFilter, boolean stopOnCopy, long startRevision, long endRevision) throws PageStoreAuthenticationException, PageStoreException;
 
+  /**
+   * How many revisions {@link #log(String, LogEntryFilter, long, long, long, LogChunkHandler)}
+   * should usually fetch at once.
+   */
+  long DEFAULT_LOG_CHUNK_REVISIONS = 1000;
+
+  /**
+   * Streams the log oldest first, fetching a fixed number of revisions at a
+   * time so memory use doesn't depend on the size of the range.
+   *
+   * @param path The path to log.
+   * @param logEntryFilter Which changes we're interested in.
+   * @param startRevision The first revision.
+   * @param endRevision The last revision, -1 for head.
+   * @param chunkRevisions How many revisions to fetch at a time.
+   * @param handler Given the changes in each chunk in turn, including chunks with none.
+   */
+  void log(String path, LogEntryFilter logEntryFilter, long startRevision, long endRevision, long chunkRevisions, LogChunkHandler handler) throws PageStoreAuthenticationException, PageStoreException, IOException;
+
   String getRoot() throws PageStoreAuthenticationException, PageStoreException;
   long getLatestRevision() throws PageStoreAuthenticationException, PageStoreException;
   SVNNodeKind checkPath(String path, long revision) throws PageStoreAuthenticationException, PageStoreException;
@@ -60,6 +79,15 @@ public interface BasicSVNOperations {
   void getFiles(long revision, final Map<String, Map<String, String>> properties, final Map<String, ? extends OutputStream> outputStreams) throws NotFoundException, PageStoreAuthenticationException, PageStoreException;
   void getFile(String path, long revision, Map<String, String> properties, OutputStream out) throws NotFoundException, PageStoreAuthenticationException, PageStoreException;
 
+  /**
+   * Fetches a file as {@link #getFile(String, long, Map, OutputStream)} does
+   * and its current lock, using the same session for both.
+   *
+   * @return The lock on the file at head, or null if it's not locked or no longer exists.
+   * @throws NotFoundException If there's no file at the path in the given revision.
+   */
+  SVNLock getFileAndLock(String path, long revision, Map<String, String> properties, OutputStream out) throws NotFoundException, PageStoreAuthenticationException, PageStoreException;
+
 
   <T> T execute(SVNAction<T> action) throws PageStoreException, PageStoreAuthenticationException;
 
@@ -96,6 +124,10 @@ public interface BasicSVNOperations {
   void unlock(PageReference ref, String lockToken) throws PageStoreAuthenticationException, PageStoreException;
   void lock(PageReference ref, long revision) throws AlreadyLockedException, PageStoreAuthenticationException, PageStoreException;
   SVNLock getLock(String path) throws NotFoundException, PageStoreAuthenticationException, PageStoreException;
+  /**
+   * @return All the locks under the wiki root, keyed by path relative to it.
+   */
+  Map<String, SVNLock> getLocks() throws PageStoreAuthenticationException, PageStoreException;
 
   List<SVNDirEntry> ls(String path) throws NotFoundException, PageStoreException;
 
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.wiki.renderer.creole.PageLinkTarget;
+import net.hillsdon.reviki.wiki.renderer.creole.SimplePageLinkTarget;
+
+/**
+ * Binary encoding of {@link ChangeInfo} for the files we keep in the cache directory.
+ *
+ * Lengths are checked against what's left to read so a corrupt file fails with
+ * an IOException rather than an enormous allocation.
+ */
+final class ChangeInfoCodec {
+
+  private static final byte RENAMED_TO_NOTHING = 0;
+  private static final byte RENAMED_TO_PAGE = 1;
+  private static final byte RENAMED_TO_SVN_PATH = 2;
+
+  private ChangeInfoCodec() {
+  }
+
+  static void write(final DataOutput out, final ChangeInfo change) throws IOException {
+    writeString(out, change.getPage());
+    writeString(out, change.getName());
+    writeString(out, change.getUser());
+    out.writeLong(change.getDate() == null ? Long.MIN_VALUE : change.getDate().getTime());
+    out.writeLong(change.getRevision());
+    writeString(out, change.getCommitMessage());
+    writeString(out, change.getKind() == null ? null : change.getKind().name());
+    writeString(out, change.getChangeType() == null ? null : change.getChangeType().name());
+    writeString(out, change.getCopiedFrom());
+    out.writeLong(change.getCopiedFromRevision());
+    final PageLinkTarget renamedTo = change.getRenamedTo();
+    if (renamedTo instanceof SVNPathLinkTarget) {
+      final SVNPathLinkTarget target = (SVNPathLinkTarget) renamedTo;
+      out.writeByte(RENAMED_TO_SVN_PATH);
+      writeString(out, target.getRepositoryURL());
+      writeString(out, target.getPath());
+    }
+    else if (renamedTo instanceof SimplePageLinkTarget && renamedTo.isLinkToCurrentWiki()) {
+      final SimplePageLinkTarget target = (SimplePageLinkTarget) renamedTo;
+      out.writeByte(RENAMED_TO_PAGE);
+      writeString(out, target.getPageName());
+      writeString(out, target.getRevision());
+      writeString(out, target.getFragment());
+    }
+    else {
+      out.writeByte(RENAMED_TO_NOTHING);
+    }
+  }
+
+  static ChangeInfo read(final DataInputStream in) throws IOException {
+    final String page = readString(in);
+    final String name = readString(in);
+    final String user = readString(in);
+    final long time = in.readLong();
+    final Date date = time == Long.MIN_VALUE ? null : new Date(time);
+    final long revision = in.readLong();
+    final String commitMessage = readString(in);
+    final String kind = readString(in);
+    final String changeType = readString(in);
+    final String copiedFrom = readString(in);
+    final long copiedFromRevision = in.readLong();
+    PageLinkTarget renamedTo = null;
+    switch (in.readByte()) {
+      case RENAMED_TO_SVN_PATH:
+        renamedTo = new SVNPathLinkTarget(readString(in), readString(in));
+        break;
+      case RENAMED_TO_PAGE:
+        renamedTo = new SimplePageLinkTarget(null, readString(in), readString(in), readString(in));
+        break;
+      default:
+        break;
+    }
+    return new ChangeInfo(page, name, user, date, revision, commitMessage, kind == null ? null : StoreKind.valueOf(kind), changeType == null ? null : ChangeType.valueOf(changeType), copiedFrom, copiedFromRevision, renamedTo);
+  }
+
+  static void writeString(final DataOutput out, final String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    }
+    else {
+      final byte[] bytes = value.getBytes("UTF-8");
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  static String readString(final DataInputStream in) throws IOException {
+    return readString(in, in.available());
+  }
+
+  static String readString(final RandomAccessFile in) throws IOException {
+    return readString(in, in.length() - in.getFilePointer());
+  }
+
+  /**
+   * @param remaining Bytes left to read from in, including the length.
+   */
+  private static String readString(final DataInput in, final long remaining) throws IOException {
+    final int length = in.readInt();
+    if (length == -1) {
+      return null;
+    }
+    checkLength(length, remaining - 4);
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  /**
+   * @param length A length read from a file.
+   * @param remaining Bytes left to read after it.
+   * @throws IOException If the length is negative or runs past the end.
+   */
+  static void checkLength(final long length, final long remaining) throws IOException {
+    if (length < 0 || length > remaining) {
+      throw new IOException("Corrupt length " + length + " with " + remaining + " bytes remaining");
+    }
+  }
+
+}
@@ -0,0 +1,362 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeSubscriber;
+import net.hillsdon.reviki.vc.PageStoreException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A local copy of the wiki's change log so that recent changes, page history
+ * and the like don't need to ask the repository.
+ *
+ * Changes are appended to a file as they're dispatched to us and read back with
+ * positional reads, so readers needn't share a file pointer.  We keep the file
+ * offset of each change in revision order, and the offsets of the changes to
+ * each page, in memory.  Each record runs up to the next one's offset.
+ *
+ * The file header records the revision we've synced up to.  It is updated after
+ * the changes are appended, so anything after it on restart is from an
+ * interrupted write and is discarded to be dispatched again.
+ */
+public class ChangeLogCache implements ChangeSubscriber {
+
+  private static final Log LOG = LogFactory.getLog(ChangeLogCache.class);
+
+  static final String FILE_NAME = "change-log.bin";
+
+  private static final int MAGIC = 0x52564c47;
+  private static final int VERSION = 1;
+  private static final int SYNCED_OFFSET = 8;
+
+  private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+  private final File _file;
+  private final RandomAccessFile _data;
+  private final FileChannel _channel;
+  private final long _dataStart;
+  private long _end;
+  private long _highestSynced = 0;
+
+  private long[] _offsets = new long[1024];
+  private long[] _revisions = new long[1024];
+  private int _size = 0;
+  private final Map<String, List<Integer>> _byPage = new HashMap<String, List<Integer>>();
+
+  /**
+   * @param dir Directory to keep the change log in.
+   * @param url The repository URL the changes are from.
+   * @throws IOException If we fail to open or create the file.
+   */
+  public ChangeLogCache(final File dir, final String url) throws IOException {
+    _file = new File(dir, FILE_NAME);
+    _data = new RandomAccessFile(_file, "rw");
+    _channel = _data.getChannel();
+    if (!readHeader(url)) {
+      _data.setLength(0);
+      _data.writeInt(MAGIC);
+      _data.writeInt(VERSION);
+      _data.writeLong(0);
+      ChangeInfoCodec.writeString(_data, url);
+    }
+    _dataStart = _data.getFilePointer();
+    _end = load();
+    if (_end < _data.length()) {
+      LOG.info("Discarding " + (_data.length() - _end) + " bytes of changes after revision " + _highestSynced + " from " + _file);
+      _data.setLength(_end);
+    }
+  }
+
+  private boolean readHeader(final String url) throws IOException {
+    if (_data.length() == 0) {
+      return false;
+    }
+    try {
+      if (_data.readInt() != MAGIC || _data.readInt() != VERSION) {
+        LOG.info("Ignoring change log " + _file + " in an unknown format");
+        return false;
+      }
+      final long highestSynced = _data.readLong();
+      final String fileUrl = ChangeInfoCodec.readString(_data);
+      if (url != null && !url.equals(fileUrl)) {
+        LOG.info("Ignoring change log " + _file + " for " + fileUrl);
+        return false;
+      }
+      _highestSynced = highestSynced;
+      return true;
+    }
+    catch (EOFException ex) {
+      LOG.warn("Ignoring truncated change log " + _file);
+      return false;
+    }
+    catch (IOException ex) {
+      LOG.warn("Ignoring corrupt change log " + _file, ex);
+      return false;
+    }
+  }
+
+  /**
+   * Indexes the changes in the file.
+   *
+   * @return The end of the last complete change up to the synced revision.
+   */
+  private long load() throws IOException {
+    final long length = _data.length();
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+    try {
+      in.readFully(new byte[(int) _dataStart]);
+      long position = _dataStart;
+      while (position + 4 <= length) {
+        final int recordLength = in.readInt();
+        if (recordLength < 0 || position + 4 + recordLength > length) {
+          break;
+        }
+        final byte[] record = new byte[recordLength];
+        in.readFully(record);
+        final ChangeInfo change;
+        try {
+          change = decode(record);
+        }
+        catch (IOException ex) {
+          LOG.warn("Unreadable change at " + position + " in " + _file, ex);
+          break;
+        }
+        if (change.getRevision() > _highestSynced) {
+          break;
+        }
+        index(position, change);
+        position += 4 + recordLength;
+      }
+      return position;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private void index(final long offset, final ChangeInfo change) {
+    if (_size == _offsets.length) {
+      _offsets = Arrays.copyOf(_offsets, _size * 2);
+      _revisions = Arrays.copyOf(_revisions, _size * 2);
+    }
+    _offsets[_size] = offset;
+    _revisions[_size] = change.getRevision();
+    final String page = change.getPage();
+    if (page != null) {
+      List<Integer> changes = _byPage.get(page);
+      if (changes == null) {
+        changes = new ArrayList<Integer>(1);
+        _byPage.put(page, changes);
+      }
+      changes.add(_size);
+    }
+    _size++;
+  }
+
+  public long getHighestSyncedRevision() {
+    _lock.readLock().lock();
+    try {
+      return _highestSynced;
+    }
+    finally {
+      _lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return true if we've seen some of the log and can answer queries.
+   */
+  public boolean isPopulated() {
+    return getHighestSyncedRevision() > 0;
+  }
+
+  public void handleChanges(final long upto, final List<ChangeInfo> chronological) throws PageStoreException, IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    final List<Integer> lengths = new ArrayList<Integer>(chronological.size());
+    for (ChangeInfo change : chronological) {
+      final int start = out.size();
+      out.writeInt(0);
+      ChangeInfoCodec.write(out, change);
+      lengths.add(out.size() - start - 4);
+    }
+    final byte[] records = bytes.toByteArray();
+    int position = 0;
+    for (int length : lengths) {
+      ByteBuffer.wrap(records, position, 4).putInt(length);
+      position += 4 + length;
+    }
+
+    _lock.writeLock().lock();
+    try {
+      _data.seek(_end);
+      _data.write(records);
+      _data.seek(SYNCED_OFFSET);
+      _data.writeLong(upto);
+      long offset = _end;
+      for (int i = 0; i < lengths.size(); ++i) {
+        index(offset, chronological.get(i));
+        offset += 4 + lengths.get(i);
+      }
+      _end = offset;
+      _highestSynced = upto;
+    }
+    finally {
+      _lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @param limit The maximum number of revisions to return changes from, 0 or less for all.
+   * @return The most recent changes, newest first.
+   * @throws IOException If we fail to read the changes.
+   */
+  public List<ChangeInfo> recentChanges(final long limit) throws IOException {
+    _lock.readLock().lock();
+    try {
+      final List<ChangeInfo> changes = new ArrayList<ChangeInfo>();
+      long revisions = 0;
+      long previous = -1;
+      for (int i = _size - 1; i >= 0; --i) {
+        if (_revisions[i] != previous) {
+          if (limit > 0 && revisions == limit) {
+            break;
+          }
+          revisions++;
+          previous = _revisions[i];
+        }
+        changes.add(read(i));
+      }
+      return changes;
+    }
+    finally {
+      _lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @param page A page name.
+   * @param endRevision The last revision to include, -1 for all.
+   * @return Changes to the page or its attachments, newest first.
+   * @throws IOException If we fail to read the changes.
+   */
+  public List<ChangeInfo> history(final String page, final long endRevision) throws IOException {
+    _lock.readLock().lock();
+    try {
+      final List<ChangeInfo> changes = new ArrayList<ChangeInfo>();
+      final List<Integer> indices = _byPage.get(page);
+      if (indices != null) {
+        for (int i = indices.size() - 1; i >= 0; --i) {
+          final int index = indices.get(i);
+          if (endRevision < 0 || _revisions[index] <= endRevision) {
+            changes.add(read(index));
+          }
+        }
+      }
+      return changes;
+    }
+    finally {
+      _lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @param startRevision The first revision to include.
+   * @param endRevision The last revision to include.
+   * @return The changes in the range, newest first.
+   * @throws IOException If we fail to read the changes.
+   */
+  public List<ChangeInfo> changedBetween(final long startRevision, final long endRevision) throws IOException {
+    _lock.readLock().lock();
+    try {
+      final List<ChangeInfo> changes = new ArrayList<ChangeInfo>();
+      int i = Arrays.binarySearch(_revisions, 0, _size, endRevision + 1);
+      // Not found, or the first change in the next revision.  Either way we want the insertion point.
+      i = i < 0 ? -(i + 1) : firstIndexOf(i);
+      for (--i; i >= 0 && _revisions[i] >= startRevision; --i) {
+        changes.add(read(i));
+      }
+      return changes;
+    }
+    finally {
+      _lock.readLock().unlock();
+    }
+  }
+
+  private int firstIndexOf(int index) {
+    final long revision = _revisions[index];
+    while (index > 0 && _revisions[index - 1] == revision) {
+      index--;
+    }
+    return index;
+  }
+
+  private ChangeInfo read(final int index) throws IOException {
+    final long next = index + 1 < _size ? _offsets[index + 1] : _end;
+    long position = _offsets[index] + 4;
+    final ByteBuffer buffer = ByteBuffer.allocate((int) (next - position));
+    while (buffer.hasRemaining()) {
+      final int read = _channel.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException("Change " + index + " runs past the end of " + _file);
+      }
+      position += read;
+    }
+    return decode(buffer.array());
+  }
+
+  private static ChangeInfo decode(final byte[] record) throws IOException {
+    return ChangeInfoCodec.read(new DataInputStream(new ByteArrayInputStream(record)));
+  }
+
+  /**
+   * Closes the file, we can't be used after this.
+   *
+   * @throws IOException On failure to close.
+   */
+  public void close() throws IOException {
+    _lock.writeLock().lock();
+    try {
+      _data.close();
+    }
+    finally {
+      _lock.writeLock().unlock();
+    }
+  }
+
+}
@@ -16,7 +16,12 @@
 package net.hillsdon.reviki.vc.impl;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.ChangeNotificationDispatcher;
@@ -34,56 +39,354 @@ import com.google.common.collect.Iterables;
 /**
  * Tracks the SVN log and dispatches ChangeInfo lists to subscribers.
  *
+ * The log for each new range of revisions is fetched once and queued for each
+ * subscriber that hasn't seen it.  By default the queues are drained by the
+ * thread calling {@link #sync()}, one subscriber after another.  Given an
+ * executor by {@link #dispatchUsing(Executor)} each subscriber is notified by
+ * its own task instead, so a slow subscriber doesn't hold the others up.
+ *
+ * The log is streamed a chunk of revisions at a time.  So that catching up on
+ * a large range doesn't mean holding all of it, we wait for a subscriber that
+ * has more than {@link #MAX_QUEUED_CHUNKS} chunks waiting before fetching more.
+ *
  * @author mth
  */
 public class ChangeNotificationDispatcherImpl implements ChangeNotificationDispatcher {
 
   private static final Log LOG = LogFactory.getLog(ChangeNotificationDispatcherImpl.class);
 
+  static final int MAX_QUEUED_CHUNKS = 2;
+
+  /**
+   * How far behind a subscriber is.
+   */
+  public static final class SubscriberLag {
+    private final String _subscriber;
+    private final long _revisions;
+    private final long _seconds;
+
+    public SubscriberLag(final String subscriber, final long revisions, final long seconds) {
+      _subscriber = subscriber;
+      _revisions = revisions;
+      _seconds = seconds;
+    }
+
+    public String getSubscriber() {
+      return _subscriber;
+    }
+
+    /**
+     * @return Revisions we've seen that haven't been passed to the subscriber yet.
+     */
+    public long getRevisions() {
+      return _revisions;
+    }
+
+    /**
+     * @return How long the oldest change waiting for the subscriber has been waiting.
+     */
+    public long getSeconds() {
+      return _seconds;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s %d revisions/%ds behind", _subscriber, _revisions, _seconds);
+    }
+  }
+
+  private static final class Batch {
+    private final long _upto;
+    private final List<ChangeInfo> _chronological;
+    private final long _queuedAt = System.currentTimeMillis();
+
+    public Batch(final long upto, final List<ChangeInfo> chronological) {
+      _upto = upto;
+      _chronological = chronological;
+    }
+  }
+
+  /**
+   * A subscriber's queue and how far through the log it's got.
+   */
+  private final class Worker implements Runnable {
+    private final ChangeSubscriber _subscriber;
+    private final LinkedList<Batch> _queue = new LinkedList<Batch>();
+    // The highest revision we've queued changes up to, we fetch the log from the lowest of these.
+    private long _queuedUpTo;
+    // The highest revision the subscriber has been notified of changes up to.
+    private long _notifiedUpTo;
+    private boolean _scheduled = false;
+    // Set if the subscriber failed to take changes, we skip it until the next sync.
+    private boolean _failed = false;
+
+    public Worker(final ChangeSubscriber subscriber) throws IOException {
+      _subscriber = subscriber;
+      _queuedUpTo = subscriber.getHighestSyncedRevision();
+      _notifiedUpTo = _queuedUpTo;
+    }
+
+    /**
+     * Unless changes are waiting for the subscriber, ask it how far it's got.
+     * It might not have taken the changes we gave it, e.g. searcher if the
+     * index is only being built.
+     *
+     * @return The highest revision we've queued changes up to.
+     */
+    public synchronized long refresh() throws IOException {
+      if (!_scheduled && _queue.isEmpty()) {
+        _queuedUpTo = _subscriber.getHighestSyncedRevision();
+        _failed = false;
+      }
+      return _queuedUpTo;
+    }
+
+    public synchronized long getNotifiedUpTo() {
+      return _notifiedUpTo;
+    }
+
+    /**
+     * @return true if there's something new for the subscriber.
+     */
+    public synchronized boolean queue(final long upto, final List<ChangeInfo> chronological) {
+      if (_failed) {
+        return false;
+      }
+      final long queuedUpTo = _queuedUpTo;
+      _queuedUpTo = Math.max(_queuedUpTo, upto);
+      final List<ChangeInfo> relevant = ImmutableList.copyOf(Iterables.filter(chronological, new Predicate<ChangeInfo>() {
+        public boolean apply(final ChangeInfo in) {
+          return in.getRevision() > queuedUpTo;
+        }
+      }));
+      if (relevant.isEmpty()) {
+        if (_queue.isEmpty()) {
+          _notifiedUpTo = Math.max(_notifiedUpTo, upto);
+        }
+        return false;
+      }
+      _queue.add(new Batch(upto, relevant));
+      return true;
+    }
+
+    /**
+     * Wait while we're working through more than {@link #MAX_QUEUED_CHUNKS} chunks.
+     */
+    public synchronized void awaitRoom() throws InterruptedIOException {
+      try {
+        while (_scheduled && _queue.size() > MAX_QUEUED_CHUNKS) {
+          wait();
+        }
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for " + name());
+      }
+    }
+
+    /**
+     * @return true if the caller should run us.
+     */
+    public synchronized boolean schedule() {
+      if (_scheduled || _queue.isEmpty()) {
+        return false;
+      }
+      _scheduled = true;
+      return true;
+    }
+
+    public void run() {
+      try {
+        drain();
+      }
+      catch (Exception ex) {
+        LOG.warn("Failed to notify " + name() + " of changes, will try again on the next sync.", ex);
+      }
+    }
+
+    public void drain() throws PageStoreException, IOException {
+      while (true) {
+        final Batch batch;
+        synchronized (this) {
+          batch = _queue.peek();
+          if (batch == null) {
+            _scheduled = false;
+            notifyAll();
+            break;
+          }
+        }
+        final long start = System.currentTimeMillis();
+        try {
+          _subscriber.handleChanges(batch._upto, batch._chronological);
+        }
+        catch (PageStoreException ex) {
+          forgetQueued();
+          throw ex;
+        }
+        catch (IOException ex) {
+          forgetQueued();
+          throw ex;
+        }
+        catch (RuntimeException ex) {
+          forgetQueued();
+          throw ex;
+        }
+        LOG.debug("Notified " + name() + " of " + batch._chronological.size() + " changes in " + (System.currentTimeMillis() - start));
+        synchronized (this) {
+          _queue.remove();
+          _notifiedUpTo = Math.max(_notifiedUpTo, batch._upto);
+          notifyAll();
+        }
+        notified();
+      }
+    }
+
+    /**
+     * The changes will be fetched again on the next sync.
+     */
+    private synchronized void forgetQueued() {
+      _queue.clear();
+      _scheduled = false;
+      _failed = true;
+      notifyAll();
+    }
+
+    public synchronized SubscriberLag getLag(final long latest) {
+      final long seconds = _queue.isEmpty() ? 0 : (System.currentTimeMillis() - _queue.peek()._queuedAt) / 1000;
+      return new SubscriberLag(name(), Math.max(0, latest - _notifiedUpTo), seconds);
+    }
+
+    private String name() {
+      final String name = _subscriber.getClass().getSimpleName();
+      return name.length() == 0 ? _subscriber.getClass().getName() : name;
+    }
+  }
+
   private final BasicSVNOperations _operations;
-  private final ChangeSubscriber[] _subscribers;
+  private final List<Worker> _workers = new ArrayList<Worker>();
+  private volatile Executor _executor = null;
 
   private long _lastSynced = Long.MAX_VALUE;
+  private final Object _syncedRevisionLock = new Object();
+  private long _latestSeen = -1;
+  private long _syncedRevision = -1;
 
   public ChangeNotificationDispatcherImpl(final BasicSVNOperations operations, final ChangeSubscriber... subscribers) throws IOException {
     _operations = operations;
-    _subscribers = subscribers;
     for (ChangeSubscriber subscriber : subscribers) {
-      _lastSynced = Math.min(_lastSynced, subscriber.getHighestSyncedRevision());
+      final Worker worker = new Worker(subscriber);
+      _workers.add(worker);
+      _lastSynced = Math.min(_lastSynced, worker._queuedUpTo);
     }
   }
 
+  public void dispatchUsing(final Executor executor) {
+    _executor = executor;
+  }
+
   public synchronized void sync() throws PageStoreAuthenticationException, PageStoreException, IOException {
     long latest = _operations.getLatestRevision();
+    synchronized (_syncedRevisionLock) {
+      _latestSeen = Math.max(_latestSeen, latest);
+    }
+    _lastSynced = Long.MAX_VALUE;
+    for (Worker worker : _workers) {
+      _lastSynced = Math.min(_lastSynced, worker.refresh());
+    }
     if (latest > _lastSynced) {
-      List<ChangeInfo> logs = _operations.log("", -1, LogEntryFilter.DESCENDANTS, false, _lastSynced + 1, latest);
-      if (!logs.isEmpty()) {
-        notifyListeners(latest, ImmutableList.copyOf(logs).reverse());
-      }
+      _operations.log("", LogEntryFilter.DESCENDANTS, _lastSynced + 1, latest, BasicSVNOperations.DEFAULT_LOG_CHUNK_REVISIONS, new LogChunkHandler() {
+        public void handleChanges(final long upto, final List<ChangeInfo> chronological) throws PageStoreException, IOException {
+          dispatch(upto, chronological);
+        }
+      });
+    }
+    else {
+      dispatch(latest, ImmutableList.<ChangeInfo>of());
     }
-    // Some subscribers might not have been synchronised, e.g. searcher if the index is only being built
-    _lastSynced = _subscribers[0].getHighestSyncedRevision();
-    for (int i = 1; i < _subscribers.length; i++) {
-      _lastSynced = Math.min(_lastSynced, _subscribers[i].getHighestSyncedRevision());
+    _lastSynced = Long.MAX_VALUE;
+    for (Worker worker : _workers) {
+      _lastSynced = Math.min(_lastSynced, worker.refresh());
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Subscriber lag: " + getLag());
     }
   }
 
-  private void notifyListeners(final long upto, final List<ChangeInfo> chronological) throws PageStoreException, IOException {
-    for (ChangeSubscriber subscriber : _subscribers) {
-      final long subscriberHighestSynced = subscriber.getHighestSyncedRevision();
-      List<ChangeInfo> relevant = ImmutableList.copyOf(Iterables.filter(chronological, new Predicate<ChangeInfo>() {
-        public boolean apply(final ChangeInfo in) {
-          return in.getRevision() > subscriberHighestSynced;
+  private void dispatch(final long upto, final List<ChangeInfo> chronological) throws PageStoreException, IOException {
+    for (Worker worker : _workers) {
+      worker.queue(upto, chronological);
+    }
+    notified();
+    final Executor executor = _executor;
+    for (Worker worker : _workers) {
+      if (worker.schedule()) {
+        if (executor == null) {
+          worker.drain();
         }
-      }));
-      if (!relevant.isEmpty()) {
-        long start = System.currentTimeMillis();
-        subscriber.handleChanges(upto, relevant);
-        LOG.debug("Notified " + subscriber.getClass().getSimpleName() + " of " + relevant.size() + " changes in " + (System.currentTimeMillis() - start));
+        else {
+          try {
+            executor.execute(worker);
+          }
+          catch (RejectedExecutionException ex) {
+            worker.forgetQueued();
+            throw ex;
+          }
+        }
+      }
+    }
+    if (executor != null) {
+      for (Worker worker : _workers) {
+        worker.awaitRoom();
+      }
+    }
+  }
+
+  private void notified() {
+    synchronized (_syncedRevisionLock) {
+      long synced = _latestSeen;
+      for (Worker worker : _workers) {
+        synced = Math.min(synced, worker.getNotifiedUpTo());
+      }
+      if (synced > _syncedRevision) {
+        _syncedRevision = synced;
+        _syncedRevisionLock.notifyAll();
       }
     }
   }
 
+  public long getSyncedRevision() {
+    synchronized (_syncedRevisionLock) {
+      return _syncedRevision;
+    }
+  }
+
+  public boolean waitUntilSynced(final long revision, final long timeoutMillis) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeoutMillis;
+    synchronized (_syncedRevisionLock) {
+      long remaining = timeoutMillis;
+      while (_syncedRevision < revision && remaining > 0) {
+        _syncedRevisionLock.wait(remaining);
+        remaining = deadline - System.currentTimeMillis();
+      }
+      return _syncedRevision >= revision;
+    }
+  }
+
+  /**
+   * @return How far behind each subscriber is, in the order they were given to us.
+   */
+  public List<SubscriberLag> getLag() {
+    final long latest;
+    synchronized (_syncedRevisionLock) {
+      latest = _latestSeen;
+    }
+    final List<SubscriberLag> lag = new ArrayList<SubscriberLag>();
+    for (Worker worker : _workers) {
+      lag.add(worker.getLag(latest));
+    }
+    return lag;
+  }
+
   long getLastSynced() {
     return _lastSynced;
   }
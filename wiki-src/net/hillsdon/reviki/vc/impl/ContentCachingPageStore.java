@@ -0,0 +1,84 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import net.hillsdon.reviki.vc.InterveningCommitException;
+import net.hillsdon.reviki.vc.PageInfo;
+import net.hillsdon.reviki.vc.PageReference;
+import net.hillsdon.reviki.vc.PageStoreException;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+
+/**
+ * Serves page content from a {@link PageContentCache} shared between requests,
+ * only asking the repository for the lock information.  The cache is shared by
+ * all users so we check the repository accepts this request's credentials
+ * before serving from it, see {@link SVNPageStore#checkAccess()}.
+ */
+public class ContentCachingPageStore extends SimpleDelegatingPageStore {
+
+  private final PageContentCache _cache;
+  private final SVNPageStore _store;
+
+  public ContentCachingPageStore(final PageContentCache cache, final SVNPageStore store) {
+    super(store);
+    _cache = cache;
+    _store = store;
+  }
+
+  @Override
+  public VersionedPageInfo get(final PageReference ref, final long revision) throws PageStoreException {
+    final VersionedPageInfo cached = _cache.get(ref.getPath(), revision);
+    if (cached != null) {
+      _store.checkAccess();
+      return _store.withLockInformation(cached);
+    }
+    final VersionedPageInfo page = _store.get(ref, revision);
+    _cache.put(revision, page);
+    return page;
+  }
+
+  @Override
+  public long set(final PageInfo page, final String lockToken, final long baseRevision, final String commitMessage) throws InterveningCommitException, PageStoreException {
+    try {
+      return super.set(page, lockToken, baseRevision, commitMessage);
+    }
+    finally {
+      _cache.expire(page.getPath());
+    }
+  }
+
+  @Override
+  public long rename(final PageReference from, final PageReference to, final long baseRevision, final String commitMessage) throws InterveningCommitException, PageStoreException {
+    try {
+      return super.rename(from, to, baseRevision, commitMessage);
+    }
+    finally {
+      _cache.expire(from.getPath());
+      _cache.expire(to.getPath());
+    }
+  }
+
+  @Override
+  public long copy(final PageReference from, final long fromRevision, final PageReference to, final String commitMessage) throws PageStoreException {
+    try {
+      return super.copy(from, fromRevision, to, commitMessage);
+    }
+    finally {
+      _cache.expire(to.getPath());
+    }
+  }
+
+}
@@ -81,6 +81,10 @@ public abstract class DelegatingBasicSVNOperations implements BasicSVNOperations
     getDelegate().getFile(path, revision, properties, out);
   }
   
+  public SVNLock getFileAndLock(final String path, final long revision, final Map<String, String> properties, final OutputStream out) throws NotFoundException, PageStoreAuthenticationException, PageStoreException {
+    return getDelegate().getFileAndLock(path, revision, properties, out);
+  }
+
   public void getFiles(final long revision, final Map<String, Map<String, String>> properties, final Map<String, ? extends OutputStream> outputStreams) throws NotFoundException, PageStoreAuthenticationException, PageStoreException {
     getDelegate().getFiles(revision, properties, outputStreams);
   }
@@ -93,6 +97,10 @@ public abstract class DelegatingBasicSVNOperations implements BasicSVNOperations
     return getDelegate().getLock(path);
   }
 
+  public Map<String, SVNLock> getLocks() throws PageStoreAuthenticationException, PageStoreException {
+    return getDelegate().getLocks();
+  }
+
   public String getRoot() throws PageStoreAuthenticationException, PageStoreException {
     return getDelegate().getRoot();
   }
@@ -105,6 +113,10 @@ public abstract class DelegatingBasicSVNOperations implements BasicSVNOperations
     return getDelegate().log(path, limit, logEntryFilter, stopOnCopy, startRevision, endRevision);
   }
 
+  public void log(final String path, final LogEntryFilter logEntryFilter, final long startRevision, final long endRevision, final long chunkRevisions, final LogChunkHandler handler) throws PageStoreAuthenticationException, PageStoreException, IOException {
+    getDelegate().log(path, logEntryFilter, startRevision, endRevision, chunkRevisions, handler);
+  }
+
   public void unlock(final PageReference ref, final String lockToken) throws PageStoreAuthenticationException, PageStoreException {
     getDelegate().unlock(ref, lockToken);
   }
@@ -0,0 +1,596 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.tmatesoft.svn.core.SVNProperty;
+
+/**
+ * Page and attachment content kept on disk so it survives a restart.
+ *
+ * Content is stored by its MD5 checksum, as reported by SVN, so a file that's
+ * unchanged over many revisions is stored once.  Content is only added if it
+ * matches the checksum as it's written.  Content already on disk, e.g. from
+ * before a restart, is checked once, the first time we read it, and discarded
+ * if it doesn't match.  We don't check again on later reads, so a file changed
+ * on disk behind our back after that goes unnoticed until it's evicted or we
+ * restart.  Separately we keep the SVN properties of pages read at explicit
+ * revisions, which never change, so those reads needn't fetch anything from
+ * the repository.  The caller must still check that the requester may read
+ * them.  For the head revision the caller must ask the repository for the
+ * checksum.
+ *
+ * Files are evicted least recently used first once they take more than the
+ * given number of bytes.  Their modification times record use, so the order
+ * survives a restart.
+ *
+ * The properties are only good for the repository they were read from, so we
+ * record its URL and forget them if the wiki has since been pointed elsewhere.
+ * Content is checked against its checksum so it's good for any repository.
+ *
+ * Failing to read or write the cache is logged and treated as a miss.
+ */
+public class DiskContentCache {
+
+  private static final Log LOG = LogFactory.getLog(DiskContentCache.class);
+
+  public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+  static final String CONTENT_DIR_NAME = "content";
+  static final String REVISIONS_DIR_NAME = "revisions";
+  static final String URL_FILE_NAME = "content-cache-url";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final String PATH_KEY = "reviki:path";
+  private static final String REVISION_KEY = "reviki:revision";
+
+  /**
+   * Content being written to the cache, e.g. as it's streamed to a client.
+   * Write failures, or content too big to keep, only stop it being cached.
+   */
+  public final class PendingContent extends OutputStream {
+    private final File _temp;
+    private final OutputStream _out;
+    private final MessageDigest _digest = md5();
+    private long _written = 0;
+    private boolean _failed = false;
+    private boolean _closed = false;
+
+    private PendingContent(final File temp) throws IOException {
+      _temp = temp;
+      _out = new FileOutputStream(temp);
+    }
+
+    @Override
+    public void write(final int b) {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+      if (_failed) {
+        return;
+      }
+      _written += len;
+      if (_written > _maxBytes) {
+        // It would only be evicted as soon as we committed it.
+        _failed = true;
+        close();
+        FileUtils.deleteQuietly(_temp);
+        return;
+      }
+      try {
+        _out.write(b, off, len);
+        _digest.update(b, off, len);
+      }
+      catch (IOException ex) {
+        LOG.warn("Failed to write " + _temp, ex);
+        _failed = true;
+      }
+    }
+
+    /**
+     * Adds the content to the cache if it matches the checksum.
+     *
+     * @param checksum The MD5 checksum from SVN.
+     * @return true if we added it.
+     */
+    public boolean commit(final String checksum) {
+      close();
+      if (_failed || checksum == null || !checksum.equals(new String(Hex.encodeHex(_digest.digest())))) {
+        FileUtils.deleteQuietly(_temp);
+        return false;
+      }
+      synchronized (DiskContentCache.this) {
+        _verified.add(checksum);
+      }
+      return added(_temp, contentFile(checksum));
+    }
+
+    @Override
+    public void close() {
+      if (!_closed) {
+        _closed = true;
+        IOUtils.closeQuietly(_out);
+      }
+    }
+
+    /**
+     * Discards the content unless it has been committed.
+     */
+    public void abort() {
+      if (!_closed) {
+        close();
+        FileUtils.deleteQuietly(_temp);
+      }
+    }
+  }
+
+  private final File _contentDir;
+  private final File _revisionsDir;
+  private final long _maxBytes;
+  private final LinkedHashMap<File, Long> _files = new LinkedHashMap<File, Long>(16, 0.75f, true);
+  // Checksums of content we know matches, so we needn't read it all again for each range.
+  private final Set<String> _verified = new HashSet<String>();
+  private long _bytes = 0;
+
+  private long _hits = 0;
+  private long _misses = 0;
+  private long _evictions = 0;
+  private long _corrupt = 0;
+
+  public DiskContentCache(final File dir, final String url) throws IOException {
+    this(dir, url, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param dir The directory for the cache, created if need be.
+   * @param url The repository URL the content is from.
+   * @param maxBytes Bound on the disk space used.
+   * @throws IOException If we can't create the directory.
+   */
+  public DiskContentCache(final File dir, final String url, final long maxBytes) throws IOException {
+    _contentDir = new File(dir, CONTENT_DIR_NAME);
+    _revisionsDir = new File(dir, REVISIONS_DIR_NAME);
+    _maxBytes = maxBytes;
+    FileUtils.forceMkdir(_contentDir);
+    FileUtils.forceMkdir(_revisionsDir);
+    checkUrl(new File(dir, URL_FILE_NAME), url);
+    load();
+  }
+
+  private void checkUrl(final File file, final String url) throws IOException {
+    if (url == null) {
+      return;
+    }
+    final String cachedUrl = file.exists() ? FileUtils.readFileToString(file, "UTF-8") : null;
+    if (!url.equals(cachedUrl)) {
+      if (cachedUrl != null) {
+        LOG.info("Ignoring cached revisions in " + _revisionsDir + " for " + cachedUrl);
+      }
+      FileUtils.cleanDirectory(_revisionsDir);
+      FileUtils.writeStringToFile(file, url, "UTF-8");
+    }
+  }
+
+  private void load() {
+    final List<File> files = new ArrayList<File>();
+    for (File dir : Arrays.asList(_contentDir, _revisionsDir)) {
+      final File[] children = dir.listFiles();
+      if (children != null) {
+        for (File file : children) {
+          if (file.getName().endsWith(TEMP_SUFFIX)) {
+            // From a write that didn't finish.
+            FileUtils.deleteQuietly(file);
+          }
+          else {
+            files.add(file);
+          }
+        }
+      }
+    }
+    Collections.sort(files, new Comparator<File>() {
+      public int compare(final File o1, final File o2) {
+        return Long.valueOf(o1.lastModified()).compareTo(o2.lastModified());
+      }
+    });
+    synchronized (this) {
+      for (File file : files) {
+        final long length = file.length();
+        _files.put(file, length);
+        _bytes += length;
+      }
+      evict();
+    }
+  }
+
+  /**
+   * @param path The path in the wiki.
+   * @param revision An explicit revision.
+   * @return The SVN properties of the file at that revision if we have them, otherwise null.
+   */
+  public Map<String, String> getProperties(final String path, final long revision) {
+    final File file = revisionFile(path, revision);
+    if (!used(file)) {
+      return null;
+    }
+    final Properties stored = new Properties();
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      stored.load(in);
+    }
+    catch (IOException ex) {
+      LOG.warn("Failed to read " + file, ex);
+      discard(file);
+      return null;
+    }
+    finally {
+      IOUtils.closeQuietly(in);
+    }
+    if (!path.equals(stored.getProperty(PATH_KEY)) || !String.valueOf(revision).equals(stored.getProperty(REVISION_KEY))) {
+      return null;
+    }
+    final Map<String, String> properties = new HashMap<String, String>();
+    for (String name : stored.stringPropertyNames()) {
+      properties.put(name, stored.getProperty(name));
+    }
+    properties.remove(PATH_KEY);
+    properties.remove(REVISION_KEY);
+    return properties;
+  }
+
+  /**
+   * Writes the content with the given checksum, if we have it intact.
+   *
+   * @param checksum The MD5 checksum from SVN, may be null.
+   * @param out Where to write it.
+   * @return true if we wrote the content, false if we don't have it.
+   * @throws IOException If we fail to write to out.
+   */
+  public boolean getContent(final String checksum, final OutputStream out) throws IOException {
+    return getContent(checksum, out, 0, -1);
+  }
+
+  /**
+   * Writes part of the content with the given checksum, if we have it intact.
+   *
+   * @param checksum The MD5 checksum from SVN, may be null.
+   * @param out Where to write it.
+   * @param offset Bytes to skip.
+   * @param length Bytes to write, -1 for the rest.
+   * @return true if we wrote the content, false if we don't have it.
+   * @throws IOException If we fail to write to out.
+   */
+  public boolean getContent(final String checksum, final OutputStream out, final long offset, final long length) throws IOException {
+    if (checksum == null) {
+      return false;
+    }
+    final File file = contentFile(checksum);
+    if (!used(file) || !verified(checksum, file)) {
+      synchronized (this) {
+        _misses++;
+      }
+      return false;
+    }
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      skipFully(in, offset);
+    }
+    catch (IOException ex) {
+      // Perhaps evicted since.
+      IOUtils.closeQuietly(in);
+      synchronized (this) {
+        _misses++;
+      }
+      return false;
+    }
+    try {
+      copy(in, out, length);
+    }
+    finally {
+      IOUtils.closeQuietly(in);
+    }
+    synchronized (this) {
+      _hits++;
+    }
+    return true;
+  }
+
+  /**
+   * @param checksum The MD5 checksum from SVN, may be null.
+   * @return The length of the content if we have it, otherwise -1.
+   */
+  public synchronized long getLength(final String checksum) {
+    if (checksum == null) {
+      return -1;
+    }
+    final Long length = _files.get(contentFile(checksum));
+    return length == null ? -1 : length;
+  }
+
+  /**
+   * Checks content against its checksum before we first write any of it out.
+   * Once per process for content found on disk, never for content we added,
+   * which {@link PendingContent#commit(String)} already checked.
+   */
+  private boolean verified(final String checksum, final File file) {
+    synchronized (this) {
+      if (_verified.contains(checksum)) {
+        return true;
+      }
+    }
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      final MessageDigest digest = md5();
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+      if (!checksum.equals(new String(Hex.encodeHex(digest.digest())))) {
+        LOG.warn("Discarding corrupt " + file);
+        synchronized (this) {
+          _corrupt++;
+        }
+        discard(file);
+        return false;
+      }
+    }
+    catch (IOException ex) {
+      // Perhaps evicted since.
+      return false;
+    }
+    finally {
+      IOUtils.closeQuietly(in);
+    }
+    synchronized (this) {
+      _verified.add(checksum);
+    }
+    return true;
+  }
+
+  private static void skipFully(final InputStream in, final long bytes) throws IOException {
+    long remaining = bytes;
+    while (remaining > 0) {
+      final long skipped = in.skip(remaining);
+      if (skipped <= 0) {
+        throw new EOFException();
+      }
+      remaining -= skipped;
+    }
+  }
+
+  private static void copy(final InputStream in, final OutputStream out, final long length) throws IOException {
+    final byte[] buffer = new byte[8192];
+    long remaining = length < 0 ? Long.MAX_VALUE : length;
+    int read;
+    while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+      out.write(buffer, 0, read);
+      remaining -= read;
+    }
+  }
+
+  /**
+   * Caches a file read at an explicit revision.
+   *
+   * @param path The path in the wiki.
+   * @param revision The revision, or -1 to cache just the content.
+   * @param properties The file's SVN properties, including its checksum.
+   * @param content The file's content.
+   */
+  public void put(final String path, final long revision, final Map<String, String> properties, final byte[] content) {
+    final String checksum = properties.get(SVNProperty.CHECKSUM);
+    if (checksum == null) {
+      return;
+    }
+    if (!has(contentFile(checksum))) {
+      final PendingContent pending = newContent();
+      if (pending == null) {
+        return;
+      }
+      pending.write(content, 0, content.length);
+      if (!pending.commit(checksum)) {
+        return;
+      }
+    }
+    if (revision >= 0) {
+      putProperties(path, revision, properties);
+    }
+  }
+
+  /**
+   * Records the SVN properties of a file at an explicit revision, e.g. once
+   * its content has been cached.
+   *
+   * @param path The path in the wiki.
+   * @param revision The revision.
+   * @param properties The file's SVN properties, including its checksum.
+   */
+  public void putProperties(final String path, final long revision, final Map<String, String> properties) {
+    final Properties stored = new Properties();
+    for (Map.Entry<String, String> entry : properties.entrySet()) {
+      if (entry.getValue() != null) {
+        stored.setProperty(entry.getKey(), entry.getValue());
+      }
+    }
+    stored.setProperty(PATH_KEY, path);
+    stored.setProperty(REVISION_KEY, String.valueOf(revision));
+    File temp = null;
+    OutputStream out = null;
+    try {
+      temp = File.createTempFile("revision", TEMP_SUFFIX, _revisionsDir);
+      out = new FileOutputStream(temp);
+      stored.store(out, null);
+      out.close();
+      added(temp, revisionFile(path, revision));
+    }
+    catch (IOException ex) {
+      LOG.warn("Failed to cache properties of " + path + " at " + revision, ex);
+      IOUtils.closeQuietly(out);
+      FileUtils.deleteQuietly(temp);
+    }
+  }
+
+  /**
+   * @return Somewhere to write content to, or null if we can't.
+   */
+  public PendingContent newContent() {
+    try {
+      return new PendingContent(File.createTempFile("content", TEMP_SUFFIX, _contentDir));
+    }
+    catch (IOException ex) {
+      LOG.warn("Failed to create a file in " + _contentDir, ex);
+      return null;
+    }
+  }
+
+  private boolean added(final File temp, final File file) {
+    synchronized (this) {
+      if (_files.containsKey(file)) {
+        FileUtils.deleteQuietly(temp);
+        return true;
+      }
+      if (!temp.renameTo(file)) {
+        FileUtils.deleteQuietly(temp);
+        return false;
+      }
+      final long length = file.length();
+      _files.put(file, length);
+      _bytes += length;
+      evict();
+      return _files.containsKey(file);
+    }
+  }
+
+  private synchronized boolean has(final File file) {
+    return _files.containsKey(file);
+  }
+
+  /**
+   * @return true if we have the file, which is now the most recently used.
+   */
+  private boolean used(final File file) {
+    synchronized (this) {
+      if (_files.get(file) == null) {
+        return false;
+      }
+    }
+    file.setLastModified(System.currentTimeMillis());
+    return true;
+  }
+
+  private synchronized void discard(final File file) {
+    _verified.remove(file.getName());
+    final Long length = _files.remove(file);
+    if (length != null) {
+      _bytes -= length;
+    }
+    FileUtils.deleteQuietly(file);
+  }
+
+  private void evict() {
+    for (Iterator<Map.Entry<File, Long>> iter = _files.entrySet().iterator(); _bytes > _maxBytes && iter.hasNext();) {
+      final Map.Entry<File, Long> eldest = iter.next();
+      iter.remove();
+      _bytes -= eldest.getValue();
+      _evictions++;
+      _verified.remove(eldest.getKey().getName());
+      FileUtils.deleteQuietly(eldest.getKey());
+    }
+  }
+
+  private File contentFile(final String checksum) {
+    return new File(_contentDir, checksum);
+  }
+
+  private File revisionFile(final String path, final long revision) {
+    try {
+      return new File(_revisionsDir, new String(Hex.encodeHex(md5().digest((path + "@" + revision).getBytes("UTF-8")))));
+    }
+    catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private static MessageDigest md5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  public synchronized long getHits() {
+    return _hits;
+  }
+
+  public synchronized long getMisses() {
+    return _misses;
+  }
+
+  public synchronized long getEvictions() {
+    return _evictions;
+  }
+
+  /**
+   * @return How many times we've found content that didn't match its checksum.
+   */
+  public synchronized long getCorrupt() {
+    return _corrupt;
+  }
+
+  /**
+   * @return Disk space used.
+   */
+  public synchronized long getBytes() {
+    return _bytes;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%d files (%d bytes), %d hits, %d misses, %d evictions, %d corrupt", _files.size(), _bytes, _hits, _misses, _evictions, _corrupt);
+  }
+
+}
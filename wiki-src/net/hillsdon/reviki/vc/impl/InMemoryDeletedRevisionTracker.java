@@ -16,6 +16,8 @@
 package net.hillsdon.reviki.vc.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +29,7 @@ import net.hillsdon.reviki.vc.PageStoreException;
 
 /**
  * This initial implementation is an in-memory cache so will repopulate itself on every restart.
+ * See {@link PersistentDeletedRevisionTracker} for one that doesn't.
  *
  * @author mth
  */
@@ -50,20 +53,46 @@ public class InMemoryDeletedRevisionTracker implements DeletedRevisionTracker {
 
   public synchronized void handleChanges(final long upto, final List<ChangeInfo> chronological) throws PageStoreException, IOException {
     for (ChangeInfo change : chronological) {
-      final String page = change.getPage();
-      if (page != null) {
-        _lastChangeForPath.put(page, change);
-        if (change.isDeletion()) {
-          _lastChangeForPathExistingOnly.remove(page);
-        }
-        else {
-          _lastChangeForPathExistingOnly.put(page, change);
-        }
-      }
+      track(change);
     }
     _lastSyncedRevision = upto;
   }
 
+  private void track(final ChangeInfo change) {
+    final String page = change.getPage();
+    if (page != null) {
+      _lastChangeForPath.put(page, change);
+      if (change.isDeletion()) {
+        _lastChangeForPathExistingOnly.remove(page);
+      }
+      else {
+        _lastChangeForPathExistingOnly.put(page, change);
+      }
+    }
+  }
+
+  /**
+   * @return The last change for each path we know of.
+   */
+  synchronized List<ChangeInfo> lastChanges() {
+    return new ArrayList<ChangeInfo>(_lastChangeForPath.values());
+  }
+
+  /**
+   * Replaces what we know with previously saved state.
+   *
+   * @param lastSynced The revision the state is up to.
+   * @param lastChanges The last change for each path, as from {@link #lastChanges()}.
+   */
+  synchronized void restore(final long lastSynced, final Collection<ChangeInfo> lastChanges) {
+    _lastChangeForPath.clear();
+    _lastChangeForPathExistingOnly.clear();
+    for (ChangeInfo change : lastChanges) {
+      track(change);
+    }
+    _lastSyncedRevision = lastSynced;
+  }
+
   public long getHighestSyncedRevision() throws IOException {
     return _lastSyncedRevision;
   }
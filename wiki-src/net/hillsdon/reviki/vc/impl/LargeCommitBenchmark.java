@@ -0,0 +1,89 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+
+import org.apache.commons.io.FileUtils;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+
+/**
+ * Times classifying the changes in a single commit that moves many files,
+ * e.g. every attachment of a page, with
+ * {@link RepositoryBasicSVNOperations#logEntryToChangeInfos}.  The time
+ * should grow linearly with the number of moves.
+ *
+ * Usage: LargeCommitBenchmark [moves] [iterations]
+ */
+public class LargeCommitBenchmark {
+
+  public static void main(final String[] args) throws Exception {
+    final int moves = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    FSRepositoryFactory.setup();
+    final File dir = File.createTempFile("largeCommitBenchmark", "");
+    if (!dir.delete()) {
+      throw new IllegalStateException("Failed to delete " + dir);
+    }
+    try {
+      final SVNURL url = SVNRepositoryFactory.createLocalRepository(dir, true, false);
+      final SVNRepository repository = SVNRepositoryFactory.create(url);
+      repository.setAuthenticationManager(new BasicAuthenticationManager("benchmark", ""));
+      try {
+        final RepositoryBasicSVNOperations operations = new RepositoryBasicSVNOperations(repository, null);
+        for (int size = moves / 4; size <= moves; size *= 2) {
+          final SVNLogEntry entry = moveAttachments(size);
+          for (int i = 0; i < iterations; ++i) {
+            final long start = System.currentTimeMillis();
+            final List<ChangeInfo> changes = operations.logEntryToChangeInfos("/wiki", "", entry, LogEntryFilter.DESCENDANTS);
+            final long elapsed = System.currentTimeMillis() - start;
+            System.out.println(String.format("%d moves: %d changes in %dms", size, changes.size(), elapsed));
+          }
+        }
+      }
+      finally {
+        repository.closeSession();
+      }
+    }
+    finally {
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  private static SVNLogEntry moveAttachments(final int moves) {
+    final Map<String, SVNLogEntryPath> changedPaths = new LinkedHashMap<String, SVNLogEntryPath>();
+    for (int i = 0; i < moves; ++i) {
+      final String from = "/wiki/Old-attachments/file" + i + ".txt";
+      final String to = "/wiki/New-attachments/file" + i + ".txt";
+      changedPaths.put(from, new SVNLogEntryPath(from, 'D', null, -1));
+      changedPaths.put(to, new SVNLogEntryPath(to, 'A', from, 10));
+    }
+    return new SVNLogEntry(changedPaths, 11, "", null, "");
+  }
+
+}
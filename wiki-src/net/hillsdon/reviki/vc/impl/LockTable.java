@@ -0,0 +1,125 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
+import net.hillsdon.reviki.vc.PageStoreException;
+
+import org.tmatesoft.svn.core.SVNLock;
+
+/**
+ * The locks on a wiki, so that viewing a page doesn't need to ask the
+ * repository whether it's locked.
+ *
+ * All the locks are fetched with one request and kept for a short while,
+ * so this should be shared between requests.  Anything that changes locks
+ * should {@link #invalidate()} the table or {@link #update(String, SVNLock)}
+ * it with what the repository said.  Locks taken or released by other
+ * clients show up when the table is next refreshed, so decisions about
+ * editing should check with the repository instead.
+ */
+public class LockTable {
+
+  public static final long DEFAULT_MAX_AGE_MILLIS = 10 * 1000;
+
+  private final long _maxAgeMillis;
+  private Map<String, SVNLock> _locks = null;
+  private long _loadedAt = 0;
+  // Incremented when the locks change so we don't keep a table fetched before the change.
+  private long _generation = 0;
+  private long _loads = 0;
+
+  public LockTable() {
+    this(DEFAULT_MAX_AGE_MILLIS);
+  }
+
+  /**
+   * @param maxAgeMillis How long to use the locks before fetching them again.
+   */
+  public LockTable(final long maxAgeMillis) {
+    _maxAgeMillis = maxAgeMillis;
+  }
+
+  /**
+   * @param operations Used to fetch the locks if we don't have them or they're too old.
+   * @param path A path relative to the wiki root.
+   * @return The lock on the path or null if it isn't locked.
+   * @throws PageStoreException If we fail to fetch the locks.
+   */
+  public SVNLock getLock(final BasicSVNOperations operations, final String path) throws PageStoreAuthenticationException, PageStoreException {
+    final long generation;
+    synchronized (this) {
+      if (_locks != null && System.currentTimeMillis() - _loadedAt < _maxAgeMillis) {
+        return _locks.get(path);
+      }
+      generation = _generation;
+    }
+    final long started = System.currentTimeMillis();
+    final Map<String, SVNLock> locks = new HashMap<String, SVNLock>(operations.getLocks());
+    synchronized (this) {
+      _loads++;
+      if (generation == _generation) {
+        _locks = locks;
+        _loadedAt = started;
+      }
+      // Inside the lock as update() may be changing the map we've just published.
+      return locks.get(path);
+    }
+  }
+
+  /**
+   * Record the lock on a path as just reported by the repository.
+   *
+   * @param path A path relative to the wiki root.
+   * @param lock The lock or null if it isn't locked.
+   */
+  public synchronized void update(final String path, final SVNLock lock) {
+    _generation++;
+    if (_locks != null) {
+      if (lock == null) {
+        _locks.remove(path);
+      }
+      else {
+        _locks.put(path, lock);
+      }
+    }
+  }
+
+  /**
+   * Fetch the locks again next time we're asked, e.g. because we've just
+   * committed a change that may have released a lock.
+   */
+  public synchronized void invalidate() {
+    _generation++;
+    _locks = null;
+  }
+
+  /**
+   * @return The number of times we've fetched the locks.
+   */
+  public synchronized long getLoads() {
+    return _loads;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%s locks, fetched %d times", _locks == null ? "no" : String.valueOf(_locks.size()), _loads);
+  }
+
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.IOException;
+import java.util.List;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.PageStoreException;
+
+/**
+ * Receives the log a chunk at a time, see
+ * {@link BasicSVNOperations#log(String, LogEntryFilter, long, long, long, LogChunkHandler)}.
+ */
+public interface LogChunkHandler {
+
+  /**
+   * @param upto The last revision the chunk covers, its changes may stop short of it.
+   * @param chronological The changes in the chunk, oldest first.
+   */
+  void handleChanges(long upto, List<ChangeInfo> chronological) throws PageStoreException, IOException;
+
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeSubscriber;
+import net.hillsdon.reviki.vc.PageStoreException;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+
+/**
+ * Page content by revision, shared between requests and bounded by size, least
+ * recently used first out.
+ *
+ * The content of a page at a given revision never changes, so those entries are
+ * kept until evicted.  For the head revision we remember the revision each page
+ * was last changed in.  That's kept up to date as changes are dispatched to us,
+ * so a head read is served from the cache until the page changes.
+ *
+ * Lock information can change without a commit so it's never cached.
+ */
+public class PageContentCache implements ChangeSubscriber {
+
+  public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+  /**
+   * A rough allowance for everything but the content.
+   */
+  private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+  private static final class Key {
+    private final String _path;
+    private final long _revision;
+    private final boolean _head;
+
+    public Key(final String path, final long revision, final boolean head) {
+      _path = path;
+      _revision = revision;
+      _head = head;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (obj instanceof Key) {
+        final Key other = (Key) obj;
+        return _path.equals(other._path) && _revision == other._revision && _head == other._head;
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return (_path.hashCode() * 31 + (int) (_revision ^ (_revision >>> 32))) * 31 + (_head ? 1 : 0);
+    }
+  }
+
+  private final long _maxBytes;
+  private final LinkedHashMap<Key, VersionedPageInfo> _entries = new LinkedHashMap<Key, VersionedPageInfo>(16, 0.75f, true);
+  private final Map<String, Long> _headLastChanged = new HashMap<String, Long>();
+  private long _bytes = 0;
+  private long _lowestUnsyncedRevision = Long.MAX_VALUE; // When the cache is empty nothing is unsynced
+
+  private long _hits = 0;
+  private long _misses = 0;
+  private long _evictions = 0;
+
+  public PageContentCache() {
+    this(DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param maxBytes Approximate bound on the memory used by cached content.
+   */
+  public PageContentCache(final long maxBytes) {
+    _maxBytes = maxBytes;
+  }
+
+  /**
+   * @param path The page.
+   * @param revision A revision or -1 for head.
+   * @return The page without lock information, or null if we don't have it.
+   */
+  public synchronized VersionedPageInfo get(final String path, final long revision) {
+    final Key key = keyFor(path, revision);
+    final VersionedPageInfo page = key == null ? null : _entries.get(key);
+    if (page == null) {
+      _misses++;
+    }
+    else {
+      _hits++;
+    }
+    return page;
+  }
+
+  /**
+   * Caches a page fetched from the store.  Pages that don't exist at the
+   * revision aren't cached, nor is head content fetched before the revision
+   * we've synced to.
+   *
+   * @param revision The revision requested, -1 for head.
+   * @param fetched The page, any lock information is dropped.
+   */
+  public synchronized void put(final long revision, final VersionedPageInfo fetched) {
+    if (fetched.isNewPage() || revision < -1) {
+      return;
+    }
+    final VersionedPageInfo page = withoutLockInformation(fetched);
+    final boolean head = revision == -1;
+    if (head) {
+      if (_lowestUnsyncedRevision == Long.MAX_VALUE) {
+        // We need to hear about later changes to know when this goes stale.
+        _lowestUnsyncedRevision = page.getRevision() + 1;
+      }
+      else if (page.getRevision() + 1 < _lowestUnsyncedRevision) {
+        // Fetched before changes we've already been told about, one of which
+        // may be to this page.  Changes already queued for us start after the
+        // synced revision so we can't go back for them.
+        return;
+      }
+      _headLastChanged.put(page.getPath(), page.getLastChangedRevision());
+    }
+    final Key key = new Key(page.getPath(), head ? page.getLastChangedRevision() : revision, head);
+    final VersionedPageInfo previous = _entries.put(key, page);
+    if (previous != null) {
+      _bytes -= sizeOf(previous);
+    }
+    _bytes += sizeOf(page);
+    evict();
+  }
+
+  /**
+   * Forget the head revision of the page, e.g. because we've just changed it.
+   *
+   * @param path The page.
+   */
+  public synchronized void expire(final String path) {
+    final Long lastChanged = _headLastChanged.remove(path);
+    if (lastChanged != null) {
+      remove(new Key(path, lastChanged, true));
+    }
+  }
+
+  private Key keyFor(final String path, final long revision) {
+    if (revision >= 0) {
+      return new Key(path, revision, false);
+    }
+    if (revision == -1) {
+      final Long lastChanged = _headLastChanged.get(path);
+      if (lastChanged != null) {
+        return new Key(path, lastChanged, true);
+      }
+    }
+    return null;
+  }
+
+  private void remove(final Key key) {
+    final VersionedPageInfo removed = _entries.remove(key);
+    if (removed != null) {
+      _bytes -= sizeOf(removed);
+    }
+  }
+
+  private void evict() {
+    for (Iterator<Map.Entry<Key, VersionedPageInfo>> iter = _entries.entrySet().iterator(); _bytes > _maxBytes && iter.hasNext();) {
+      final Map.Entry<Key, VersionedPageInfo> eldest = iter.next();
+      iter.remove();
+      _bytes -= sizeOf(eldest.getValue());
+      _evictions++;
+      if (eldest.getKey()._head) {
+        _headLastChanged.remove(eldest.getKey()._path);
+      }
+    }
+  }
+
+  private static VersionedPageInfo withoutLockInformation(final VersionedPageInfo page) {
+    if (!page.isLocked()) {
+      return page;
+    }
+    return new VersionedPageInfoImpl(page.getWiki(), page.getPath(), page.getContent(), page.getRevision(), page.getLastChangedRevision(), page.getLastChangedUser(), page.getLastChangedDate(), null, null, null, page.getAttributes());
+  }
+
+  private static long sizeOf(final VersionedPageInfo page) {
+    return ENTRY_OVERHEAD_BYTES + 2L * page.getContent().length();
+  }
+
+  public synchronized long getHighestSyncedRevision() throws IOException {
+    return _lowestUnsyncedRevision - 1;
+  }
+
+  public synchronized void handleChanges(final long upto, final List<ChangeInfo> chronological) throws PageStoreException, IOException {
+    for (ChangeInfo change : chronological) {
+      if (change.getKind() == StoreKind.PAGE) {
+        final String path = change.getPage();
+        final Long lastChanged = _headLastChanged.get(path);
+        // We may already have fetched the page after this change.
+        if (lastChanged != null && lastChanged < change.getRevision()) {
+          expire(path);
+        }
+      }
+    }
+    _lowestUnsyncedRevision = upto + 1;
+  }
+
+  public synchronized long getHits() {
+    return _hits;
+  }
+
+  public synchronized long getMisses() {
+    return _misses;
+  }
+
+  public synchronized long getEvictions() {
+    return _evictions;
+  }
+
+  /**
+   * @return Approximate memory used by cached content.
+   */
+  public synchronized long getBytes() {
+    return _bytes;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%d pages (~%d bytes), %d hits, %d misses, %d evictions", _entries.size(), _bytes, _hits, _misses, _evictions);
+  }
+
+}
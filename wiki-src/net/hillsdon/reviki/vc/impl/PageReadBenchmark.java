@@ -0,0 +1,113 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.hillsdon.reviki.vc.PageReference;
+
+import org.apache.commons.io.FileUtils;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+
+/**
+ * Compares reading pages from a local repository with the separate requests
+ * we used to make (check the path at the revision, get the file, check the
+ * path at head, get the lock) against {@link SVNPageStore#get(PageReference, long)}.
+ *
+ * Usage: PageReadBenchmark [pages] [iterations]
+ */
+public class PageReadBenchmark {
+
+  public static void main(final String[] args) throws Exception {
+    final int pages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    FSRepositoryFactory.setup();
+    final File dir = File.createTempFile("pageReadBenchmark", "");
+    if (!dir.delete()) {
+      throw new IllegalStateException("Failed to delete " + dir);
+    }
+    try {
+      final SVNURL url = SVNRepositoryFactory.createLocalRepository(dir, true, false);
+      final SVNRepository repository = SVNRepositoryFactory.create(url);
+      repository.setAuthenticationManager(new BasicAuthenticationManager("benchmark", ""));
+      try {
+        final ISVNEditor editor = repository.getCommitEditor("Create pages", null);
+        editor.openRoot(-1);
+        for (int i = 0; i < pages; ++i) {
+          final String path = "Page" + i;
+          editor.addFile(path, null, -1);
+          editor.applyTextDelta(path, null);
+          final String checksum = new SVNDeltaGenerator().sendDelta(path, new ByteArrayInputStream(("Content of " + path).getBytes("UTF-8")), editor, true);
+          editor.closeFile(path, checksum);
+        }
+        editor.closeDir();
+        editor.closeEdit();
+
+        final BasicSVNOperations operations = new RepositoryBasicSVNOperations(repository, null);
+        final SVNPageStore store = new SVNPageStore("wiki", new InMemoryDeletedRevisionTracker(), operations, null, new FixedMimeIdentifier());
+        for (int i = 0; i < iterations; ++i) {
+          for (long revision : new long[] {-1, 1}) {
+            final long separate = timeSeparateRequests(operations, pages, revision);
+            final long combined = timeStore(store, pages, revision);
+            System.out.println(String.format("%d pages at revision %d: separate requests %dms, combined %dms", pages, revision, separate, combined));
+          }
+        }
+      }
+      finally {
+        repository.closeSession();
+      }
+    }
+    finally {
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  private static long timeSeparateRequests(final BasicSVNOperations operations, final int pages, final long revision) throws Exception {
+    final long start = System.currentTimeMillis();
+    for (int i = 0; i < pages; ++i) {
+      final String path = "Page" + i;
+      if (operations.checkPath(path, revision) == SVNNodeKind.FILE) {
+        final Map<String, String> properties = new HashMap<String, String>();
+        operations.getFile(path, revision, properties, new ByteArrayOutputStream());
+        if (revision == -1 || operations.checkPath(path, -1) == SVNNodeKind.FILE) {
+          operations.getLock(path);
+        }
+      }
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  private static long timeStore(final SVNPageStore store, final int pages, final long revision) throws Exception {
+    final long start = System.currentTimeMillis();
+    for (int i = 0; i < pages; ++i) {
+      store.get(new PageReferenceImpl("Page" + i), revision);
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.PageStoreException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Snapshots the tracked state to a file so that after a restart we only need
+ * to read the log for revisions since the snapshot, not the whole history.
+ *
+ * Snapshots are taken at most every {@link #SNAPSHOT_INTERVAL_MILLIS} when
+ * there are changes, and are written to a temporary file then renamed so a
+ * crash leaves the previous snapshot intact.  The snapshot records the
+ * repository URL and is ignored if the wiki has since been pointed elsewhere.
+ */
+public class PersistentDeletedRevisionTracker extends InMemoryDeletedRevisionTracker {
+
+  private static final Log LOG = LogFactory.getLog(PersistentDeletedRevisionTracker.class);
+
+  static final String FILE_NAME = "deleted-revision-tracker.bin";
+  static final long SNAPSHOT_INTERVAL_MILLIS = 60 * 1000;
+
+  private static final int MAGIC = 0x52564454;
+  private static final int VERSION = 1;
+
+  private final File _file;
+  private final String _url;
+  private long _lastSnapshot = 0;
+
+  /**
+   * @param dir Directory to keep the snapshot in, if null we behave as {@link InMemoryDeletedRevisionTracker}.
+   * @param url The repository URL the changes are from.
+   */
+  public PersistentDeletedRevisionTracker(final File dir, final String url) {
+    _file = dir == null ? null : new File(dir, FILE_NAME);
+    _url = url;
+    if (_file != null && _file.exists()) {
+      try {
+        load();
+      }
+      catch (IOException ex) {
+        LOG.warn("Ignoring unreadable snapshot " + _file, ex);
+        restore(0, new ArrayList<ChangeInfo>());
+      }
+    }
+  }
+
+  @Override
+  public synchronized void handleChanges(final long upto, final List<ChangeInfo> chronological) throws PageStoreException, IOException {
+    super.handleChanges(upto, chronological);
+    final long now = System.currentTimeMillis();
+    if (_file != null && now - _lastSnapshot >= SNAPSHOT_INTERVAL_MILLIS) {
+      _lastSnapshot = now;
+      try {
+        snapshot();
+      }
+      catch (IOException ex) {
+        LOG.error("Failed to write snapshot " + _file, ex);
+      }
+    }
+  }
+
+  /**
+   * Writes the current state to disk.
+   *
+   * @throws IOException On failure to write.
+   */
+  public synchronized void snapshot() throws IOException {
+    if (_file == null) {
+      return;
+    }
+    final List<ChangeInfo> changes = lastChanges();
+    final File temp = new File(_file.getParentFile(), _file.getName() + ".tmp");
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      ChangeInfoCodec.writeString(out, _url);
+      out.writeLong(getHighestSyncedRevision());
+      out.writeInt(changes.size());
+      for (ChangeInfo change : changes) {
+        ChangeInfoCodec.write(out, change);
+      }
+    }
+    finally {
+      out.close();
+    }
+    if (!temp.renameTo(_file)) {
+      // Windows won't rename over an existing file.
+      if (!_file.delete() || !temp.renameTo(_file)) {
+        throw new IOException("Failed to rename " + temp + " to " + _file);
+      }
+    }
+  }
+
+  private void load() throws IOException {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        LOG.info("Ignoring snapshot " + _file + " in an unknown format");
+        return;
+      }
+      final String url = ChangeInfoCodec.readString(in);
+      if (_url != null && !_url.equals(url)) {
+        LOG.info("Ignoring snapshot " + _file + " for " + url);
+        return;
+      }
+      final long lastSynced = in.readLong();
+      final int size = in.readInt();
+      // Each change is at least a byte.
+      ChangeInfoCodec.checkLength(size, in.available());
+      final List<ChangeInfo> changes = new ArrayList<ChangeInfo>(size);
+      for (int i = 0; i < size; ++i) {
+        changes.add(ChangeInfoCodec.read(in));
+      }
+      restore(lastSynced, changes);
+      LOG.debug("Restored " + size + " paths up to revision " + lastSynced + " from " + _file);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+}
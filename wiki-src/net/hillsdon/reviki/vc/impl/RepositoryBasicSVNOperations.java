@@ -22,13 +22,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import net.hillsdon.reviki.vc.AlreadyLockedException;
 import net.hillsdon.reviki.vc.ChangeInfo;
@@ -54,18 +53,15 @@ import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.SVNProperties;
 import org.tmatesoft.svn.core.SVNProperty;
 import org.tmatesoft.svn.core.SVNPropertyValue;
+import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
 import org.tmatesoft.svn.core.internal.wc.SVNFileUtil;
 import org.tmatesoft.svn.core.io.ISVNEditor;
 import org.tmatesoft.svn.core.io.ISVNFileCheckoutTarget;
 import org.tmatesoft.svn.core.io.SVNRepository;
-import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
-import org.tmatesoft.svn.core.wc.SVNClientManager;
-import org.tmatesoft.svn.core.wc.SVNInfo;
-import org.tmatesoft.svn.core.wc.SVNRevision;
-import org.tmatesoft.svn.core.wc.SVNWCClient;
-import org.tmatesoft.svn.core.wc.SVNWCUtil;
+
+import com.google.common.collect.Lists;
 
 /**
  * The real impl, using an {@link SVNRepository}.
@@ -78,50 +74,88 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
 
   private final SVNRepository _repository;
   private final AutoPropertiesApplier _autoPropertiesApplier;
+  private final WikiRootLocations _rootLocations;
 
   public RepositoryBasicSVNOperations(final SVNRepository repository, final AutoPropertiesApplier autoPropertiesApplier) {
+    this(repository, autoPropertiesApplier, new WikiRootLocations());
+  }
+
+  /**
+   * @param rootLocations Shared between instances for the same wiki to avoid looking up the wiki root's history each time.
+   */
+  public RepositoryBasicSVNOperations(final SVNRepository repository, final AutoPropertiesApplier autoPropertiesApplier, final WikiRootLocations rootLocations) {
     _repository = repository;
     _autoPropertiesApplier = autoPropertiesApplier;
+    _rootLocations = rootLocations;
   }
 
   public List<ChangeInfo> log(final String path, final long limit, final LogEntryFilter logEntryFilter, final boolean stopOnCopy, final long startRevision, final long endRevision) throws PageStoreAuthenticationException, PageStoreException {
     return execute(new SVNAction<List<ChangeInfo>>() {
       public List<ChangeInfo> perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
-        final List<ChangeInfo> entries = new LinkedList<ChangeInfo>();
+        return newestFirst(path, limit, logEntryFilter, stopOnCopy, startRevision, endRevision);
+      }
+    });
+  }
+
+  public void log(final String path, final LogEntryFilter logEntryFilter, final long startRevision, final long endRevision, final long chunkRevisions, final LogChunkHandler handler) throws PageStoreAuthenticationException, PageStoreException, IOException {
+    final long end = endRevision < 0 ? getLatestRevision() : endRevision;
+    for (long start = Math.max(0, startRevision); start <= end; start += chunkRevisions) {
+      final long chunkStart = start;
+      final long chunkEnd = Math.min(end, start + chunkRevisions - 1);
+      final List<ChangeInfo> chronological = execute(new SVNAction<List<ChangeInfo>>() {
+        public List<ChangeInfo> perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
+          try {
+            return Lists.reverse(newestFirst(path, -1, logEntryFilter, false, chunkStart, chunkEnd));
+          }
+          catch (SVNException ex) {
+            // The path didn't exist yet at the end of the chunk.
+            if (SVNErrorCode.FS_NOT_FOUND.equals(ex.getErrorMessage().getErrorCode())) {
+              return Collections.emptyList();
+            }
+            throw ex;
+          }
+        }
+      });
+      handler.handleChanges(chunkEnd, chronological);
+    }
+  }
+
+  private List<ChangeInfo> newestFirst(final String path, final long limit, final LogEntryFilter logEntryFilter, final boolean stopOnCopy, final long startRevision, final long endRevision) throws SVNException {
+    final List<ChangeInfo> entries = new ArrayList<ChangeInfo>();
+    return atRootLocationFor(endRevision, new RootLocationAction<List<ChangeInfo>>() {
+      public List<ChangeInfo> perform(final SVNRepository repos) throws SVNException {
+        final String[] rootPath = {repos.getRepositoryPath("")};
         // Start and end reversed to get newest changes first.
-        SVNRepository repos = getSVNReposForRevision(_repository, endRevision);
-        try {
-          final String[] rootPath = {repos.getRepositoryPath("")};
-          repos.log(new String[] { path }, endRevision, startRevision, true, stopOnCopy, limit, new ISVNLogEntryHandler() {
-            public void handleLogEntry(final SVNLogEntry logEntry) throws SVNException {
-              // Has the wiki root been renamed?  If so then follow the rename.
-              if (logEntry.getChangedPaths().containsKey(rootPath[0])) {
-                SVNLogEntryPath changedPath = (SVNLogEntryPath) logEntry.getChangedPaths().get(rootPath[0]);
-                if (changedPath.getCopyPath() != null) {
-                  rootPath[0] = changedPath.getCopyPath();
-                }
+        repos.log(new String[] { path }, endRevision, startRevision, true, stopOnCopy, limit, new ISVNLogEntryHandler() {
+          public void handleLogEntry(final SVNLogEntry logEntry) throws SVNException {
+            // Has the wiki root been renamed?  If so then follow the rename.
+            if (logEntry.getChangedPaths().containsKey(rootPath[0])) {
+              SVNLogEntryPath changedPath = (SVNLogEntryPath) logEntry.getChangedPaths().get(rootPath[0]);
+              if (changedPath.getCopyPath() != null) {
+                rootPath[0] = changedPath.getCopyPath();
               }
-              entries.addAll(logEntryToChangeInfos(rootPath[0], path, logEntry, logEntryFilter));
             }
-          });
-          return entries;
-        }
-        finally {
-          repos.closeSession();
-        }
+            entries.addAll(logEntryToChangeInfos(rootPath[0], path, logEntry, logEntryFilter));
+          }
+        });
+        return entries;
       }
     });
   }
 
   @SuppressWarnings("unchecked")
-  private List<ChangeInfo> logEntryToChangeInfos(final String rootPath, final String loggedPath, final SVNLogEntry entry, final LogEntryFilter logEntryFilter) throws SVNException {
+  List<ChangeInfo> logEntryToChangeInfos(final String rootPath, final String loggedPath, final SVNLogEntry entry, final LogEntryFilter logEntryFilter) throws SVNException {
     final String fullLoggedPathFromAppend = SVNPathUtil.append(rootPath, loggedPath);
     final String fullLoggedPath = fixFullLoggedPath(fullLoggedPathFromAppend);
-    final List<ChangeInfo> results = new LinkedList<ChangeInfo>();
+    final List<ChangeInfo> results = new ArrayList<ChangeInfo>();
+    Map<String, SVNLogEntryPath> copiedTo = null;
     for (Map.Entry<String, SVNLogEntryPath> pathEntry : (Iterable<Map.Entry<String, SVNLogEntryPath>>) entry.getChangedPaths().entrySet()) {
       final String changedPath = pathEntry.getKey();
       if (logEntryFilter.accept(fullLoggedPath, pathEntry.getValue())) {
-        ChangeInfo change = classifiedChange(_repository, entry, rootPath, changedPath);
+        if (copiedTo == null) {
+          copiedTo = copiedTo(entry);
+        }
+        ChangeInfo change = classifiedChange(_repository, entry, copiedTo, rootPath, changedPath);
         // Might want to put this at a higher level if we can ever do
         // something useful with 'other' changes.
         if (change.getKind() != StoreKind.OTHER) {
@@ -170,9 +204,31 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
     }
   }
 
-  private static final Pattern PAGE_PATH = Pattern.compile("[^/]*");
-  private static final Pattern ATTACHMENT_PATH = Pattern.compile("([^/]*?)-attachments/(.*)");
-  static ChangeInfo classifiedChange(final SVNRepository repository, final SVNLogEntry entry, String rootPath, final String path) throws SVNException {
+  private static final String ATTACHMENTS_SUFFIX = "-attachments";
+
+  /**
+   * Where each path copied in the log entry was added.  Computed once per entry
+   * rather than per changed path as a single commit can change many thousands.
+   */
+  @SuppressWarnings("unchecked")
+  static Map<String, SVNLogEntryPath> copiedTo(final SVNLogEntry entry) {
+    final Map<String, SVNLogEntryPath> copiedTo = new HashMap<String, SVNLogEntryPath>();
+    for (SVNLogEntryPath logEntryPath : (Iterable<SVNLogEntryPath>) entry.getChangedPaths().values()) {
+      if (logEntryPath.getCopyPath() != null && ChangeType.forCode(logEntryPath.getType()).equals(ChangeType.ADDED)) {
+        copiedTo.put(logEntryPath.getCopyPath(), logEntryPath);
+      }
+    }
+    return copiedTo;
+  }
+
+  static ChangeInfo classifiedChange(final SVNRepository repository, final SVNLogEntry entry, final String rootPath, final String path) throws SVNException {
+    return classifiedChange(repository, entry, copiedTo(entry), rootPath, path);
+  }
+
+  /**
+   * @param copiedTo From {@link #copiedTo(SVNLogEntry)}.
+   */
+  static ChangeInfo classifiedChange(final SVNRepository repository, final SVNLogEntry entry, final Map<String, SVNLogEntryPath> copiedTo, String rootPath, final String path) throws SVNException {
     StoreKind kind = StoreKind.OTHER;
     // Be sure the root path ends with a slash because the 'path' will always have the slash.
     if (!rootPath.endsWith("/")) {
@@ -180,33 +236,31 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
     }
     String name = path.length() > rootPath.length() ? path.substring(rootPath.length()) : path;
     String page = null;
-    Matcher matcher = PAGE_PATH.matcher(name);
-    if (matcher.matches() && !name.endsWith("-attachments")) {
-      kind = StoreKind.PAGE;
-      page = name;
-    }
-    else {
-      matcher = ATTACHMENT_PATH.matcher(name);
-      if (matcher.matches()) {
-        kind = StoreKind.ATTACHMENT;
-        page = matcher.group(1);
-        name = matcher.group(2);
+    // Pages are directly under the root, attachments directly under a page's attachment directory.
+    final int slash = name.indexOf('/');
+    if (slash == -1) {
+      if (!name.endsWith(ATTACHMENTS_SUFFIX)) {
+        kind = StoreKind.PAGE;
+        page = name;
       }
     }
+    else if (name.startsWith(ATTACHMENTS_SUFFIX, slash - ATTACHMENTS_SUFFIX.length())) {
+      kind = StoreKind.ATTACHMENT;
+      page = name.substring(0, slash - ATTACHMENTS_SUFFIX.length());
+      name = name.substring(slash + 1);
+    }
     String user = entry.getAuthor();
     Date date = entry.getDate();
     SVNLogEntryPath logForPath = (SVNLogEntryPath) entry.getChangedPaths().get(path);
 
     PageLinkTarget renamedTo = null;
-    for (Object entryPath : entry.getChangedPaths().values()) {
-      SVNLogEntryPath logEntryPath = (SVNLogEntryPath) entryPath;
-      if (ChangeType.forCode(logEntryPath.getType()).equals(ChangeType.ADDED) && path.equals(logEntryPath.getCopyPath())) {
-        if (logEntryPath.getPath().startsWith(rootPath)) {
-          renamedTo = new SimplePageLinkTarget(null, new PageReferenceImpl(logEntryPath.getPath()).getName(), null, null);
-        }
-        else {
-          renamedTo = new SVNPathLinkTarget(repository.getRepositoryRoot(false).toString(), logEntryPath.getPath());
-        }
+    final SVNLogEntryPath logEntryPath = copiedTo.get(path);
+    if (logEntryPath != null) {
+      if (logEntryPath.getPath().startsWith(rootPath)) {
+        renamedTo = new SimplePageLinkTarget(null, new PageReferenceImpl(logEntryPath.getPath()).getName(), null, null);
+      }
+      else {
+        renamedTo = new SVNPathLinkTarget(repository.getRepositoryRoot(false).toString(), logEntryPath.getPath());
       }
     }
     String copiedFrom = logForPath.getCopyPath();
@@ -264,7 +318,7 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
     final long effectiveRevision = revision >= 0 ? revision : getLatestRevision();
     execute(new SVNAction<Void>() {
       public Void perform(final BasicSVNOperations operation, final SVNRepository repository) throws SVNException, PageStoreException {
-        ISVNFileCheckoutTarget coTarget = new ISVNFileCheckoutTarget() {
+        final ISVNFileCheckoutTarget coTarget = new ISVNFileCheckoutTarget() {
           public OutputStream getOutputStream(final String path) throws SVNException {
             // filePropertyChange doesn't give us this one.
             filePropertyChanged(path, "svn:entry:revision", SVNPropertyValue.create(Long.toString(effectiveRevision)));
@@ -281,7 +335,12 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
           }
         };
         try {
-          getSVNReposForRevision(repository, revision).checkoutFiles(revision, outputStreams.keySet().toArray(new String[outputStreams.size()]), coTarget);
+          atRootLocationFor(revision, new RootLocationAction<Void>() {
+            public Void perform(final SVNRepository repos) throws SVNException {
+              repos.checkoutFiles(revision, outputStreams.keySet().toArray(new String[outputStreams.size()]), coTarget);
+              return null;
+            }
+          });
         }
         catch (SVNException ex) {
           // FIXME: This used to check the code, but checkoutFiles gives much more random codes than getFile
@@ -292,22 +351,37 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
     });
   }
 
-  private SVNRepository getSVNReposForRevision(final SVNRepository repository, final long revision) throws SVNException {
-    SVNClientManager manager = SVNClientManager.newInstance(SVNWCUtil.createDefaultOptions(true), repository.getAuthenticationManager());
-    try {
-      SVNWCClient client = manager.getWCClient();
-      SVNInfo info1 = client.doInfo(repository.getLocation(), SVNRevision.HEAD, SVNRevision.create(revision));
-
-      SVNRepository reposForRev = SVNRepositoryFactory.create(info1.getURL());
-      reposForRev.setAuthenticationManager(repository.getAuthenticationManager());
+  /**
+   * Something to do with the repository at the wiki root's location as of some revision.
+   */
+  private interface RootLocationAction<T> {
+    T perform(SVNRepository repository) throws SVNException;
+  }
 
-      return reposForRev;
+  /**
+   * Performs the action with our session moved to where the wiki root was at the given revision.
+   * The session's connection is reused if possible.
+   */
+  private <T> T atRootLocationFor(final long revision, final RootLocationAction<T> action) throws SVNException {
+    final SVNURL location = _repository.getLocation();
+    final SVNURL rootLocation = _rootLocations.getLocation(_repository, revision);
+    if (rootLocation == null || rootLocation.equals(location)) {
+      return action.perform(_repository);
+    }
+    _repository.setLocation(rootLocation, false);
+    try {
+      return action.perform(_repository);
     }
     finally {
-      manager.dispose();
+      _repository.setLocation(location, false);
     }
   }
 
+  private boolean isRootElsewhereAt(final long revision) throws SVNException {
+    final SVNURL rootLocation = _rootLocations.getLocation(_repository, revision);
+    return rootLocation != null && !rootLocation.equals(_repository.getLocation());
+  }
+
   public void getFile(final String path, final long revision, final Map<String, String> properties, final OutputStream out) throws NotFoundException, PageStoreAuthenticationException, PageStoreException {
     // Not quite all the tests pass if we implement getFile in terms of getFiles, and it would be less efficient
     // getFiles(revision, Collections.singletonMap(path, properties), Collections.singletonMap(path, out));
@@ -321,7 +395,15 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
           }
           catch (SVNException ex) {
             // Try again using the location of the wiki root as it was in the given revision
-            getSVNReposForRevision(repository, revision).getFile(path, revision, props1, out);
+            if (!isRootElsewhereAt(revision)) {
+              throw ex;
+            }
+            atRootLocationFor(revision, new RootLocationAction<Void>() {
+              public Void perform(final SVNRepository repos) throws SVNException {
+                repos.getFile(path, revision, props1, out);
+                return null;
+              }
+            });
           }
 
           if(properties != null) {
@@ -343,6 +425,25 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
     });
   }
 
+  public SVNLock getFileAndLock(final String path, final long revision, final Map<String, String> properties, final OutputStream out) throws NotFoundException, PageStoreAuthenticationException, PageStoreException {
+    return execute(new SVNAction<SVNLock>() {
+      public SVNLock perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
+        // No need to check the path first, getFile tells us if it's not there.
+        operations.getFile(path, revision, properties, out);
+        try {
+          return repository.getLock(path);
+        }
+        catch (SVNException ex) {
+          // It was a file at 'revision' but is now deleted.
+          if (SVNErrorCode.FS_NOT_FOUND.equals(ex.getErrorMessage().getErrorCode())) {
+            return null;
+          }
+          throw ex;
+        }
+      }
+    });
+  }
+
   public long getLatestRevision() throws PageStoreAuthenticationException, PageStoreException {
     return execute(new SVNAction<Long>() {
       public Long perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
@@ -359,8 +460,12 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
     return execute(new SVNAction<SVNNodeKind>() {
       public SVNNodeKind perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
         SVNNodeKind kind = repository.checkPath(path, revision);
-        if (SVNNodeKind.NONE.equals(kind)) {
-          kind = getSVNReposForRevision(repository, revision).checkPath(path, revision);
+        if (SVNNodeKind.NONE.equals(kind) && isRootElsewhereAt(revision)) {
+          kind = atRootLocationFor(revision, new RootLocationAction<SVNNodeKind>() {
+            public SVNNodeKind perform(final SVNRepository repos) throws SVNException {
+              return repos.checkPath(path, revision);
+            }
+          });
         }
         return kind;
       }
@@ -437,7 +542,31 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
   public SVNLock getLock(final String path) throws NotFoundException, PageStoreAuthenticationException, PageStoreException {
     return execute(new SVNAction<SVNLock>() {
       public SVNLock perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
-        return repository.getLock(path);
+        try {
+          return repository.getLock(path);
+        }
+        catch (SVNException ex) {
+          if (SVNErrorCode.FS_NOT_FOUND.equals(ex.getErrorMessage().getErrorCode())) {
+            throw new NotFoundException(ex);
+          }
+          throw ex;
+        }
+      }
+    });
+  }
+
+  public Map<String, SVNLock> getLocks() throws PageStoreAuthenticationException, PageStoreException {
+    return execute(new SVNAction<Map<String, SVNLock>>() {
+      public Map<String, SVNLock> perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
+        final String rootPath = repository.getRepositoryPath("");
+        final String prefix = rootPath.endsWith("/") ? rootPath : rootPath + "/";
+        final Map<String, SVNLock> locks = new LinkedHashMap<String, SVNLock>();
+        for (SVNLock lock : repository.getLocks("")) {
+          if (lock.getPath().startsWith(prefix)) {
+            locks.put(lock.getPath().substring(prefix.length()), lock);
+          }
+        }
+        return locks;
       }
     });
   }
@@ -15,7 +15,6 @@
  */
 package net.hillsdon.reviki.vc.impl;
 
-import static java.lang.String.format;
 import static net.hillsdon.fij.text.Strings.fromUTF8;
 import static net.hillsdon.reviki.wiki.macros.AttrMacro.REVIKI_ATTRIBUTE_PREFIX;
 
@@ -36,6 +35,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.io.output.TeeOutputStream;
 import org.tmatesoft.svn.core.SVNDirEntry;
 import org.tmatesoft.svn.core.SVNErrorCode;
 import org.tmatesoft.svn.core.SVNException;
@@ -52,9 +52,10 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 
-import net.hillsdon.fij.io.LazyOutputStream;
+import net.hillsdon.fij.io.RangeOutputStream;
 import net.hillsdon.fij.text.Strings;
 import net.hillsdon.reviki.vc.AlreadyLockedException;
+import net.hillsdon.reviki.vc.AttachmentContent;
 import net.hillsdon.reviki.vc.AttachmentHistory;
 import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.ChangeType;
@@ -124,17 +125,48 @@ public class SVNPageStore extends AbstractPageStore {
   private final String _wiki;
   private final BasicSVNOperations _operations;
   private final DeletedRevisionTracker _tracker;
+  private final ChangeLogCache _changeLog;
+  private final LockTable _locks;
+  private final DiskContentCache _diskCache;
   private final MimeIdentifier _mimeIdentifier;
   private final AutoPropertiesApplier _autoPropertiesApplier;
-
+  // Set once the repository has accepted our credentials, see checkAccess().
+  private volatile boolean _accessChecked = false;
 
   /**
    * Note the repository URL can be deep, it need not refer to the root of the
    * repository itself. We put pages in the root of what we're given.
    */
   public SVNPageStore(final String wiki, final DeletedRevisionTracker tracker, final BasicSVNOperations operations, final AutoPropertiesApplier autoPropertiesApplier, final MimeIdentifier mimeIdentifier) {
+    this(wiki, tracker, null, operations, autoPropertiesApplier, mimeIdentifier);
+  }
+
+  /**
+   * @param changeLog If non-null, used in preference to the repository log once populated.
+   */
+  public SVNPageStore(final String wiki, final DeletedRevisionTracker tracker, final ChangeLogCache changeLog, final BasicSVNOperations operations, final AutoPropertiesApplier autoPropertiesApplier, final MimeIdentifier mimeIdentifier) {
+    this(wiki, tracker, changeLog, null, operations, autoPropertiesApplier, mimeIdentifier);
+  }
+
+  /**
+   * @param changeLog If non-null, used in preference to the repository log once populated.
+   * @param locks If non-null, page views take their lock information from it rather than asking the repository.
+   */
+  public SVNPageStore(final String wiki, final DeletedRevisionTracker tracker, final ChangeLogCache changeLog, final LockTable locks, final BasicSVNOperations operations, final AutoPropertiesApplier autoPropertiesApplier, final MimeIdentifier mimeIdentifier) {
+    this(wiki, tracker, changeLog, locks, null, operations, autoPropertiesApplier, mimeIdentifier);
+  }
+
+  /**
+   * @param changeLog If non-null, used in preference to the repository log once populated.
+   * @param locks If non-null, page views take their lock information from it rather than asking the repository.
+   * @param diskCache If non-null, content is read from it where possible.
+   */
+  public SVNPageStore(final String wiki, final DeletedRevisionTracker tracker, final ChangeLogCache changeLog, final LockTable locks, final DiskContentCache diskCache, final BasicSVNOperations operations, final AutoPropertiesApplier autoPropertiesApplier, final MimeIdentifier mimeIdentifier) {
     _wiki = wiki;
     _tracker = tracker;
+    _changeLog = changeLog;
+    _locks = locks;
+    _diskCache = diskCache;
     _operations = operations;
     _autoPropertiesApplier = autoPropertiesApplier;
     _mimeIdentifier = mimeIdentifier;
@@ -142,6 +174,14 @@ public class SVNPageStore extends AbstractPageStore {
 
   @Override
   public List<ChangeInfo> recentChanges(final long limit) throws PageStoreException {
+    if (useChangeLog()) {
+      try {
+        return _changeLog.recentChanges(limit);
+      }
+      catch (IOException ex) {
+        throw new PageStoreException(ex);
+      }
+    }
     return _operations.log("", limit, LogEntryFilter.DESCENDANTS, true, 0, -1);
   }
 
@@ -152,7 +192,7 @@ public class SVNPageStore extends AbstractPageStore {
     long lastRevision = deletedIn == null ? -1 : deletedIn.getRevision() - 1;
     // We follow all the previous locations.
     String path = ref.getPath();
-    while (path != null && changes.addAll(_operations.log(path, -1, LogEntryFilter.PATH_ONLY, false, 0, lastRevision))) {
+    while (path != null && changes.addAll(pathLog(path, lastRevision))) {
       if (!changes.isEmpty()) {
         ChangeInfo last = changes.get(changes.size() - 1);
         path = last.getCopiedFrom();
@@ -166,6 +206,23 @@ public class SVNPageStore extends AbstractPageStore {
     return Ordering.from(DeletesAfterOtherSameRevisionChanges.INSTANCE).sortedCopy(result);
   }
 
+  private List<ChangeInfo> pathLog(final String path, final long lastRevision) throws PageStoreException {
+    if (useChangeLog()) {
+      try {
+        // The cached log has attachment changes too, the repository log is just for the path.
+        return ImmutableList.copyOf(Iterables.filter(_changeLog.history(path, lastRevision), IS_CHANGE_TO_PAGE));
+      }
+      catch (IOException ex) {
+        throw new PageStoreException(ex);
+      }
+    }
+    return _operations.log(path, -1, LogEntryFilter.PATH_ONLY, false, 0, lastRevision);
+  }
+
+  private boolean useChangeLog() {
+    return _changeLog != null && _changeLog.isPopulated();
+  }
+
   @Override
   public Set<PageReference> list() throws PageStoreException {
     Set<PageReference> names = new LinkedHashSet<PageReference>();
@@ -187,69 +244,175 @@ public class SVNPageStore extends AbstractPageStore {
 
     _operations.getFiles(revision, properties, contents);
     for (Map.Entry<String, ByteArrayOutputStream> entry : contents.entrySet()) {
-      outputPages.add(new PageInfoImpl(_wiki, entry.getKey(), Strings.toUTF8(entry.getValue().toByteArray()), properties.get(entry.getKey())));
+      outputPages.add(new PageInfoImpl(_wiki, entry.getKey(), Strings.toUTF8(entry.getValue().toByteArray()), attributesFrom(properties.get(entry.getKey()))));
     }
     return outputPages;
   }
 
   @Override
   public VersionedPageInfo get(final PageReference ref, final long revision) throws PageStoreException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    Map<String, String> properties = new HashMap<String, String>();
-    SVNNodeKind kind = _operations.checkPath(ref.getPath(), revision);
-    if (SVNNodeKind.FILE.equals(kind)) {
-      _operations.getFile(ref.getPath(), revision, properties, baos);
-      long actualRevision = SVNProperty.longValue(properties.get(SVNProperty.REVISION));
-      long lastChangedRevision = SVNProperty.longValue(properties.get(SVNProperty.COMMITTED_REVISION));
-      Date lastChangedDate = SVNDate.parseDate(properties.get(SVNProperty.COMMITTED_DATE));
-      String lastChangedAuthor = properties.get(SVNProperty.LAST_AUTHOR);
-      String lockOwner = null;
-      String lockToken = null;
-      Date lockedSince = null;
-      final Map<String, String> filteredProperties = Maps.filterKeys(properties, new Predicate<String>() {
-        @Override
-        public boolean apply(final String key) {
-          return key.startsWith(REVIKI_ATTRIBUTE_PREFIX);
+    return get(ref, revision, _locks == null);
+  }
+
+  /**
+   * @param checkLock If true we ask the repository for the lock rather than using the lock table.
+   */
+  private VersionedPageInfo get(final PageReference ref, final long revision, final boolean checkLock) throws PageStoreException {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    final Map<String, String> properties = new HashMap<String, String>();
+    SVNLock lock;
+    try {
+      if (_diskCache == null) {
+        lock = fetch(ref.getPath(), revision, checkLock, properties, baos);
+      }
+      else {
+        lock = fetchUsingDiskCache(ref.getPath(), revision, checkLock, properties, baos);
+      }
+    }
+    catch (NotFoundException ex) {
+      return getMissing(ref);
+    }
+    long actualRevision = SVNProperty.longValue(properties.get(SVNProperty.REVISION));
+    long lastChangedRevision = SVNProperty.longValue(properties.get(SVNProperty.COMMITTED_REVISION));
+    Date lastChangedDate = SVNDate.parseDate(properties.get(SVNProperty.COMMITTED_DATE));
+    String lastChangedAuthor = properties.get(SVNProperty.LAST_AUTHOR);
+    Map<String, String> attributes = attributesFrom(properties);
+    String lockOwner = lock == null ? null : lock.getOwner();
+    String lockToken = lock == null ? null : lock.getID();
+    Date lockedSince = lock == null ? null : lock.getCreationDate();
+    return new VersionedPageInfoImpl(_wiki, ref.getPath(), Strings.toUTF8(baos.toByteArray()), actualRevision, lastChangedRevision, lastChangedAuthor, lastChangedDate, lockOwner, lockToken, lockedSince, attributes);
+  }
+
+  private SVNLock fetch(final String path, final long revision, final boolean checkLock, final Map<String, String> properties, final OutputStream out) throws PageStoreException {
+    if (checkLock) {
+      final SVNLock lock = _operations.getFileAndLock(path, revision, properties, out);
+      if (_locks != null) {
+        _locks.update(path, lock);
+      }
+      return lock;
+    }
+    _operations.getFile(path, revision, properties, out);
+    return getLockFromTable(path);
+  }
+
+  /**
+   * Explicit revisions come from the cache entirely, once the repository has
+   * accepted our credentials.  For head we need the properties from the
+   * repository but the content may come from the cache.
+   */
+  private SVNLock fetchUsingDiskCache(final String path, final long revision, final boolean checkLock, final Map<String, String> properties, final ByteArrayOutputStream out) throws PageStoreException {
+    try {
+      if (revision >= 0) {
+        final Map<String, String> cached = _diskCache.getProperties(path, revision);
+        if (cached != null) {
+          checkAccess();
         }
-      });
-      Map<String, String> attributes = stripPrefix(filteredProperties, REVIKI_ATTRIBUTE_PREFIX);
-      try {
-        if (revision == -1 || _operations.checkPath(ref.getPath(), -1) == SVNNodeKind.FILE) {
-          SVNLock lock = _operations.getLock(ref.getPath());
-          if (lock != null) {
-            lockOwner = lock.getOwner();
-            lockToken = lock.getID();
-            lockedSince = lock.getCreationDate();
-          }
+        if (cached != null && _diskCache.getContent(cached.get(SVNProperty.CHECKSUM), out)) {
+          properties.putAll(cached);
+          return checkLock ? fetchLock(path) : getLockFromTable(path);
         }
+        final SVNLock lock = fetch(path, revision, checkLock, properties, out);
+        _diskCache.put(path, revision, properties, out.toByteArray());
+        return lock;
       }
-      catch (NotFoundException ex) {
-        // It was a file at 'revision' but is now deleted so we can't get the lock information.
-      }
-      return new VersionedPageInfoImpl(_wiki, ref.getPath(), Strings.toUTF8(baos.toByteArray()), actualRevision, lastChangedRevision, lastChangedAuthor, lastChangedDate, lockOwner, lockToken, lockedSince, attributes);
-    }
-    else if (SVNNodeKind.NONE.equals(kind)) {
-      long pseudoRevision = VersionedPageInfo.UNCOMMITTED;
-      long lastChangedRevision = VersionedPageInfo.UNCOMMITTED;
-      String lastChangedAuthor = null;
-      Date lastChangedDate = null;
-      final ChangeInfo deletingChange = getChangeThatDeleted(ref);
-      PageLinkTarget renamedTo = null;
-      if (deletingChange != null) {
-        pseudoRevision = VersionedPageInfo.DELETED;
-        lastChangedRevision = deletingChange.getRevision();
-        lastChangedAuthor = deletingChange.getUser();
-        lastChangedDate = deletingChange.getDate();
-        renamedTo = deletingChange.getRenamedTo();
-        if (renamedTo != null) {
-          pseudoRevision = VersionedPageInfo.RENAMED;
-        }
+      final SVNLock lock = fetch(path, revision, checkLock, properties, null);
+      if (!_diskCache.getContent(properties.get(SVNProperty.CHECKSUM), out)) {
+        _operations.getFile(path, SVNProperty.longValue(properties.get(SVNProperty.REVISION)), null, out);
+        _diskCache.put(path, -1, properties, out.toByteArray());
       }
-      return new VersionedPageInfoImpl(_wiki, ref.getPath(), "", pseudoRevision, lastChangedRevision, lastChangedAuthor, lastChangedDate, null, null, null, renamedTo);
+      return lock;
     }
-    else {
-      throw new PageStoreException(format("Unexpected node kind '%s' at '%s'", kind, ref));
+    catch (IOException ex) {
+      throw new PageStoreException(ex);
+    }
+  }
+
+  private SVNLock fetchLock(final String path) throws PageStoreException {
+    SVNLock lock;
+    try {
+      lock = _operations.getLock(path);
+    }
+    catch (NotFoundException ex) {
+      lock = null;
+    }
+    if (_locks != null) {
+      _locks.update(path, lock);
+    }
+    return lock;
+  }
+
+  private VersionedPageInfo getMissing(final PageReference ref) throws PageStoreException {
+    long pseudoRevision = VersionedPageInfo.UNCOMMITTED;
+    long lastChangedRevision = VersionedPageInfo.UNCOMMITTED;
+    String lastChangedAuthor = null;
+    Date lastChangedDate = null;
+    final ChangeInfo deletingChange = getChangeThatDeleted(ref);
+    PageLinkTarget renamedTo = null;
+    if (deletingChange != null) {
+      pseudoRevision = VersionedPageInfo.DELETED;
+      lastChangedRevision = deletingChange.getRevision();
+      lastChangedAuthor = deletingChange.getUser();
+      lastChangedDate = deletingChange.getDate();
+      renamedTo = deletingChange.getRenamedTo();
+      if (renamedTo != null) {
+        pseudoRevision = VersionedPageInfo.RENAMED;
+      }
+    }
+    return new VersionedPageInfoImpl(_wiki, ref.getPath(), "", pseudoRevision, lastChangedRevision, lastChangedAuthor, lastChangedDate, null, null, null, renamedTo);
+  }
+
+  /**
+   * Content cached between requests must only be served to those who could
+   * have read it from the repository themselves, so before serving any we
+   * ask the repository something cheap with our credentials.  We're created
+   * for each request so that's once per request.
+   *
+   * @throws PageStoreAuthenticationException If the repository turns our credentials away.
+   * @throws PageStoreException If we fail to ask.
+   */
+  void checkAccess() throws PageStoreAuthenticationException, PageStoreException {
+    if (!_accessChecked) {
+      getLatestRevision();
+    }
+  }
+
+  /**
+   * @param page A page without lock information.
+   * @return The page with the current lock information, if it still exists.
+   * @throws PageStoreException If we fail to get the lock.
+   */
+  VersionedPageInfo withLockInformation(final VersionedPageInfo page) throws PageStoreException {
+    try {
+      return withLock(page, _locks == null ? _operations.getLock(page.getPath()) : getLockFromTable(page.getPath()));
+    }
+    catch (NotFoundException ex) {
+      // It has since been deleted so we can't get the lock information.
+      return page;
+    }
+  }
+
+  private static VersionedPageInfo withLock(final VersionedPageInfo page, final SVNLock lock) {
+    if (lock == null) {
+      return page;
     }
+    return new VersionedPageInfoImpl(page.getWiki(), page.getPath(), page.getContent(), page.getRevision(), page.getLastChangedRevision(), page.getLastChangedUser(), page.getLastChangedDate(), lock.getOwner(), lock.getID(), lock.getCreationDate(), page.getAttributes());
+  }
+
+  private SVNLock getLockFromTable(final String path) throws PageStoreException {
+    return _locks.getLock(_operations, path);
+  }
+
+  /**
+   * @return The page attributes from the SVN properties of the file.
+   */
+  private Map<String, String> attributesFrom(final Map<String, String> properties) {
+    final Map<String, String> filteredProperties = Maps.filterKeys(properties, new Predicate<String>() {
+      @Override
+      public boolean apply(final String key) {
+        return key.startsWith(REVIKI_ATTRIBUTE_PREFIX);
+      }
+    });
+    return stripPrefix(filteredProperties, REVIKI_ATTRIBUTE_PREFIX);
   }
 
   private Map<String, String> stripPrefix(final Map<String, String> properties, final String propertyPrefix) {
@@ -266,7 +429,8 @@ public class SVNPageStore extends AbstractPageStore {
 
   @Override
   public VersionedPageInfo tryToLock(final PageReference ref) throws PageStoreException {
-    final VersionedPageInfo page = get(ref, -1);
+    // We're about to edit so don't trust the lock table.
+    final VersionedPageInfo page = get(ref, -1, true);
     if (page.isNewPage()) {
       return page;
     }
@@ -280,16 +444,41 @@ public class SVNPageStore extends AbstractPageStore {
     catch (AlreadyLockedException ex) {
       // Just return, the caller will check whether they've locked the page.
     }
-    return get(ref, revision);
+    // The content is as it was at the revision we locked so we only need the lock.
+    final SVNLock lock = _operations.getLock(ref.getPath());
+    if (_locks != null) {
+      _locks.update(ref.getPath(), lock);
+    }
+    return withLock(page, lock);
   }
 
   @Override
   public void unlock(final PageReference path, final String lockToken) throws PageStoreException {
-    _operations.unlock(path, lockToken);
+    try {
+      _operations.unlock(path, lockToken);
+    }
+    finally {
+      locksChanged();
+    }
+  }
+
+  private void locksChanged() {
+    if (_locks != null) {
+      _locks.invalidate();
+    }
   }
 
   @Override
   public long set(final PageInfo page, final String lockToken, final long baseRevision, final String commitMessage) throws PageStoreAuthenticationException, PageStoreException {
+    try {
+      return setAndReleaseLock(page, lockToken, baseRevision, commitMessage);
+    }
+    finally {
+      locksChanged();
+    }
+  }
+
+  private long setAndReleaseLock(final PageInfo page, final String lockToken, final long baseRevision, final String commitMessage) throws PageStoreAuthenticationException, PageStoreException {
     final String path = page.getPath();
     final String content = page.getContent();
     if (content.trim().length() == 0) {
@@ -451,57 +640,169 @@ public class SVNPageStore extends AbstractPageStore {
 
   @Override
   public void attachment(final PageReference ref, final String attachment, final long revision, final ContentTypedSink sink) throws NotFoundException, PageStoreException {
+    final AttachmentContent content = attachmentContent(ref, attachment, revision);
+    sink.setContentType(content.getContentType());
+    sink.setFileName(attachment);
+    try {
+      content.writeTo(sink.stream(), 0, -1);
+    }
+    catch (IOException ex) {
+      throw new PageStoreException(ex);
+    }
+  }
+
+  /**
+   * We only fetch the properties here, the content may already be cached.  At
+   * an explicit revision those are cached too once the content is, so later
+   * requests only ask the repository whether they may read them.
+   */
+  @Override
+  public AttachmentContent attachmentContent(final PageReference ref, final String attachment, final long revision) throws NotFoundException, PageStoreException {
     final String path = SVNPathUtil.append(ref.getAttachmentPath(), attachment);
+    if (_diskCache != null && revision >= 0) {
+      final Map<String, String> cached = _diskCache.getProperties(path, revision);
+      if (cached != null) {
+        checkAccess();
+        return new SVNAttachmentContent(path, revision, cached);
+      }
+    }
     final Map<String, String> properties = new HashMap<String, String>();
-    // Get the properties
     _operations.getFile(path, revision, properties, null);
+    return new SVNAttachmentContent(path, revision, properties);
+  }
 
-    // If the mimetype property was set, replace the default setting in the sink
-    final String mimetype = properties.get(SVNProperty.MIME_TYPE);
+  /**
+   * Content comes from the disk cache if we have it.  Otherwise it's streamed
+   * from the repository, and into the disk cache on the way if we have one.
+   */
+  private final class SVNAttachmentContent implements AttachmentContent {
+    private final String _path;
+    private final long _requestedRevision;
+    private final long _revision;
+    private final Map<String, String> _properties;
+    private Long _length = null;
+
+    /**
+     * @param revision The revision requested, we fetch content at the revision
+     *                 the properties came from so the two match.
+     */
+    public SVNAttachmentContent(final String path, final long revision, final Map<String, String> properties) {
+      _path = path;
+      _requestedRevision = revision;
+      final long actualRevision = SVNProperty.longValue(properties.get(SVNProperty.REVISION));
+      _revision = actualRevision < 0 ? revision : actualRevision;
+      _properties = properties;
+    }
 
-    // Create output and set the content type and file name
-    final OutputStream out = new LazyOutputStream() {
-      @Override
-      protected OutputStream lazyInit() throws IOException {
-        if (mimetype!=null) {
-          sink.setContentType(mimetype);
-        }
-        else {
-          sink.setContentType("application/octet-stream");
-        }
-        sink.setFileName(attachment);
-        return sink.stream();
+    public String getContentType() {
+      final String mimetype = _properties.get(SVNProperty.MIME_TYPE);
+      return mimetype == null ? "application/octet-stream" : mimetype;
+    }
+
+    public long getLastChangedRevision() {
+      return SVNProperty.longValue(_properties.get(SVNProperty.COMMITTED_REVISION));
+    }
+
+    public Date getLastChangedDate() {
+      final String date = _properties.get(SVNProperty.COMMITTED_DATE);
+      return date == null ? null : SVNDate.parseDate(date);
+    }
+
+    /**
+     * Only known if the content is in the disk cache, we don't fetch it just
+     * to find out.
+     */
+    public synchronized long getLength() {
+      if (_length == null) {
+        _length = _diskCache == null ? -1 : _diskCache.getLength(_properties.get(SVNProperty.CHECKSUM));
       }
-    };
+      return _length;
+    }
 
-    // Get the file
-    _operations.getFile(path, revision, null, out);
+    public void writeTo(final OutputStream out, final long offset, final long length) throws PageStoreException, IOException {
+      final String checksum = _properties.get(SVNProperty.CHECKSUM);
+      if (_diskCache != null && _diskCache.getContent(checksum, out, offset, length)) {
+        return;
+      }
+      final OutputStream range = new RangeOutputStream(out, offset, length);
+      final DiskContentCache.PendingContent pending = _diskCache == null ? null : _diskCache.newContent();
+      if (pending == null) {
+        _operations.getFile(_path, _revision, null, range);
+        return;
+      }
+      try {
+        _operations.getFile(_path, _revision, null, new TeeOutputStream(range, pending));
+        if (pending.commit(checksum) && _requestedRevision >= 0) {
+          _diskCache.putProperties(_path, _requestedRevision, _properties);
+        }
+      }
+      finally {
+        pending.abort();
+      }
+    }
   }
 
   @Override
   public byte[] attachmentBytes(final PageReference ref, final String attachment, final long revision) throws NotFoundException, PageStoreException {
     String path = SVNPathUtil.append(ref.getAttachmentPath(), attachment);
     ByteArrayOutputStream out = new ByteArrayOutputStream();
-    _operations.getFile(path, revision, null, out);
-
+    if (_diskCache == null) {
+      _operations.getFile(path, revision, null, out);
+      return out.toByteArray();
+    }
+    final Map<String, String> properties = new HashMap<String, String>();
+    _operations.getFile(path, revision, properties, null);
+    try {
+      if (!_diskCache.getContent(properties.get(SVNProperty.CHECKSUM), out)) {
+        _operations.getFile(path, revision, null, out);
+        _diskCache.put(path, -1, properties, out.toByteArray());
+      }
+    }
+    catch (IOException ex) {
+      throw new PageStoreException(ex);
+    }
     return out.toByteArray();
   }
 
   @Override
   public Collection<PageReference> getChangedBetween(final long start, final long end) throws PageStoreException {
-    List<ChangeInfo> log = _operations.log("", -1, LogEntryFilter.DESCENDANTS, false, start, end);
-    Set<PageReference> pages = new LinkedHashSet<PageReference>(log.size());
-    for (ChangeInfo info : log) {
+    final Set<PageReference> pages = new LinkedHashSet<PageReference>();
+    if (useChangeLog() && end >= 0 && end <= _changeLog.getHighestSyncedRevision()) {
+      try {
+        addChangedPages(pages, _changeLog.changedBetween(start, end));
+      }
+      catch (IOException ex) {
+        throw new PageStoreException(ex);
+      }
+    }
+    else {
+      try {
+        _operations.log("", LogEntryFilter.DESCENDANTS, start, end, BasicSVNOperations.DEFAULT_LOG_CHUNK_REVISIONS, new LogChunkHandler() {
+          public void handleChanges(final long upto, final List<ChangeInfo> chronological) {
+            addChangedPages(pages, chronological);
+          }
+        });
+      }
+      catch (IOException ex) {
+        throw new PageStoreException(ex);
+      }
+    }
+    return pages;
+  }
+
+  private static void addChangedPages(final Set<PageReference> pages, final List<ChangeInfo> changes) {
+    for (ChangeInfo info : changes) {
       if (info.getKind() == StoreKind.PAGE) {
         pages.add(new PageReferenceImpl(info.getPage()));
       }
     }
-    return pages;
   }
 
   @Override
   public long getLatestRevision() throws PageStoreAuthenticationException, PageStoreException {
-    return _operations.getLatestRevision();
+    final long latest = _operations.getLatestRevision();
+    _accessChecked = true;
+    return latest;
   }
 
   @Override
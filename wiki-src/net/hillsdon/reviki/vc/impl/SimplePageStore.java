@@ -16,6 +16,7 @@
 package net.hillsdon.reviki.vc.impl;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -24,10 +25,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import net.hillsdon.reviki.vc.AttachmentContent;
 import net.hillsdon.reviki.vc.AttachmentHistory;
 import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.ContentTypedSink;
 import net.hillsdon.reviki.vc.InterveningCommitException;
+import net.hillsdon.reviki.vc.NotFoundException;
 import net.hillsdon.reviki.vc.PageInfo;
 import net.hillsdon.reviki.vc.VersionedPageInfo;
 import net.hillsdon.reviki.vc.PageReference;
@@ -105,6 +108,10 @@ public class SimplePageStore extends AbstractPageStore implements CachingPageSto
     throw new UnsupportedOperationException();
   }
 
+  public AttachmentContent attachmentContent(final PageReference ref, final String attachment, final long revision) throws PageStoreException {
+    throw new UnsupportedOperationException();
+  }
+
   public byte[] attachmentBytes(final PageReference ref, final String attachment, final long revision) throws PageStoreException {
     throw new UnsupportedOperationException();
   }
@@ -141,7 +148,15 @@ public class SimplePageStore extends AbstractPageStore implements CachingPageSto
   }
   
   public Collection<PageInfo> getPages(Collection<PageReference> pages, long revision) throws PageStoreException {
-    throw new UnsupportedOperationException();
+    List<PageInfo> result = new ArrayList<PageInfo>();
+    for (PageReference ref : pages) {
+      VersionedPageInfo page = _pages.get(ref);
+      if (page == null || page.isNewPage()) {
+        throw new NotFoundException();
+      }
+      result.add(page);
+    }
+    return result;
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import static java.util.Arrays.asList;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.StoreKind;
+
+import org.apache.commons.io.FileUtils;
+
+public class TestChangeLogCache extends TestCase {
+
+  private static final String URL = "http://svn.example.com/wiki";
+
+  private File _dir;
+  private ChangeLogCache _cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    _dir = File.createTempFile("testDir", "");
+    assertTrue(_dir.delete());
+    assertTrue(_dir.mkdir());
+    _cache = new ChangeLogCache(_dir, URL);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _cache.close();
+    FileUtils.forceDelete(_dir);
+  }
+
+  private static ChangeInfo change(final String page, final long revision) {
+    return new ChangeInfo(page, page, "mth", new Date(revision * 1000), revision, "Message " + revision, StoreKind.PAGE, ChangeType.MODIFIED, null, -1);
+  }
+
+  private static ChangeInfo attachment(final String page, final long revision) {
+    return new ChangeInfo(page, "file.txt", "mth", new Date(revision * 1000), revision, "Message " + revision, StoreKind.ATTACHMENT, ChangeType.ADDED, null, -1);
+  }
+
+  private static List<Long> revisions(final List<ChangeInfo> changes) {
+    final List<Long> revisions = new ArrayList<Long>();
+    for (ChangeInfo change : changes) {
+      revisions.add(change.getRevision());
+    }
+    return revisions;
+  }
+
+  private void populate() throws Exception {
+    _cache.handleChanges(3, asList(change("A", 1), change("B", 2), attachment("A", 2), change("A", 3)));
+    _cache.handleChanges(6, asList(change("C", 5), change("A", 6)));
+  }
+
+  public void testEmptyUntilChangesHandled() throws Exception {
+    assertFalse(_cache.isPopulated());
+    assertEquals(0, _cache.getHighestSyncedRevision());
+    assertTrue(_cache.recentChanges(10).isEmpty());
+    populate();
+    assertTrue(_cache.isPopulated());
+    assertEquals(6, _cache.getHighestSyncedRevision());
+  }
+
+  public void testRecentChangesLimitsByRevisionNewestFirst() throws Exception {
+    populate();
+    assertEquals(asList(6L, 5L, 3L, 2L, 2L), revisions(_cache.recentChanges(4)));
+    assertEquals(asList(6L, 5L, 3L, 2L, 2L, 1L), revisions(_cache.recentChanges(0)));
+  }
+
+  public void testHistory() throws Exception {
+    populate();
+    final List<ChangeInfo> history = _cache.history("A", -1);
+    assertEquals(asList(6L, 3L, 2L, 1L), revisions(history));
+    assertEquals(StoreKind.ATTACHMENT, history.get(2).getKind());
+    assertEquals("Message 3", history.get(1).getCommitMessage());
+    assertEquals(asList(3L, 2L, 1L), revisions(_cache.history("A", 5)));
+    assertTrue(_cache.history("Missing", -1).isEmpty());
+  }
+
+  public void testChangedBetween() throws Exception {
+    populate();
+    assertEquals(asList(3L, 2L, 2L), revisions(_cache.changedBetween(2, 3)));
+    assertEquals(asList(5L), revisions(_cache.changedBetween(4, 5)));
+    assertEquals(asList(6L, 5L, 3L, 2L, 2L, 1L), revisions(_cache.changedBetween(0, 100)));
+    assertTrue(_cache.changedBetween(7, 10).isEmpty());
+  }
+
+  public void testReopenRestoresChanges() throws Exception {
+    populate();
+    _cache.close();
+    _cache = new ChangeLogCache(_dir, URL);
+    assertEquals(6, _cache.getHighestSyncedRevision());
+    assertEquals(asList(6L, 3L, 2L, 1L), revisions(_cache.history("A", -1)));
+    _cache.handleChanges(7, Collections.singletonList(change("A", 7)));
+    assertEquals(asList(7L, 6L, 3L, 2L, 1L), revisions(_cache.history("A", -1)));
+  }
+
+  public void testDiscardsChangesAfterSyncedRevisionOnReopen() throws Exception {
+    populate();
+    _cache.close();
+    final File file = new File(_dir, ChangeLogCache.FILE_NAME);
+    final long complete = file.length();
+    // As if we'd crashed before updating the synced revision.
+    final RandomAccessFile data = new RandomAccessFile(file, "rw");
+    data.seek(8);
+    data.writeLong(3);
+    // And part way through writing a change.
+    data.setLength(complete + 3);
+    data.close();
+    _cache = new ChangeLogCache(_dir, URL);
+    assertEquals(3, _cache.getHighestSyncedRevision());
+    assertEquals(asList(3L, 2L, 2L, 1L), revisions(_cache.recentChanges(0)));
+    _cache.handleChanges(6, asList(change("C", 5), change("A", 6)));
+    assertEquals(asList(6L, 5L, 3L, 2L, 2L, 1L), revisions(_cache.recentChanges(0)));
+  }
+
+  public void testIgnoresChangeLogForOtherRepository() throws Exception {
+    populate();
+    _cache.close();
+    _cache = new ChangeLogCache(_dir, "http://svn.example.com/other");
+    assertFalse(_cache.isPopulated());
+    assertTrue(_cache.recentChanges(0).isEmpty());
+  }
+
+  public void testIgnoresChangeLogWithCorruptHeader() throws Exception {
+    populate();
+    _cache.close();
+    final RandomAccessFile data = new RandomAccessFile(new File(_dir, ChangeLogCache.FILE_NAME), "rw");
+    // The length of the URL.
+    data.seek(16);
+    data.writeInt(Integer.MAX_VALUE);
+    data.close();
+    _cache = new ChangeLogCache(_dir, URL);
+    assertFalse(_cache.isPopulated());
+    _cache.handleChanges(1, asList(change("A", 1)));
+    assertEquals(asList(1L), revisions(_cache.recentChanges(0)));
+  }
+
+}
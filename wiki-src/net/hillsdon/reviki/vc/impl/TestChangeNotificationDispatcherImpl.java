@@ -16,23 +16,72 @@
 package net.hillsdon.reviki.vc.impl;
 
 import static java.util.Arrays.asList;
+import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.ChangeSubscriber;
 import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.PageStoreException;
 import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.impl.ChangeNotificationDispatcherImpl.SubscriberLag;
 
 import junit.framework.TestCase;
 
+import org.easymock.IAnswer;
+
 public class TestChangeNotificationDispatcherImpl extends TestCase {
 
+  /**
+   * Takes whatever it's given, waiting for the latch first.
+   */
+  private static class RecordingSubscriber implements ChangeSubscriber {
+    private final CountDownLatch _latch;
+    private final List<ChangeInfo> _changes = new ArrayList<ChangeInfo>();
+    private long _synced;
+
+    public RecordingSubscriber(final long synced, final CountDownLatch latch) {
+      _synced = synced;
+      _latch = latch;
+    }
+
+    public synchronized long getHighestSyncedRevision() throws IOException {
+      return _synced;
+    }
+
+    public void handleChanges(final long upto, final List<ChangeInfo> chronological) throws PageStoreException, IOException {
+      try {
+        _latch.await();
+      }
+      catch (InterruptedException ex) {
+        throw new RuntimeException(ex);
+      }
+      synchronized (this) {
+        _changes.addAll(chronological);
+        _synced = upto;
+      }
+    }
+
+    public synchronized List<ChangeInfo> getChanges() {
+      return new ArrayList<ChangeInfo>(_changes);
+    }
+  }
+
   private static final ChangeInfo REVISION_FOUR_CHANGE = new ChangeInfo("PageThreeChange", "PageThreeChange", "", new Date(), 4, "", StoreKind.PAGE, ChangeType.MODIFIED, null, -1);
   private static final ChangeInfo REVISION_FIVE_CHANGE = new ChangeInfo("PageFourChange", "PageFourChange", "", new Date(), 5, "", StoreKind.PAGE, ChangeType.MODIFIED, null, -1);
 
@@ -50,12 +99,22 @@ public class TestChangeNotificationDispatcherImpl extends TestCase {
     _syncedUptoFiveSubscriber = createMock(ChangeSubscriber.class);
   }
 
+  private void expectLog(final long start, final long end, final ChangeInfo... chronological) throws Exception {
+    _operations.log(eq(""), eq(LogEntryFilter.DESCENDANTS), eq(start), eq(end), eq(BasicSVNOperations.DEFAULT_LOG_CHUNK_REVISIONS), (LogChunkHandler) anyObject());
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        ((LogChunkHandler) getCurrentArguments()[5]).handleChanges(end, asList(chronological));
+        return null;
+      }
+    });
+  }
+
   public void testDispatchesChangesSkippingThoseNotApplicableToSubscribersBasedOnSyncedRevision() throws Exception {
     expect(_syncedUptoThreeSubscriber.getHighestSyncedRevision()).andReturn(3L);
     expect(_syncedUptoFourSubscriber.getHighestSyncedRevision()).andReturn(4L);
     expect(_syncedUptoFiveSubscriber.getHighestSyncedRevision()).andReturn(5L);
     expect(_operations.getLatestRevision()).andReturn(5L).once();
-    expect(_operations.log("", -1, LogEntryFilter.DESCENDANTS, false, 4, 5)).andReturn(asList(REVISION_FIVE_CHANGE, REVISION_FOUR_CHANGE));
+    expectLog(4, 5, REVISION_FOUR_CHANGE, REVISION_FIVE_CHANGE);
     expect(_syncedUptoThreeSubscriber.getHighestSyncedRevision()).andReturn(3L);
     _syncedUptoThreeSubscriber.handleChanges(5, asList(REVISION_FOUR_CHANGE, REVISION_FIVE_CHANGE));
     expectLastCall();
@@ -81,7 +140,7 @@ public class TestChangeNotificationDispatcherImpl extends TestCase {
     expect(_syncedUptoFourSubscriber.getHighestSyncedRevision()).andReturn(4L);
     expect(_syncedUptoFiveSubscriber.getHighestSyncedRevision()).andReturn(5L);
     expect(_operations.getLatestRevision()).andReturn(5L).once();
-    expect(_operations.log("", -1, LogEntryFilter.DESCENDANTS, false, 4, 5)).andReturn(asList(REVISION_FIVE_CHANGE, REVISION_FOUR_CHANGE));
+    expectLog(4, 5, REVISION_FOUR_CHANGE, REVISION_FIVE_CHANGE);
     expect(_syncedUptoThreeSubscriber.getHighestSyncedRevision()).andReturn(3L);
     _syncedUptoThreeSubscriber.handleChanges(5, asList(REVISION_FOUR_CHANGE, REVISION_FIVE_CHANGE));
     expectLastCall();
@@ -103,4 +162,148 @@ public class TestChangeNotificationDispatcherImpl extends TestCase {
     assertEquals(4L, _dispatcher.getLastSynced());
   }
 
+  public void testWaitUntilSynced() throws Exception {
+    expect(_syncedUptoFiveSubscriber.getHighestSyncedRevision()).andReturn(5L).anyTimes();
+    expect(_operations.getLatestRevision()).andReturn(5L);
+    replay(_operations, _syncedUptoFiveSubscriber);
+    _dispatcher = new ChangeNotificationDispatcherImpl(_operations, _syncedUptoFiveSubscriber);
+    assertEquals(-1, _dispatcher.getSyncedRevision());
+    assertFalse(_dispatcher.waitUntilSynced(5, 10));
+
+    final Thread syncer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+          _dispatcher.sync();
+        }
+        catch (Exception ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    };
+    syncer.start();
+    assertTrue(_dispatcher.waitUntilSynced(5, 10000));
+    syncer.join();
+    assertEquals(5, _dispatcher.getSyncedRevision());
+    verify(_operations, _syncedUptoFiveSubscriber);
+  }
+
+  public void testSlowSubscriberDoesntHoldUpOthers() throws Exception {
+    expect(_operations.getLatestRevision()).andReturn(5L);
+    expectLog(4, 5, REVISION_FOUR_CHANGE, REVISION_FIVE_CHANGE);
+    replay(_operations);
+    final CountDownLatch slowLatch = new CountDownLatch(1);
+    final RecordingSubscriber slow = new RecordingSubscriber(3, slowLatch);
+    final RecordingSubscriber fast = new RecordingSubscriber(3, new CountDownLatch(0));
+    _dispatcher = new ChangeNotificationDispatcherImpl(_operations, slow, fast);
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      _dispatcher.dispatchUsing(executor);
+      _dispatcher.sync();
+      for (int i = 0; i < 500 && fast.getHighestSyncedRevision() < 5; ++i) {
+        Thread.sleep(10);
+      }
+      assertEquals(asList(REVISION_FOUR_CHANGE, REVISION_FIVE_CHANGE), fast.getChanges());
+      assertTrue(slow.getChanges().isEmpty());
+      assertFalse(_dispatcher.waitUntilSynced(5, 10));
+      final List<SubscriberLag> lag = _dispatcher.getLag();
+      assertEquals(2, lag.get(0).getRevisions());
+      assertEquals(0, lag.get(1).getRevisions());
+
+      slowLatch.countDown();
+      assertTrue(_dispatcher.waitUntilSynced(5, 10000));
+      assertEquals(asList(REVISION_FOUR_CHANGE, REVISION_FIVE_CHANGE), slow.getChanges());
+      assertEquals(0, _dispatcher.getLag().get(0).getRevisions());
+    }
+    finally {
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    verify(_operations);
+  }
+
+  public void testChangesQueuedForBusySubscriberAreNotFetchedAgain() throws Exception {
+    final ChangeInfo revisionSix = new ChangeInfo("PageSix", "PageSix", "", new Date(), 6, "", StoreKind.PAGE, ChangeType.MODIFIED, null, -1);
+    expect(_operations.getLatestRevision()).andReturn(5L);
+    expectLog(4, 5, REVISION_FOUR_CHANGE, REVISION_FIVE_CHANGE);
+    expect(_operations.getLatestRevision()).andReturn(6L);
+    expectLog(6, 6, revisionSix);
+    replay(_operations);
+    final CountDownLatch slowLatch = new CountDownLatch(1);
+    final RecordingSubscriber slow = new RecordingSubscriber(3, slowLatch);
+    _dispatcher = new ChangeNotificationDispatcherImpl(_operations, slow);
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      _dispatcher.dispatchUsing(executor);
+      _dispatcher.sync();
+      _dispatcher.sync();
+      slowLatch.countDown();
+      assertTrue(_dispatcher.waitUntilSynced(6, 10000));
+      assertEquals(asList(REVISION_FOUR_CHANGE, REVISION_FIVE_CHANGE, revisionSix), slow.getChanges());
+    }
+    finally {
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    verify(_operations);
+  }
+
+  public void testStopsFetchingWhileSubscriberIsBehind() throws Exception {
+    final int chunks = ChangeNotificationDispatcherImpl.MAX_QUEUED_CHUNKS * 3;
+    final List<ChangeInfo> changes = new ArrayList<ChangeInfo>();
+    for (int i = 1; i <= chunks; ++i) {
+      changes.add(new ChangeInfo("Page" + i, "Page" + i, "", new Date(), i, "", StoreKind.PAGE, ChangeType.MODIFIED, null, -1));
+    }
+    final int[] fetched = {0};
+    expect(_operations.getLatestRevision()).andReturn((long) chunks);
+    _operations.log(eq(""), eq(LogEntryFilter.DESCENDANTS), eq(1L), eq((long) chunks), eq(BasicSVNOperations.DEFAULT_LOG_CHUNK_REVISIONS), (LogChunkHandler) anyObject());
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        for (ChangeInfo change : changes) {
+          synchronized (fetched) {
+            fetched[0]++;
+          }
+          ((LogChunkHandler) getCurrentArguments()[5]).handleChanges(change.getRevision(), asList(change));
+        }
+        return null;
+      }
+    });
+    replay(_operations);
+    final CountDownLatch latch = new CountDownLatch(1);
+    final RecordingSubscriber subscriber = new RecordingSubscriber(0, latch);
+    _dispatcher = new ChangeNotificationDispatcherImpl(_operations, subscriber);
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      _dispatcher.dispatchUsing(executor);
+      final Thread syncer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            _dispatcher.sync();
+          }
+          catch (Exception ex) {
+            throw new RuntimeException(ex);
+          }
+        }
+      };
+      syncer.start();
+      syncer.join(200);
+      assertTrue(syncer.isAlive());
+      synchronized (fetched) {
+        // The one being handled plus those waiting.
+        assertEquals(ChangeNotificationDispatcherImpl.MAX_QUEUED_CHUNKS + 1, fetched[0]);
+      }
+      latch.countDown();
+      syncer.join(10000);
+      assertTrue(_dispatcher.waitUntilSynced(chunks, 10000));
+      assertEquals(changes, subscriber.getChanges());
+    }
+    finally {
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    verify(_operations);
+  }
+
 }
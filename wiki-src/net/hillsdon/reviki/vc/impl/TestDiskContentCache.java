@@ -0,0 +1,348 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.AttachmentContent;
+import net.hillsdon.reviki.vc.ContentTypedSink;
+import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
+import net.hillsdon.reviki.vc.PageStoreException;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.tmatesoft.svn.core.SVNLock;
+import org.tmatesoft.svn.core.SVNProperty;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+
+public class TestDiskContentCache extends TestCase {
+
+  private static final String URL = "svn://example.com/wiki";
+
+  private File _dir;
+
+  /**
+   * Counts the reads that fetch content and those that only fetch properties.
+   */
+  private static class CountingOperations extends DelegatingBasicSVNOperations {
+    private final BasicSVNOperations _delegate;
+    private int _contentFetches = 0;
+    private int _propertyFetches = 0;
+
+    public CountingOperations(final BasicSVNOperations delegate) {
+      _delegate = delegate;
+    }
+
+    @Override
+    public void getFile(final String path, final long revision, final Map<String, String> properties, final OutputStream out) throws PageStoreException {
+      if (out != null) {
+        _contentFetches++;
+      }
+      else {
+        _propertyFetches++;
+      }
+      super.getFile(path, revision, properties, out);
+    }
+
+    @Override
+    public SVNLock getFileAndLock(final String path, final long revision, final Map<String, String> properties, final OutputStream out) throws PageStoreException {
+      if (out != null) {
+        _contentFetches++;
+      }
+      return super.getFileAndLock(path, revision, properties, out);
+    }
+
+    @Override
+    protected BasicSVNOperations getDelegate() {
+      return _delegate;
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    _dir = File.createTempFile("testDiskContentCache", "");
+    assertTrue(_dir.delete());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteQuietly(_dir);
+  }
+
+  private static Map<String, String> properties(final byte[] content) {
+    final Map<String, String> properties = new HashMap<String, String>();
+    properties.put(SVNProperty.CHECKSUM, new String(Hex.encodeHex(DigestUtils.md5(content))));
+    properties.put(SVNProperty.COMMITTED_REVISION, "3");
+    properties.put("reviki:syntax", "creole");
+    return properties;
+  }
+
+  private static String content(final DiskContentCache cache, final String checksum) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    return cache.getContent(checksum, out) ? out.toString("UTF-8") : null;
+  }
+
+  public void testSurvivesRestart() throws Exception {
+    final byte[] content = "Content".getBytes("UTF-8");
+    final Map<String, String> properties = properties(content);
+    new DiskContentCache(_dir, URL).put("Page", 5, properties, content);
+
+    final DiskContentCache cache = new DiskContentCache(_dir, URL);
+    assertEquals(properties, cache.getProperties("Page", 5));
+    assertNull(cache.getProperties("Page", 4));
+    assertEquals("Content", content(cache, properties.get(SVNProperty.CHECKSUM)));
+    assertEquals(1, cache.getHits());
+  }
+
+  public void testForgetsRevisionsFromAnotherRepository() throws Exception {
+    final byte[] content = "Content".getBytes("UTF-8");
+    final Map<String, String> properties = properties(content);
+    new DiskContentCache(_dir, URL).put("Page", 5, properties, content);
+
+    final DiskContentCache cache = new DiskContentCache(_dir, "svn://example.com/other");
+    assertNull(cache.getProperties("Page", 5));
+    // The content is still good, it's checked against the checksum.
+    assertEquals("Content", content(cache, properties.get(SVNProperty.CHECKSUM)));
+  }
+
+  public void testContentStoredOnce() throws Exception {
+    final byte[] content = "Content".getBytes("UTF-8");
+    final DiskContentCache cache = new DiskContentCache(_dir, URL);
+    cache.put("Page", 4, properties(content), content);
+    final long bytes = cache.getBytes();
+    cache.put("Page", 5, properties(content), content);
+    assertEquals(1, new File(_dir, DiskContentCache.CONTENT_DIR_NAME).list().length);
+    assertTrue(cache.getBytes() < bytes * 2);
+  }
+
+  public void testDiscardsContentNotMatchingChecksum() throws Exception {
+    final byte[] content = "Content".getBytes("UTF-8");
+    final String checksum = properties(content).get(SVNProperty.CHECKSUM);
+    new DiskContentCache(_dir, URL).put("Page", -1, properties(content), content);
+    FileUtils.writeStringToFile(new File(new File(_dir, DiskContentCache.CONTENT_DIR_NAME), checksum), "Corrupt", "UTF-8");
+    // Content we wrote ourselves is trusted, so check what we find on a restart.
+    final DiskContentCache cache = new DiskContentCache(_dir, URL);
+    assertNull(content(cache, checksum));
+    assertEquals(1, cache.getCorrupt());
+    assertEquals(0, cache.getBytes());
+
+    // Nor do we store it in the first place.
+    final Map<String, String> wrong = properties("Other".getBytes("UTF-8"));
+    cache.put("Page", 5, wrong, content);
+    assertNull(cache.getProperties("Page", 5));
+    assertNull(content(cache, wrong.get(SVNProperty.CHECKSUM)));
+  }
+
+  public void testEvictsLeastRecentlyUsed() throws Exception {
+    final DiskContentCache cache = new DiskContentCache(_dir, URL, 250);
+    final byte[][] contents = new byte[3][];
+    for (int i = 0; i < contents.length; ++i) {
+      contents[i] = new byte[100];
+      contents[i][0] = (byte) i;
+      cache.put("Page", -1, properties(contents[i]), contents[i]);
+      if (i == 1) {
+        // Use the first so the second is the oldest.
+        assertNotNull(content(cache, properties(contents[0]).get(SVNProperty.CHECKSUM)));
+      }
+    }
+    assertEquals(1, cache.getEvictions());
+    assertNotNull(content(cache, properties(contents[0]).get(SVNProperty.CHECKSUM)));
+    assertNull(content(cache, properties(contents[1]).get(SVNProperty.CHECKSUM)));
+    assertNotNull(content(cache, properties(contents[2]).get(SVNProperty.CHECKSUM)));
+    assertTrue(cache.getBytes() <= 250);
+  }
+
+  public void testDoesNotKeepContentBiggerThanTheCache() throws Exception {
+    final DiskContentCache cache = new DiskContentCache(_dir, URL, 100);
+    final byte[] content = new byte[150];
+    final DiskContentCache.PendingContent pending = cache.newContent();
+    pending.write(content, 0, 100);
+    pending.write(content, 100, 50);
+    assertFalse(pending.commit(properties(content).get(SVNProperty.CHECKSUM)));
+    assertEquals(0, cache.getBytes());
+    assertEquals(0, new File(_dir, DiskContentCache.CONTENT_DIR_NAME).list().length);
+  }
+
+  public void testPageStoreReadsFromCacheAfterRestart() throws Exception {
+    FSRepositoryFactory.setup();
+    final File repositoryDir = new File(_dir, "repository");
+    final SVNURL root = SVNRepositoryFactory.createLocalRepository(repositoryDir, true, false);
+    final SVNRepository repository = SVNRepositoryFactory.create(root);
+    repository.setAuthenticationManager(new BasicAuthenticationManager("mth", ""));
+    try {
+      final ISVNEditor editor = repository.getCommitEditor("Create", null);
+      editor.openRoot(-1);
+      addFile(editor, "Page", "Page content");
+      editor.addDir("Page-attachments", null, -1);
+      addFile(editor, "Page-attachments/file.txt", "Attachment content");
+      editor.closeDir();
+      editor.closeDir();
+      editor.closeEdit();
+
+      final File cacheDir = new File(_dir, "cache");
+      final PageReferenceImpl page = new PageReferenceImpl("Page");
+      CountingOperations operations = new CountingOperations(new RepositoryBasicSVNOperations(repository, null));
+      SVNPageStore store = new SVNPageStore("wiki", new InMemoryDeletedRevisionTracker(), null, null, new DiskContentCache(cacheDir, URL), operations, null, new FixedMimeIdentifier());
+      assertEquals("Page content", store.get(page, 1).getContent());
+      assertEquals("Page content", store.get(page, -1).getContent());
+      assertEquals("Attachment content", new String(store.attachmentBytes(page, "file.txt", -1), "UTF-8"));
+      assertEquals(2, operations._contentFetches);
+
+      // As if restarted.
+      operations = new CountingOperations(new RepositoryBasicSVNOperations(repository, null));
+      store = new SVNPageStore("wiki", new InMemoryDeletedRevisionTracker(), null, null, new DiskContentCache(cacheDir, URL), operations, null, new FixedMimeIdentifier());
+      final VersionedPageInfo atRevision = store.get(page, 1);
+      assertEquals("Page content", atRevision.getContent());
+      assertEquals(1, atRevision.getLastChangedRevision());
+      assertEquals("mth", atRevision.getLastChangedUser());
+      assertEquals("Page content", store.get(page, -1).getContent());
+      final ByteArrayOutputStream attachment = new ByteArrayOutputStream();
+      store.attachment(page, "file.txt", -1, new ContentTypedSink() {
+        public void setContentType(final String contentType) {
+        }
+        public void setFileName(final String attachment) {
+        }
+        public OutputStream stream() {
+          return attachment;
+        }
+      });
+      assertEquals("Attachment content", attachment.toString("UTF-8"));
+      assertEquals(0, operations._contentFetches);
+    }
+    finally {
+      repository.closeSession();
+    }
+  }
+
+  public void testAttachmentAtRevisionCachedAsItIsServed() throws Exception {
+    FSRepositoryFactory.setup();
+    final SVNURL root = SVNRepositoryFactory.createLocalRepository(new File(_dir, "repository"), true, false);
+    final SVNRepository repository = SVNRepositoryFactory.create(root);
+    repository.setAuthenticationManager(new BasicAuthenticationManager("mth", ""));
+    try {
+      final ISVNEditor editor = repository.getCommitEditor("Create", null);
+      editor.openRoot(-1);
+      editor.addDir("Page-attachments", null, -1);
+      addFile(editor, "Page-attachments/file.txt", "0123456789");
+      editor.closeDir();
+      editor.closeDir();
+      editor.closeEdit();
+
+      final File cacheDir = new File(_dir, "cache");
+      final PageReferenceImpl page = new PageReferenceImpl("Page");
+      CountingOperations operations = new CountingOperations(new RepositoryBasicSVNOperations(repository, null));
+      SVNPageStore store = new SVNPageStore("wiki", new InMemoryDeletedRevisionTracker(), null, null, new DiskContentCache(cacheDir, URL), operations, null, new FixedMimeIdentifier());
+      AttachmentContent content = store.attachmentContent(page, "file.txt", 1);
+      assertEquals(1, content.getLastChangedRevision());
+      assertNotNull(content.getLastChangedDate());
+      // We don't fetch the content just to find out.
+      assertEquals(-1, content.getLength());
+      assertEquals(0, operations._contentFetches);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      content.writeTo(out, 2, 4);
+      assertEquals("2345", out.toString("UTF-8"));
+      assertEquals(1, operations._contentFetches);
+      assertEquals(10, store.attachmentContent(page, "file.txt", 1).getLength());
+
+      // As if restarted.
+      operations = new CountingOperations(new RepositoryBasicSVNOperations(repository, null));
+      store = new SVNPageStore("wiki", new InMemoryDeletedRevisionTracker(), null, null, new DiskContentCache(cacheDir, URL), operations, null, new FixedMimeIdentifier());
+      content = store.attachmentContent(page, "file.txt", 1);
+      out = new ByteArrayOutputStream();
+      content.writeTo(out, 7, -1);
+      assertEquals("789", out.toString("UTF-8"));
+      assertEquals(0, operations._contentFetches);
+      assertEquals(0, operations._propertyFetches);
+    }
+    finally {
+      repository.closeSession();
+    }
+  }
+
+  public void testCachedRevisionsNotServedToThoseTheRepositoryTurnsAway() throws Exception {
+    FSRepositoryFactory.setup();
+    final SVNURL root = SVNRepositoryFactory.createLocalRepository(new File(_dir, "repository"), true, false);
+    final SVNRepository repository = SVNRepositoryFactory.create(root);
+    repository.setAuthenticationManager(new BasicAuthenticationManager("mth", ""));
+    try {
+      final ISVNEditor editor = repository.getCommitEditor("Create", null);
+      editor.openRoot(-1);
+      addFile(editor, "Page", "Page content");
+      editor.addDir("Page-attachments", null, -1);
+      addFile(editor, "Page-attachments/file.txt", "Attachment content");
+      editor.closeDir();
+      editor.closeDir();
+      editor.closeEdit();
+
+      final DiskContentCache cache = new DiskContentCache(new File(_dir, "cache"), URL);
+      final PageReferenceImpl page = new PageReferenceImpl("Page");
+      final BasicSVNOperations permitted = new RepositoryBasicSVNOperations(repository, null);
+      SVNPageStore store = new SVNPageStore("wiki", new InMemoryDeletedRevisionTracker(), null, null, cache, permitted, null, new FixedMimeIdentifier());
+      assertEquals("Page content", store.get(page, 1).getContent());
+      store.attachmentContent(page, "file.txt", 1).writeTo(new ByteArrayOutputStream(), 0, -1);
+
+      // A later request the repository won't let read anything.
+      final BasicSVNOperations anonymous = new DelegatingBasicSVNOperations() {
+        @Override
+        public long getLatestRevision() throws PageStoreAuthenticationException {
+          throw new PageStoreAuthenticationException("Authentication required");
+        }
+        @Override
+        protected BasicSVNOperations getDelegate() {
+          return permitted;
+        }
+      };
+      store = new SVNPageStore("wiki", new InMemoryDeletedRevisionTracker(), null, null, cache, anonymous, null, new FixedMimeIdentifier());
+      try {
+        store.get(page, 1);
+        fail();
+      }
+      catch (PageStoreAuthenticationException expected) {
+      }
+      try {
+        store.attachmentContent(page, "file.txt", 1);
+        fail();
+      }
+      catch (PageStoreAuthenticationException expected) {
+      }
+    }
+    finally {
+      repository.closeSession();
+    }
+  }
+
+  private static void addFile(final ISVNEditor editor, final String path, final String content) throws Exception {
+    editor.addFile(path, null, -1);
+    editor.applyTextDelta(path, null);
+    final String checksum = new SVNDeltaGenerator().sendDelta(path, new ByteArrayInputStream(content.getBytes("UTF-8")), editor, true);
+    editor.closeFile(path, checksum);
+  }
+
+}
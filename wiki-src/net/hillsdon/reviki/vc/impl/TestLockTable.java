@@ -0,0 +1,167 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import static java.util.Collections.singletonMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.PageStoreException;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+
+import org.apache.commons.io.FileUtils;
+import org.tmatesoft.svn.core.SVNLock;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+
+/**
+ * Uses a wiki at /wiki with a locked page and a lock outside the wiki.
+ */
+public class TestLockTable extends TestCase {
+
+  private File _dir;
+  private SVNRepository _repository;
+  private CountingOperations _operations;
+
+  private static class CountingOperations extends DelegatingBasicSVNOperations {
+    private final BasicSVNOperations _delegate;
+    private int _getLocks = 0;
+
+    public CountingOperations(final BasicSVNOperations delegate) {
+      _delegate = delegate;
+    }
+
+    @Override
+    public Map<String, SVNLock> getLocks() throws PageStoreException {
+      _getLocks++;
+      return super.getLocks();
+    }
+
+    @Override
+    protected BasicSVNOperations getDelegate() {
+      return _delegate;
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    FSRepositoryFactory.setup();
+    _dir = File.createTempFile("testRepository", "");
+    assertTrue(_dir.delete());
+    final SVNURL root = SVNRepositoryFactory.createLocalRepository(_dir, true, false);
+    final SVNRepository repository = SVNRepositoryFactory.create(root);
+    repository.setAuthenticationManager(new BasicAuthenticationManager("mth", ""));
+    try {
+      final ISVNEditor editor = repository.getCommitEditor("Create", null);
+      editor.openRoot(-1);
+      addFile(editor, "Outside");
+      editor.addDir("wiki", null, -1);
+      addFile(editor, "wiki/Locked");
+      addFile(editor, "wiki/Unlocked");
+      editor.closeDir();
+      editor.closeDir();
+      editor.closeEdit();
+      repository.lock(singletonMap("Outside", 1L), "", false, null);
+    }
+    finally {
+      repository.closeSession();
+    }
+    _repository = SVNRepositoryFactory.create(root.appendPath("wiki", false));
+    _repository.setAuthenticationManager(new BasicAuthenticationManager("mth", ""));
+    _repository.lock(singletonMap("Locked", 1L), "", false, null);
+    _operations = new CountingOperations(new RepositoryBasicSVNOperations(_repository, null));
+  }
+
+  private static void addFile(final ISVNEditor editor, final String path) throws Exception {
+    editor.addFile(path, null, -1);
+    editor.applyTextDelta(path, null);
+    final String checksum = new SVNDeltaGenerator().sendDelta(path, new ByteArrayInputStream("Content".getBytes("UTF-8")), editor, true);
+    editor.closeFile(path, checksum);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _repository.closeSession();
+    FileUtils.forceDelete(_dir);
+  }
+
+  public void testLocksRelativeToWikiRoot() throws Exception {
+    final Map<String, SVNLock> locks = _operations.getLocks();
+    assertEquals(Collections.singleton("Locked"), locks.keySet());
+    assertEquals("mth", locks.get("Locked").getOwner());
+  }
+
+  public void testFetchesOnceUntilInvalidated() throws Exception {
+    final LockTable locks = new LockTable();
+    assertEquals("mth", locks.getLock(_operations, "Locked").getOwner());
+    assertNull(locks.getLock(_operations, "Unlocked"));
+    assertEquals(1, _operations._getLocks);
+
+    final SVNLock lock = _repository.getLock("Locked");
+    _repository.unlock(singletonMap("Locked", lock.getID()), false, null);
+    // Not noticed until the table is refreshed.
+    assertNotNull(locks.getLock(_operations, "Locked"));
+    locks.invalidate();
+    assertNull(locks.getLock(_operations, "Locked"));
+    assertEquals(2, _operations._getLocks);
+    assertEquals(2, locks.getLoads());
+  }
+
+  public void testUpdate() throws Exception {
+    final LockTable locks = new LockTable();
+    locks.getLock(_operations, "Locked");
+    locks.update("Locked", null);
+    locks.update("Unlocked", new SVNLock("/wiki/Unlocked", "token", "other", "", null, null));
+    assertNull(locks.getLock(_operations, "Locked"));
+    assertEquals("other", locks.getLock(_operations, "Unlocked").getOwner());
+    assertEquals(1, _operations._getLocks);
+  }
+
+  public void testRefreshesWhenOld() throws Exception {
+    final LockTable locks = new LockTable(0);
+    locks.getLock(_operations, "Locked");
+    locks.getLock(_operations, "Locked");
+    assertEquals(2, _operations._getLocks);
+  }
+
+  public void testPageViewsUseTable() throws Exception {
+    final LockTable locks = new LockTable();
+    final SVNPageStore store = new SVNPageStore("wiki", new InMemoryDeletedRevisionTracker(), null, locks, _operations, null, new FixedMimeIdentifier());
+    assertEquals("mth", store.get(new PageReferenceImpl("Locked"), -1).getLockedBy());
+    assertFalse(store.get(new PageReferenceImpl("Unlocked"), -1).isLocked());
+    assertEquals("mth", store.get(new PageReferenceImpl("Locked"), 1).getLockedBy());
+    assertEquals(1, _operations._getLocks);
+
+    // Editing checks with the repository and updates the table.
+    final VersionedPageInfo locked = store.tryToLock(new PageReferenceImpl("Unlocked"));
+    assertEquals("mth", locked.getLockedBy());
+    assertEquals("Content", locked.getContent());
+    assertTrue(store.get(new PageReferenceImpl("Unlocked"), -1).isLocked());
+    store.unlock(new PageReferenceImpl("Unlocked"), locked.getLockToken());
+    assertFalse(store.get(new PageReferenceImpl("Unlocked"), -1).isLocked());
+    assertEquals(2, _operations._getLocks);
+  }
+
+}
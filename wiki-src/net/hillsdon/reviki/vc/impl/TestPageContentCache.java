@@ -0,0 +1,176 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import static java.util.Arrays.asList;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.PageReference;
+import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+
+import org.easymock.IAnswer;
+import org.tmatesoft.svn.core.SVNLock;
+import org.tmatesoft.svn.core.SVNProperty;
+
+public class TestPageContentCache extends TestCase {
+
+  private static VersionedPageInfo page(final String path, final String content, final long revision, final long lastChangedRevision) {
+    return new VersionedPageInfoImpl("wiki", path, content, revision, lastChangedRevision, "mth", new Date(), null, null, null, Collections.<String, String>emptyMap());
+  }
+
+  private static ChangeInfo change(final String path, final long revision) {
+    return new ChangeInfo(path, path, "mth", new Date(), revision, "", StoreKind.PAGE, ChangeType.MODIFIED, null, -1);
+  }
+
+  public void testExplicitRevisionsStayCached() throws Exception {
+    final PageContentCache cache = new PageContentCache();
+    final VersionedPageInfo page = page("Page", "Content", 3, 2);
+    cache.put(3, page);
+    cache.handleChanges(5, asList(change("Page", 4), change("Page", 5)));
+    assertSame(page, cache.get("Page", 3));
+    assertNull(cache.get("Page", 4));
+    assertNull(cache.get("Page", -1));
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  public void testHeadCachedUntilPageChanges() throws Exception {
+    final PageContentCache cache = new PageContentCache();
+    assertEquals(Long.MAX_VALUE - 1, cache.getHighestSyncedRevision());
+    final VersionedPageInfo page = page("Page", "Content", 7, 4);
+    cache.put(-1, page);
+    // So we hear about changes after we fetched it.
+    assertEquals(7, cache.getHighestSyncedRevision());
+    assertSame(page, cache.get("Page", -1));
+
+    // Already reflected in what we fetched.
+    cache.handleChanges(8, asList(change("Page", 4), change("Other", 8)));
+    assertEquals(8, cache.getHighestSyncedRevision());
+    assertSame(page, cache.get("Page", -1));
+
+    cache.handleChanges(9, asList(change("Page", 9)));
+    assertNull(cache.get("Page", -1));
+  }
+
+  public void testHeadFetchedBeforeTheSyncedRevisionNotCached() throws Exception {
+    final PageContentCache cache = new PageContentCache();
+    cache.put(-1, page("Other", "Content", 7, 3));
+    // Page changed in 9 but we've not cached it yet.
+    cache.handleChanges(9, asList(change("Page", 9)));
+    // So this was fetched before the change, and it's no longer queued for us.
+    cache.put(-1, page("Page", "Stale", 8, 4));
+    cache.handleChanges(11, asList(change("Other", 11)));
+    assertEquals(11, cache.getHighestSyncedRevision());
+    assertNull(cache.get("Page", -1));
+
+    final VersionedPageInfo fresh = page("Page", "Fresh", 11, 9);
+    cache.put(-1, fresh);
+    assertSame(fresh, cache.get("Page", -1));
+  }
+
+  public void testExpire() throws Exception {
+    final PageContentCache cache = new PageContentCache();
+    cache.put(-1, page("Page", "Content", 7, 4));
+    cache.expire("Page");
+    assertNull(cache.get("Page", -1));
+    assertEquals(0, cache.getBytes());
+  }
+
+  public void testPagesThatDontExistAreNotCached() throws Exception {
+    final PageContentCache cache = new PageContentCache();
+    cache.put(-1, page("Page", "", VersionedPageInfo.UNCOMMITTED, VersionedPageInfo.UNCOMMITTED));
+    assertNull(cache.get("Page", -1));
+    assertEquals(Long.MAX_VALUE - 1, cache.getHighestSyncedRevision());
+  }
+
+  public void testEvictsLeastRecentlyUsedWhenFull() throws Exception {
+    final PageContentCache cache = new PageContentCache(1000);
+    cache.put(1, page("A", "a", 1, 1));
+    cache.put(-1, page("B", "b", 2, 2));
+    cache.get("A", 1);
+    cache.put(3, page("C", "c", 3, 3));
+    cache.put(4, page("D", "d", 4, 4));
+    assertEquals(1, cache.getEvictions());
+    assertNull(cache.get("B", -1));
+    assertNotNull(cache.get("A", 1));
+    assertTrue(cache.getBytes() <= 1000);
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testStoreOnlyFetchesLockInformationOnHit() throws Exception {
+    final BasicSVNOperations operations = createMock(BasicSVNOperations.class);
+    final PageReference ref = new PageReferenceImpl("Page");
+    expect(operations.getFileAndLock(eq("Page"), eq(-1L), (Map<String, String>) anyObject(), (OutputStream) anyObject())).andAnswer(new IAnswer<SVNLock>() {
+      public SVNLock answer() throws Throwable {
+        final Map<String, String> properties = (Map<String, String>) getCurrentArguments()[2];
+        properties.put(SVNProperty.REVISION, "7");
+        properties.put(SVNProperty.COMMITTED_REVISION, "4");
+        ((OutputStream) getCurrentArguments()[3]).write("Content".getBytes());
+        return new SVNLock("/Page", "token", "other", "", new Date(), null);
+      }
+    });
+    expect(operations.getLatestRevision()).andReturn(7L);
+    expect(operations.getLock("Page")).andReturn(new SVNLock("/Page", "token", "mth", "", new Date(), null));
+    replay(operations);
+
+    final PageContentCache cache = new PageContentCache();
+    final SVNPageStore svnStore = new SVNPageStore("wiki", new InMemoryDeletedRevisionTracker(), operations, null, new FixedMimeIdentifier());
+    assertEquals("other", new ContentCachingPageStore(cache, svnStore).get(ref, -1).getLockedBy());
+    final VersionedPageInfo cached = new ContentCachingPageStore(cache, svnStore).get(ref, -1);
+    assertEquals("Content", cached.getContent());
+    assertEquals(4, cached.getLastChangedRevision());
+    assertEquals("mth", cached.getLockedBy());
+    assertEquals(1, cache.getHits());
+    verify(operations);
+  }
+
+  public void testCachedContentNotServedToThoseTheRepositoryTurnsAway() throws Exception {
+    final PageContentCache cache = new PageContentCache();
+    cache.put(-1, page("Page", "Secret", 7, 4));
+    cache.put(3, page("Page", "Old secret", 3, 2));
+
+    final BasicSVNOperations anonymous = createMock(BasicSVNOperations.class);
+    expect(anonymous.getLatestRevision()).andThrow(new PageStoreAuthenticationException("Denied")).times(2);
+    replay(anonymous);
+    final ContentCachingPageStore store = new ContentCachingPageStore(cache, new SVNPageStore("wiki", new InMemoryDeletedRevisionTracker(), anonymous, null, new FixedMimeIdentifier()));
+    for (long revision : new long[] {-1, 3}) {
+      try {
+        store.get(new PageReferenceImpl("Page"), revision);
+        fail("Served revision " + revision + " from the cache");
+      }
+      catch (PageStoreAuthenticationException expected) {
+      }
+    }
+    verify(anonymous);
+  }
+
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.wiki.renderer.creole.SimplePageLinkTarget;
+
+import org.apache.commons.io.FileUtils;
+
+public class TestPersistentDeletedRevisionTracker extends TestCase {
+
+  private static final String URL = "http://svn.example.com/wiki";
+
+  private File _dir;
+
+  @Override
+  protected void setUp() throws Exception {
+    _dir = File.createTempFile("testDir", "");
+    assertTrue(_dir.delete());
+    assertTrue(_dir.mkdir());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.forceDelete(_dir);
+  }
+
+  private static ChangeInfo change(final String page, final long revision, final ChangeType type) {
+    return new ChangeInfo(page, page, "mth", new Date(revision * 1000), revision, "Message " + revision, StoreKind.PAGE, type, null, -1);
+  }
+
+  public void testRestoresSnapshot() throws Exception {
+    PersistentDeletedRevisionTracker tracker = new PersistentDeletedRevisionTracker(_dir, URL);
+    ChangeInfo renamed = new ChangeInfo("Old", "Old", "mth", new Date(), 4, "Renamed", StoreKind.PAGE, ChangeType.DELETED, null, -1, new SimplePageLinkTarget(null, "New", null, null));
+    ChangeInfo moved = new ChangeInfo("Moved", "Moved", "mth", new Date(), 4, null, StoreKind.PAGE, ChangeType.DELETED, null, -1, new SVNPathLinkTarget("http://svn.example.com/", "/other/Moved"));
+    tracker.handleChanges(5, Arrays.asList(change("Kept", 1, ChangeType.ADDED), change("Gone", 2, ChangeType.ADDED), change("Gone", 3, ChangeType.DELETED), renamed, moved, change("New", 4, ChangeType.ADDED)));
+
+    PersistentDeletedRevisionTracker restored = new PersistentDeletedRevisionTracker(_dir, URL);
+    assertEquals(5, restored.getHighestSyncedRevision());
+    assertEquals(tracker.currentExistingEntries(), restored.currentExistingEntries());
+    assertNull(restored.getChangeThatDeleted("Kept"));
+    ChangeInfo gone = restored.getChangeThatDeleted("Gone");
+    assertEquals(3, gone.getRevision());
+    assertEquals("mth", gone.getUser());
+    assertEquals(new Date(3000), gone.getDate());
+    assertEquals("Message 3", gone.getCommitMessage());
+    assertEquals(ChangeType.DELETED, gone.getChangeType());
+    assertEquals("New", restored.getChangeThatDeleted("Old").getRenamedTo().getPageName());
+    assertTrue(restored.getChangeThatDeleted("Old").getRenamedTo().isLinkToCurrentWiki());
+    assertEquals("Moved", restored.getChangeThatDeleted("Moved").getRenamedTo().getPageName());
+    assertFalse(restored.getChangeThatDeleted("Moved").getRenamedTo().isLinkToCurrentWiki());
+  }
+
+  public void testIgnoresSnapshotForOtherRepository() throws Exception {
+    PersistentDeletedRevisionTracker tracker = new PersistentDeletedRevisionTracker(_dir, URL);
+    tracker.handleChanges(1, Collections.singletonList(change("Page", 1, ChangeType.ADDED)));
+    PersistentDeletedRevisionTracker other = new PersistentDeletedRevisionTracker(_dir, "http://svn.example.com/other");
+    assertEquals(0, other.getHighestSyncedRevision());
+    assertTrue(other.currentExistingEntries().isEmpty());
+  }
+
+  public void testIgnoresCorruptSnapshot() throws Exception {
+    FileOutputStream out = new FileOutputStream(new File(_dir, PersistentDeletedRevisionTracker.FILE_NAME));
+    out.write(new byte[] {1, 2, 3});
+    out.close();
+    PersistentDeletedRevisionTracker tracker = new PersistentDeletedRevisionTracker(_dir, URL);
+    assertEquals(0, tracker.getHighestSyncedRevision());
+  }
+
+  public void testIgnoresSnapshotWithCorruptLengths() throws Exception {
+    PersistentDeletedRevisionTracker tracker = new PersistentDeletedRevisionTracker(_dir, URL);
+    tracker.handleChanges(1, Collections.singletonList(change("Page", 1, ChangeType.ADDED)));
+    RandomAccessFile data = new RandomAccessFile(new File(_dir, PersistentDeletedRevisionTracker.FILE_NAME), "rw");
+    // The length of the URL.
+    data.seek(8);
+    data.writeInt(-2);
+    data.close();
+    assertEquals(0, new PersistentDeletedRevisionTracker(_dir, URL).getHighestSyncedRevision());
+
+    tracker.snapshot();
+    data = new RandomAccessFile(new File(_dir, PersistentDeletedRevisionTracker.FILE_NAME), "rw");
+    // The number of changes, after the URL and synced revision.
+    data.seek(12 + URL.getBytes("UTF-8").length + 8);
+    data.writeInt(Integer.MAX_VALUE);
+    data.close();
+    assertEquals(0, new PersistentDeletedRevisionTracker(_dir, URL).getHighestSyncedRevision());
+  }
+
+  public void testNoDirectoryMeansNoSnapshot() throws Exception {
+    PersistentDeletedRevisionTracker tracker = new PersistentDeletedRevisionTracker(null, URL);
+    tracker.handleChanges(1, Collections.singletonList(change("Page", 1, ChangeType.ADDED)));
+    assertEquals(Collections.singleton("Page"), tracker.currentExistingEntries());
+  }
+
+}
@@ -18,6 +18,9 @@ package net.hillsdon.reviki.vc.impl;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import junit.framework.TestCase;
 import net.hillsdon.reviki.vc.ChangeInfo;
@@ -106,4 +109,27 @@ public class TestRepositoryBasicSVNOperations extends TestCase {
     assertEquals("/test", RepositoryBasicSVNOperations.fixFullLoggedPath("test"));
   }
   
+  public void testLargeCommitClassified() throws Exception {
+    // e.g. moving every attachment of a page in one commit.
+    final int count = 20000;
+    final Map<String, SVNLogEntryPath> changedPaths = new LinkedHashMap<String, SVNLogEntryPath>();
+    for (int i = 0; i < count; ++i) {
+      final String from = "/wiki/Old-attachments/file" + i + ".txt";
+      final String to = "/wiki/New-attachments/file" + i + ".txt";
+      changedPaths.put(from, new SVNLogEntryPath(from, 'D', null, -1));
+      changedPaths.put(to, new SVNLogEntryPath(to, 'A', from, 10));
+    }
+    final RepositoryBasicSVNOperations operations = new RepositoryBasicSVNOperations(getTestRepo(), null);
+    final List<ChangeInfo> changes = operations.logEntryToChangeInfos("/wiki", "", new SVNLogEntry(changedPaths, 11, "", null, ""), LogEntryFilter.DESCENDANTS);
+    assertEquals(count * 2, changes.size());
+    final ChangeInfo deleted = changes.get(0);
+    assertEquals(StoreKind.ATTACHMENT, deleted.getKind());
+    assertEquals("Old", deleted.getPage());
+    assertEquals("file0.txt", deleted.getName());
+    assertEquals("file0.txt", deleted.getRenamedTo().getPageName());
+    final ChangeInfo added = changes.get(1);
+    assertEquals("New", added.getPage());
+    assertEquals(10, added.getCopiedFromRevision());
+  }
+
 }
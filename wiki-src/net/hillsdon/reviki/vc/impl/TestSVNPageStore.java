@@ -24,10 +24,14 @@ import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.getCurrentArguments;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -36,6 +40,7 @@ import java.util.Map;
 import junit.framework.TestCase;
 import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.NotFoundException;
 import net.hillsdon.reviki.vc.PageInfo;
 import net.hillsdon.reviki.vc.VersionedPageInfo;
 import net.hillsdon.reviki.vc.PageReference;
@@ -45,12 +50,13 @@ import net.hillsdon.reviki.vc.StoreKind;
 import net.hillsdon.reviki.vc.impl.SVNPageStore.SVNRenameAction;
 
 import org.apache.commons.collections.MapUtils;
+import org.apache.commons.io.FileUtils;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.tmatesoft.svn.core.SVNErrorCode;
 import org.tmatesoft.svn.core.SVNErrorMessage;
 import org.tmatesoft.svn.core.SVNException;
-import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNLock;
 import org.tmatesoft.svn.core.io.ISVNEditor;
 
 /**
@@ -137,6 +143,37 @@ public class TestSVNPageStore extends TestCase {
     verify();
   }
 
+  public void testHistoryAndRecentChangesFromPopulatedChangeLog() throws Exception {
+    final String originalName = "TheOriginalPage";
+    final String copyName = "TheCopiedPage";
+    final ChangeInfo create  = new ChangeInfo(originalName, originalName, "mth", new Date(), 1, "Initial create", StoreKind.PAGE, ChangeType.ADDED, null, -1);
+    final ChangeInfo copyRemove = new ChangeInfo(originalName, originalName, "mth", new Date(), 2, "Copy delete", StoreKind.PAGE, ChangeType.DELETED, null, -1);
+    final ChangeInfo copyAdd  = new ChangeInfo(copyName, copyName, "mth", new Date(), 2, "Copy add", StoreKind.PAGE, ChangeType.ADDED, originalName, 1);
+    final ChangeInfo edit  = new ChangeInfo(copyName, copyName, "mth", new Date(), 3, "Edit", StoreKind.PAGE, ChangeType.MODIFIED, null, -1);
+    final File dir = File.createTempFile("testDir", "");
+    assertTrue(dir.delete());
+    assertTrue(dir.mkdir());
+    final ChangeLogCache changeLog = new ChangeLogCache(dir, null);
+    try {
+      changeLog.handleChanges(3, asList(create, copyRemove, copyAdd, edit));
+      _store = new SVNPageStore("wiki", _tracker, changeLog, _operations, createMock(AutoPropertiesApplier.class), new FixedMimeIdentifier());
+      expect(_tracker.getChangeThatDeleted(copyName)).andReturn(null);
+      replay();
+      final List<String> messages = new ArrayList<String>();
+      for (ChangeInfo change : _store.history(new PageReferenceImpl(copyName))) {
+        messages.add(change.getCommitMessage());
+      }
+      assertEquals(asList("Edit", "Copy add", "Initial create"), messages);
+      assertEquals(3, _store.recentChanges(2).size());
+      assertEquals(Collections.singleton(new PageReferenceImpl(copyName)), new HashSet<PageReference>(_store.getChangedBetween(3, 3)));
+      verify();
+    }
+    finally {
+      changeLog.close();
+      FileUtils.forceDelete(dir);
+    }
+  }
+
   public void testRename() throws Exception {
     String originalName = "TheOriginalPage";
     String newName = "TheRenamedPage";
@@ -197,16 +234,13 @@ public class TestSVNPageStore extends TestCase {
   public void testGetPage() throws PageStoreException {
     final String content = "Content";
     PageReferenceImpl ref = new PageReferenceImpl("Page");
-    expect(_operations.checkPath(ref.getPath(), -1L)).andReturn(SVNNodeKind.FILE);
-    _operations.getFile(eq(ref.getPath()), eq(-1L), (Map<String, String>) anyObject(), (OutputStream) anyObject());
-    expectLastCall().andAnswer(new IAnswer<Object>() {
-      public Object answer() throws Throwable {
+    expect(_operations.getFileAndLock(eq(ref.getPath()), eq(-1L), (Map<String, String>) anyObject(), (OutputStream) anyObject())).andAnswer(new IAnswer<SVNLock>() {
+      public SVNLock answer() throws Throwable {
         OutputStream out = (OutputStream) getCurrentArguments()[3];
         out.write(content.getBytes());
         return null;
       }
     });
-    expect(_operations.getLock(ref.getPath())).andReturn(null);
     replay();
     VersionedPageInfo returnValue = _store.get(ref, -1);
     assertEquals(ref.getName(), returnValue.getName());
@@ -215,6 +249,18 @@ public class TestSVNPageStore extends TestCase {
     verify();
   }
   
+  @SuppressWarnings("unchecked")
+  public void testGetMissingPage() throws PageStoreException {
+    PageReferenceImpl ref = new PageReferenceImpl("Page");
+    expect(_operations.getFileAndLock(eq(ref.getPath()), eq(-1L), (Map<String, String>) anyObject(), (OutputStream) anyObject())).andThrow(new NotFoundException());
+    expect(_tracker.getChangeThatDeleted(ref.getPath())).andReturn(null);
+    replay();
+    VersionedPageInfo page = _store.get(ref, -1);
+    assertEquals(VersionedPageInfo.UNCOMMITTED, page.getRevision());
+    assertEquals("", page.getContent());
+    verify();
+  }
+
   public void testGetPages() throws PageStoreException, IOException {
     final Map<String, ByteArrayOutputStream> pathsOutput = new LinkedHashMap<String, ByteArrayOutputStream>();
     List<String> paths = new LinkedList<String>();
@@ -255,10 +301,8 @@ public class TestSVNPageStore extends TestCase {
   public void testGetPageWithAttributes() throws PageStoreException {
     final String content = "Content";
     PageReferenceImpl ref = new PageReferenceImpl("Page");
-    expect(_operations.checkPath(ref.getPath(), -1L)).andReturn(SVNNodeKind.FILE);
-    _operations.getFile(eq(ref.getPath()), eq(-1L), (Map<String, String>) anyObject(), (OutputStream) anyObject());
-    expectLastCall().andAnswer(new IAnswer<Object>() {
-      public Object answer() throws Throwable {
+    expect(_operations.getFileAndLock(eq(ref.getPath()), eq(-1L), (Map<String, String>) anyObject(), (OutputStream) anyObject())).andAnswer(new IAnswer<SVNLock>() {
+      public SVNLock answer() throws Throwable {
         Map<String, String> properties = (Map<String, String>) getCurrentArguments()[2];
         properties.put("reviki:someKey", "someValue1");
         properties.put("svn:someKey", "someValue2");
@@ -268,7 +312,6 @@ public class TestSVNPageStore extends TestCase {
         return null;
       }
     });
-    expect(_operations.getLock(ref.getPath())).andReturn(null);
     replay();
     VersionedPageInfo pageInfo = _store.get(ref, -1);
     assertEquals(ref.getName(), pageInfo.getName());
@@ -279,6 +322,24 @@ public class TestSVNPageStore extends TestCase {
     verify();
   }
 
+  @SuppressWarnings("unchecked")
+  public void testGetPagesWithAttributes() throws PageStoreException {
+    PageReferenceImpl ref = new PageReferenceImpl("Page");
+    _operations.getFiles(eq(-1L), (Map<String, Map<String, String>>) anyObject(), (Map<String, OutputStream>) anyObject());
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        Map<String, String> properties = ((Map<String, Map<String, String>>) getCurrentArguments()[1]).get("Page");
+        properties.put("reviki:someKey", "someValue1");
+        properties.put("svn:entry:revision", "3");
+        return null;
+      }
+    });
+    replay();
+    PageInfo pageInfo = _store.getPages(Collections.<PageReference>singleton(ref), -1).iterator().next();
+    assertEquals(Collections.singletonMap("someKey", "someValue1"), pageInfo.getAttributes());
+    verify();
+  }
+
   private void verify() {
     EasyMock.verify(_tracker, _operations);
   }
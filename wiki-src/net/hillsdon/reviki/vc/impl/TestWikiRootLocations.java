@@ -0,0 +1,139 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import static java.util.Arrays.asList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+
+import org.apache.commons.io.FileUtils;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+
+/**
+ * Reads from a wiki that was moved from /old to /wiki in revision 2.
+ */
+public class TestWikiRootLocations extends TestCase {
+
+  private File _dir;
+  private SVNURL _root;
+  private SVNRepository _repository;
+
+  @Override
+  protected void setUp() throws Exception {
+    FSRepositoryFactory.setup();
+    _dir = File.createTempFile("testRepository", "");
+    assertTrue(_dir.delete());
+    _root = SVNRepositoryFactory.createLocalRepository(_dir, true, false);
+    final SVNRepository repository = SVNRepositoryFactory.create(_root);
+    repository.setAuthenticationManager(new BasicAuthenticationManager("mth", ""));
+    try {
+      ISVNEditor editor = repository.getCommitEditor("Create", null);
+      editor.openRoot(-1);
+      editor.addDir("old", null, -1);
+      editor.addFile("old/Page", null, -1);
+      editor.applyTextDelta("old/Page", null);
+      final String checksum = new SVNDeltaGenerator().sendDelta("old/Page", new ByteArrayInputStream("Content".getBytes("UTF-8")), editor, true);
+      editor.closeFile("old/Page", checksum);
+      editor.closeDir();
+      editor.closeDir();
+      editor.closeEdit();
+
+      editor = repository.getCommitEditor("Move", null);
+      editor.openRoot(-1);
+      editor.addDir("wiki", "/old", 1);
+      editor.closeDir();
+      editor.deleteEntry("old", 1);
+      editor.closeDir();
+      editor.closeEdit();
+    }
+    finally {
+      repository.closeSession();
+    }
+    _repository = SVNRepositoryFactory.create(_root.appendPath("wiki", false));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _repository.closeSession();
+    FileUtils.forceDelete(_dir);
+  }
+
+  public void testLocations() throws Exception {
+    final WikiRootLocations locations = new WikiRootLocations();
+    assertEquals(_root.appendPath("old", false), locations.getLocation(_repository, 1));
+    assertEquals(_root.appendPath("wiki", false), locations.getLocation(_repository, 2));
+    assertNull(locations.getLocation(_repository, 0));
+    assertNull(locations.getLocation(_repository, -1));
+    // Still here for revisions newer than we've seen.
+    assertEquals(_root.appendPath("wiki", false), locations.getLocation(_repository, 3));
+  }
+
+  public void testReadsFromOldLocation() throws Exception {
+    final RepositoryBasicSVNOperations operations = new RepositoryBasicSVNOperations(_repository, null);
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    operations.getFile("Page", 1, null, content);
+    assertEquals("Content", content.toString("UTF-8"));
+    assertEquals(SVNNodeKind.FILE, operations.checkPath("Page", 1));
+    assertEquals(SVNNodeKind.NONE, operations.checkPath("Missing", 1));
+
+    final List<ChangeInfo> changes = operations.log("", -1, LogEntryFilter.DESCENDANTS, false, 0, 1);
+    assertEquals(1, changes.size());
+    assertEquals("Page", changes.get(0).getPage());
+    // Back where we started.
+    assertEquals(_root.appendPath("wiki", false), _repository.getLocation());
+  }
+
+  public void testPageStoreReadsFromOldLocation() throws Exception {
+    final SVNPageStore store = new SVNPageStore("wiki", new InMemoryDeletedRevisionTracker(), new RepositoryBasicSVNOperations(_repository, null), null, new FixedMimeIdentifier());
+    final VersionedPageInfo page = store.get(new PageReferenceImpl("Page"), 1);
+    assertEquals("Content", page.getContent());
+    assertEquals(1, page.getRevision());
+    assertEquals(VersionedPageInfo.UNCOMMITTED, store.get(new PageReferenceImpl("Missing"), 1).getRevision());
+    assertEquals(VersionedPageInfo.UNCOMMITTED, store.get(new PageReferenceImpl("Missing"), -1).getRevision());
+  }
+
+  public void testStreamsLogInChunks() throws Exception {
+    final RepositoryBasicSVNOperations operations = new RepositoryBasicSVNOperations(_repository, null);
+    final List<Long> uptos = new ArrayList<Long>();
+    final List<ChangeInfo> changes = new ArrayList<ChangeInfo>();
+    operations.log("", LogEntryFilter.DESCENDANTS, 0, -1, 1, new LogChunkHandler() {
+      public void handleChanges(final long upto, final List<ChangeInfo> chronological) {
+        uptos.add(upto);
+        changes.addAll(chronological);
+      }
+    });
+    // Nothing at revision 0 as the wiki root didn't exist yet.
+    assertEquals(asList(0L, 1L, 2L), uptos);
+    assertEquals(1, changes.get(0).getRevision());
+    assertEquals("Page", changes.get(0).getPage());
+  }
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.io.ISVNLocationSegmentHandler;
+import org.tmatesoft.svn.core.io.SVNLocationSegment;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+/**
+ * Where the wiki root was at each revision, so we can read old revisions of a
+ * wiki that has since been moved.
+ *
+ * The whole history is fetched with one request the first time we're asked
+ * about a revision we don't know and kept as a table of revision ranges, so
+ * it should be shared between requests.  History doesn't change so the table
+ * only needs refreshing for revisions newer than it covers, and then only if
+ * the wiki root wasn't where it is now at the newest revision we know of.
+ */
+public class WikiRootLocations {
+
+  private static final class Range {
+    private final long _end;
+    private final SVNURL _url;
+
+    public Range(final long end, final SVNURL url) {
+      _end = end;
+      _url = url;
+    }
+  }
+
+  private final TreeMap<Long, Range> _ranges = new TreeMap<Long, Range>();
+  private long _knownUpTo = -1;
+
+  /**
+   * @param repository A session at the wiki root as it is now.
+   * @param revision The revision of interest.
+   * @return Where the wiki root was at the given revision, or null if it didn't exist then or the revision is -1.
+   * @throws SVNException If we fail to get the wiki root's history.
+   */
+  public SVNURL getLocation(final SVNRepository repository, final long revision) throws SVNException {
+    if (revision < 0) {
+      return null;
+    }
+    synchronized (this) {
+      if (revision <= _knownUpTo) {
+        return lookup(revision);
+      }
+      // Unless it's been replaced since, the wiki root is still where it is now.
+      final SVNURL latestKnown = lookup(_knownUpTo);
+      if (latestKnown != null && latestKnown.equals(repository.getLocation())) {
+        return latestKnown;
+      }
+    }
+    final SVNURL root = repository.getRepositoryRoot(true);
+    final long latest = repository.getLatestRevision();
+    final TreeMap<Long, Range> ranges = new TreeMap<Long, Range>();
+    repository.getLocationSegments("", latest, latest, 0, new ISVNLocationSegmentHandler() {
+      public void handleLocationSegment(final SVNLocationSegment segment) throws SVNException {
+        final SVNURL url = segment.getPath() == null ? null : root.appendPath(segment.getPath(), false);
+        ranges.put(segment.getStartRevision(), new Range(segment.getEndRevision(), url));
+      }
+    });
+    synchronized (this) {
+      if (latest > _knownUpTo) {
+        _ranges.clear();
+        _ranges.putAll(ranges);
+        _knownUpTo = latest;
+      }
+      return lookup(revision);
+    }
+  }
+
+  private SVNURL lookup(final long revision) {
+    final Map.Entry<Long, Range> entry = _ranges.floorEntry(revision);
+    if (entry == null || entry.getValue()._end < revision) {
+      return null;
+    }
+    return entry.getValue()._url;
+  }
+
+}
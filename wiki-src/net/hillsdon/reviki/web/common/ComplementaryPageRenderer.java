@@ -1,5 +1,7 @@
 package net.hillsdon.reviki.web.common;
 
+import java.io.IOException;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -44,7 +46,14 @@ public class ComplementaryPageRenderer {
    */
   private String getRenderedPage(final PageReference pageRef) throws PageStoreException {
     VersionedPageInfo page = _pageStore.get(pageRef, -1);
-    return _renderer.render(page, new ResponseSessionURLOutputFilter(_request, _response)).get();
+    StringBuilder rendered = new StringBuilder();
+    try {
+      _renderer.renderTo(page, new ResponseSessionURLOutputFilter(_request, _response), rendered);
+    }
+    catch (IOException ex) {
+      throw new PageStoreException(ex);
+    }
+    return rendered.toString();
   }
 
   /**
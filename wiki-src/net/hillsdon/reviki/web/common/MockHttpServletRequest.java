@@ -15,10 +15,14 @@
  */
 package net.hillsdon.reviki.web.common;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.http.HttpSession;
@@ -44,6 +48,7 @@ public final class MockHttpServletRequest extends NullHttpServletRequest {
     }
   };
   private Map<String, RequestDispatcher> _requestDispatchers = new LinkedHashMap<String, RequestDispatcher>();
+  private Map<String, String> _headers = new LinkedHashMap<String, String>();
 
   @Override
   public void setAttribute(final String key, final Object value) {
@@ -87,6 +92,31 @@ public final class MockHttpServletRequest extends NullHttpServletRequest {
     return null;
   }
   
+  public void setHeader(final String name, final String value) {
+    _headers.put(name.toLowerCase(Locale.US), value);
+  }
+
+  @Override
+  public String getHeader(final String name) {
+    return _headers.get(name.toLowerCase(Locale.US));
+  }
+
+  @Override
+  public long getDateHeader(final String name) {
+    final String value = getHeader(name);
+    if (value == null) {
+      return -1;
+    }
+    final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    try {
+      return format.parse(value).getTime();
+    }
+    catch (ParseException ex) {
+      throw new IllegalArgumentException(value);
+    }
+  }
+
   @Override
   public RequestDispatcher getRequestDispatcher(String arg0) {
     return _requestDispatchers.get(arg0);
@@ -29,4 +29,10 @@ public interface ActiveWikis {
    */
   void installHandler(WikiConfiguration configuration, WikiHandler handler);
 
+  /**
+   * Stops a handler we created, e.g. because it failed its test or has been
+   * replaced.  It can't be used after this.
+   */
+  void disposeHandler(WikiHandler handler);
+
 }
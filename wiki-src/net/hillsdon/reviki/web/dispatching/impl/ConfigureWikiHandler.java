@@ -65,19 +65,25 @@ public class ConfigureWikiHandler implements RequestHandler {
         if (_perWikiConfiguration.isComplete()) {
           WikiHandler handler = _activeWikis.createWikiHandler(_perWikiConfiguration);
 
+          boolean installed = false;
           try {
             View authenticationView = handler.test(request, response);
             if (authenticationView != null) {
               return authenticationView;
             }
+            _activeWikis.installHandler(_perWikiConfiguration, handler);
+            installed = true;
           }
           catch (PageStoreInvalidException ex) {
             request.setAttribute("flash", "SVN location invalid.  Try svn mkdir?");
             // TODO: Preserve SVN location.
             return new JspView("Configuration");
           }
-
-          _activeWikis.installHandler(_perWikiConfiguration, handler);
+          finally {
+            if (!installed) {
+              _activeWikis.disposeHandler(handler);
+            }
+          }
         }
         try {
           SearchIndexBuilder indexBuilder = new SearchIndexBuilder(_configuration);
@@ -25,6 +25,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import net.hillsdon.reviki.di.ApplicationSession;
 import net.hillsdon.reviki.web.dispatching.Dispatcher;
+import net.hillsdon.reviki.wiki.renderer.creole.CreoleRenderer;
 
 import org.apache.lucene.search.BooleanQuery;
 import org.picocontainer.PicoBuilder;
@@ -43,6 +44,8 @@ public class DispatcherServlet extends HttpServlet {
   @Override
   public void init(final ServletConfig config) throws ServletException {
     super.init(config);
+    // Before any requests or the search index builder need the parser.
+    CreoleRenderer.warmUp();
     // This package cycle is fundamental... I figure we'd fix it by
     // putting the impl class name in the web.xml so this is a reasonable
     // temporary step to get back to zero cycles.
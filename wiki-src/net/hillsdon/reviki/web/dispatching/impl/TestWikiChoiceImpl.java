@@ -1,6 +1,14 @@
 package net.hillsdon.reviki.web.dispatching.impl;
 
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import junit.framework.TestCase;
+import net.hillsdon.reviki.configuration.WikiConfiguration;
+import net.hillsdon.reviki.di.ApplicationSession;
+import net.hillsdon.reviki.di.WikiSession;
+import net.hillsdon.reviki.web.dispatching.WikiHandler;
 
 public class TestWikiChoiceImpl extends TestCase {
 
@@ -28,4 +36,26 @@ public class TestWikiChoiceImpl extends TestCase {
     assertTrue(_choice.isValidWikiName("foo"));
   }
 
+  public void testStopsTheSessionOfAReplacedHandler() {
+    final WikiConfiguration configuration = createMock(WikiConfiguration.class);
+    final ApplicationSession applicationSession = createMock(ApplicationSession.class);
+    final WikiSession first = createMock(WikiSession.class);
+    final WikiSession second = createMock(WikiSession.class);
+    final WikiHandler firstHandler = createMock(WikiHandler.class);
+    final WikiHandler secondHandler = createMock(WikiHandler.class);
+    expect(applicationSession.createWikiSession(configuration)).andReturn(first);
+    expect(applicationSession.createWikiSession(configuration)).andReturn(second);
+    first.start();
+    expect(first.getWikiHandler()).andReturn(firstHandler);
+    second.start();
+    expect(second.getWikiHandler()).andReturn(secondHandler);
+    first.stop();
+    replay(configuration, applicationSession, first, second, firstHandler, secondHandler);
+
+    _choice = new WikiChoiceImpl(null, applicationSession, null);
+    _choice.installHandler(configuration, _choice.createWikiHandler(configuration));
+    _choice.installHandler(configuration, _choice.createWikiHandler(configuration));
+    verify(first, second);
+  }
+
 }
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.web.dispatching.impl;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.net.URI;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.configuration.WikiConfiguration;
+import net.hillsdon.reviki.vc.ChangeNotificationDispatcher;
+import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
+import net.hillsdon.reviki.vc.impl.CachingPageStore;
+import net.hillsdon.reviki.web.common.ConsumedPath;
+import net.hillsdon.reviki.web.common.MockHttpServletRequest;
+import net.hillsdon.reviki.web.common.MockRequestDispatcher;
+import net.hillsdon.reviki.web.common.View;
+import net.hillsdon.reviki.web.handlers.PageHandler;
+import net.hillsdon.reviki.web.urls.Configuration;
+import net.hillsdon.reviki.web.urls.InternalLinker;
+import net.hillsdon.reviki.web.urls.WikiUrls;
+import net.hillsdon.reviki.web.vcintegration.BackgroundChangeSync;
+import net.hillsdon.reviki.web.vcintegration.RequestLifecycleAwareManager;
+
+public class TestWikiHandlerImpl extends TestCase {
+
+  private CachingPageStore _store;
+  private ChangeNotificationDispatcher _syncUpdater;
+  private PageHandler _pageHandler;
+  private BackgroundChangeSync _backgroundSync;
+  private WikiHandlerImpl _handler;
+  private MockHttpServletRequest _request;
+  private HttpServletResponse _response;
+
+  @Override
+  protected void setUp() throws Exception {
+    _store = createMock(CachingPageStore.class);
+    _syncUpdater = createMock(ChangeNotificationDispatcher.class);
+    _pageHandler = createMock(PageHandler.class);
+    _response = createMock(HttpServletResponse.class);
+
+    // Syncing in the background with the wiki's own credentials.
+    final WikiConfiguration configuration = createNiceMock(WikiConfiguration.class);
+    expect(configuration.getSyncIntervalSeconds()).andReturn(3600L).anyTimes();
+    expect(configuration.getSVNUser()).andReturn("reviki").anyTimes();
+    final ChangeNotificationDispatcher backgroundDispatcher = createNiceMock(ChangeNotificationDispatcher.class);
+    final RequestLifecycleAwareManager backgroundManager = createNiceMock(RequestLifecycleAwareManager.class);
+    replay(configuration, backgroundDispatcher, backgroundManager);
+    _backgroundSync = new BackgroundChangeSync(backgroundDispatcher, backgroundManager, configuration);
+    _backgroundSync.start();
+
+    final WikiUrls wikiUrls = createNiceMock(WikiUrls.class);
+    expect(wikiUrls.page(isA(String.class))).andReturn(URI.create("http://www.example.com/reviki/pages/test/ConfigCss")).anyTimes();
+    final Configuration wikiConfiguration = createNiceMock(Configuration.class);
+    final RequestLifecycleAwareManager manager = createNiceMock(RequestLifecycleAwareManager.class);
+    replay(wikiUrls, wikiConfiguration, manager);
+    _handler = new WikiHandlerImpl(_store, null, new InternalLinker(wikiUrls), _syncUpdater, _backgroundSync, manager, null, _pageHandler, wikiUrls, wikiConfiguration);
+
+    _request = new MockHttpServletRequest();
+    _request.setRequestDispatcher("/WEB-INF/templates/Error.jsp", new MockRequestDispatcher());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _backgroundSync.stop();
+  }
+
+  public void testRequestsTheRepositoryTurnsAwayStillNeedToLogInWhileSyncingInBackground() throws Exception {
+    assertTrue(_backgroundSync.isRunning());
+    // However much another user has cached, we mustn't get as far as the page.
+    expect(_store.getLatestRevision()).andThrow(new PageStoreAuthenticationException("Denied"));
+    _response.setHeader("WWW-Authenticate", "Basic realm=\"Wiki login\"");
+    _response.setStatus(401);
+    replay(_store, _syncUpdater, _pageHandler, _response);
+
+    final View view = _handler.handle(new ConsumedPath(Arrays.asList("FrontPage")), _request, _response);
+    view.render(_request, _response);
+    verify(_store, _syncUpdater, _pageHandler, _response);
+  }
+
+  public void testPermittedRequestsDontSyncWhileSyncingInBackground() throws Exception {
+    final View pageView = createMock(View.class);
+    expect(_store.getLatestRevision()).andReturn(5L);
+    expect(_pageHandler.handle(isA(ConsumedPath.class), isA(HttpServletRequest.class), isA(HttpServletResponse.class))).andReturn(pageView);
+    replay(_store, _syncUpdater, _pageHandler, _response);
+
+    assertSame(pageView, _handler.handle(new ConsumedPath(Arrays.asList("FrontPage")), _request, _response));
+    verify(_store, _syncUpdater, _pageHandler, _response);
+  }
+
+}
@@ -41,6 +41,8 @@ import org.picocontainer.Startable;
 public class WikiChoiceImpl implements WikiChoice, Startable {
 
   private final Map<WikiConfiguration, RequestHandler> _wikis = new ConcurrentHashMap<WikiConfiguration, RequestHandler>();
+  // The sessions behind the handlers we created, so we can stop them when they're done with.
+  private final Map<RequestHandler, WikiSession> _sessions = new ConcurrentHashMap<RequestHandler, WikiSession>();
   private final DeploymentConfiguration _configuration;
   private final ApplicationSession _applicationSession;
   private final ApplicationUrls _applicationUrls;
@@ -61,16 +63,37 @@ public class WikiChoiceImpl implements WikiChoice, Startable {
   }
 
   public void stop() {
+    for (RequestHandler handler : _sessions.keySet()) {
+      dispose(handler);
+    }
+    _wikis.clear();
   }
 
   public WikiHandler createWikiHandler(final WikiConfiguration configuration) {
     WikiSession wikiSession = _applicationSession.createWikiSession(configuration);
     wikiSession.start();
-    return wikiSession.getWikiHandler();
+    WikiHandler handler = wikiSession.getWikiHandler();
+    _sessions.put(handler, wikiSession);
+    return handler;
   }
 
   public void installHandler(final WikiConfiguration configuration, final WikiHandler handler) {
-    _wikis.put(configuration, handler);
+    RequestHandler previous = _wikis.put(configuration, handler);
+    if (previous != null && previous != handler) {
+      // Otherwise it would carry on syncing the old repository in the background.
+      dispose(previous);
+    }
+  }
+
+  public void disposeHandler(final WikiHandler handler) {
+    dispose(handler);
+  }
+
+  private void dispose(final RequestHandler handler) {
+    WikiSession wikiSession = _sessions.remove(handler);
+    if (wikiSession != null) {
+      wikiSession.stop();
+    }
   }
 
   public View handle(final ConsumedPath path, final HttpServletRequest request, final HttpServletResponse response) throws Exception {
@@ -36,6 +36,7 @@ import net.hillsdon.reviki.web.handlers.PageHandler;
 import net.hillsdon.reviki.web.urls.Configuration;
 import net.hillsdon.reviki.web.urls.InternalLinker;
 import net.hillsdon.reviki.web.urls.WikiUrls;
+import net.hillsdon.reviki.web.vcintegration.BackgroundChangeSync;
 import net.hillsdon.reviki.web.vcintegration.BuiltInPageReferences;
 import net.hillsdon.reviki.web.vcintegration.RequestLifecycleAwareManager;
 import net.hillsdon.reviki.wiki.MarkupRenderer;
@@ -62,22 +63,26 @@ public class WikiHandlerImpl implements WikiHandler {
 
   public static final String ATTRIBUTE_WIKI_IS_VALID = "wikiIsValid";
 
+  private static final long SYNC_AFTER_POST_TIMEOUT_MILLIS = 5000;
+
   private final RequestLifecycleAwareManager _requestLifecycleAwareManager;
   private final MarkupRenderer<String> _renderer;
   private final CachingPageStore _cachingPageStore;
   private final InternalLinker _internalLinker;
   private final ChangeNotificationDispatcher _syncUpdater;
+  private final BackgroundChangeSync _backgroundSync;
   private final WikiUrls _wikiUrls;
   private final ResourceHandler _resources;
   private final PageHandler _pageHandler;
 
   private final Configuration _configuration;
 
-  public WikiHandlerImpl(CachingPageStore cachingPageStore, SvnWikiRenderer renderer, InternalLinker internalLinker, ChangeNotificationDispatcher syncUpdater, RequestLifecycleAwareManager requestLifecycleAwareManager, ResourceHandler resources, PageHandler handler, WikiUrls wikiUrls, Configuration configuration) {
+  public WikiHandlerImpl(CachingPageStore cachingPageStore, SvnWikiRenderer renderer, InternalLinker internalLinker, ChangeNotificationDispatcher syncUpdater, BackgroundChangeSync backgroundSync, RequestLifecycleAwareManager requestLifecycleAwareManager, ResourceHandler resources, PageHandler handler, WikiUrls wikiUrls, Configuration configuration) {
     _cachingPageStore = cachingPageStore;
     _renderer = renderer;
     _internalLinker = internalLinker;
     _syncUpdater = syncUpdater;
+    _backgroundSync = backgroundSync;
     _requestLifecycleAwareManager = requestLifecycleAwareManager;
     _resources = resources;
     _pageHandler = handler;
@@ -110,9 +115,21 @@ public class WikiHandlerImpl implements WikiHandler {
           return _resources.handle(path.consume(), request, response);
         }
 
-        _syncUpdater.sync();
+        if (_backgroundSync.isRunning()) {
+          // Syncing used to make the repository authenticate each request, and
+          // content is cached between requests, so we still ask it something.
+          _cachingPageStore.getLatestRevision();
+        }
+        else {
+          _syncUpdater.sync();
+        }
         request.setAttribute("complementaryContent", new ComplementaryPageRenderer(request, response, _renderer, _cachingPageStore));
-        return _pageHandler.handle(path, request, response);
+        final View view = _pageHandler.handle(path, request, response);
+        if (_backgroundSync.isRunning() && "POST".equals(request.getMethod())) {
+          // So the next request sees anything we've just committed.
+          _backgroundSync.syncSoonAndWait(_cachingPageStore.getLatestRevision(), SYNC_AFTER_POST_TIMEOUT_MILLIS);
+        }
+        return view;
       }
     });
   }
@@ -0,0 +1,196 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.web.pages.impl;
+
+import java.util.Date;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.hillsdon.reviki.vc.AttachmentContent;
+import net.hillsdon.reviki.web.common.View;
+
+/**
+ * Serves an attachment, answering conditional and single range requests.
+ *
+ * The ETag is the revision the attachment was last changed in, which is all
+ * that's needed to tell versions of the same attachment apart.
+ */
+public class AttachmentView implements View {
+
+  /**
+   * The inclusive byte positions of a range.
+   */
+  static final class ByteRange {
+    static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private final long _first;
+    private final long _last;
+
+    ByteRange(final long first, final long last) {
+      _first = first;
+      _last = last;
+    }
+
+    public long getFirst() {
+      return _first;
+    }
+
+    public long getLast() {
+      return _last;
+    }
+
+    public long getLength() {
+      return _last - _first + 1;
+    }
+  }
+
+  private static final String BYTES_UNIT = "bytes=";
+
+  private final String _fileName;
+  private final AttachmentContent _content;
+
+  public AttachmentView(final String fileName, final AttachmentContent content) {
+    _fileName = fileName;
+    _content = content;
+  }
+
+  public void render(final HttpServletRequest request, final HttpServletResponse response) throws Exception {
+    final String etag = "\"" + _content.getLastChangedRevision() + "\"";
+    final Date lastModified = _content.getLastChangedDate();
+    response.setHeader("ETag", etag);
+    if (lastModified != null) {
+      response.setDateHeader("Last-Modified", lastModified.getTime());
+    }
+    if (isNotModified(request, etag, lastModified)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    response.setContentType(_content.getContentType());
+    final String quoteEscapedAttachmentName = _fileName.replace("\\", "\\\\").replace("\"", "\\\"");
+    response.setHeader("Content-Disposition", "inline; filename=\"" + quoteEscapedAttachmentName + "\"");
+
+    final long length = _content.getLength();
+    if (length < 0) {
+      // Not yet cached.  We can't answer a range without the length, but the whole content is a valid reply.
+      _content.writeTo(response.getOutputStream(), 0, -1);
+      return;
+    }
+    response.setHeader("Accept-Ranges", "bytes");
+    final ByteRange range = isRangeCurrent(request, etag, lastModified) ? parseRange(request.getHeader("Range"), length) : null;
+    if (range == ByteRange.UNSATISFIABLE) {
+      response.setHeader("Content-Range", "bytes */" + length);
+      response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    }
+    else if (range != null) {
+      response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      response.setHeader("Content-Range", "bytes " + range.getFirst() + "-" + range.getLast() + "/" + length);
+      response.setHeader("Content-Length", String.valueOf(range.getLength()));
+      _content.writeTo(response.getOutputStream(), range.getFirst(), range.getLength());
+    }
+    else {
+      response.setHeader("Content-Length", String.valueOf(length));
+      _content.writeTo(response.getOutputStream(), 0, length);
+    }
+  }
+
+  /**
+   * If-None-Match takes precedence over If-Modified-Since.
+   */
+  static boolean isNotModified(final HttpServletRequest request, final String etag, final Date lastModified) {
+    final String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String candidate : ifNoneMatch.split(",")) {
+        final String tag = candidate.trim();
+        if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    final long ifModifiedSince = dateHeader(request, "If-Modified-Since");
+    return lastModified != null && ifModifiedSince >= 0 && lastModified.getTime() / 1000 <= ifModifiedSince / 1000;
+  }
+
+  /**
+   * @return false if an If-Range header says the client's partial copy is out of date.
+   */
+  static boolean isRangeCurrent(final HttpServletRequest request, final String etag, final Date lastModified) {
+    final String ifRange = request.getHeader("If-Range");
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      // Weak validators never match.
+      return ifRange.equals(etag);
+    }
+    final long date = dateHeader(request, "If-Range");
+    return lastModified != null && date >= 0 && lastModified.getTime() / 1000 == date / 1000;
+  }
+
+  private static long dateHeader(final HttpServletRequest request, final String name) {
+    try {
+      return request.getDateHeader(name);
+    }
+    catch (IllegalArgumentException ex) {
+      return -1;
+    }
+  }
+
+  /**
+   * We only serve a single range, other requests get the whole content as
+   * they're entitled to.
+   *
+   * @param header The Range header, may be null.
+   * @param length The length of the content.
+   * @return The range, null to send everything or {@link ByteRange#UNSATISFIABLE}.
+   */
+  static ByteRange parseRange(final String header, final long length) {
+    if (header == null || !header.startsWith(BYTES_UNIT) || header.indexOf(',') != -1) {
+      return null;
+    }
+    final String spec = header.substring(BYTES_UNIT.length()).trim();
+    final int dash = spec.indexOf('-');
+    if (dash == -1) {
+      return null;
+    }
+    try {
+      final String first = spec.substring(0, dash).trim();
+      final String last = spec.substring(dash + 1).trim();
+      if (first.length() == 0) {
+        // The final bytes.
+        final long suffix = Long.parseLong(last);
+        if (suffix <= 0 || length == 0) {
+          return ByteRange.UNSATISFIABLE;
+        }
+        return new ByteRange(Math.max(0, length - suffix), length - 1);
+      }
+      final long start = Long.parseLong(first);
+      final long end = last.length() == 0 ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+      if (start < 0 || (last.length() != 0 && Long.parseLong(last) < start)) {
+        return null;
+      }
+      if (start >= length) {
+        return ByteRange.UNSATISFIABLE;
+      }
+      return new ByteRange(start, end);
+    }
+    catch (NumberFormatException ex) {
+      return null;
+    }
+  }
+
+}
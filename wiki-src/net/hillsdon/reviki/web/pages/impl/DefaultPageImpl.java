@@ -22,7 +22,6 @@ import static net.hillsdon.reviki.web.common.ViewTypeConstants.CTYPE_ATOM;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -30,10 +29,10 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -54,9 +53,7 @@ import net.hillsdon.reviki.search.QuerySyntaxException;
 import net.hillsdon.reviki.vc.AttachmentHistory;
 import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.ConflictException;
-import net.hillsdon.reviki.vc.ContentTypedSink;
 import net.hillsdon.reviki.vc.LostLockException;
-import net.hillsdon.reviki.vc.NotFoundException;
 import net.hillsdon.reviki.vc.PageInfo;
 import net.hillsdon.reviki.vc.PageReference;
 import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
@@ -86,6 +83,7 @@ import net.hillsdon.reviki.web.urls.impl.ResponseSessionURLOutputFilter;
 import net.hillsdon.reviki.wiki.MarkupRenderer;
 import net.hillsdon.reviki.wiki.feeds.FeedWriter;
 import net.hillsdon.reviki.wiki.graph.WikiGraph;
+import net.hillsdon.reviki.wiki.renderer.RenderedPageCache;
 import net.hillsdon.reviki.wiki.renderer.RendererRegistry;
 import net.hillsdon.reviki.wiki.renderer.creole.LinkPartsHandler;
 import net.hillsdon.reviki.wiki.renderer.creole.ast.ASTNode;
@@ -175,6 +173,8 @@ public class DefaultPageImpl implements DefaultPage {
 
   private final RendererRegistry _renderers;
 
+  private final RenderedPageCache _renderedPages;
+
   private final WikiGraph _graph;
 
   private final DiffGenerator _diffGenerator;
@@ -187,7 +187,7 @@ public class DefaultPageImpl implements DefaultPage {
 
   private final AutoPropertiesApplier _propsApplier;
 
-  public DefaultPageImpl(final WikiConfiguration configuration, final CachingPageStore store, final RendererRegistry renderers, final WikiGraph graph, final DiffGenerator diffGenerator, final WikiUrls wikiUrls, final FeedWriter feedWriter, final AutoPropertiesApplier propsApplier) {
+  public DefaultPageImpl(final WikiConfiguration configuration, final CachingPageStore store, final RendererRegistry renderers, final RenderedPageCache renderedPages, final WikiGraph graph, final DiffGenerator diffGenerator, final WikiUrls wikiUrls, final FeedWriter feedWriter, final AutoPropertiesApplier propsApplier) {
     _configuration = configuration;
     _store = store;
     _graph = graph;
@@ -195,6 +195,7 @@ public class DefaultPageImpl implements DefaultPage {
     _wikiUrls = wikiUrls;
     _feedWriter = feedWriter;
     _renderers = renderers;
+    _renderedPages = renderedPages;
     _propsApplier = propsApplier;
   }
 
@@ -296,28 +297,7 @@ public class DefaultPageImpl implements DefaultPage {
   @Override
   public View attachment(final PageReference page, final ConsumedPath path, final HttpServletRequest request, final HttpServletResponse response) throws Exception {
     final String attachmentName = path.next();
-    return new View() {
-      @Override
-      public void render(final HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException, NotFoundException, PageStoreException, InvalidInputException {
-        _store.attachment(page, attachmentName, getRevision(request), new ContentTypedSink() {
-          @Override
-          public void setContentType(final String contentType) {
-            response.setContentType(contentType);
-          }
-
-          @Override
-          public void setFileName(final String name) {
-            final String quoteEscapedAttachmentName = attachmentName.replace("\\", "\\\\").replace("\"", "\\\"");
-            response.setHeader("Content-Disposition", "inline; filename=\"" + quoteEscapedAttachmentName + "\"");
-          }
-
-          @Override
-          public OutputStream stream() throws IOException {
-            return response.getOutputStream();
-          }
-        });
-      }
-    };
+    return new AttachmentView(attachmentName, _store.attachmentContent(page, attachmentName, getRevision(request)));
   }
 
   @Override
@@ -429,9 +409,25 @@ public class DefaultPageImpl implements DefaultPage {
       return new StreamView(renderer.getContentType(main), stream);
     }
     else {
-      ASTNode ast = _renderers.getDefaultRenderer().parse(main);
-      String rendered = _renderers.getDefaultRenderer().render(main, ast, new ResponseSessionURLOutputFilter(request, response));
-      request.setAttribute(ATTR_RENDERED_CONTENTS, rendered);
+      final ResponseSessionURLOutputFilter urlOutputFilter = new ResponseSessionURLOutputFilter(request, response);
+      final Callable<String> rendering = new Callable<String>() {
+        public String call() throws Exception {
+          ASTNode ast = _renderers.getDefaultRenderer().parse(main);
+          StringBuilder rendered = new StringBuilder(main.getContent().length() * 2);
+          _renderers.getDefaultRenderer().renderTo(main, ast, urlOutputFilter, rendered);
+          return rendered.toString();
+        }
+      };
+      // HTML with our session ID in its links can't be shared.  Shared HTML is
+      // only served for a page we've just read through the store, which
+      // checks that this request may read it.
+      if (urlOutputFilter.leavesURLsUnchanged()) {
+        final String syntax = main.getSyntax(AutoPropertiesApplierImpl.syntaxForFilename(_propsApplier)).value();
+        request.setAttribute(ATTR_RENDERED_CONTENTS, _renderedPages.render(main, syntax, _wikiUrls.pagesRoot(null), rendering));
+      }
+      else {
+        request.setAttribute(ATTR_RENDERED_CONTENTS, rendering.call());
+      }
       if (main.isRenamed()) {
         LinkPartsHandler linkPartsHandler = _renderers.getDefaultRenderer().getLinkPartsHandler();
         try {
@@ -16,7 +16,7 @@
 package net.hillsdon.reviki.web.pages.impl;
 
 import java.util.ArrayList;
-import java.util.Set;
+import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -35,6 +35,10 @@ import net.hillsdon.reviki.web.pages.DefaultPage;
 import net.hillsdon.reviki.web.redirect.RedirectToPageView;
 import net.hillsdon.reviki.web.urls.WikiUrls;
 import net.hillsdon.reviki.web.urls.impl.ResponseSessionURLOutputFilter;
+
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.httpclient.util.URIUtil;
+
 import static java.lang.String.format;
 import static net.hillsdon.reviki.text.WikiWordUtils.isWikiWord;
 import static net.hillsdon.reviki.web.common.RequestParameterReaders.getLong;
@@ -53,6 +57,13 @@ public class FindPage extends AbstractSpecialPage {
 
   static final String PARAM_QUERY = "query";
   private static final String PARAM_QUERY_ALTERNATE = "q";
+  static final String PARAM_OFFSET = "offset";
+  static final String PARAM_LIMIT = "limit";
+
+  /**
+   * Results per page when no limit is given, the text format is unlimited by default.
+   */
+  static final int DEFAULT_RESULTS_PER_PAGE = 50;
 
 
   private final PageStore _store;
@@ -91,24 +102,42 @@ public class FindPage extends AbstractSpecialPage {
       return new RedirectToPageView(_wikiUrls, queryPage);
     }
 
-    final Set<SearchMatch> results = _searchEngine.search(query, true, pageExists);
-    Long limit = getLong(request.getParameter("limit"), "limit");
-    if (limit != null) {
-      results.retainAll(new ArrayList<SearchMatch>(results).subList(0, (int) Math.min(results.size(), limit)));
+    final boolean text = ViewTypeConstants.is(request, CTYPE_TEXT);
+    final int offset = (int) Math.max(0, Math.min(Integer.MAX_VALUE, orDefault(getLong(request, PARAM_OFFSET), 0)));
+    final int limit = (int) Math.max(0, Math.min(Integer.MAX_VALUE - 1, orDefault(getLong(request, PARAM_LIMIT), text ? Integer.MAX_VALUE - 1 : DEFAULT_RESULTS_PER_PAGE)));
+    // Ask for one more than we show so we know whether there's another page.
+    final List<SearchMatch> results = new ArrayList<SearchMatch>(_searchEngine.search(query, !text, pageExists, offset, limit + 1));
+    final boolean moreResults = results.size() > limit;
+    if (moreResults) {
+      results.remove(limit);
     }
-    if (ViewTypeConstants.is(request, CTYPE_TEXT)) {
+    if (text) {
       return new TextFormatSearchResults(results);
     }
     else {
       if (!pageExists && isWikiWord(query)) {
         request.setAttribute("suggestCreate", query);
       }
+      if (offset > 0) {
+        request.setAttribute("previousResults", resultsUrl(query, Math.max(0, offset - limit), limit, request.getParameter("force") != null));
+      }
+      if (moreResults) {
+        request.setAttribute("nextResults", resultsUrl(query, offset + limit, limit, request.getParameter("force") != null));
+      }
       request.setAttribute("results", results);
       request.setAttribute("thisWiki", _wikiUrls.getWikiName());
       return new JspView("SearchResults");
     }
   }
 
+  private static long orDefault(final Long value, final long defaultValue) {
+    return value == null ? defaultValue : value;
+  }
+
+  private String resultsUrl(final String query, final int offset, final int limit, final boolean force) throws URIException {
+    return format("%s?%s=%s&%s=%d&%s=%d%s", _wikiUrls.search(), PARAM_QUERY, URIUtil.encodeWithinQuery(query), PARAM_OFFSET, offset, PARAM_LIMIT, limit, force ? "&force" : "");
+  }
+
   public String getName() {
     return "FindPage";
   }
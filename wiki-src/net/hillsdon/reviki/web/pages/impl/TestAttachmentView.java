@@ -0,0 +1,187 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.web.pages.impl;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.AttachmentContent;
+import net.hillsdon.reviki.web.common.MockHttpServletRequest;
+import net.hillsdon.reviki.web.pages.impl.AttachmentView.ByteRange;
+
+/**
+ * Tests for {@link AttachmentView}.
+ */
+public class TestAttachmentView extends TestCase {
+
+  private static final Date LAST_CHANGED = new Date(1234567890000L);
+  private static final String LAST_CHANGED_HTTP = "Fri, 13 Feb 2009 23:31:30 GMT";
+  private static final String ETAG = "\"42\"";
+
+  private MockHttpServletRequest _request;
+  private HttpServletResponse _response;
+  private ByteArrayOutputStream _body;
+  private int _writes;
+
+  @Override
+  protected void setUp() throws Exception {
+    _request = new MockHttpServletRequest();
+    _response = createMock(HttpServletResponse.class);
+    _body = new ByteArrayOutputStream();
+    _writes = 0;
+  }
+
+  private AttachmentView view(final String content) {
+    return new AttachmentView("file.txt", new AttachmentContent() {
+      public String getContentType() {
+        return "text/plain";
+      }
+      public long getLastChangedRevision() {
+        return 42;
+      }
+      public Date getLastChangedDate() {
+        return LAST_CHANGED;
+      }
+      public long getLength() {
+        return content.length();
+      }
+      public void writeTo(final OutputStream out, final long offset, final long length) throws IOException {
+        _writes++;
+        final long end = length < 0 ? content.length() : offset + length;
+        out.write(content.substring((int) offset, (int) end).getBytes("UTF-8"));
+      }
+    });
+  }
+
+  private void expectValidators() {
+    _response.setHeader("ETag", ETAG);
+    _response.setDateHeader("Last-Modified", LAST_CHANGED.getTime());
+  }
+
+  private void expectContentHeaders() throws IOException {
+    _response.setContentType("text/plain");
+    _response.setHeader("Content-Disposition", "inline; filename=\"file.txt\"");
+    _response.setHeader("Accept-Ranges", "bytes");
+    expect(_response.getOutputStream()).andReturn(new ServletOutputStream() {
+      @Override
+      public void write(final int b) {
+        _body.write(b);
+      }
+    }).anyTimes();
+  }
+
+  public void testServesAllWithLength() throws Exception {
+    expectValidators();
+    expectContentHeaders();
+    _response.setHeader("Content-Length", "10");
+    replay(_response);
+    view("0123456789").render(_request, _response);
+    assertEquals("0123456789", _body.toString("UTF-8"));
+    verify(_response);
+  }
+
+  public void testNotModifiedIfETagMatches() throws Exception {
+    _request.setHeader("If-None-Match", "\"41\", " + ETAG);
+    // Ignored as there's an If-None-Match.
+    _request.setHeader("If-Modified-Since", "Thu, 01 Jan 1970 00:00:00 GMT");
+    expectValidators();
+    _response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    replay(_response);
+    view("0123456789").render(_request, _response);
+    assertEquals(0, _writes);
+    verify(_response);
+  }
+
+  public void testNotModifiedSince() throws Exception {
+    _request.setHeader("If-Modified-Since", LAST_CHANGED_HTTP);
+    expectValidators();
+    _response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    replay(_response);
+    view("0123456789").render(_request, _response);
+    assertEquals(0, _writes);
+    verify(_response);
+  }
+
+  public void testServesRange() throws Exception {
+    _request.setHeader("Range", "bytes=2-5");
+    _request.setHeader("If-Range", ETAG);
+    expectValidators();
+    expectContentHeaders();
+    _response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    _response.setHeader("Content-Range", "bytes 2-5/10");
+    _response.setHeader("Content-Length", "4");
+    replay(_response);
+    view("0123456789").render(_request, _response);
+    assertEquals("2345", _body.toString("UTF-8"));
+    verify(_response);
+  }
+
+  public void testServesAllIfRangeIsStale() throws Exception {
+    _request.setHeader("Range", "bytes=2-5");
+    _request.setHeader("If-Range", "\"41\"");
+    expectValidators();
+    expectContentHeaders();
+    _response.setHeader("Content-Length", "10");
+    replay(_response);
+    view("0123456789").render(_request, _response);
+    assertEquals("0123456789", _body.toString("UTF-8"));
+    verify(_response);
+  }
+
+  public void testRangeBeyondTheEndIsNotSatisfiable() throws Exception {
+    _request.setHeader("Range", "bytes=10-");
+    expectValidators();
+    expectContentHeaders();
+    _response.setHeader("Content-Range", "bytes */10");
+    _response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    replay(_response);
+    view("0123456789").render(_request, _response);
+    assertEquals(0, _writes);
+    verify(_response);
+  }
+
+  public void testParseRange() {
+    assertRange(0, 9, AttachmentView.parseRange("bytes=0-", 10));
+    assertRange(3, 9, AttachmentView.parseRange("bytes=3-20", 10));
+    assertRange(7, 9, AttachmentView.parseRange("bytes=-3", 10));
+    assertRange(0, 9, AttachmentView.parseRange("bytes=-30", 10));
+    assertSame(ByteRange.UNSATISFIABLE, AttachmentView.parseRange("bytes=-0", 10));
+    assertSame(ByteRange.UNSATISFIABLE, AttachmentView.parseRange("bytes=0-", 0));
+    // We don't do multiple ranges, and ignore what we don't understand.
+    assertNull(AttachmentView.parseRange("bytes=0-1,3-4", 10));
+    assertNull(AttachmentView.parseRange("bytes=5-2", 10));
+    assertNull(AttachmentView.parseRange("bytes=a-b", 10));
+    assertNull(AttachmentView.parseRange("lines=0-1", 10));
+    assertNull(AttachmentView.parseRange(null, 10));
+  }
+
+  private static void assertRange(final long first, final long last, final ByteRange range) {
+    assertEquals(first, range.getFirst());
+    assertEquals(last, range.getLast());
+  }
+
+}
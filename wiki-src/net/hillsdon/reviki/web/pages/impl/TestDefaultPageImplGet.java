@@ -47,6 +47,7 @@ import net.hillsdon.reviki.web.urls.WikiUrls;
 import net.hillsdon.reviki.wiki.feeds.FeedWriter;
 import net.hillsdon.reviki.wiki.graph.WikiGraph;
 import net.hillsdon.reviki.wiki.renderer.DelegatingRenderer;
+import net.hillsdon.reviki.wiki.renderer.RenderedPageCache;
 import net.hillsdon.reviki.wiki.renderer.RendererRegistry;
 import net.hillsdon.reviki.wiki.renderer.creole.ast.*;
 
@@ -87,7 +88,7 @@ public class TestDefaultPageImplGet extends TestCase {
     _diffGenerator = createMock(DiffGenerator.class);
     _wikiUrls = createMock(WikiUrls.class);
     _feedWriter = createMock(FeedWriter.class);
-    _page = new DefaultPageImpl(null, _store, _renderers, _graph, _diffGenerator, _wikiUrls, _feedWriter, null);
+    _page = new DefaultPageImpl(null, _store, _renderers, new RenderedPageCache(), _graph, _diffGenerator, _wikiUrls, _feedWriter, null);
   }
 
   /**
@@ -28,6 +28,14 @@ public class ResponseSessionURLOutputFilter implements URLOutputFilter {
     return shouldAppendSession(url) ? _response.encodeURL(url) : url;
   }
 
+  /**
+   * @return true if we leave every URL as it is, i.e. there's no session or
+   *         its ID comes in a cookie so it needn't be written into URLs.
+   */
+  public boolean leavesURLsUnchanged() {
+    return _request.getSession(false) == null || _request.isRequestedSessionIdFromCookie();
+  }
+
   /**
    * Get the effective port from a URL. If an explicit port is given in the url,
    * return that. Otherwise return port 443 for https:// scheme and 80
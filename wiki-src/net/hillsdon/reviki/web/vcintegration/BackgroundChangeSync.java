@@ -0,0 +1,217 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.web.vcintegration;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.hillsdon.reviki.configuration.WikiConfiguration;
+import net.hillsdon.reviki.vc.ChangeNotificationDispatcher;
+import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
+import net.hillsdon.reviki.web.common.NullHttpServletRequest;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.picocontainer.Startable;
+
+/**
+ * Syncs a wiki's {@link ChangeNotificationDispatcher} from a background thread
+ * so requests don't have to wait for subscribers such as the search index to
+ * catch up with commits made elsewhere.
+ *
+ * Each sync runs as if it were a request made with the wiki's configured SVN
+ * credentials, or anonymously if there are none.  If the repository turns those
+ * away we stop and requests go back to syncing for themselves.
+ *
+ * Subscribers are notified on threads of their own, also as if in a request,
+ * so a slow one such as the search index doesn't delay the others.
+ */
+public class BackgroundChangeSync implements Startable {
+
+  private static final Log LOG = LogFactory.getLog(BackgroundChangeSync.class);
+
+  private static final long SUBSCRIBER_STOP_TIMEOUT_SECONDS = 30;
+
+  /**
+   * A request with just enough in it for the request scoped page store and
+   * repository operations.
+   */
+  static final class BackgroundRequest extends NullHttpServletRequest {
+    private final String _authorization;
+
+    public BackgroundRequest(final String user, final String password) {
+      _authorization = user == null || user.length() == 0 ? null : "Basic " + encode(user + ":" + (password == null ? "" : password));
+    }
+
+    private static String encode(final String credentials) {
+      try {
+        return new String(Base64.encodeBase64(credentials.getBytes("UTF-8")), "ASCII");
+      }
+      catch (UnsupportedEncodingException ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+
+    @Override
+    public String getHeader(final String name) {
+      return "Authorization".equalsIgnoreCase(name) ? _authorization : null;
+    }
+  }
+
+  private final ChangeNotificationDispatcher _dispatcher;
+  private final RequestLifecycleAwareManager _requestLifecycleAwareManager;
+  private final WikiConfiguration _configuration;
+  private ScheduledExecutorService _executor;
+  private ExecutorService _subscriberExecutor;
+  private volatile boolean _running = false;
+
+  private final Runnable _sync = new Runnable() {
+    public void run() {
+      syncNow();
+    }
+  };
+
+  public BackgroundChangeSync(final ChangeNotificationDispatcher dispatcher, final RequestLifecycleAwareManager requestLifecycleAwareManager, final WikiConfiguration configuration) {
+    _dispatcher = dispatcher;
+    _requestLifecycleAwareManager = requestLifecycleAwareManager;
+    _configuration = configuration;
+  }
+
+  public synchronized void start() {
+    final long interval = _configuration.getSyncIntervalSeconds();
+    if (interval <= 0 || _executor != null) {
+      return;
+    }
+    _executor = Executors.newSingleThreadScheduledExecutor(daemonThreads("Change sync for " + _configuration.getWikiName()));
+    _subscriberExecutor = Executors.newCachedThreadPool(daemonThreads("Change subscriber for " + _configuration.getWikiName()));
+    final ExecutorService subscriberExecutor = _subscriberExecutor;
+    _dispatcher.dispatchUsing(new Executor() {
+      public void execute(final Runnable command) {
+        subscriberExecutor.execute(new Runnable() {
+          public void run() {
+            _requestLifecycleAwareManager.requestStarted(newRequest());
+            try {
+              command.run();
+            }
+            finally {
+              _requestLifecycleAwareManager.requestComplete();
+            }
+          }
+        });
+      }
+    });
+    _running = true;
+    _executor.scheduleWithFixedDelay(_sync, 0, interval, TimeUnit.SECONDS);
+  }
+
+  public void stop() {
+    final ExecutorService subscriberExecutor;
+    synchronized (this) {
+      _running = false;
+      if (_executor == null) {
+        return;
+      }
+      _dispatcher.dispatchUsing(null);
+      _executor.shutdownNow();
+      // Let subscribers finish what they've been given.
+      subscriberExecutor = _subscriberExecutor;
+      subscriberExecutor.shutdown();
+      _executor = null;
+      _subscriberExecutor = null;
+    }
+    // Before whatever they write to, such as the change log, is closed.
+    try {
+      if (!subscriberExecutor.awaitTermination(SUBSCRIBER_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warn("Change subscribers for " + _configuration.getWikiName() + " still running after " + SUBSCRIBER_STOP_TIMEOUT_SECONDS + "s.");
+      }
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ThreadFactory daemonThreads(final String name) {
+    return new ThreadFactory() {
+      public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  private BackgroundRequest newRequest() {
+    return new BackgroundRequest(_configuration.getSVNUser(), _configuration.getSVNPassword());
+  }
+
+  /**
+   * @return true if we're syncing in the background, so requests needn't.
+   */
+  public boolean isRunning() {
+    return _running;
+  }
+
+  /**
+   * Ask for a sync now rather than at the next interval, e.g. after a commit,
+   * and wait for it to reach the given revision.
+   *
+   * @param revision The revision we want to see.
+   * @param timeoutMillis The longest we'll wait.
+   * @return true if we've synced up to the revision.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public boolean syncSoonAndWait(final long revision, final long timeoutMillis) throws InterruptedException {
+    if (_dispatcher.getSyncedRevision() >= revision) {
+      return true;
+    }
+    synchronized (this) {
+      if (_executor == null) {
+        return false;
+      }
+      _executor.execute(_sync);
+    }
+    return _dispatcher.waitUntilSynced(revision, timeoutMillis);
+  }
+
+  void syncNow() {
+    try {
+      _requestLifecycleAwareManager.requestStarted(newRequest());
+      try {
+        _dispatcher.sync();
+      }
+      finally {
+        _requestLifecycleAwareManager.requestComplete();
+      }
+    }
+    catch (Exception ex) {
+      if (ex instanceof PageStoreAuthenticationException || ex.getCause() instanceof PageStoreAuthenticationException) {
+        LOG.info("Not allowed to read " + _configuration.getWikiName() + " in the background, configure an SVN user to enable it.  Syncing on requests instead.");
+        stop();
+      }
+      else {
+        // Try again next time.
+        LOG.warn("Background sync of " + _configuration.getWikiName() + " failed.", ex);
+      }
+    }
+  }
+
+}
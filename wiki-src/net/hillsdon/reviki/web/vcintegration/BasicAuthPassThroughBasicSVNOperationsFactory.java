@@ -24,20 +24,22 @@ import net.hillsdon.reviki.vc.impl.AutoPropertiesApplier;
 import net.hillsdon.reviki.vc.impl.BasicSVNOperations;
 import net.hillsdon.reviki.vc.impl.BasicSVNOperationsFactory;
 import net.hillsdon.reviki.vc.impl.RepositoryBasicSVNOperations;
+import net.hillsdon.reviki.vc.impl.WikiRootLocations;
 import net.hillsdon.reviki.web.common.RequestAttributes;
 
 import org.apache.commons.codec.binary.Base64;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNURL;
-import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
 import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
 import org.tmatesoft.svn.core.io.SVNRepository;
-import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 
 /**
  * Creates a page store that will authenticate with credentials provided in
  * the given request's 'Authorization' header (for basic auth only).
  *
+ * Repository sessions come from a {@link SVNRepositoryPool} and are returned
+ * to it when the operations are disposed of.
+ *
  * @author mth
  */
 public class BasicAuthPassThroughBasicSVNOperationsFactory implements BasicSVNOperationsFactory {
@@ -79,14 +81,16 @@ public class BasicAuthPassThroughBasicSVNOperationsFactory implements BasicSVNOp
     }
   }
 
-  private final SVNURL _url;
+  private final SVNRepositoryPool _pool;
+  private final WikiRootLocations _rootLocations = new WikiRootLocations();
   private final AutoPropertiesApplier _autoPropertiesApplier;
 
   public BasicAuthPassThroughBasicSVNOperationsFactory(final SVNURL url, final AutoPropertiesApplier autoPropertiesApplier) {
     if (null == url) {
       throw new IllegalArgumentException("url can not be null");
     }
-    _url = url;
+    DAVRepositoryFactory.setup();
+    _pool = new SVNRepositoryPool(url);
     _autoPropertiesApplier = autoPropertiesApplier;
   }
 
@@ -118,19 +122,27 @@ public class BasicAuthPassThroughBasicSVNOperationsFactory implements BasicSVNOp
   }
 
   public BasicSVNOperations apply(final HttpServletRequest request) {
-    DAVRepositoryFactory.setup();
-    SVNRepository repository = createRepository();
-    UsernamePassword credentials = getBasicAuthCredentials(request.getHeader("Authorization"));
-    // To get proxy support for testing/debug:
-    // repository.setAuthenticationManager(SVNWCUtil.createDefaultAuthenticationManager());
-    repository.setAuthenticationManager(new BasicAuthenticationManager(credentials.getUsername(), credentials.getPassword()));
+    final UsernamePassword credentials = getBasicAuthCredentials(request.getHeader("Authorization"));
+    final SVNRepository repository = borrowRepository(credentials);
     request.setAttribute(RequestAttributes.USERNAME, credentials.getUsername());
-    return new RepositoryBasicSVNOperations(repository, _autoPropertiesApplier);
+    return new RepositoryBasicSVNOperations(repository, _autoPropertiesApplier, _rootLocations) {
+      @Override
+      public void dispose() {
+        _pool.release(credentials, repository);
+      }
+    };
   }
 
-  private SVNRepository createRepository() {
+  public SVNRepositoryPool getPool() {
+    return _pool;
+  }
+
+  private SVNRepository borrowRepository(final UsernamePassword credentials) {
     try {
-      return SVNRepositoryFactory.create(_url);
+      return _pool.borrow(credentials);
+    }
+    catch (SVNRepositoryPool.SessionLimitException ex) {
+      throw new RuntimeException(ex.getMessage(), ex);
     }
     catch (SVNException ex) {
       throw new RuntimeException("Invalid repository.", ex);
@@ -21,7 +21,12 @@ import net.hillsdon.reviki.vc.MimeIdentifier;
 import net.hillsdon.reviki.vc.PageStore;
 import net.hillsdon.reviki.vc.impl.AutoPropertiesApplier;
 import net.hillsdon.reviki.vc.impl.BasicSVNOperations;
+import net.hillsdon.reviki.vc.impl.ChangeLogCache;
+import net.hillsdon.reviki.vc.impl.ContentCachingPageStore;
 import net.hillsdon.reviki.vc.impl.DeletedRevisionTracker;
+import net.hillsdon.reviki.vc.impl.DiskContentCache;
+import net.hillsdon.reviki.vc.impl.LockTable;
+import net.hillsdon.reviki.vc.impl.PageContentCache;
 import net.hillsdon.reviki.vc.impl.PageListCachingPageStore;
 import net.hillsdon.reviki.vc.impl.SVNPageStore;
 
@@ -32,21 +37,29 @@ public class PerRequestPageStoreFactory implements Supplier<PageStore> {
   private final String _wiki;
   private final SearchEngine _indexer;
   private final DeletedRevisionTracker _tracker;
+  private final ChangeLogCache _changeLog;
+  private final PageContentCache _contentCache;
+  private final LockTable _locks;
+  private final DiskContentCache _diskCache;
   private final BasicSVNOperations _operations;
   private final AutoPropertiesApplier _autoPropertiesApplier;
   private final MimeIdentifier _mimeIdentifier;
 
-  public PerRequestPageStoreFactory(final String wiki, final SearchEngine indexer, final DeletedRevisionTracker tracker, final BasicSVNOperations operations, final AutoPropertiesApplier autoPropertiesApplier, final MimeIdentifier mimeIdentifier) {
+  public PerRequestPageStoreFactory(final String wiki, final SearchEngine indexer, final DeletedRevisionTracker tracker, final ChangeLogCache changeLog, final PageContentCache contentCache, final LockTable locks, final DiskContentCache diskCache, final BasicSVNOperations operations, final AutoPropertiesApplier autoPropertiesApplier, final MimeIdentifier mimeIdentifier) {
     _wiki = wiki;
     _indexer = indexer;
     _tracker = tracker;
+    _changeLog = changeLog;
+    _contentCache = contentCache;
+    _locks = locks;
+    _diskCache = diskCache;
     _operations = operations;
     _autoPropertiesApplier = autoPropertiesApplier;
     _mimeIdentifier = mimeIdentifier;
   }
 
   public PageStore get() {
-    return new SearchIndexPopulatingPageStore(_indexer, new PageListCachingPageStore(new SpecialPagePopulatingPageStore(new SVNPageStore(_wiki, _tracker, _operations, _autoPropertiesApplier, _mimeIdentifier), _autoPropertiesApplier)));
+    return new SearchIndexPopulatingPageStore(_indexer, new PageListCachingPageStore(new SpecialPagePopulatingPageStore(new ContentCachingPageStore(_contentCache, new SVNPageStore(_wiki, _tracker, _changeLog, _locks, _diskCache, _operations, _autoPropertiesApplier, _mimeIdentifier)), _autoPropertiesApplier)));
   }
 
 }
@@ -0,0 +1,370 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.web.vcintegration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import net.hillsdon.reviki.web.vcintegration.BasicAuthPassThroughBasicSVNOperationsFactory.UsernamePassword;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+
+/**
+ * Keeps repository sessions open between requests so we don't pay for
+ * connection setup and authentication every time.
+ *
+ * Sessions are kept per set of credentials, most recently used first.  A
+ * session that has been idle for a while is checked with a round trip before
+ * being reused, and one idle for longer still is closed.  We keep at most
+ * a fixed number of idle sessions per user and in total, closing any more as
+ * they're returned.  If there's no idle session we open another, unless the
+ * user already has as many borrowed as they may, in which case we wait a
+ * while for one to be released before giving up.  Anonymous requests share
+ * a single limit.
+ *
+ * {@link SVNRepository} isn't thread-safe, a borrowed session must only be
+ * used by the borrower until it is released.
+ */
+public class SVNRepositoryPool {
+
+  private static final Log LOG = LogFactory.getLog(SVNRepositoryPool.class);
+
+  static final int DEFAULT_MAX_IDLE_PER_USER = 4;
+  static final int DEFAULT_MAX_IDLE = 32;
+  static final long DEFAULT_MAX_IDLE_MILLIS = 5 * 60 * 1000;
+  static final long DEFAULT_CHECK_AFTER_IDLE_MILLIS = 30 * 1000;
+  static final int DEFAULT_MAX_BORROWED_PER_USER = 16;
+  static final long DEFAULT_BORROW_WAIT_MILLIS = 10 * 1000;
+
+  /**
+   * Thrown when a user has as many sessions borrowed as they may and none
+   * is released in time.
+   */
+  public static class SessionLimitException extends SVNException {
+    private static final long serialVersionUID = 1L;
+
+    public SessionLimitException(final SVNErrorMessage message) {
+      super(message);
+    }
+  }
+
+  private static final class IdleSession {
+    private final SVNRepository _repository;
+    private final long _since;
+
+    public IdleSession(final SVNRepository repository, final long since) {
+      _repository = repository;
+      _since = since;
+    }
+  }
+
+  private final SVNURL _url;
+  private final int _maxIdlePerUser;
+  private final int _maxIdle;
+  private final long _maxIdleMillis;
+  private final long _checkAfterIdleMillis;
+  private final int _maxBorrowedPerUser;
+  private final long _borrowWaitMillis;
+
+  private final Map<UsernamePassword, LinkedList<IdleSession>> _idle = new HashMap<UsernamePassword, LinkedList<IdleSession>>();
+  private final Map<UsernamePassword, Integer> _borrowed = new HashMap<UsernamePassword, Integer>();
+  private int _idleCount = 0;
+  private int _borrowedCount = 0;
+  private long _created = 0;
+  private long _reused = 0;
+  private long _evicted = 0;
+  private long _failedChecks = 0;
+  private long _waits = 0;
+  private long _timeouts = 0;
+
+  public SVNRepositoryPool(final SVNURL url) {
+    this(url, DEFAULT_MAX_IDLE_PER_USER, DEFAULT_MAX_IDLE, DEFAULT_MAX_IDLE_MILLIS, DEFAULT_CHECK_AFTER_IDLE_MILLIS);
+  }
+
+  public SVNRepositoryPool(final SVNURL url, final int maxIdlePerUser, final int maxIdle, final long maxIdleMillis, final long checkAfterIdleMillis) {
+    this(url, maxIdlePerUser, maxIdle, maxIdleMillis, checkAfterIdleMillis, DEFAULT_MAX_BORROWED_PER_USER, DEFAULT_BORROW_WAIT_MILLIS);
+  }
+
+  /**
+   * @param url The repository URL.
+   * @param maxIdlePerUser Idle sessions to keep for each set of credentials.
+   * @param maxIdle Idle sessions to keep in total.
+   * @param maxIdleMillis Sessions idle for longer than this are closed.
+   * @param checkAfterIdleMillis Sessions idle for longer than this are tested before reuse.
+   * @param maxBorrowedPerUser Sessions each set of credentials may have borrowed at once.
+   * @param borrowWaitMillis How long to wait for a session when at that limit.
+   */
+  public SVNRepositoryPool(final SVNURL url, final int maxIdlePerUser, final int maxIdle, final long maxIdleMillis, final long checkAfterIdleMillis, final int maxBorrowedPerUser, final long borrowWaitMillis) {
+    _url = url;
+    _maxIdlePerUser = maxIdlePerUser;
+    _maxIdle = maxIdle;
+    _maxIdleMillis = maxIdleMillis;
+    _checkAfterIdleMillis = checkAfterIdleMillis;
+    _maxBorrowedPerUser = maxBorrowedPerUser;
+    _borrowWaitMillis = borrowWaitMillis;
+  }
+
+  /**
+   * @param credentials The credentials to authenticate with.
+   * @return A session for exclusive use until passed to {@link #release(UsernamePassword, SVNRepository)}.
+   * @throws SessionLimitException If the credentials have as many sessions as
+   *         they may and none is released in time.
+   * @throws SVNException If we fail to create a new session.
+   */
+  public SVNRepository borrow(final UsernamePassword credentials) throws SVNException {
+    evictExpired();
+    reserve(credentials);
+    boolean borrowed = false;
+    try {
+      IdleSession idle;
+      while ((idle = poll(credentials)) != null) {
+        if (System.currentTimeMillis() - idle._since < _checkAfterIdleMillis || isHealthy(idle._repository)) {
+          synchronized (this) {
+            _reused++;
+          }
+          borrowed = true;
+          return idle._repository;
+        }
+        synchronized (this) {
+          _failedChecks++;
+        }
+        close(idle._repository);
+      }
+      final SVNRepository repository = create(credentials);
+      borrowed = true;
+      return repository;
+    }
+    finally {
+      if (!borrowed) {
+        unreserve(credentials);
+      }
+    }
+  }
+
+  /**
+   * Returns a session to the pool, or closes it if we have enough idle sessions.
+   *
+   * @param credentials The credentials it was borrowed with.
+   * @param repository The session.
+   */
+  public void release(final UsernamePassword credentials, final SVNRepository repository) {
+    synchronized (this) {
+      unreserve(credentials);
+      LinkedList<IdleSession> sessions = _idle.get(credentials);
+      if (sessions == null) {
+        sessions = new LinkedList<IdleSession>();
+      }
+      if (sessions.size() < _maxIdlePerUser && _idleCount < _maxIdle) {
+        sessions.addFirst(new IdleSession(repository, System.currentTimeMillis()));
+        _idle.put(credentials, sessions);
+        _idleCount++;
+        return;
+      }
+    }
+    close(repository);
+  }
+
+  /**
+   * Closes sessions idle for too long.
+   */
+  public void evictExpired() {
+    final List<SVNRepository> expired = new ArrayList<SVNRepository>();
+    synchronized (this) {
+      final long now = System.currentTimeMillis();
+      for (Iterator<LinkedList<IdleSession>> iter = _idle.values().iterator(); iter.hasNext();) {
+        final LinkedList<IdleSession> sessions = iter.next();
+        while (!sessions.isEmpty() && now - sessions.getLast()._since > _maxIdleMillis) {
+          expired.add(sessions.removeLast()._repository);
+        }
+        if (sessions.isEmpty()) {
+          iter.remove();
+        }
+      }
+      _idleCount -= expired.size();
+      _evicted += expired.size();
+    }
+    for (SVNRepository repository : expired) {
+      close(repository);
+    }
+  }
+
+  /**
+   * Counts a session as borrowed by the credentials, waiting if they're at the limit.
+   */
+  private synchronized void reserve(final UsernamePassword credentials) throws SessionLimitException {
+    if (getBorrowedCount(credentials) >= _maxBorrowedPerUser) {
+      _waits++;
+      final long deadline = System.currentTimeMillis() + _borrowWaitMillis;
+      long remaining = _borrowWaitMillis;
+      while (getBorrowedCount(credentials) >= _maxBorrowedPerUser) {
+        if (remaining <= 0) {
+          _timeouts++;
+          throw new SessionLimitException(SVNErrorMessage.create(SVNErrorCode.UNKNOWN, "{0} already has {1} sessions to {2}, none was released within {3}ms", new Object[] {userName(credentials), _maxBorrowedPerUser, _url, _borrowWaitMillis}));
+        }
+        try {
+          wait(remaining);
+        }
+        catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new SessionLimitException(SVNErrorMessage.create(SVNErrorCode.CANCELLED, "Interrupted waiting for a session to {0}", _url));
+        }
+        remaining = deadline - System.currentTimeMillis();
+      }
+    }
+    _borrowed.put(credentials, getBorrowedCount(credentials) + 1);
+    _borrowedCount++;
+  }
+
+  private synchronized void unreserve(final UsernamePassword credentials) {
+    final int borrowed = getBorrowedCount(credentials) - 1;
+    if (borrowed > 0) {
+      _borrowed.put(credentials, borrowed);
+    }
+    else {
+      _borrowed.remove(credentials);
+    }
+    _borrowedCount--;
+    notifyAll();
+  }
+
+  private static String userName(final UsernamePassword credentials) {
+    return credentials.getUsername() == null ? "Anonymous" : credentials.getUsername();
+  }
+
+  private synchronized IdleSession poll(final UsernamePassword credentials) {
+    final LinkedList<IdleSession> sessions = _idle.get(credentials);
+    if (sessions == null) {
+      return null;
+    }
+    final IdleSession idle = sessions.removeFirst();
+    if (sessions.isEmpty()) {
+      _idle.remove(credentials);
+    }
+    _idleCount--;
+    return idle;
+  }
+
+  private SVNRepository create(final UsernamePassword credentials) throws SVNException {
+    final SVNRepository repository = SVNRepositoryFactory.create(_url);
+    // To get proxy support for testing/debug:
+    // repository.setAuthenticationManager(SVNWCUtil.createDefaultAuthenticationManager());
+    repository.setAuthenticationManager(new BasicAuthenticationManager(credentials.getUsername(), credentials.getPassword()));
+    synchronized (this) {
+      _created++;
+    }
+    return repository;
+  }
+
+  private boolean isHealthy(final SVNRepository repository) {
+    try {
+      repository.testConnection();
+      return true;
+    }
+    catch (SVNException ex) {
+      LOG.debug("Discarding idle session to " + _url, ex);
+      return false;
+    }
+  }
+
+  private void close(final SVNRepository repository) {
+    try {
+      repository.closeSession();
+    }
+    catch (RuntimeException ex) {
+      LOG.debug("Failed to close session to " + _url, ex);
+    }
+  }
+
+  public synchronized int getIdleCount() {
+    return _idleCount;
+  }
+
+  public synchronized int getBorrowedCount() {
+    return _borrowedCount;
+  }
+
+  /**
+   * @return Sessions currently borrowed with the given credentials.
+   */
+  public synchronized int getBorrowedCount(final UsernamePassword credentials) {
+    final Integer borrowed = _borrowed.get(credentials);
+    return borrowed == null ? 0 : borrowed;
+  }
+
+  public int getMaxBorrowedPerUser() {
+    return _maxBorrowedPerUser;
+  }
+
+  /**
+   * @return Borrows that had to wait because the user was at the limit.
+   */
+  public synchronized long getWaits() {
+    return _waits;
+  }
+
+  /**
+   * @return Borrows that gave up waiting.
+   */
+  public synchronized long getTimeouts() {
+    return _timeouts;
+  }
+
+  /**
+   * @return Sessions opened.
+   */
+  public synchronized long getCreated() {
+    return _created;
+  }
+
+  /**
+   * @return Borrows satisfied by an idle session.
+   */
+  public synchronized long getReused() {
+    return _reused;
+  }
+
+  /**
+   * @return Idle sessions closed for being idle too long.
+   */
+  public synchronized long getEvicted() {
+    return _evicted;
+  }
+
+  /**
+   * @return Idle sessions closed because they failed a check before reuse.
+   */
+  public synchronized long getFailedChecks() {
+    return _failedChecks;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%s: %d borrowed (at most %d per user), %d idle, %d created, %d reused, %d evicted, %d failed checks, %d waits, %d timeouts", _url, _borrowedCount, _maxBorrowedPerUser, _idleCount, _created, _reused, _evicted, _failedChecks, _waits, _timeouts);
+  }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.web.vcintegration;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.util.concurrent.Executor;
+
+import javax.servlet.http.HttpServletRequest;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.configuration.WikiConfiguration;
+import net.hillsdon.reviki.vc.ChangeNotificationDispatcher;
+import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
+
+import org.apache.commons.codec.binary.Base64;
+import org.easymock.IAnswer;
+
+public class TestBackgroundChangeSync extends TestCase {
+
+  private ChangeNotificationDispatcher _dispatcher;
+  private RequestLifecycleAwareManager _manager;
+  private WikiConfiguration _configuration;
+  private BackgroundChangeSync _sync;
+
+  @Override
+  protected void setUp() throws Exception {
+    _dispatcher = createMock(ChangeNotificationDispatcher.class);
+    _manager = createMock(RequestLifecycleAwareManager.class);
+    _configuration = createMock(WikiConfiguration.class);
+    expect(_configuration.getWikiName()).andReturn("wiki").anyTimes();
+    _sync = new BackgroundChangeSync(_dispatcher, _manager, _configuration);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _sync.stop();
+  }
+
+  public void testSyncsAsRequestWithConfiguredCredentials() throws Exception {
+    expect(_configuration.getSVNUser()).andReturn("mth");
+    expect(_configuration.getSVNPassword()).andReturn("secret");
+    final String[] authorization = new String[1];
+    _manager.requestStarted(isA(HttpServletRequest.class));
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        authorization[0] = ((HttpServletRequest) getCurrentArguments()[0]).getHeader("Authorization");
+        return null;
+      }
+    });
+    _dispatcher.sync();
+    _manager.requestComplete();
+    replay(_dispatcher, _manager, _configuration);
+    _sync.syncNow();
+    verify(_dispatcher, _manager, _configuration);
+    assertEquals("mth:secret", new String(Base64.decodeBase64(authorization[0].substring("Basic ".length()).getBytes("ASCII")), "UTF-8"));
+  }
+
+  public void testAnonymousWithoutCredentials() throws Exception {
+    assertNull(new BackgroundChangeSync.BackgroundRequest(null, null).getHeader("Authorization"));
+    assertNull(new BackgroundChangeSync.BackgroundRequest("", "").getHeader("Authorization"));
+  }
+
+  public void testDisabledByZeroInterval() throws Exception {
+    expect(_configuration.getSyncIntervalSeconds()).andReturn(0L);
+    expect(_dispatcher.getSyncedRevision()).andReturn(-1L);
+    replay(_dispatcher, _manager, _configuration);
+    _sync.start();
+    assertFalse(_sync.isRunning());
+    assertFalse(_sync.syncSoonAndWait(1, 10));
+    verify(_dispatcher, _manager, _configuration);
+  }
+
+  public void testStopsWhenNotAllowedToRead() throws Exception {
+    expect(_configuration.getSyncIntervalSeconds()).andReturn(3600L);
+    expect(_configuration.getSVNUser()).andReturn(null);
+    expect(_configuration.getSVNPassword()).andReturn(null);
+    _manager.requestStarted(isA(HttpServletRequest.class));
+    _dispatcher.sync();
+    expectLastCall().andThrow(new PageStoreAuthenticationException("Denied"));
+    _manager.requestComplete();
+    expect(_dispatcher.getSyncedRevision()).andReturn(-1L).anyTimes();
+    _dispatcher.dispatchUsing(isA(Executor.class));
+    _dispatcher.dispatchUsing(null);
+    replay(_dispatcher, _manager, _configuration);
+    _sync.start();
+    for (int i = 0; i < 500 && _sync.isRunning(); ++i) {
+      Thread.sleep(10);
+    }
+    assertFalse(_sync.isRunning());
+    verify(_dispatcher, _manager, _configuration);
+  }
+
+  public void testNoWaitIfAlreadySynced() throws Exception {
+    expect(_dispatcher.getSyncedRevision()).andReturn(5L);
+    replay(_dispatcher, _manager, _configuration);
+    assertTrue(_sync.syncSoonAndWait(5, 0));
+    verify(_dispatcher, _manager, _configuration);
+  }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.web.vcintegration;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.web.vcintegration.BasicAuthPassThroughBasicSVNOperationsFactory.UsernamePassword;
+
+import org.apache.commons.io.FileUtils;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+
+public class TestSVNRepositoryPool extends TestCase {
+
+  private static final UsernamePassword ALICE = new UsernamePassword("alice", "secret");
+  private static final UsernamePassword BOB = new UsernamePassword("bob", "secret");
+
+  private File _dir;
+  private SVNURL _url;
+
+  @Override
+  protected void setUp() throws Exception {
+    FSRepositoryFactory.setup();
+    _dir = File.createTempFile("testRepository", "");
+    assertTrue(_dir.delete());
+    _url = SVNRepositoryFactory.createLocalRepository(_dir, true, false);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (_dir.exists()) {
+      FileUtils.forceDelete(_dir);
+    }
+  }
+
+  public void testReusesReleasedSessionForSameCredentials() throws Exception {
+    final SVNRepositoryPool pool = new SVNRepositoryPool(_url);
+    final SVNRepository alice = pool.borrow(ALICE);
+    assertEquals(1, pool.getBorrowedCount());
+    pool.release(ALICE, alice);
+    assertEquals(0, pool.getBorrowedCount());
+    assertEquals(1, pool.getIdleCount());
+
+    final SVNRepository bob = pool.borrow(BOB);
+    assertNotSame(alice, bob);
+    assertSame(alice, pool.borrow(ALICE));
+    assertEquals(2, pool.getCreated());
+    assertEquals(1, pool.getReused());
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  public void testKeepsAtMostMaxIdlePerUser() throws Exception {
+    final SVNRepositoryPool pool = new SVNRepositoryPool(_url, 1, 10, Long.MAX_VALUE, Long.MAX_VALUE);
+    final SVNRepository first = pool.borrow(ALICE);
+    final SVNRepository second = pool.borrow(ALICE);
+    pool.release(ALICE, first);
+    pool.release(ALICE, second);
+    assertEquals(1, pool.getIdleCount());
+    pool.release(BOB, pool.borrow(BOB));
+    assertEquals(2, pool.getIdleCount());
+  }
+
+  public void testKeepsAtMostMaxIdle() throws Exception {
+    final SVNRepositoryPool pool = new SVNRepositoryPool(_url, 10, 1, Long.MAX_VALUE, Long.MAX_VALUE);
+    final SVNRepository alice = pool.borrow(ALICE);
+    final SVNRepository bob = pool.borrow(BOB);
+    pool.release(ALICE, alice);
+    pool.release(BOB, bob);
+    assertEquals(1, pool.getIdleCount());
+    assertSame(alice, pool.borrow(ALICE));
+  }
+
+  public void testEvictsExpiredSessions() throws Exception {
+    final SVNRepositoryPool pool = new SVNRepositoryPool(_url, 10, 10, -1, Long.MAX_VALUE);
+    final SVNRepository alice = pool.borrow(ALICE);
+    pool.release(ALICE, alice);
+    assertNotSame(alice, pool.borrow(ALICE));
+    assertEquals(1, pool.getEvicted());
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  public void testChecksIdleSessionsBeforeReuse() throws Exception {
+    final SVNRepositoryPool pool = new SVNRepositoryPool(_url, 10, 10, Long.MAX_VALUE, -1);
+    final SVNRepository alice = pool.borrow(ALICE);
+    pool.release(ALICE, alice);
+    assertSame(alice, pool.borrow(ALICE));
+    pool.release(ALICE, alice);
+
+    FileUtils.forceDelete(_dir);
+    assertNotSame(alice, pool.borrow(ALICE));
+    assertEquals(1, pool.getFailedChecks());
+    assertEquals(1, pool.getBorrowedCount());
+  }
+
+  public void testGivesUpWhenUserHasMaxBorrowed() throws Exception {
+    final SVNRepositoryPool pool = new SVNRepositoryPool(_url, 10, 10, Long.MAX_VALUE, Long.MAX_VALUE, 2, 0);
+    pool.borrow(ALICE);
+    final SVNRepository second = pool.borrow(ALICE);
+    try {
+      pool.borrow(ALICE);
+      fail("Borrowed more than the limit");
+    }
+    catch (SVNRepositoryPool.SessionLimitException expected) {
+    }
+    assertEquals(2, pool.getBorrowedCount(ALICE));
+    assertEquals(1, pool.getWaits());
+    assertEquals(1, pool.getTimeouts());
+
+    // Others are unaffected.
+    pool.borrow(BOB);
+    assertEquals(3, pool.getBorrowedCount());
+
+    pool.release(ALICE, second);
+    assertSame(second, pool.borrow(ALICE));
+  }
+
+  public void testWaitsForAReleaseWhenUserHasMaxBorrowed() throws Exception {
+    final SVNRepositoryPool pool = new SVNRepositoryPool(_url, 10, 10, Long.MAX_VALUE, Long.MAX_VALUE, 1, 60 * 1000);
+    final SVNRepository first = pool.borrow(ALICE);
+    final Thread releaser = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (pool.getWaits() == 0) {
+            Thread.sleep(1);
+          }
+        }
+        catch (InterruptedException ex) {
+          return;
+        }
+        pool.release(ALICE, first);
+      }
+    };
+    releaser.start();
+    assertSame(first, pool.borrow(ALICE));
+    releaser.join();
+    assertEquals(0, pool.getTimeouts());
+    assertEquals(1, pool.getBorrowedCount(ALICE));
+  }
+
+}
@@ -22,14 +22,14 @@ import java.util.Collection;
 import java.util.List;
 
 import net.hillsdon.reviki.vc.PageInfo;
-import net.hillsdon.reviki.wiki.renderer.macro.Macro;
 import net.hillsdon.reviki.wiki.renderer.macro.ResultFormat;
+import net.hillsdon.reviki.wiki.renderer.macro.UncacheableMacro;
 
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Iterables;
 
-public abstract class AbstractListOfPagesMacro implements Macro {
+public abstract class AbstractListOfPagesMacro implements UncacheableMacro {
 
   public final String handle(final PageInfo page, /* mutable */ String remainder) throws Exception {
     if(remainder != null && page!=null) {
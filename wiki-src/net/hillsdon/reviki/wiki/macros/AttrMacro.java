@@ -9,10 +9,10 @@ import net.hillsdon.reviki.vc.VersionedPageInfo;
 import net.hillsdon.reviki.vc.PageReference;
 import net.hillsdon.reviki.vc.PageStore;
 import net.hillsdon.reviki.vc.impl.PageReferenceImpl;
-import net.hillsdon.reviki.wiki.renderer.macro.Macro;
 import net.hillsdon.reviki.wiki.renderer.macro.ResultFormat;
+import net.hillsdon.reviki.wiki.renderer.macro.UncacheableMacro;
 
-public class AttrMacro implements Macro {
+public class AttrMacro implements UncacheableMacro {
 
   public static final String REVIKI_ATTRIBUTE_PREFIX = "reviki:";
   private PageStore _store;
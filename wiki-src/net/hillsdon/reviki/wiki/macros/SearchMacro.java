@@ -38,7 +38,8 @@ public class SearchMacro extends AbstractListOfPagesMacro {
   @Override
   protected Collection<String> getPages(final String remainder) throws Exception {
     String query = escapeQueryForSearch(remainder);
-    return ImmutableList.copyOf(Iterables.transform(_searchEngine.search(query, false, true), SearchMatch.TO_PAGE_NAME));
+    // We list every match, so run the query once for all of them.
+    return ImmutableList.copyOf(Iterables.transform(_searchEngine.search(query, false, true, 0, Integer.MAX_VALUE), SearchMatch.TO_PAGE_NAME));
   }
 
   // convert attributes from @(")?attrKey(")?:(")?attrValue(")? into
@@ -112,6 +112,14 @@ public class FakeConfiguration extends PageStoreConfiguration {
           public File getSearchIndexDirectory() {
             return null;
           }
+
+          public File getCacheDirectory() {
+            return null;
+          }
+
+          public long getSyncIntervalSeconds() {
+            return 0;
+          }
           
           @Override
           public String getSVNUser() {
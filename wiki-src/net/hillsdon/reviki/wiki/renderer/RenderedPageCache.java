@@ -0,0 +1,487 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.wiki.renderer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeSubscriber;
+import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.PageInfo;
+import net.hillsdon.reviki.vc.PageReference;
+import net.hillsdon.reviki.vc.PageStore;
+import net.hillsdon.reviki.vc.PageStoreException;
+import net.hillsdon.reviki.vc.SimpleAttachmentHistory;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+import net.hillsdon.reviki.vc.impl.SimpleDelegatingPageStore;
+import net.hillsdon.reviki.wiki.renderer.macro.Macro;
+import net.hillsdon.reviki.wiki.renderer.macro.ResultFormat;
+import net.hillsdon.reviki.wiki.renderer.macro.UncacheableMacro;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Rendered HTML for committed pages, shared between requests and bounded by
+ * size, least recently used first out.
+ *
+ * The content of a page at a revision never changes but its HTML also depends
+ * on which pages it links to exist (links to missing pages are styled
+ * differently) and which attachments its page has.  While a page is rendered
+ * we record those lookups, made through the store given by
+ * {@link #recordingStore(PageStore)}, and when a page or attachment is added
+ * or deleted only the pages that looked it up are dropped.  A change to a
+ * config page drops everything.
+ *
+ * Macros run through {@link #recordingMacros(Supplier)} are recorded too.  A
+ * page that runs an {@link UncacheableMacro} is rendered afresh on each view.
+ *
+ * We don't check who may read the HTML.  Callers must only ask for a page
+ * they've just read through the request's store, which does.
+ */
+public class RenderedPageCache implements ChangeSubscriber {
+
+  public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+  /**
+   * A rough allowance for everything but the HTML.
+   */
+  private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+  /**
+   * A rough allowance for each link target or macro an entry records.
+   */
+  private static final int DEPENDENCY_BYTES = 64;
+
+  /**
+   * How many added or deleted pages we remember before forgetting them all.
+   */
+  static final int MAX_TRACKED_CHANGES = 10000;
+
+  private static final String CONFIG_PREFIX = "Config";
+
+  private static final class Key {
+    private final String _wiki;
+    private final String _path;
+    private final long _revision;
+    private final String _syntax;
+    private final String _pagesRoot;
+
+    public Key(final String wiki, final String path, final long revision, final String syntax, final String pagesRoot) {
+      _wiki = wiki;
+      _path = path;
+      _revision = revision;
+      _syntax = syntax;
+      _pagesRoot = pagesRoot;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (obj instanceof Key) {
+        final Key other = (Key) obj;
+        return equal(_wiki, other._wiki) && _path.equals(other._path) && _revision == other._revision && equal(_syntax, other._syntax) && equal(_pagesRoot, other._pagesRoot);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = _wiki == null ? 0 : _wiki.hashCode();
+      hash = hash * 31 + _path.hashCode();
+      hash = hash * 31 + (int) (_revision ^ (_revision >>> 32));
+      hash = hash * 31 + (_syntax == null ? 0 : _syntax.hashCode());
+      return hash * 31 + (_pagesRoot == null ? 0 : _pagesRoot.hashCode());
+    }
+
+    private static boolean equal(final String a, final String b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+
+  /**
+   * The existence of a page, or the attachments of a page.
+   */
+  private static final class Dependency {
+    private final StoreKind _kind;
+    private final String _page;
+
+    public Dependency(final StoreKind kind, final String page) {
+      _kind = kind;
+      _page = page;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (obj instanceof Dependency) {
+        final Dependency other = (Dependency) obj;
+        return _kind == other._kind && _page.equals(other._page);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return _kind.hashCode() * 31 + _page.hashCode();
+    }
+  }
+
+  /**
+   * What a render in progress has looked up.
+   */
+  private static final class Recording {
+    private final Set<Dependency> _dependencies = new HashSet<Dependency>();
+    private final Set<String> _macros = new HashSet<String>();
+    private boolean _uncacheable = false;
+  }
+
+  private static final class Entry {
+    private final String _html;
+    private final Set<Dependency> _dependencies;
+    private final Set<String> _macros;
+
+    public Entry(final String html, final Set<Dependency> dependencies, final Set<String> macros) {
+      _html = html;
+      _dependencies = dependencies;
+      _macros = macros;
+    }
+
+    public long size() {
+      return ENTRY_OVERHEAD_BYTES + 2L * _html.length() + DEPENDENCY_BYTES * (_dependencies.size() + _macros.size());
+    }
+  }
+
+  private final long _maxBytes;
+  private final LinkedHashMap<Key, Entry> _entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+  private final Map<Dependency, Set<Key>> _dependents = new HashMap<Dependency, Set<Key>>();
+  // The revision each dependency last changed in, for renders that finish after we've seen the change.
+  private final Map<Dependency, Long> _changedIn = new HashMap<Dependency, Long>();
+  private final ThreadLocal<Recording> _recording = new ThreadLocal<Recording>();
+  private long _bytes = 0;
+  private long _lowestUnsyncedRevision = Long.MAX_VALUE; // Until something is cached nothing is unsynced
+  // We've seen every change from here, so _changedIn is complete for later revisions.
+  private long _trackedFrom = Long.MAX_VALUE;
+  private long _configChangedIn = -1;
+
+  private long _hits = 0;
+  private long _misses = 0;
+  private long _bypasses = 0;
+  private long _evictions = 0;
+  private long _invalidations = 0;
+
+  public RenderedPageCache() {
+    this(DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param maxBytes Approximate bound on the memory used by cached HTML.
+   */
+  public RenderedPageCache(final long maxBytes) {
+    _maxBytes = maxBytes;
+  }
+
+  /**
+   * The HTML for a page, rendered if we don't have it.  Pages that aren't
+   * committed aren't cached.
+   *
+   * The rendering must not depend on the request, e.g. by writing session IDs
+   * into URLs, as what it returns is shared.  Links are absolute so the HTML
+   * is only shared between requests that agree on the root URL for pages,
+   * which without a fixed base URL comes from the request's host and scheme.
+   *
+   * @param page The page.
+   * @param syntax The syntax the page will be rendered as.
+   * @param pagesRoot The URL the rendered links to pages start with.
+   * @param rendering Renders the page.
+   * @return The HTML.
+   * @throws Exception If rendering fails.
+   */
+  public String render(final VersionedPageInfo page, final String syntax, final String pagesRoot, final Callable<String> rendering) throws Exception {
+    if (page.isNewPage() || page.getLastChangedRevision() < 0) {
+      synchronized (this) {
+        _bypasses++;
+      }
+      return rendering.call();
+    }
+    final Key key = new Key(page.getWiki(), page.getPath(), page.getLastChangedRevision(), syntax, pagesRoot);
+    // Lookups made while rendering see at least the changes given to us so far.
+    long renderedAfter = page.getRevision();
+    synchronized (this) {
+      final Entry entry = _entries.get(key);
+      if (entry != null) {
+        _hits++;
+        return entry._html;
+      }
+      _misses++;
+      if (_lowestUnsyncedRevision != Long.MAX_VALUE) {
+        renderedAfter = Math.max(renderedAfter, _lowestUnsyncedRevision - 1);
+      }
+    }
+
+    final Recording outer = _recording.get();
+    final Recording recording = new Recording();
+    _recording.set(recording);
+    final String html;
+    try {
+      html = rendering.call();
+    }
+    finally {
+      if (outer == null) {
+        _recording.remove();
+      }
+      else {
+        _recording.set(outer);
+      }
+    }
+    if (recording._uncacheable) {
+      synchronized (this) {
+        _bypasses++;
+      }
+    }
+    else {
+      put(key, renderedAfter, new Entry(html, recording._dependencies, recording._macros));
+    }
+    return html;
+  }
+
+  private synchronized void put(final Key key, final long renderedAfter, final Entry entry) {
+    if (_lowestUnsyncedRevision == Long.MAX_VALUE) {
+      // We need to hear about later changes to know when this goes stale.
+      _lowestUnsyncedRevision = renderedAfter + 1;
+      _trackedFrom = _lowestUnsyncedRevision;
+    }
+    else if (changedSince(renderedAfter, entry._dependencies)) {
+      // Too late, we've already been told about a change that makes it stale.
+      return;
+    }
+    final Entry previous = _entries.put(key, entry);
+    if (previous != null) {
+      forget(key, previous);
+    }
+    for (Dependency dependency : entry._dependencies) {
+      Set<Key> dependents = _dependents.get(dependency);
+      if (dependents == null) {
+        dependents = new HashSet<Key>();
+        _dependents.put(dependency, dependents);
+      }
+      dependents.add(key);
+    }
+    _bytes += entry.size();
+    evict();
+  }
+
+  private boolean changedSince(final long revision, final Set<Dependency> dependencies) {
+    if (revision + 1 < _trackedFrom || _configChangedIn > revision) {
+      return true;
+    }
+    for (Dependency dependency : dependencies) {
+      final Long changedIn = _changedIn.get(dependency);
+      if (changedIn != null && changedIn > revision) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void remove(final Key key) {
+    final Entry removed = _entries.remove(key);
+    if (removed != null) {
+      forget(key, removed);
+    }
+  }
+
+  private void forget(final Key key, final Entry entry) {
+    _bytes -= entry.size();
+    for (Dependency dependency : entry._dependencies) {
+      final Set<Key> dependents = _dependents.get(dependency);
+      if (dependents != null) {
+        dependents.remove(key);
+        if (dependents.isEmpty()) {
+          _dependents.remove(dependency);
+        }
+      }
+    }
+  }
+
+  private void evict() {
+    for (Iterator<Map.Entry<Key, Entry>> iter = _entries.entrySet().iterator(); _bytes > _maxBytes && iter.hasNext();) {
+      final Map.Entry<Key, Entry> eldest = iter.next();
+      iter.remove();
+      forget(eldest.getKey(), eldest.getValue());
+      _evictions++;
+    }
+  }
+
+  public synchronized long getHighestSyncedRevision() throws IOException {
+    return _lowestUnsyncedRevision - 1;
+  }
+
+  public synchronized void handleChanges(final long upto, final List<ChangeInfo> chronological) throws PageStoreException, IOException {
+    for (ChangeInfo change : chronological) {
+      // Config pages and their attachments (e.g. plugins) can change how any page renders.
+      if (change.getPage() != null && change.getPage().startsWith(CONFIG_PREFIX)) {
+        _configChangedIn = change.getRevision();
+        _invalidations += _entries.size();
+        _entries.clear();
+        _dependents.clear();
+        _bytes = 0;
+      }
+      else if (change.getChangeType() == ChangeType.ADDED || change.getChangeType() == ChangeType.DELETED) {
+        if (change.getKind() == StoreKind.PAGE || change.getKind() == StoreKind.ATTACHMENT) {
+          final Dependency dependency = new Dependency(change.getKind(), change.getPage());
+          _changedIn.put(dependency, change.getRevision());
+          final Set<Key> dependents = _dependents.get(dependency);
+          if (dependents != null) {
+            for (Key key : new ArrayList<Key>(dependents)) {
+              remove(key);
+              _invalidations++;
+            }
+          }
+        }
+      }
+    }
+    if (_changedIn.size() > MAX_TRACKED_CHANGES) {
+      _changedIn.clear();
+      _trackedFrom = upto + 1;
+    }
+    _lowestUnsyncedRevision = upto + 1;
+  }
+
+  /**
+   * @param store The store the renderer looks up pages and attachments in.
+   * @return A store that records those lookups against the page being rendered.
+   */
+  public PageStore recordingStore(final PageStore store) {
+    return new SimpleDelegatingPageStore(store) {
+      @Override
+      public boolean exists(final PageReference page) throws PageStoreException {
+        record(new Dependency(StoreKind.PAGE, page.getPath()));
+        return super.exists(page);
+      }
+
+      @Override
+      public Collection<? extends SimpleAttachmentHistory> listAttachments(final PageReference ref) throws PageStoreException {
+        record(new Dependency(StoreKind.ATTACHMENT, ref.getPath()));
+        return super.listAttachments(ref);
+      }
+    };
+  }
+
+  /**
+   * @param macros The macros available to the renderer.
+   * @return The same macros, recording their use against the page being rendered.
+   */
+  public Supplier<List<Macro>> recordingMacros(final Supplier<List<Macro>> macros) {
+    return new Supplier<List<Macro>>() {
+      public List<Macro> get() {
+        final List<Macro> recording = new ArrayList<Macro>();
+        for (Macro macro : macros.get()) {
+          recording.add(new RecordingMacro(macro));
+        }
+        return recording;
+      }
+    };
+  }
+
+  private final class RecordingMacro implements Macro {
+    private final Macro _delegate;
+
+    public RecordingMacro(final Macro delegate) {
+      _delegate = delegate;
+    }
+
+    public String getName() {
+      return _delegate.getName();
+    }
+
+    public ResultFormat getResultFormat() {
+      return _delegate.getResultFormat();
+    }
+
+    public String handle(final PageInfo page, final String remainder) throws Exception {
+      final Recording recording = _recording.get();
+      if (recording != null) {
+        recording._macros.add(_delegate.getName());
+        recording._uncacheable |= _delegate instanceof UncacheableMacro;
+      }
+      return _delegate.handle(page, remainder);
+    }
+  }
+
+  private void record(final Dependency dependency) {
+    final Recording recording = _recording.get();
+    if (recording != null) {
+      recording._dependencies.add(dependency);
+    }
+  }
+
+  /**
+   * @return The names of the macros run when rendering the cached page, or null if we don't have it.
+   */
+  synchronized Set<String> getMacros(final VersionedPageInfo page, final String syntax, final String pagesRoot) {
+    final Entry entry = _entries.get(new Key(page.getWiki(), page.getPath(), page.getLastChangedRevision(), syntax, pagesRoot));
+    return entry == null ? null : Collections.unmodifiableSet(entry._macros);
+  }
+
+  public synchronized long getHits() {
+    return _hits;
+  }
+
+  public synchronized long getMisses() {
+    return _misses;
+  }
+
+  /**
+   * @return Renders of pages we don't cache, e.g. because they run an {@link UncacheableMacro}.
+   */
+  public synchronized long getBypasses() {
+    return _bypasses;
+  }
+
+  public synchronized long getEvictions() {
+    return _evictions;
+  }
+
+  /**
+   * @return Pages dropped because a page or attachment they looked up was added or deleted.
+   */
+  public synchronized long getInvalidations() {
+    return _invalidations;
+  }
+
+  /**
+   * @return Approximate memory used by cached HTML.
+   */
+  public synchronized long getBytes() {
+    return _bytes;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%d pages (~%d bytes), %d hits, %d misses, %d bypasses, %d evictions, %d invalidations", _entries.size(), _bytes, _hits, _misses, _bypasses, _evictions, _invalidations);
+  }
+
+}
@@ -66,4 +66,10 @@ public class SvnWikiRenderer extends MarkupRenderer<String> {
     MarkupRenderer<String> renderer = _registry.getDefaultRenderer();
     return renderer.render(page, ast, urlOutputFilter);
   }
+
+  @Override
+  public void renderTo(final PageInfo page, final ASTNode ast, final URLOutputFilter urlOutputFilter, final Appendable out) throws IOException, PageStoreException {
+    MarkupRenderer<String> renderer = _registry.getDefaultRenderer();
+    renderer.renderTo(page, ast, urlOutputFilter, out);
+  }
 }
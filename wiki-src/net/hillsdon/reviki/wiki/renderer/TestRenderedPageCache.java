@@ -0,0 +1,221 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.wiki.renderer;
+
+import static java.util.Arrays.asList;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.PageInfo;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.vc.impl.SimplePageStore;
+import net.hillsdon.reviki.vc.impl.VersionedPageInfoImpl;
+import net.hillsdon.reviki.web.urls.InternalLinker;
+import net.hillsdon.reviki.web.urls.URLOutputFilter;
+import net.hillsdon.reviki.web.urls.impl.ExampleDotComWikiUrls;
+import net.hillsdon.reviki.wiki.renderer.macro.Macro;
+import net.hillsdon.reviki.wiki.renderer.macro.ResultFormat;
+import net.hillsdon.reviki.wiki.renderer.macro.UncacheableMacro;
+
+import com.google.common.base.Suppliers;
+
+public class TestRenderedPageCache extends TestCase {
+
+  private static class Hello implements Macro {
+    public String getName() {
+      return "hello";
+    }
+
+    public ResultFormat getResultFormat() {
+      return ResultFormat.XHTML;
+    }
+
+    public String handle(final PageInfo page, final String remainder) {
+      return "Hello " + remainder;
+    }
+  }
+
+  private static class Now extends Hello implements UncacheableMacro {
+    @Override
+    public String getName() {
+      return "now";
+    }
+  }
+
+  private static final String PAGES_ROOT = "http://www.example.com/reviki/pages/test-wiki/";
+
+  private SimplePageStore _store;
+  private RenderedPageCache _cache;
+  private SvnWikiRenderer _renderer;
+
+  @Override
+  protected void setUp() throws Exception {
+    _store = new SimplePageStore("wiki");
+    useCache(new RenderedPageCache());
+  }
+
+  private void useCache(final RenderedPageCache cache) {
+    _cache = cache;
+    _renderer = new SvnWikiRenderer(new FakeConfiguration(), _cache.recordingStore(_store), new InternalLinker(new ExampleDotComWikiUrls()), _cache.recordingMacros(Suppliers.<List<Macro>>ofInstance(Arrays.<Macro>asList(new Hello(), new Now()))), null);
+  }
+
+  private static VersionedPageInfo page(final String path, final String content, final long revision) {
+    return new VersionedPageInfoImpl("wiki", path, content, revision, revision, "mth", new Date(), null, null, null, Collections.<String, String>emptyMap());
+  }
+
+  private static ChangeInfo change(final String path, final long revision, final StoreKind kind, final ChangeType type) {
+    return new ChangeInfo(path, path, "mth", new Date(), revision, "", kind, type, null, -1);
+  }
+
+  private String render(final VersionedPageInfo page) throws Exception {
+    return _cache.render(page, "reviki", PAGES_ROOT, new Callable<String>() {
+      public String call() throws Exception {
+        return _renderer.render(page, _renderer.parse(page), URLOutputFilter.NULL);
+      }
+    });
+  }
+
+  private void create(final String path) throws Exception {
+    _store.set(new PageInfoImpl("wiki", path, "Content", Collections.<String, String>emptyMap()), null, 0, "");
+  }
+
+  public void testCachedUntilALinkedPageIsCreated() throws Exception {
+    final VersionedPageInfo home = page("Home", "See [[Other]].", 3);
+    assertTrue(render(home).contains("new-page"));
+    assertTrue(render(home).contains("new-page"));
+    assertEquals(1, _cache.getHits());
+    assertEquals(1, _cache.getMisses());
+    // So we hear about changes after we rendered it.
+    assertEquals(3, _cache.getHighestSyncedRevision());
+
+    // Neither changes whether the link goes anywhere.
+    _cache.handleChanges(5, asList(change("Unrelated", 4, StoreKind.PAGE, ChangeType.ADDED), change("Other", 5, StoreKind.PAGE, ChangeType.MODIFIED)));
+    render(home);
+    assertEquals(2, _cache.getHits());
+
+    create("Other");
+    _cache.handleChanges(6, asList(change("Other", 6, StoreKind.PAGE, ChangeType.ADDED)));
+    assertEquals(1, _cache.getInvalidations());
+    assertTrue(render(home).contains("existing-page"));
+    assertEquals(2, _cache.getMisses());
+  }
+
+  public void testOtherPagesStayCachedWhenALinkedPageIsDeleted() throws Exception {
+    create("Other");
+    final VersionedPageInfo linking = page("Linking", "See [[Other]].", 3);
+    final VersionedPageInfo plain = page("Plain", "No links here.", 3);
+    render(linking);
+    render(plain);
+    _cache.handleChanges(4, asList(change("Other", 4, StoreKind.PAGE, ChangeType.DELETED)));
+    render(linking);
+    render(plain);
+    assertEquals(1, _cache.getHits());
+    assertEquals(3, _cache.getMisses());
+  }
+
+  public void testRendersThatMissedAChangeAreNotCached() throws Exception {
+    render(page("First", "First page.", 3));
+    final VersionedPageInfo home = page("Home", "See [[Other]].", 3);
+    _cache.render(home, "reviki", PAGES_ROOT, new Callable<String>() {
+      public String call() throws Exception {
+        final String html = _renderer.render(home, _renderer.parse(home), URLOutputFilter.NULL);
+        // Created after we looked but we hear about it before we're done.
+        create("Other");
+        _cache.handleChanges(4, asList(change("Other", 4, StoreKind.PAGE, ChangeType.ADDED)));
+        return html;
+      }
+    });
+    assertTrue(render(home).contains("existing-page"));
+    assertEquals(0, _cache.getHits());
+  }
+
+  public void testConfigChangesDropEverything() throws Exception {
+    final VersionedPageInfo home = page("Home", "No links here.", 3);
+    render(home);
+    _cache.handleChanges(4, asList(change("ConfigInterWikiLinks", 4, StoreKind.PAGE, ChangeType.MODIFIED)));
+    render(home);
+    assertEquals(0, _cache.getHits());
+    assertEquals(1, _cache.getInvalidations());
+  }
+
+  public void testRecordsMacrosAndBypassesUncacheableOnes() throws Exception {
+    final VersionedPageInfo hello = page("Hello", "<<hello:world>>", 3);
+    assertTrue(render(hello).contains("Hello world"));
+    assertEquals(asList("hello"), asList(_cache.getMacros(hello, "reviki", PAGES_ROOT).toArray()));
+
+    final VersionedPageInfo now = page("Now", "<<now:world>>", 3);
+    render(now);
+    render(now);
+    assertNull(_cache.getMacros(now, "reviki", PAGES_ROOT));
+    assertEquals(2, _cache.getBypasses());
+    assertEquals(0, _cache.getHits());
+  }
+
+  public void testUncommittedPagesAreNotCached() throws Exception {
+    final VersionedPageInfo page = page("New", "Content", VersionedPageInfo.UNCOMMITTED);
+    render(page);
+    render(page);
+    assertEquals(2, _cache.getBypasses());
+    assertEquals(Long.MAX_VALUE - 1, _cache.getHighestSyncedRevision());
+  }
+
+  public void testKeyedBySyntaxAndRevision() throws Exception {
+    render(page("Home", "Content", 3));
+    assertEquals("Other", _cache.render(page("Home", "Content", 3), "xhtml", PAGES_ROOT, new Callable<String>() {
+      public String call() {
+        return "Other";
+      }
+    }));
+    render(page("Home", "Content", 4));
+    assertEquals(0, _cache.getHits());
+  }
+
+  public void testKeyedByPagesRoot() throws Exception {
+    render(page("Home", "Content", 3));
+    assertEquals("Other", _cache.render(page("Home", "Content", 3), "reviki", "https://other.example.com/reviki/pages/test-wiki/", new Callable<String>() {
+      public String call() {
+        return "Other";
+      }
+    }));
+    assertEquals(0, _cache.getHits());
+  }
+
+  public void testEvictsLeastRecentlyUsedWhenFull() throws Exception {
+    render(page("A", "a", 1));
+    // Room for two similar pages.
+    final long maxBytes = _cache.getBytes() * 5 / 2;
+    useCache(new RenderedPageCache(maxBytes));
+    render(page("A", "a", 1));
+    render(page("B", "b", 1));
+    render(page("A", "a", 1));
+    render(page("C", "c", 1));
+    assertEquals(1, _cache.getEvictions());
+    render(page("A", "a", 1));
+    render(page("B", "b", 1));
+    assertEquals(2, _cache.getHits());
+    assertTrue(_cache.getBytes() <= maxBytes);
+  }
+
+}